@@ -23,13 +23,13 @@
 package net.fhirfactory.pegacorn.petasos.audit.model;
 
 import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import net.fhirfactory.pegacorn.petasos.core.common.clock.PetasosClock;
 import net.fhirfactory.pegacorn.common.model.FDNToken;
 import net.fhirfactory.pegacorn.petasos.model.resilience.activitymatrix.moa.EpisodeIdentifier;
 import net.fhirfactory.pegacorn.petasos.model.resilience.parcel.ResilienceParcel;
 import net.fhirfactory.pegacorn.petasos.model.resilience.parcel.ResilienceParcelIdentifier;
 import net.fhirfactory.pegacorn.petasos.model.uow.UoW;
 
-import java.time.Instant;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.Set;
@@ -39,7 +39,9 @@ import net.fhirfactory.pegacorn.petasos.model.resilience.parcel.ResilienceParcel
 import net.fhirfactory.pegacorn.petasos.model.wup.WUPIdentifier;
 
 public class PetasosParcelAuditTrailEntry {
-    private Date auditTrailEntryDate;
+    private static final long NO_TIMESTAMP = Long.MIN_VALUE;
+    // held as epoch millis, the Date is only built when (if) it is asked for
+    private long auditTrailEntryDate;
     private UoW actualUoW;
     private ResilienceParcelIdentifier identifier;
     private ResilienceParcelFinalisationStatusEnum parcelFinalsationStatus;
@@ -61,7 +63,7 @@ public class PetasosParcelAuditTrailEntry {
     //
 
     public PetasosParcelAuditTrailEntry(){
-        this.auditTrailEntryDate = null;
+        this.auditTrailEntryDate = NO_TIMESTAMP;
         this.actualUoW = null;
         this.identifier = null;
         this.parcelFinalsationStatus = null;
@@ -80,7 +82,7 @@ public class PetasosParcelAuditTrailEntry {
     
     public PetasosParcelAuditTrailEntry(ResilienceParcel theParcel ){
         // First, we clean the slate
-        this.auditTrailEntryDate = null;
+        this.auditTrailEntryDate = NO_TIMESTAMP;
         this.actualUoW = null;
         this.identifier = null;
         this.parcelFinalsationStatus = null;
@@ -99,7 +101,7 @@ public class PetasosParcelAuditTrailEntry {
         if( theParcel == null ){
             return;
         }
-        this.auditTrailEntryDate = Date.from(Instant.now());
+        this.auditTrailEntryDate = PetasosClock.wallClockMillis();
         if( theParcel.hasActualUoW()) {
             this.actualUoW = theParcel.getActualUoW();
         }
@@ -199,7 +201,7 @@ public class PetasosParcelAuditTrailEntry {
     // Helpers for the this.auditTrailEntryDate attribute
 
     public boolean hasAuditTrailEntryDate(){
-        if(this.auditTrailEntryDate == null){
+        if(this.auditTrailEntryDate == NO_TIMESTAMP){
             return(false);
         }
         return(true);
@@ -207,11 +209,22 @@ public class PetasosParcelAuditTrailEntry {
 
     @JsonSerialize(using=JsonDateSerializer.class)
     public Date getAuditTrailEntryDate() {
-        return auditTrailEntryDate;
+        if(this.auditTrailEntryDate == NO_TIMESTAMP){
+            return(null);
+        }
+        return(PetasosClock.toDate(this.auditTrailEntryDate));
     }
 
     public void setAuditTrailEntryDate(Date auditTrailEntryDate) {
-        this.auditTrailEntryDate = auditTrailEntryDate;
+        if(auditTrailEntryDate == null){
+            this.auditTrailEntryDate = NO_TIMESTAMP;
+        } else {
+            this.auditTrailEntryDate = auditTrailEntryDate.getTime();
+        }
+    }
+
+    public void setAuditTrailEntryMillis(long auditTrailEntryMillis) {
+        this.auditTrailEntryDate = auditTrailEntryMillis;
     }
 
     // Helpers for the this.work attribute
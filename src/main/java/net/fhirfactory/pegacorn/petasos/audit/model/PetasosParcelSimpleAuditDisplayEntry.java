@@ -23,6 +23,7 @@
 package net.fhirfactory.pegacorn.petasos.audit.model;
 
 import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import net.fhirfactory.pegacorn.petasos.core.common.clock.PetasosClock;
 import net.fhirfactory.pegacorn.common.model.FDNToken;
 import net.fhirfactory.pegacorn.petasos.model.resilience.activitymatrix.moa.EpisodeIdentifier;
 import net.fhirfactory.pegacorn.petasos.model.resilience.parcel.ResilienceParcel;
@@ -32,14 +33,14 @@ import net.fhirfactory.pegacorn.petasos.model.resilience.parcel.ResilienceParcel
 import net.fhirfactory.pegacorn.petasos.model.uow.UoW;
 import net.fhirfactory.pegacorn.petasos.model.wup.WUPIdentifier;
 
-import java.time.Instant;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.Set;
 
 public class PetasosParcelSimpleAuditDisplayEntry {
-    @JsonSerialize(using = JsonDateSerializer.class)
-    private Date auditTrailEntryDate;
+    private static final long NO_TIMESTAMP = Long.MIN_VALUE;
+    // held as epoch millis, the Date is only built when (if) it is asked for
+    private long auditTrailEntryDate;
     private UoW actualUoW;
     private String identifier;
     private ResilienceParcelFinalisationStatusEnum parcelFinalsationStatus;
@@ -66,7 +67,7 @@ public class PetasosParcelSimpleAuditDisplayEntry {
     //
 
     public PetasosParcelSimpleAuditDisplayEntry(){
-        this.auditTrailEntryDate = null;
+        this.auditTrailEntryDate = NO_TIMESTAMP;
         this.actualUoW = null;
         this.identifier = null;
         this.parcelFinalsationStatus = null;
@@ -85,7 +86,7 @@ public class PetasosParcelSimpleAuditDisplayEntry {
 
     public PetasosParcelSimpleAuditDisplayEntry(PetasosParcelAuditTrailEntry theParcel ){
         // First, we clean the slate
-        this.auditTrailEntryDate = null;
+        this.auditTrailEntryDate = NO_TIMESTAMP;
         this.actualUoW = null;
         this.identifier = null;
         this.parcelFinalsationStatus = null;
@@ -104,7 +105,7 @@ public class PetasosParcelSimpleAuditDisplayEntry {
         if( theParcel == null ){
             return;
         }
-        this.auditTrailEntryDate = Date.from(Instant.now());
+        this.auditTrailEntryDate = PetasosClock.wallClockMillis();
         if( theParcel.hasActualUoW()) {
             this.actualUoW = theParcel.getActualUoW();
         }
@@ -155,12 +156,20 @@ public class PetasosParcelSimpleAuditDisplayEntry {
     
     // Helpers for the this.downstreamEpisodeIDSet attribute
 
+    @JsonSerialize(using = JsonDateSerializer.class)
     public Date getAuditTrailEntryDate() {
-        return auditTrailEntryDate;
+        if(this.auditTrailEntryDate == NO_TIMESTAMP){
+            return(null);
+        }
+        return(PetasosClock.toDate(this.auditTrailEntryDate));
     }
 
     public void setAuditTrailEntryDate(Date auditTrailEntryDate) {
-        this.auditTrailEntryDate = auditTrailEntryDate;
+        if(auditTrailEntryDate == null){
+            this.auditTrailEntryDate = NO_TIMESTAMP;
+        } else {
+            this.auditTrailEntryDate = auditTrailEntryDate.getTime();
+        }
     }
 
     public UoW getActualUoW() {
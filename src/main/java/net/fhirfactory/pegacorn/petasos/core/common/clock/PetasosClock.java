@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.core.common.clock;
+
+import java.util.Date;
+
+/**
+ * The central Petasos time source. It provides primitive (long) timestamps:
+ * <p>
+ * - monotonicNanos(), for measuring durations (e.g. per-stage latencies) - it is not related to wall-clock time,
+ * and
+ * <p>
+ * - wallClockMillis(), the (epoch) wall-clock time for audit and model timestamps. If
+ * "petasos.clock.coarse.resolution.millis" is set (> 0), it is a coarse clock - a cached value refreshed by the
+ * PetasosClockTicker (bean) at that resolution, while it is running - otherwise it reads System.currentTimeMillis().
+ * <p>
+ * now() renders the wall-clock time as a Date for the (model) attributes that require one - in a single allocation,
+ * rather than the Instant + Date of Date.from(Instant.now()).
+ *
+ * @author Mark A. Hunter
+ * @since 2020-08-01
+ */
+public final class PetasosClock {
+    private static volatile boolean coarseClockActive = false;
+    private static volatile long coarseWallClockMillis = System.currentTimeMillis();
+
+    private PetasosClock() {
+    }
+
+    /**
+     * @return The monotonic time (nanoseconds) - only meaningful relative to another monotonicNanos() value
+     */
+    public static long monotonicNanos() {
+        return (System.nanoTime());
+    }
+
+    /**
+     * @param startNanos A previous monotonicNanos() value
+     * @return The nanoseconds elapsed since startNanos
+     */
+    public static long elapsedNanos(long startNanos) {
+        return (System.nanoTime() - startNanos);
+    }
+
+    /**
+     * @return The wall-clock time (milliseconds since the epoch), coarse if so configured
+     */
+    public static long wallClockMillis() {
+        if (coarseClockActive) {
+            return (coarseWallClockMillis);
+        }
+        return (System.currentTimeMillis());
+    }
+
+    /**
+     * @return The wall-clock time as a (new) Date
+     */
+    public static Date now() {
+        return (new Date(wallClockMillis()));
+    }
+
+    /**
+     * @param wallClockMillis A wallClockMillis() value
+     * @return The value as a (new) Date
+     */
+    public static Date toDate(long wallClockMillis) {
+        return (new Date(wallClockMillis));
+    }
+
+    /**
+     * Refreshes the coarse wall-clock time - called by the PetasosClockTicker.
+     */
+    static void tick() {
+        coarseWallClockMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * @param active Whether wallClockMillis() returns the coarse (ticked) wall-clock time - set by the PetasosClockTicker
+     */
+    static void setCoarseClockActive(boolean active) {
+        if (active) {
+            tick();
+        }
+        coarseClockActive = active;
+    }
+}
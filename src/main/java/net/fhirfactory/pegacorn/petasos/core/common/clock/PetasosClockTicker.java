@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.core.common.clock;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.context.Initialized;
+import javax.enterprise.event.Observes;
+
+import net.fhirfactory.pegacorn.petasos.core.common.concurrent.PetasosDaemonThreads;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Drives the PetasosClock's coarse wall-clock time: if "petasos.clock.coarse.resolution.millis" is set (> 0), it
+ * refreshes the cached time at that resolution from when the application context is initialised until the bean is
+ * destroyed. While it is not running, PetasosClock.wallClockMillis() reads System.currentTimeMillis().
+ *
+ * @author Mark A. Hunter
+ * @since 2020-08-01
+ */
+@ApplicationScoped
+public class PetasosClockTicker {
+    private static final Logger LOG = LoggerFactory.getLogger(PetasosClockTicker.class);
+
+    private long coarseResolution = Long.getLong("petasos.clock.coarse.resolution.millis", 0L);
+
+    private ScheduledExecutorService tickerExecutor;
+
+    /**
+     * The (ApplicationScoped) bean is created lazily - observing the initialisation of the application context
+     * starts the ticker eagerly.
+     */
+    public void onApplicationInitialised(@Observes @Initialized(ApplicationScoped.class) Object initialisationEvent) {
+        LOG.debug(".onApplicationInitialised(): Entry, coarseResolution --> {}", coarseResolution);
+    }
+
+    @PostConstruct
+    public void start() {
+        if ((coarseResolution <= 0) || (tickerExecutor != null)) {
+            return;
+        }
+        LOG.debug(".start(): Starting the coarse clock ticker, coarseResolution --> {}", coarseResolution);
+        PetasosClock.setCoarseClockActive(true);
+        tickerExecutor = PetasosDaemonThreads.newSingleThreadScheduledExecutor("clock-ticker");
+        tickerExecutor.scheduleAtFixedRate(PetasosClock::tick, coarseResolution, coarseResolution, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (tickerExecutor == null) {
+            return;
+        }
+        LOG.debug(".stop(): Stopping the coarse clock ticker");
+        PetasosClock.setCoarseClockActive(false);
+        tickerExecutor.shutdownNow();
+        tickerExecutor = null;
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.core.common.concurrent;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the (daemon) threads used for Petasos' background housekeeping - journal commits, evictions, metric
+ * exports and the like - so they never hold the JVM open on shutdown and are consistently named "petasos-...".
+ *
+ * @author Mark A. Hunter
+ * @since 2020-08-01
+ */
+public final class PetasosDaemonThreads {
+    private static final String THREAD_NAME_PREFIX = "petasos-";
+
+    private PetasosDaemonThreads() {
+    }
+
+    /**
+     * @param threadName The name of the thread(s), without the "petasos-" prefix
+     * @return A ThreadFactory creating daemon threads with the given name
+     */
+    public static ThreadFactory threadFactory(String threadName) {
+        String fullThreadName = THREAD_NAME_PREFIX + threadName;
+        return (runnable -> newDaemonThread(runnable, fullThreadName));
+    }
+
+    /**
+     * @param threadNamePrefix The name of the threads, without the "petasos-" prefix - each thread is suffixed with
+     *                         its (1 based) sequence number
+     * @return A ThreadFactory creating (sequentially) numbered daemon threads
+     */
+    public static ThreadFactory numberedThreadFactory(String threadNamePrefix) {
+        String fullThreadNamePrefix = THREAD_NAME_PREFIX + threadNamePrefix + "-";
+        AtomicInteger threadCounter = new AtomicInteger();
+        return (runnable -> newDaemonThread(runnable, fullThreadNamePrefix + threadCounter.incrementAndGet()));
+    }
+
+    /**
+     * @param threadName The name of the thread, without the "petasos-" prefix
+     * @return A single (daemon) threaded ScheduledExecutorService
+     */
+    public static ScheduledExecutorService newSingleThreadScheduledExecutor(String threadName) {
+        return (Executors.newSingleThreadScheduledExecutor(threadFactory(threadName)));
+    }
+
+    private static Thread newDaemonThread(Runnable runnable, String threadName) {
+        Thread daemonThread = new Thread(runnable, threadName);
+        daemonThread.setDaemon(true);
+        return (daemonThread);
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.core.common.identifiers;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.fhirfactory.pegacorn.common.model.FDN;
+import net.fhirfactory.pegacorn.common.model.FDNToken;
+import net.fhirfactory.pegacorn.common.model.RDN;
+import net.fhirfactory.pegacorn.petasos.model.resilience.activitymatrix.moa.EpisodeIdentifier;
+import net.fhirfactory.pegacorn.petasos.model.resilience.parcel.ResilienceParcelIdentifier;
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElementTypeEnum;
+
+/**
+ * The compact binary encoding of FDNTokens used by the Petasos clustered cache Externalizers (and by the
+ * ProcessingPlantParcelJournal records).
+ * <p>
+ * Rather than marshalling the (verbose) token String, the token is written as its list of RDNs, where:
+ * - the RDN qualifiers that are well known (the NodeElementTypeEnum types) are written as a single byte index, and
+ * - when a sequence of tokens is written (e.g. an FDNTokenSet), each token only writes the RDNs that follow the
+ * prefix it shares with the previous token - the shared prefix is written as a single RDN count.
+ * <p>
+ * Each token is preceded by a subtype byte, so a token that is really a ResilienceParcelIdentifier or an
+ * EpisodeIdentifier is read back as that subtype (rather than as a plain FDNToken, which would not be equal to it).
+ * <p>
+ * The well known qualifier table is derived from NodeElementTypeEnum, so all nodes in a cluster must be running
+ * the same version of the model.
+ *
+ * @author Mark A. Hunter
+ * @since 2020-08-01
+ */
+public final class PetasosFDNTokenCodec {
+    private static final int LITERAL_QUALIFIER = 0xFF;
+    private static final byte PLAIN_TOKEN = 0;
+    private static final byte PARCEL_IDENTIFIER = 1;
+    private static final byte EPISODE_IDENTIFIER = 2;
+    private static final List<String> KNOWN_QUALIFIER_LIST;
+    private static final Map<String, Integer> KNOWN_QUALIFIER_INDEX;
+
+    static {
+        List<String> qualifierList = new ArrayList<String>();
+        Map<String, Integer> qualifierIndex = new HashMap<String, Integer>();
+        for (NodeElementTypeEnum nodeElementType : NodeElementTypeEnum.values()) {
+            String qualifier = nodeElementType.getNodeElementType();
+            if ((qualifier != null) && !qualifierIndex.containsKey(qualifier) && (qualifierList.size() < LITERAL_QUALIFIER)) {
+                qualifierIndex.put(qualifier, qualifierList.size());
+                qualifierList.add(qualifier);
+            }
+        }
+        KNOWN_QUALIFIER_LIST = Collections.unmodifiableList(qualifierList);
+        KNOWN_QUALIFIER_INDEX = Collections.unmodifiableMap(qualifierIndex);
+    }
+
+    private PetasosFDNTokenCodec() {
+    }
+
+    /**
+     * Writes the token as its RDN list, omitting the prefix shared with the previous token (if any).
+     *
+     * @param output        The DataOutput (e.g. ObjectOutput) being written to
+     * @param token         The FDNToken to be written
+     * @param previousRDNs  The RDNs of the token previously written in this sequence (or an empty list)
+     * @return The RDNs of the written token - to be passed as previousRDNs for the next token in the sequence
+     * @throws IOException If the underlying write fails
+     */
+    public static List<RDN> writeToken(DataOutput output, FDNToken token, List<RDN> previousRDNs) throws IOException {
+        output.writeByte(getSubtype(token));
+        List<RDN> rdnList = new FDN(token).getRDNSet();
+        int sharedPrefixCount = 0;
+        int maximumPrefixCount = Math.min(rdnList.size(), previousRDNs.size());
+        while ((sharedPrefixCount < maximumPrefixCount) && isSameRDN(rdnList.get(sharedPrefixCount), previousRDNs.get(sharedPrefixCount))) {
+            sharedPrefixCount += 1;
+        }
+        output.writeShort(sharedPrefixCount);
+        output.writeShort(rdnList.size() - sharedPrefixCount);
+        for (int counter = sharedPrefixCount; counter < rdnList.size(); counter += 1) {
+            writeRDN(output, rdnList.get(counter));
+        }
+        return (rdnList);
+    }
+
+    /**
+     * Reads a token written by writeToken(), re-using the shared prefix from the previously read token.
+     *
+     * @param input        The DataInput (e.g. ObjectInput) being read from
+     * @param previousRDNs The RDNs of the token previously read in this sequence (or an empty list)
+     * @param tokenRDNs    A (cleared) list into which the RDNs of the read token are placed - to be passed as previousRDNs for the next token
+     * @return The FDNToken
+     * @throws IOException If the underlying read fails
+     */
+    public static FDNToken readToken(DataInput input, List<RDN> previousRDNs, List<RDN> tokenRDNs) throws IOException {
+        byte subtype = input.readByte();
+        int sharedPrefixCount = input.readShort();
+        int rdnCount = input.readShort();
+        FDN fdn = new FDN();
+        for (int counter = 0; counter < sharedPrefixCount; counter += 1) {
+            RDN sharedRDN = previousRDNs.get(counter);
+            fdn.appendRDN(sharedRDN);
+            tokenRDNs.add(sharedRDN);
+        }
+        for (int counter = 0; counter < rdnCount; counter += 1) {
+            RDN rdn = readRDN(input);
+            fdn.appendRDN(rdn);
+            tokenRDNs.add(rdn);
+        }
+        return (restoreSubtype(subtype, fdn.getToken()));
+    }
+
+    private static byte getSubtype(FDNToken token) {
+        if (token instanceof ResilienceParcelIdentifier) {
+            return (PARCEL_IDENTIFIER);
+        }
+        if (token instanceof EpisodeIdentifier) {
+            return (EPISODE_IDENTIFIER);
+        }
+        return (PLAIN_TOKEN);
+    }
+
+    private static FDNToken restoreSubtype(byte subtype, FDNToken token) throws IOException {
+        switch (subtype) {
+            case PLAIN_TOKEN:
+                return (token);
+            case PARCEL_IDENTIFIER:
+                return (new ResilienceParcelIdentifier(token));
+            case EPISODE_IDENTIFIER:
+                return (new EpisodeIdentifier(token));
+            default:
+                throw (new IOException(".restoreSubtype(): Unknown FDNToken subtype --> " + subtype));
+        }
+    }
+
+    private static void writeRDN(DataOutput output, RDN rdn) throws IOException {
+        Integer qualifierIndex = KNOWN_QUALIFIER_INDEX.get(rdn.getQualifier());
+        if (qualifierIndex != null) {
+            output.writeByte(qualifierIndex);
+        } else {
+            output.writeByte(LITERAL_QUALIFIER);
+            output.writeUTF(rdn.getQualifier());
+        }
+        output.writeUTF(rdn.getValue());
+    }
+
+    private static RDN readRDN(DataInput input) throws IOException {
+        int qualifierIndex = input.readUnsignedByte();
+        String qualifier;
+        if (qualifierIndex == LITERAL_QUALIFIER) {
+            qualifier = input.readUTF();
+        } else {
+            qualifier = KNOWN_QUALIFIER_LIST.get(qualifierIndex);
+        }
+        String value = input.readUTF();
+        return (new RDN(qualifier, value));
+    }
+
+    private static boolean isSameRDN(RDN first, RDN second) {
+        return (first.getQualifier().equals(second.getQualifier()) && first.getValue().equals(second.getValue()));
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.core.common.identifiers;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.enterprise.context.ApplicationScoped;
+
+import net.fhirfactory.pegacorn.common.model.FDN;
+import net.fhirfactory.pegacorn.common.model.FDNToken;
+import net.fhirfactory.pegacorn.common.model.RDN;
+import net.fhirfactory.pegacorn.petasos.model.resilience.activitymatrix.moa.EpisodeIdentifier;
+import net.fhirfactory.pegacorn.petasos.model.resilience.parcel.ResilienceParcelIdentifier;
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElementFunctionToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The factory for the (hot path) Petasos identifiers built per message.
+ * <p>
+ * A WUA Episode Identifier is fully determined by the WUP Function Token and the UoW Type, and an Audit Entry Type
+ * by the UoW Type and the action - so the (FDN based) identifier is only built the first time a combination is seen.
+ * The components are interned into prefix tables and the combination is cached against its packed (long) index
+ * pair, so subsequent lookups cost one hash of each component and a long-keyed map probe.
+ *
+ * @author Mark A. Hunter
+ * @since 2020-08-01
+ */
+@ApplicationScoped
+public class PetasosIdentifierFactory {
+    private static final Logger LOG = LoggerFactory.getLogger(PetasosIdentifierFactory.class);
+
+    private static final String AUDIT_ACTION_QUALIFIER = "action";
+
+    private int prefixTableCapacity = Integer.getInteger("petasos.identifiers.prefix.capacity", 4096);
+
+    private PetasosIdentifierPrefixTable wupFunctionPrefixTable = new PetasosIdentifierPrefixTable(prefixTableCapacity);
+    private PetasosIdentifierPrefixTable uowTypePrefixTable = new PetasosIdentifierPrefixTable(prefixTableCapacity);
+    private PetasosIdentifierPrefixTable actionPrefixTable = new PetasosIdentifierPrefixTable(prefixTableCapacity);
+    private ConcurrentHashMap<Long, EpisodeIdentifier> episodeIdentifierCache = new ConcurrentHashMap<Long, EpisodeIdentifier>();
+    private ConcurrentHashMap<Long, FDNToken> auditEntryTypeCache = new ConcurrentHashMap<Long, FDNToken>();
+
+    /**
+     * This function returns the WUA Episode Identifier for the WUP Function / UoW Type combination.
+     *
+     * @param wupFunctionToken The WUP Function Token
+     * @param uowTypeID The UoW Type
+     * @return The (shared, immutable) EpisodeIdentifier
+     */
+    public EpisodeIdentifier getWUAEpisodeIdentifier(NodeElementFunctionToken wupFunctionToken, FDNToken uowTypeID) {
+        if ((wupFunctionToken == null) || (uowTypeID == null)) {
+            throw (new IllegalArgumentException(".getWUAEpisodeIdentifier(): wupFunctionToken or uowTypeID are null"));
+        }
+        FDNToken wupFunctionID = wupFunctionToken.getAsSingleFDNToken();
+        long compactKey = PetasosIdentifierPrefixTable.packIndices(wupFunctionPrefixTable.intern(wupFunctionID), uowTypePrefixTable.intern(uowTypeID));
+        if (compactKey == PetasosIdentifierPrefixTable.UNINTERNED) {
+            LOG.trace(".getWUAEpisodeIdentifier(): Prefix table full, building uncached EpisodeIdentifier");
+            return (buildWUAEpisodeIdentifier(wupFunctionID, uowTypeID));
+        }
+        return (episodeIdentifierCache.computeIfAbsent(compactKey, key -> buildWUAEpisodeIdentifier(wupFunctionID, uowTypeID)));
+    }
+
+    /**
+     * This function returns the Audit Entry Type (the UoW Type, qualified by the action) for an audit-only entry.
+     *
+     * @param uowTypeID The UoW Type
+     * @param action The audited action
+     * @return The (shared) Audit Entry Type token
+     */
+    public FDNToken getAuditEntryTypeID(FDNToken uowTypeID, String action) {
+        if ((uowTypeID == null) || (action == null)) {
+            throw (new IllegalArgumentException(".getAuditEntryTypeID(): uowTypeID or action are null"));
+        }
+        long compactKey = PetasosIdentifierPrefixTable.packIndices(uowTypePrefixTable.intern(uowTypeID), actionPrefixTable.intern(action));
+        if (compactKey == PetasosIdentifierPrefixTable.UNINTERNED) {
+            return (buildActionQualifiedToken(uowTypeID, action));
+        }
+        return (auditEntryTypeCache.computeIfAbsent(compactKey, key -> buildActionQualifiedToken(uowTypeID, action)));
+    }
+
+    /**
+     * This function builds the identifier of an audit-only entry (the UoW Instance, qualified by the action). It is
+     * unique per UoW, so it is not cached.
+     *
+     * @param uowInstanceID The UoW Instance
+     * @param action The audited action
+     * @return The Audit Entry Identifier
+     */
+    public ResilienceParcelIdentifier buildAuditEntryIdentifier(FDNToken uowInstanceID, String action) {
+        if ((uowInstanceID == null) || (action == null)) {
+            throw (new IllegalArgumentException(".buildAuditEntryIdentifier(): uowInstanceID or action are null"));
+        }
+        return (new ResilienceParcelIdentifier(buildActionQualifiedToken(uowInstanceID, action)));
+    }
+
+    private EpisodeIdentifier buildWUAEpisodeIdentifier(FDNToken wupFunctionID, FDNToken uowTypeID) {
+        FDN newWUAFDN = new FDN(wupFunctionID);
+        newWUAFDN.appendFDN(new FDN(uowTypeID));
+        return (new EpisodeIdentifier(newWUAFDN.getToken()));
+    }
+
+    private FDNToken buildActionQualifiedToken(FDNToken baseToken, String action) {
+        FDN qualifiedFDN = new FDN(baseToken);
+        qualifiedFDN.appendRDN(new RDN(AUDIT_ACTION_QUALIFIER, action));
+        return (qualifiedFDN.getToken());
+    }
+
+    public int getCachedEpisodeIdentifierCount() {
+        return (episodeIdentifierCache.size());
+    }
+
+    public int getCachedAuditEntryTypeCount() {
+        return (auditEntryTypeCache.size());
+    }
+}
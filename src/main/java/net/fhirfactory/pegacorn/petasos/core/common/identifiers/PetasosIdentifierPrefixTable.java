@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.core.common.identifiers;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A bounded, thread-safe table that interns recurring identifier prefixes (e.g. WUP Function Tokens, UoW Types) to
+ * small, stable int indices - so that compound identifiers can be keyed, compared and hashed as a packed long
+ * rather than as (long) FDN token strings.
+ * <p>
+ * Once the table is full, intern() returns UNINTERNED and the caller falls back to the un-cached path.
+ *
+ * @author Mark A. Hunter
+ * @since 2020-08-01
+ */
+public class PetasosIdentifierPrefixTable {
+    public static final int UNINTERNED = -1;
+
+    private int capacity;
+    private ConcurrentHashMap<Object, Integer> prefixIndexMap;
+    private AtomicInteger nextIndex;
+
+    public PetasosIdentifierPrefixTable(int capacity) {
+        this.capacity = capacity;
+        this.prefixIndexMap = new ConcurrentHashMap<Object, Integer>();
+        this.nextIndex = new AtomicInteger();
+    }
+
+    /**
+     * @param prefix The prefix to be interned
+     * @return The index of the prefix, or UNINTERNED if the table is full
+     */
+    public int intern(Object prefix) {
+        if (prefix == null) {
+            return (UNINTERNED);
+        }
+        Integer index = prefixIndexMap.get(prefix);
+        if (index == null) {
+            index = prefixIndexMap.computeIfAbsent(prefix, newPrefix -> (nextIndex.get() < capacity) ? nextIndex.getAndIncrement() : null);
+        }
+        return ((index != null) ? index : UNINTERNED);
+    }
+
+    public int size() {
+        return (prefixIndexMap.size());
+    }
+
+    /**
+     * Packs two prefix indices into a single long key.
+     *
+     * @return The packed key, or UNINTERNED if either index is UNINTERNED
+     */
+    public static long packIndices(int firstIndex, int secondIndex) {
+        if ((firstIndex == UNINTERNED) || (secondIndex == UNINTERNED)) {
+            return (UNINTERNED);
+        }
+        return ((((long) firstIndex) << 32) | (secondIndex & 0xFFFFFFFFL));
+    }
+}
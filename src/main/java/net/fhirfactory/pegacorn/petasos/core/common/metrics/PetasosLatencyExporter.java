@@ -0,0 +1,39 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.core.common.metrics;
+
+/**
+ * An exporter of (WUP pipeline) latency snapshots - e.g. to a metrics/monitoring system. Exporters are registered
+ * with the WUPPipelineLatencyDM and invoked periodically from its export thread, once per WUP per stage; they should
+ * not block for long. The snapshots are cumulative (since start or the last JMX reset).
+ *
+ * @author Mark A. Hunter
+ * @since 2020-08-01
+ */
+public interface PetasosLatencyExporter {
+    /**
+     * @param wupInstanceKey The NodeElement Instance key of the WUP
+     * @param stageName The name of the pipeline stage
+     * @param snapshot The latency snapshot for that WUP/stage
+     */
+    public void exportLatency(String wupInstanceKey, String stageName, PetasosLatencySnapshot snapshot);
+}
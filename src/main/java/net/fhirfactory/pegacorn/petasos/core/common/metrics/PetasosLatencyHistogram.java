@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.core.common.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free, HDR-style (log-linear) latency histogram of nanosecond values.
+ * <p>
+ * Values below SUB_BUCKET_COUNT are counted exactly; above that, each power-of-two magnitude is split into
+ * SUB_BUCKET_COUNT linear sub-buckets, so every recorded value is reported to within ~3% (1/SUB_BUCKET_COUNT) of its
+ * true value. Values above MAX_TRACKABLE_NANOS (~9.7 hours) are clamped to it.
+ * <p>
+ * record() is a handful of atomic increments on pre-allocated counters - no locks and no allocation - so it can be
+ * called on every parcel from any number of threads. snapshot() copies the counters and is intended for the (far less
+ * frequent) readers: JMX and the PetasosLatencyExporters.
+ *
+ * @author Mark A. Hunter
+ * @since 2020-08-01
+ */
+public class PetasosLatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_MAGNITUDE = 44;
+    public static final long MAX_TRACKABLE_NANOS = (1L << (MAX_MAGNITUDE + 1)) - 1;
+    private static final int BUCKET_COUNT = SUB_BUCKET_COUNT + ((MAX_MAGNITUDE - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT);
+
+    private AtomicLongArray bucketCounts;
+    private LongAdder totalNanos;
+    private AtomicLong maxNanos;
+
+    public PetasosLatencyHistogram() {
+        this.bucketCounts = new AtomicLongArray(BUCKET_COUNT);
+        this.totalNanos = new LongAdder();
+        this.maxNanos = new AtomicLong(0);
+    }
+
+    /**
+     * @param elapsedNanos The (latency) value to be recorded - negative values (a non-monotonic read) are ignored
+     */
+    public void record(long elapsedNanos) {
+        if (elapsedNanos < 0) {
+            return;
+        }
+        long value = Math.min(elapsedNanos, MAX_TRACKABLE_NANOS);
+        bucketCounts.incrementAndGet(bucketIndex(value));
+        totalNanos.add(value);
+        long currentMax = maxNanos.get();
+        while ((value > currentMax) && !maxNanos.compareAndSet(currentMax, value)) {
+            currentMax = maxNanos.get();
+        }
+    }
+
+    /**
+     * Resets the histogram. Values recorded concurrently with the reset may be either kept or discarded.
+     */
+    public void reset() {
+        for (int index = 0; index < BUCKET_COUNT; index += 1) {
+            bucketCounts.set(index, 0);
+        }
+        totalNanos.reset();
+        maxNanos.set(0);
+    }
+
+    /**
+     * @return A (point in time) copy of the histogram
+     */
+    public PetasosLatencySnapshot snapshot() {
+        long[] counts = new long[BUCKET_COUNT];
+        for (int index = 0; index < BUCKET_COUNT; index += 1) {
+            counts[index] = bucketCounts.get(index);
+        }
+        return (new PetasosLatencySnapshot(counts, totalNanos.sum(), maxNanos.get()));
+    }
+
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return ((int) value);
+        }
+        int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (magnitude - SUB_BUCKET_BITS)) - SUB_BUCKET_COUNT;
+        return (SUB_BUCKET_COUNT + ((magnitude - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT) + subBucket);
+    }
+
+    /**
+     * @param index A bucket index
+     * @return The highest value (nanoseconds) that is counted in the bucket
+     */
+    static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return (index);
+        }
+        int magnitude = ((index - SUB_BUCKET_COUNT) / SUB_BUCKET_COUNT) + SUB_BUCKET_BITS;
+        long subBucket = ((index - SUB_BUCKET_COUNT) % SUB_BUCKET_COUNT) + SUB_BUCKET_COUNT;
+        return (((subBucket + 1) << (magnitude - SUB_BUCKET_BITS)) - 1);
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.core.common.metrics;
+
+/**
+ * A point in time copy of a PetasosLatencyHistogram. All values are in nanoseconds; the percentiles are the
+ * (highest equivalent) value of the bucket containing that percentile.
+ * <p>
+ * The getters are exposed (as CompositeData) by the WUPPipelineLatencyMXBean.
+ *
+ * @author Mark A. Hunter
+ * @since 2020-08-01
+ */
+public class PetasosLatencySnapshot {
+    private long[] bucketCounts;
+    private long count;
+    private long totalNanos;
+    private long maxNanos;
+
+    PetasosLatencySnapshot(long[] bucketCounts, long totalNanos, long maxNanos) {
+        this.bucketCounts = bucketCounts;
+        long bucketTotal = 0;
+        for (long bucketCount : bucketCounts) {
+            bucketTotal += bucketCount;
+        }
+        this.count = bucketTotal;
+        this.totalNanos = totalNanos;
+        this.maxNanos = maxNanos;
+    }
+
+    public long getCount() {
+        return (count);
+    }
+
+    public long getMeanNanos() {
+        if (count == 0) {
+            return (0);
+        }
+        return (totalNanos / count);
+    }
+
+    public long getMaxNanos() {
+        return (maxNanos);
+    }
+
+    public long getP50Nanos() {
+        return (getValueAtPercentile(50.0));
+    }
+
+    public long getP90Nanos() {
+        return (getValueAtPercentile(90.0));
+    }
+
+    public long getP99Nanos() {
+        return (getValueAtPercentile(99.0));
+    }
+
+    public long getP999Nanos() {
+        return (getValueAtPercentile(99.9));
+    }
+
+    /**
+     * @param percentile The percentile (0.0 to 100.0)
+     * @return The value (nanoseconds) at or below which that percentile of the recorded values fall (0 if empty)
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (count == 0) {
+            return (0);
+        }
+        double boundedPercentile = Math.min(Math.max(percentile, 0.0), 100.0);
+        long targetCount = Math.max(1, (long) Math.ceil((boundedPercentile / 100.0) * count));
+        long cumulativeCount = 0;
+        for (int index = 0; index < bucketCounts.length; index += 1) {
+            cumulativeCount += bucketCounts[index];
+            if (cumulativeCount >= targetCount) {
+                return (Math.min(PetasosLatencyHistogram.bucketUpperBound(index), maxNanos));
+            }
+        }
+        return (maxNanos);
+    }
+
+    @Override
+    public String toString() {
+        return ("PetasosLatencySnapshot{count=" + count + ", meanNanos=" + getMeanNanos() + ", p50Nanos=" + getP50Nanos()
+                + ", p90Nanos=" + getP90Nanos() + ", p99Nanos=" + getP99Nanos() + ", p999Nanos=" + getP999Nanos()
+                + ", maxNanos=" + maxNanos + "}");
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.core.common.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A set of (in, out and failed) message counters with their per-second rates.
+ * <p>
+ * The counters are LongAdders, so counting is contention-free. The rates are those of the last interval, as
+ * calculated by updateRates() - which must only be called by a single (ticker) thread.
+ *
+ * @author Mark A. Hunter
+ * @since 2020-08-01
+ */
+public class PetasosThroughputCounter {
+    private LongAdder inCount;
+    private LongAdder outCount;
+    private LongAdder failedCount;
+    private long lastInCount;
+    private long lastOutCount;
+    private long lastFailedCount;
+    private volatile double inRate;
+    private volatile double outRate;
+    private volatile double failedRate;
+
+    public PetasosThroughputCounter() {
+        this.inCount = new LongAdder();
+        this.outCount = new LongAdder();
+        this.failedCount = new LongAdder();
+    }
+
+    public void countIn() {
+        inCount.increment();
+    }
+
+    public void countOut(long messageCount) {
+        outCount.add(messageCount);
+    }
+
+    public void countFailed() {
+        failedCount.increment();
+    }
+
+    /**
+     * @param intervalMillis The time (milliseconds) since the previous call
+     */
+    public void updateRates(long intervalMillis) {
+        if (intervalMillis <= 0) {
+            return;
+        }
+        double intervalSeconds = intervalMillis / 1000.0;
+        long currentInCount = inCount.sum();
+        long currentOutCount = outCount.sum();
+        long currentFailedCount = failedCount.sum();
+        inRate = (currentInCount - lastInCount) / intervalSeconds;
+        outRate = (currentOutCount - lastOutCount) / intervalSeconds;
+        failedRate = (currentFailedCount - lastFailedCount) / intervalSeconds;
+        lastInCount = currentInCount;
+        lastOutCount = currentOutCount;
+        lastFailedCount = currentFailedCount;
+    }
+
+    public long getInCount() {
+        return (inCount.sum());
+    }
+
+    public long getOutCount() {
+        return (outCount.sum());
+    }
+
+    public long getFailedCount() {
+        return (failedCount.sum());
+    }
+
+    public double getInRate() {
+        return (inRate);
+    }
+
+    public double getOutRate() {
+        return (outRate);
+    }
+
+    public double getFailedRate() {
+        return (failedRate);
+    }
+}
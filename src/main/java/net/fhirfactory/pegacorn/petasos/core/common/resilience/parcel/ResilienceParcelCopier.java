@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.core.common.resilience.parcel;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import net.fhirfactory.pegacorn.petasos.model.resilience.parcel.ResilienceParcel;
+
+/**
+ * Creates private (deep) copies of ResilienceParcels, for the caches that hold a parcel on behalf of many callers
+ * (e.g. the clustered near-cache) - so no caller can see, or make, another's in-place modifications.
+ * <p>
+ * The model's ResilienceParcel offers no copy constructor, so the copy is made via a (local, in-memory)
+ * serialisation round trip - the bytes never leave this JVM.
+ *
+ * @author Mark A. Hunter
+ * @since 2020-08-01
+ */
+public final class ResilienceParcelCopier {
+
+    private ResilienceParcelCopier() {
+    }
+
+    /**
+     * @param parcel The ResilienceParcel to be copied
+     * @return A deep copy of the parcel (or null if the parcel is null)
+     */
+    public static ResilienceParcel copy(ResilienceParcel parcel) {
+        if (parcel == null) {
+            return (null);
+        }
+        ByteArrayOutputStream serialisedParcel = new ByteArrayOutputStream();
+        try (ObjectOutputStream parcelStream = new ObjectOutputStream(serialisedParcel)) {
+            parcelStream.writeObject(parcel);
+        } catch (IOException serialisationException) {
+            throw (new IllegalStateException(".copy(): Unable to copy parcel, parcelID --> " + parcel.getIdentifier(), serialisationException));
+        }
+        try (ObjectInputStream parcelStream = new ObjectInputStream(new ByteArrayInputStream(serialisedParcel.toByteArray()))) {
+            return ((ResilienceParcel) parcelStream.readObject());
+        } catch (IOException | ClassNotFoundException deserialisationException) {
+            throw (new IllegalStateException(".copy(): Unable to copy parcel, parcelID --> " + parcel.getIdentifier(), deserialisationException));
+        }
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.core.common.resilience.processingplant.activitymatrix;
+
+import net.fhirfactory.pegacorn.petasos.model.resilience.activitymatrix.moa.ParcelStatusElement;
+
+/**
+ * The policy by which a ProcessingPlantActivityMatrix decides which of its ParcelStatusElements can be evicted
+ * during a sweep. Implementations are invoked (concurrently with activity registration) from the matrix's
+ * eviction thread and should be cheap and side-effect free.
+ *
+ * @author Mark A. Hunter
+ * @since 2020-08-01
+ */
+public interface ActivityMatrixEvictionPolicy {
+    /**
+     * @param statusElement The ParcelStatusElement being considered
+     * @param currentTime The time (milliseconds since the epoch) of the sweep
+     * @return True if the element can be removed from the matrix
+     */
+    public boolean isEvictable(ParcelStatusElement statusElement, long currentTime);
+}
@@ -0,0 +1,313 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.core.common.resilience.processingplant.activitymatrix;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import net.fhirfactory.pegacorn.petasos.core.common.concurrent.PetasosDaemonThreads;
+import net.fhirfactory.pegacorn.petasos.model.pathway.ActivityID;
+import net.fhirfactory.pegacorn.petasos.model.resilience.activitymatrix.moa.EpisodeIdentifier;
+import net.fhirfactory.pegacorn.petasos.model.resilience.activitymatrix.moa.ParcelStatusElement;
+import net.fhirfactory.pegacorn.petasos.model.resilience.parcel.ResilienceParcelIdentifier;
+import net.fhirfactory.pegacorn.petasos.model.resilience.parcel.ResilienceParcelProcessingStatusEnum;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This class is the (shared) concurrent activity-tracking engine behind both the MOA (WUA Episode) and STA
+ * (Transaction) ActivityMatrix DMs. It holds:
+ * <p>
+ * ConcurrentHashMap<ResilienceParcelIdentifier, ParcelStatusElement> parcelStatusElementCache -
+ * the status of each activity (parcel), and
+ * <p>
+ * ConcurrentHashMap<EpisodeIdentifier, Set<ResilienceParcelIdentifier>> episode2ParcelMap - the
+ * parcels of each Episode, where each Set is a concurrent key-set (so membership is a hash lookup and iteration is
+ * safe against concurrent registration).
+ * <p>
+ * Both maps are keyed by the identifiers themselves - the (FDNToken) identifiers cache their own hash, so a probe
+ * needs no key wrapper (or interning table lookup).
+ * <p>
+ * Registration and removal are performed within ConcurrentHashMap.compute() on the affected entries, so the two maps
+ * remain consistent without a global lock. Entries are removed explicitly (removeActivity) or by a periodic sweep
+ * applying the (pluggable) ActivityMatrixEvictionPolicy.
+ * <p>
+ * Every status transition (including registration and removal) is reported to the ActivityMatrixStatusListener, if
+ * one has been set.
+ *
+ * @author Mark A. Hunter
+ * @since 2020-08-01
+ */
+public class ProcessingPlantActivityMatrix {
+    private static final Logger LOG = LoggerFactory.getLogger(ProcessingPlantActivityMatrix.class);
+
+    private String matrixName;
+    private ConcurrentHashMap<ResilienceParcelIdentifier, ParcelStatusElement> parcelStatusElementCache;
+    private ConcurrentHashMap<EpisodeIdentifier, Set<ResilienceParcelIdentifier>> episode2ParcelMap;
+    private ActivityMatrixEvictionPolicy evictionPolicy;
+    private ScheduledExecutorService evictionExecutor;
+    private volatile ActivityMatrixStatusListener statusListener;
+
+    /**
+     * @param matrixName The name of the matrix (used for logging and the eviction thread's name)
+     * @param evictionPolicy The ActivityMatrixEvictionPolicy applied by the eviction sweep (may be null - no sweep eviction)
+     */
+    public ProcessingPlantActivityMatrix(String matrixName, ActivityMatrixEvictionPolicy evictionPolicy) {
+        this.matrixName = matrixName;
+        this.evictionPolicy = evictionPolicy;
+        this.parcelStatusElementCache = new ConcurrentHashMap<ResilienceParcelIdentifier, ParcelStatusElement>();
+        this.episode2ParcelMap = new ConcurrentHashMap<EpisodeIdentifier, Set<ResilienceParcelIdentifier>>();
+    }
+
+    /**
+     * Starts the periodic eviction sweep (if an ActivityMatrixEvictionPolicy was provided).
+     *
+     * @param sweepInterval The interval (milliseconds) between sweeps
+     */
+    public void startEviction(long sweepInterval) {
+        if ((evictionPolicy == null) || (evictionExecutor != null)) {
+            return;
+        }
+        evictionExecutor = PetasosDaemonThreads.newSingleThreadScheduledExecutor(matrixName + "-eviction");
+        evictionExecutor.scheduleWithFixedDelay(this::evictActivities, sweepInterval, sweepInterval, TimeUnit.MILLISECONDS);
+    }
+
+    public void setStatusListener(ActivityMatrixStatusListener statusListener) {
+        this.statusListener = statusListener;
+    }
+
+    public void stopEviction() {
+        if (evictionExecutor != null) {
+            evictionExecutor.shutdownNow();
+            evictionExecutor = null;
+        }
+    }
+
+    /**
+     * This function registers (adds) the activity to the matrix. If the parcel is already registered with the same
+     * ActivityID detail, its status is simply updated; if it is registered with different detail, the existing
+     * element is replaced (and the parcel moved to the new Episode).
+     *
+     * @param activityID The WUP/Parcel ActivityID
+     * @param processingStatus The (initial) Processing Status of the activity
+     * @return The registered ParcelStatusElement
+     */
+    public ParcelStatusElement registerActivity(ActivityID activityID, ResilienceParcelProcessingStatusEnum processingStatus) {
+        if (activityID == null) {
+            throw (new IllegalArgumentException(".registerActivity(): activityID is null"));
+        }
+        ResilienceParcelIdentifier parcelID = activityID.getPresentParcelIdentifier();
+        ParcelStatusElement[] replacedElement = new ParcelStatusElement[1];
+        ResilienceParcelProcessingStatusEnum[] previousStatus = new ResilienceParcelProcessingStatusEnum[1];
+        ParcelStatusElement statusElement = parcelStatusElementCache.compute(parcelID, (id, existingElement) -> {
+            if ((existingElement != null) && isSameActivity(existingElement.getActivityID(), activityID)) {
+                LOG.trace(".registerActivity(): ParcelIdentifier already registered with the same ActivityID, updating the status");
+                previousStatus[0] = existingElement.getParcelStatus();
+                existingElement.setParcelStatus(processingStatus);
+                return (existingElement);
+            }
+            replacedElement[0] = existingElement;
+            if (existingElement != null) {
+                previousStatus[0] = existingElement.getParcelStatus();
+            }
+            ParcelStatusElement newElement = new ParcelStatusElement(activityID);
+            newElement.setParcelStatus(processingStatus);
+            return (newElement);
+        });
+        if (replacedElement[0] != null) {
+            notifyStatusTransition(replacedElement[0], previousStatus[0], null);
+            previousStatus[0] = null;
+            EpisodeIdentifier replacedEpisodeID = replacedElement[0].getActivityID().getPresentEpisodeIdentifier();
+            if (!Objects.equals(replacedEpisodeID, activityID.getPresentEpisodeIdentifier())) {
+                unlinkEpisodeParcel(replacedEpisodeID, parcelID);
+            }
+        }
+        EpisodeIdentifier episodeID = activityID.getPresentEpisodeIdentifier();
+        if (episodeID != null) {
+            episode2ParcelMap.compute(episodeID, (id, episodeParcelSet) -> {
+                if (episodeParcelSet == null) {
+                    episodeParcelSet = ConcurrentHashMap.newKeySet();
+                }
+                episodeParcelSet.add(parcelID);
+                return (episodeParcelSet);
+            });
+        }
+        notifyStatusTransition(statusElement, previousStatus[0], processingStatus);
+        return (statusElement);
+    }
+
+    private boolean isSameActivity(ActivityID existingActivityID, ActivityID activityID) {
+        return (Objects.equals(existingActivityID.getPresentParcelIdentifier(), activityID.getPresentParcelIdentifier())
+                && Objects.equals(existingActivityID.getPresentEpisodeIdentifier(), activityID.getPresentEpisodeIdentifier())
+                && Objects.equals(existingActivityID.getPresentWUPIdentifier(), activityID.getPresentWUPIdentifier())
+                && Objects.equals(existingActivityID.getPresentWUPFunctionToken(), activityID.getPresentWUPFunctionToken())
+                && Objects.equals(existingActivityID.getPreviousEpisodeIdentifier(), activityID.getPreviousEpisodeIdentifier()));
+    }
+
+    /**
+     * This function updates the status of a registered activity.
+     *
+     * @param parcelID The ResilienceParcelIdentifier of the activity
+     * @param processingStatus The new Processing Status
+     * @return The updated ParcelStatusElement, or null if the activity is not registered
+     */
+    public ParcelStatusElement updateActivityStatus(ResilienceParcelIdentifier parcelID, ResilienceParcelProcessingStatusEnum processingStatus) {
+        if (parcelID == null) {
+            return (null);
+        }
+        ResilienceParcelProcessingStatusEnum[] previousStatus = new ResilienceParcelProcessingStatusEnum[1];
+        ParcelStatusElement updatedElement = parcelStatusElementCache.computeIfPresent(parcelID, (id, existingElement) -> {
+            previousStatus[0] = existingElement.getParcelStatus();
+            existingElement.setParcelStatus(processingStatus);
+            return (existingElement);
+        });
+        if (updatedElement != null) {
+            notifyStatusTransition(updatedElement, previousStatus[0], processingStatus);
+        }
+        return (updatedElement);
+    }
+
+    /**
+     * This function removes the activity from the matrix (and from its Episode).
+     *
+     * @param parcelID The ResilienceParcelIdentifier of the activity
+     * @return The removed ParcelStatusElement, or null if the activity was not registered
+     */
+    public ParcelStatusElement removeActivity(ResilienceParcelIdentifier parcelID) {
+        if (parcelID == null) {
+            return (null);
+        }
+        ParcelStatusElement removedElement = parcelStatusElementCache.remove(parcelID);
+        if (removedElement != null) {
+            unlinkEpisodeParcel(removedElement.getActivityID().getPresentEpisodeIdentifier(), parcelID);
+            notifyStatusTransition(removedElement, removedElement.getParcelStatus(), null);
+        }
+        return (removedElement);
+    }
+
+    private void notifyStatusTransition(ParcelStatusElement statusElement, ResilienceParcelProcessingStatusEnum previousStatus, ResilienceParcelProcessingStatusEnum newStatus) {
+        ActivityMatrixStatusListener currentListener = statusListener;
+        if (currentListener == null) {
+            return;
+        }
+        try {
+            currentListener.statusTransition(statusElement, previousStatus, newStatus);
+        } catch (RuntimeException listenerException) {
+            LOG.warn(".notifyStatusTransition(): Status listener failed, matrix --> {}", matrixName, listenerException);
+        }
+    }
+
+    private void unlinkEpisodeParcel(EpisodeIdentifier episodeID, ResilienceParcelIdentifier parcelID) {
+        if (episodeID == null) {
+            return;
+        }
+        episode2ParcelMap.computeIfPresent(episodeID, (id, episodeParcelSet) -> {
+            episodeParcelSet.remove(parcelID);
+            return (episodeParcelSet.isEmpty() ? null : episodeParcelSet);
+        });
+    }
+
+    /**
+     * This function applies the ActivityMatrixEvictionPolicy to every element of the matrix, removing those that are
+     * evictable. It is invoked periodically once startEviction() has been called.
+     *
+     * @return The number of activities evicted
+     */
+    public int evictActivities() {
+        if (evictionPolicy == null) {
+            return (0);
+        }
+        long currentTime = System.currentTimeMillis();
+        int evictedCount = 0;
+        for (ParcelStatusElement statusElement : parcelStatusElementCache.values()) {
+            try {
+                if (evictionPolicy.isEvictable(statusElement, currentTime)) {
+                    // only remove the element that was assessed, not a replacement registered in the meantime
+                    if (parcelStatusElementCache.remove(statusElement.getParcelInstanceID(), statusElement)) {
+                        unlinkEpisodeParcel(statusElement.getActivityID().getPresentEpisodeIdentifier(), statusElement.getParcelInstanceID());
+                        notifyStatusTransition(statusElement, statusElement.getParcelStatus(), null);
+                        evictedCount += 1;
+                    }
+                }
+            } catch (RuntimeException evictionException) {
+                LOG.warn(".evictActivities(): Unable to assess ParcelStatusElement for eviction, matrix --> {}", matrixName, evictionException);
+            }
+        }
+        LOG.debug(".evictActivities(): Exit, matrix --> {}, evictedCount --> {}, remaining --> {}", matrixName, evictedCount, parcelStatusElementCache.size());
+        return (evictedCount);
+    }
+
+    public ParcelStatusElement getStatusElement(ResilienceParcelIdentifier parcelID) {
+        if (parcelID == null) {
+            return (null);
+        }
+        return (parcelStatusElementCache.get(parcelID));
+    }
+
+    /**
+     * @param episodeID The EpisodeIdentifier
+     * @return A (live, concurrent) view of the ResilienceParcelIdentifiers of the Episode - empty if there are none
+     */
+    public Set<ResilienceParcelIdentifier> getEpisodeParcelIDs(EpisodeIdentifier episodeID) {
+        if (episodeID == null) {
+            return (Collections.emptySet());
+        }
+        Set<ResilienceParcelIdentifier> episodeParcelSet = episode2ParcelMap.get(episodeID);
+        if (episodeParcelSet == null) {
+            return (Collections.emptySet());
+        }
+        return (Collections.unmodifiableSet(episodeParcelSet));
+    }
+
+    public List<ParcelStatusElement> getEpisodeElementSet(EpisodeIdentifier episodeID) {
+        ArrayList<ParcelStatusElement> episodeElementSet = new ArrayList<ParcelStatusElement>();
+        for (ResilienceParcelIdentifier parcelID : getEpisodeParcelIDs(episodeID)) {
+            ParcelStatusElement statusElement = parcelStatusElementCache.get(parcelID);
+            if (statusElement != null) {
+                episodeElementSet.add(statusElement);
+            }
+        }
+        return (episodeElementSet);
+    }
+
+    /**
+     * Passes each ParcelStatusElement to the consumer. The iteration is weakly consistent (the matrix is not locked).
+     */
+    public void forEachStatusElement(Consumer<ParcelStatusElement> statusElementConsumer) {
+        parcelStatusElementCache.values().forEach(statusElementConsumer);
+    }
+
+    public int getActivityCount() {
+        return (parcelStatusElementCache.size());
+    }
+
+    public int getEpisodeCount() {
+        return (episode2ParcelMap.size());
+    }
+}
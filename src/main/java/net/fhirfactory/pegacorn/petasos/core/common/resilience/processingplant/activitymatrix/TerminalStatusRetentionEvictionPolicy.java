@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.core.common.resilience.processingplant.activitymatrix;
+
+import net.fhirfactory.pegacorn.petasos.model.resilience.activitymatrix.moa.ParcelStatusElement;
+
+/**
+ * An ActivityMatrixEvictionPolicy that evicts the ParcelStatusElements in a terminal state (finalised, failed or
+ * cancelled) once their entry date is older than the retention period. Elements still in-flight are only evicted
+ * if an abandonment period is set and they are older than it (i.e. their completion was never notified).
+ *
+ * @author Mark A. Hunter
+ * @since 2020-08-01
+ */
+public class TerminalStatusRetentionEvictionPolicy implements ActivityMatrixEvictionPolicy {
+    private long retentionPeriod;
+    private long abandonmentPeriod;
+
+    /**
+     * @param retentionPeriod The period (milliseconds) a terminal element is retained for
+     */
+    public TerminalStatusRetentionEvictionPolicy(long retentionPeriod) {
+        this(retentionPeriod, 0);
+    }
+
+    /**
+     * @param retentionPeriod The period (milliseconds) a terminal element is retained for
+     * @param abandonmentPeriod The period (milliseconds) after which an in-flight element is considered abandoned (0 - never)
+     */
+    public TerminalStatusRetentionEvictionPolicy(long retentionPeriod, long abandonmentPeriod) {
+        this.retentionPeriod = retentionPeriod;
+        this.abandonmentPeriod = abandonmentPeriod;
+    }
+
+    @Override
+    public boolean isEvictable(ParcelStatusElement statusElement, long currentTime) {
+        if (statusElement.getParcelStatus() == null) {
+            return (false);
+        }
+        switch (statusElement.getParcelStatus()) {
+            case PARCEL_STATUS_FINALISED:
+            case PARCEL_STATUS_FINALISED_ELSEWHERE:
+            case PARCEL_STATUS_FAILED:
+            case PARCEL_STATUS_CANCELLED:
+                return ((statusElement.getEntryDate() == null) || (statusElement.getEntryDate().getTime() < (currentTime - retentionPeriod)));
+            default:
+                if ((abandonmentPeriod <= 0) || (statusElement.getEntryDate() == null)) {
+                    return (false);
+                }
+                return (statusElement.getEntryDate().getTime() < (currentTime - abandonmentPeriod));
+        }
+    }
+
+    public long getRetentionPeriod() {
+        return (retentionPeriod);
+    }
+
+    public long getAbandonmentPeriod() {
+        return (abandonmentPeriod);
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.core.common.resilience.processingplant.cache;
+
+import java.util.Date;
+
+import net.fhirfactory.pegacorn.common.model.FDNToken;
+import net.fhirfactory.pegacorn.petasos.model.resilience.activitymatrix.moa.EpisodeIdentifier;
+import net.fhirfactory.pegacorn.petasos.model.resilience.parcel.ResilienceParcel;
+import net.fhirfactory.pegacorn.petasos.model.resilience.parcel.ResilienceParcelIdentifier;
+import net.fhirfactory.pegacorn.petasos.model.resilience.parcel.ResilienceParcelProcessingStatusEnum;
+import net.fhirfactory.pegacorn.petasos.model.wup.WUPIdentifier;
+
+/**
+ * The on-heap handle for a ResilienceParcel whose serialised form has been moved into the
+ * ProcessingPlantParcelOffHeapStore. It retains the "hot" metadata of the parcel (IDs, status and
+ * finished date) so that the ProcessingPlantParcelCacheDM search methods can be resolved without
+ * materialising the parcel, as well as the location of the serialised parcel within the store.
+ *
+ * @author Mark A. Hunter
+ * @since 2020-08-01
+ */
+public class OffHeapParcelHandle {
+    private final ResilienceParcelIdentifier parcelIdentifier;
+    private final EpisodeIdentifier episodeIdentifier;
+    private final WUPIdentifier associatedWUPIdentifier;
+    private final FDNToken uowInstanceID;
+    private final ResilienceParcelProcessingStatusEnum processingStatus;
+    private final Date finishedDate;
+    // the location of the serialised parcel (set by the ProcessingPlantParcelOffHeapStore)
+    ProcessingPlantParcelOffHeapStore.Segment segment;
+    int offset;
+    int length;
+
+    public OffHeapParcelHandle(ResilienceParcel parcel) {
+        this.parcelIdentifier = parcel.getIdentifier();
+        this.episodeIdentifier = parcel.hasEpisodeIdentifier() ? parcel.getEpisodeIdentifier() : null;
+        this.associatedWUPIdentifier = parcel.hasAssociatedWUPIdentifier() ? parcel.getAssociatedWUPIdentifier() : null;
+        this.uowInstanceID = parcel.hasActualUoW() ? parcel.getActualUoW().getInstanceID() : null;
+        this.processingStatus = parcel.hasProcessingStatus() ? parcel.getProcessingStatus() : null;
+        this.finishedDate = parcel.hasFinishedDate() ? parcel.getFinishedDate() : null;
+    }
+
+    public ResilienceParcelIdentifier getParcelIdentifier() {
+        return parcelIdentifier;
+    }
+
+    public EpisodeIdentifier getEpisodeIdentifier() {
+        return episodeIdentifier;
+    }
+
+    public WUPIdentifier getAssociatedWUPIdentifier() {
+        return associatedWUPIdentifier;
+    }
+
+    public FDNToken getUoWInstanceID() {
+        return uowInstanceID;
+    }
+
+    public ResilienceParcelProcessingStatusEnum getProcessingStatus() {
+        return processingStatus;
+    }
+
+    public Date getFinishedDate() {
+        return finishedDate;
+    }
+
+    public int getLength() {
+        return length;
+    }
+}
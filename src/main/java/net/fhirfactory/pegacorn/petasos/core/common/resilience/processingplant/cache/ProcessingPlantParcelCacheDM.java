@@ -21,14 +21,27 @@
  */
 package net.fhirfactory.pegacorn.petasos.core.common.resilience.processingplant.cache;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ConcurrentModificationException;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.enterprise.context.ApplicationScoped;
 
 import javax.transaction.Transactional;
 
+import net.fhirfactory.pegacorn.petasos.core.common.concurrent.PetasosDaemonThreads;
+import net.fhirfactory.pegacorn.petasos.core.common.resilience.parcel.ResilienceParcelCopier;
 import net.fhirfactory.pegacorn.petasos.model.resilience.parcel.ResilienceParcel;
 import net.fhirfactory.pegacorn.petasos.model.resilience.parcel.ResilienceParcelIdentifier;
 import net.fhirfactory.pegacorn.petasos.model.resilience.parcel.ResilienceParcelProcessingStatusEnum;
@@ -44,6 +57,16 @@ import net.fhirfactory.pegacorn.common.model.FDNToken;
  * with the surrounding activity associated with each Parcel beyond provision
  * of helper methods associated with search-set and status-set collection
  * methods.
+ * <p>
+ * Optionally (system property "petasos.parcel.offheap.enabled"), quiescent parcels - those that finished
+ * more than "petasos.parcel.offheap.park.age.millis" ago and are simply awaiting finalisation/purge - are
+ * periodically "parked": they are serialised into a (bounded) ProcessingPlantParcelOffHeapStore and only an
+ * OffHeapParcelHandle (with the parcel's IDs, status and finished date) is kept on-heap. A parked parcel
+ * is materialised (and moved back on-heap) when it is requested individually, as callers update the returned
+ * instance in place. The search methods filter on the handle metadata and return detached copies of the
+ * matching parked parcels - without unparking them - so a scan does not undo the parking; a caller that
+ * modifies such a copy must write it back via updateParcel(). After each parking pass the off-heap store
+ * is compacted, so sparsely used segments are recycled.
  *
  * @author Mark A. Hunter
  * @since 2020-06-01
@@ -52,10 +75,40 @@ import net.fhirfactory.pegacorn.common.model.FDNToken;
 public class ProcessingPlantParcelCacheDM {
     private static final Logger LOG = LoggerFactory.getLogger(ProcessingPlantParcelCacheDM.class);
 
+    public static final long DEFAULT_OFFHEAP_MAX_BYTES = 1024L * 1024L * 1024L;
+    public static final long DEFAULT_OFFHEAP_PARK_AGE_MILLISECONDS = 10000L;
+    private static final int SNAPSHOT_COPY_ATTEMPTS = 3;
+
     private ConcurrentHashMap<ResilienceParcelIdentifier, ResilienceParcel> petasosParcelCache;
+    private ConcurrentHashMap<ResilienceParcelIdentifier, OffHeapParcelHandle> offHeapParcelHandleMap;
+    private ProcessingPlantParcelOffHeapStore parcelOffHeapStore;
+    private ScheduledExecutorService parcelParkingExecutor;
+    private boolean offHeapEnabled;
+    private long offHeapParkAge;
 
     public ProcessingPlantParcelCacheDM() {
         petasosParcelCache = new ConcurrentHashMap<ResilienceParcelIdentifier, ResilienceParcel>();
+        offHeapParcelHandleMap = new ConcurrentHashMap<ResilienceParcelIdentifier, OffHeapParcelHandle>();
+        offHeapEnabled = Boolean.getBoolean("petasos.parcel.offheap.enabled");
+        offHeapParkAge = Long.getLong("petasos.parcel.offheap.park.age.millis", DEFAULT_OFFHEAP_PARK_AGE_MILLISECONDS);
+        long offHeapMaxBytes = Long.getLong("petasos.parcel.offheap.max.bytes", DEFAULT_OFFHEAP_MAX_BYTES);
+        parcelOffHeapStore = new ProcessingPlantParcelOffHeapStore(offHeapMaxBytes, ProcessingPlantParcelOffHeapStore.DEFAULT_SEGMENT_SIZE);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (offHeapEnabled) {
+            LOG.info(".start(): Off-heap parcel parking enabled, park age (ms) --> {}", offHeapParkAge);
+            parcelParkingExecutor = PetasosDaemonThreads.newSingleThreadScheduledExecutor("parcel-parking");
+            parcelParkingExecutor.scheduleWithFixedDelay(() -> parkQuiescentParcels(offHeapParkAge), offHeapParkAge, offHeapParkAge, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (parcelParkingExecutor != null) {
+            parcelParkingExecutor.shutdownNow();
+        }
     }
 
     /**
@@ -72,11 +125,7 @@ public class ProcessingPlantParcelCacheDM {
         if (!parcel.hasInstanceIdentifier()) {
             return;
         }
-        ResilienceParcelIdentifier parcelInstanceID = parcel.getIdentifier();
-        if(petasosParcelCache.containsKey(parcelInstanceID)){
-            petasosParcelCache.remove(parcelInstanceID);
-        }
-        petasosParcelCache.put(parcelInstanceID, parcel);
+        replaceParcel(parcel.getIdentifier(), parcel);
     }
 
     /**
@@ -86,8 +135,18 @@ public class ProcessingPlantParcelCacheDM {
      */
     public ResilienceParcel getParcelInstance(FDNToken parcelInstanceID) {
         LOG.debug(".getParcelInstance(): Entry, parcelInstanceID --> {}", parcelInstanceID);
-        if (petasosParcelCache.containsKey(parcelInstanceID)) {
-            return (petasosParcelCache.get(parcelInstanceID));
+        if (parcelInstanceID == null) {
+            return (null);
+        }
+        // the cache is keyed by the ResilienceParcelIdentifier itself (its hash is cached by the token)
+        ResilienceParcelIdentifier parcelKey = (parcelInstanceID instanceof ResilienceParcelIdentifier) ? (ResilienceParcelIdentifier) parcelInstanceID : new ResilienceParcelIdentifier(parcelInstanceID);
+        ResilienceParcel parcel = petasosParcelCache.get(parcelKey);
+        if (parcel != null) {
+            return (parcel);
+        }
+        OffHeapParcelHandle parkedParcelHandle = offHeapParcelHandleMap.get(parcelKey);
+        if (parkedParcelHandle != null) {
+            return (unparkParcel(parkedParcelHandle.getParcelIdentifier()));
         }
         return (null);
     }
@@ -105,9 +164,7 @@ public class ProcessingPlantParcelCacheDM {
         if (!parcel.hasInstanceIdentifier()) {
             return;
         }
-        if(petasosParcelCache.containsKey(parcel.getIdentifier())) {
-            petasosParcelCache.remove(parcel.getIdentifier());
-        }
+        replaceParcel(parcel.getIdentifier(), null);
     }
 
     /**
@@ -120,9 +177,7 @@ public class ProcessingPlantParcelCacheDM {
         if (parcelInstanceID == null) {
             return;
         }
-        if(petasosParcelCache.containsKey(parcelInstanceID)) {
-            petasosParcelCache.remove(parcelInstanceID);
-        }
+        replaceParcel(parcelInstanceID, null);
     }
 
     /**
@@ -136,27 +191,91 @@ public class ProcessingPlantParcelCacheDM {
         if (newParcel == null) {
             throw (new IllegalArgumentException("newParcel is null"));
         }
-        if (petasosParcelCache.containsKey(newParcel.getIdentifier())) {
-            petasosParcelCache.remove(newParcel.getIdentifier());
+        replaceParcel(newParcel.getIdentifier(), newParcel);
+    }
+
+    /**
+     * This function replaces (or, given a null parcel, removes) the on-heap parcel and discards any parked copy of
+     * it. Both are done within a compute() on the parcel's on-heap entry - as are the parking and unparking of the
+     * parcel - so a concurrent request cannot unpark (and so resurrect) the parked copy in between.
+     *
+     * @param parcelID The ResilienceParcelIdentifier of the parcel
+     * @param parcel The new ResilienceParcel instance (or null to remove it)
+     */
+    private void replaceParcel(ResilienceParcelIdentifier parcelID, ResilienceParcel parcel) {
+        petasosParcelCache.compute(parcelID, (key, currentParcel) -> {
+            discardParkedParcel(key);
+            return (parcel);
+        });
+    }
+
+    /**
+     * This function passes each ResilienceParcel in the cache to the consumer, without promoting parked parcels
+     * back on-heap (a copy of each is materialised instead). The iteration is weakly consistent - parcels added,
+     * updated or removed during it may or may not be seen - which is sufficient for (fuzzy) journal snapshots.
+     * <p>
+     * The consumer is only ever passed a private copy: each on-heap parcel is copied under its cache entry (so it
+     * cannot be replaced part way through), and a copy that is defeated by an in-place modification is retried a
+     * few times and then skipped - that modification is itself journalled after the snapshot epoch, so the parcel
+     * is still recovered from the journal tail.
+     *
+     * @param parcelConsumer The consumer of the ResilienceParcel instances
+     */
+    public void snapshotParcels(Consumer<ResilienceParcel> parcelConsumer) {
+        LOG.debug(".snapshotParcels(): Entry");
+        for (ResilienceParcelIdentifier parcelKey : petasosParcelCache.keySet()) {
+            ResilienceParcel parcelCopy = copyCachedParcel(parcelKey);
+            if (parcelCopy != null) {
+                parcelConsumer.accept(parcelCopy);
+            }
+        }
+        for (ResilienceParcelIdentifier parkedParcelKey : offHeapParcelHandleMap.keySet()) {
+            ResilienceParcel parkedParcel = loadParkedParcel(parkedParcelKey);
+            if (parkedParcel != null) {
+                parcelConsumer.accept(parkedParcel);
+            }
         }
-        petasosParcelCache.put(newParcel.getIdentifier(), newParcel);
+    }
+
+    private ResilienceParcel copyCachedParcel(ResilienceParcelIdentifier parcelKey) {
+        ResilienceParcel[] parcelCopy = new ResilienceParcel[1];
+        for (int attempt = 1; attempt <= SNAPSHOT_COPY_ATTEMPTS; attempt++) {
+            try {
+                petasosParcelCache.computeIfPresent(parcelKey, (key, parcel) -> {
+                    parcelCopy[0] = ResilienceParcelCopier.copy(parcel);
+                    return (parcel);
+                });
+                return (parcelCopy[0]);
+            } catch (ConcurrentModificationException | IllegalStateException copyException) {
+                LOG.trace(".copyCachedParcel(): Parcel modified during copy, attempt --> {}", attempt);
+            }
+        }
+        LOG.warn(".copyCachedParcel(): Unable to copy parcel for snapshot, skipping it (its journal tail still applies), parcelKey --> {}", parcelKey);
+        return (null);
     }
 
     /**
-     * This function returns a List of all the ResilienceParcel instances within the cache
+     * This function returns a List of all the ResilienceParcel instances within the cache (parked parcels are
+     * included as detached copies)
      * @return A List of all the ResilienceParcel instances contained within the Cache
      */
     public List<ResilienceParcel> getParcelSet() {
         LOG.debug(".getParcelSet(): Entry");
         List<ResilienceParcel> parcelList = new LinkedList<ResilienceParcel>();
         petasosParcelCache.entrySet().forEach(entry -> parcelList.add(entry.getValue()));
+        offHeapParcelHandleMap.keySet().forEach(parcelKey -> addParkedParcel(parcelKey, parcelList));
         return (parcelList);
     }
 
     public List<ResilienceParcel> getParcelSetByState(ResilienceParcelProcessingStatusEnum status) {
         LOG.debug(".getParcelSet(): Entry, status --> {}", status);
         List<ResilienceParcel> parcelList = new LinkedList<ResilienceParcel>();
-        Iterator<ResilienceParcel> parcelListIterator = getParcelSet().iterator();
+        offHeapParcelHandleMap.forEach((parcelKey, handle) -> {
+            if (handle.getProcessingStatus() == status) {
+                addParkedParcel(parcelKey, parcelList);
+            }
+        });
+        Iterator<ResilienceParcel> parcelListIterator = petasosParcelCache.values().iterator();
         while (parcelListIterator.hasNext()) {
             ResilienceParcel currentParcel = parcelListIterator.next();
             if (currentParcel.hasProcessingStatus()) {
@@ -195,7 +314,12 @@ public class ProcessingPlantParcelCacheDM {
     public List<ResilienceParcel> getParcelByEpisodeID(FDNToken parcelTypeID) {
         LOG.debug(".getInProgressParcelSet(): Entry, parcelTypeID --> {}" + parcelTypeID);
         List<ResilienceParcel> parcelList = new LinkedList<ResilienceParcel>();
-        Iterator<ResilienceParcel> parcelListIterator = getParcelSet().iterator();
+        offHeapParcelHandleMap.forEach((parcelKey, handle) -> {
+            if ((handle.getEpisodeIdentifier() != null) && handle.getEpisodeIdentifier().equals(parcelTypeID)) {
+                addParkedParcel(parcelKey, parcelList);
+            }
+        });
+        Iterator<ResilienceParcel> parcelListIterator = petasosParcelCache.values().iterator();
         while (parcelListIterator.hasNext()) {
             ResilienceParcel currentParcel = parcelListIterator.next();
             if (currentParcel.hasEpisodeIdentifier()) {
@@ -211,8 +335,7 @@ public class ProcessingPlantParcelCacheDM {
 
     public ResilienceParcel getCurrentParcelForWUP(FDNToken wupInstanceID, FDNToken uowInstanceID) {
         LOG.debug(".getCurrentParcel(): Entry, wupInstanceID --> {}" + wupInstanceID);
-        List<ResilienceParcel> parcelList = new LinkedList<ResilienceParcel>();
-        Iterator<ResilienceParcel> parcelListIterator = getParcelSet().iterator();
+        Iterator<ResilienceParcel> parcelListIterator = petasosParcelCache.values().iterator();
         while (parcelListIterator.hasNext()) {
             ResilienceParcel currentParcel = parcelListIterator.next();
             if (currentParcel.hasAssociatedWUPIdentifier()) {
@@ -225,7 +348,132 @@ public class ProcessingPlantParcelCacheDM {
                 }
             }
         }
+        Iterator<OffHeapParcelHandle> parkedParcelIterator = offHeapParcelHandleMap.values().iterator();
+        while (parkedParcelIterator.hasNext()) {
+            OffHeapParcelHandle currentHandle = parkedParcelIterator.next();
+            if ((currentHandle.getAssociatedWUPIdentifier() != null) && (currentHandle.getUoWInstanceID() != null)
+                    && currentHandle.getAssociatedWUPIdentifier().equals(wupInstanceID) && currentHandle.getUoWInstanceID().equals(uowInstanceID)) {
+                return (unparkParcel(currentHandle.getParcelIdentifier()));
+            }
+        }
         return (null);
     }
 
+    /**
+     * This function moves the quiescent parcels (those that finished at least minimumAge milliseconds ago) into
+     * the off-heap store. A parcel is left on-heap if the off-heap store is full or it cannot be serialised.
+     *
+     * @param minimumAge The minimum time (in milliseconds) since the parcel finished
+     * @return The number of parcels parked
+     */
+    public int parkQuiescentParcels(long minimumAge) {
+        LOG.debug(".parkQuiescentParcels(): Entry, minimumAge --> {}", minimumAge);
+        long cutOffTime = System.currentTimeMillis() - minimumAge;
+        int parkedCount = 0;
+        Iterator<ResilienceParcelIdentifier> parcelKeyIterator = petasosParcelCache.keySet().iterator();
+        while (parcelKeyIterator.hasNext()) {
+            ResilienceParcelIdentifier parcelKey = parcelKeyIterator.next();
+            ResilienceParcel parkedParcel = petasosParcelCache.computeIfPresent(parcelKey, (key, parcel) -> {
+                if (!parcel.hasFinishedDate() || (parcel.getFinishedDate().getTime() > cutOffTime)) {
+                    return (parcel);
+                }
+                OffHeapParcelHandle handle = new OffHeapParcelHandle(parcel);
+                byte[] serialisedParcel = serialiseParcel(parcel);
+                if ((serialisedParcel == null) || !parcelOffHeapStore.store(handle, serialisedParcel)) {
+                    return (parcel);
+                }
+                offHeapParcelHandleMap.put(key, handle);
+                return (null);
+            });
+            if (parkedParcel == null) {
+                parkedCount += 1;
+            }
+        }
+        int relocatedCount = parcelOffHeapStore.compact(ProcessingPlantParcelOffHeapStore.DEFAULT_COMPACTION_LIVE_RATIO);
+        LOG.debug(".parkQuiescentParcels(): Exit, parkedCount --> {}, relocatedCount --> {}, offHeap liveBytes --> {}", parkedCount, relocatedCount, parcelOffHeapStore.getLiveBytes());
+        return (parkedCount);
+    }
+
+    /**
+     * This function materialises a parked parcel and moves it back on-heap. The unpark is performed within the
+     * on-heap map's computeIfAbsent(), so concurrent requests for the same parcel share the one instance. The
+     * off-heap copy is only freed once it has been materialised - a parcel that cannot be deserialised stays parked.
+     *
+     * @param parcelID The ResilienceParcelIdentifier of the parked parcel
+     * @return The (now on-heap) ResilienceParcel, or null if it is not present
+     */
+    private ResilienceParcel unparkParcel(ResilienceParcelIdentifier parcelID) {
+        return (petasosParcelCache.computeIfAbsent(parcelID, key -> {
+            ResilienceParcel parkedParcel = loadParkedParcel(key);
+            if (parkedParcel != null) {
+                discardParkedParcel(key);
+            }
+            return (parkedParcel);
+        }));
+    }
+
+    /**
+     * This function materialises a detached copy of a parked parcel, leaving it parked. The bytes are loaded within
+     * the handle map's compute, so the handle cannot be freed (and its segment recycled) mid-read.
+     *
+     * @param parcelKey The key of the parked parcel
+     * @return A copy of the parked ResilienceParcel, or null if it is no longer parked
+     */
+    private ResilienceParcel loadParkedParcel(ResilienceParcelIdentifier parcelKey) {
+        byte[][] serialisedParcel = new byte[1][];
+        offHeapParcelHandleMap.computeIfPresent(parcelKey, (key, handle) -> {
+            serialisedParcel[0] = parcelOffHeapStore.load(handle);
+            return (handle);
+        });
+        if (serialisedParcel[0] == null) {
+            return (null);
+        }
+        return (deserialiseParcel(serialisedParcel[0]));
+    }
+
+    private void addParkedParcel(ResilienceParcelIdentifier parcelKey, List<ResilienceParcel> parcelList) {
+        ResilienceParcel parkedParcel = loadParkedParcel(parcelKey);
+        if (parkedParcel != null) {
+            parcelList.add(parkedParcel);
+        }
+    }
+
+    private void discardParkedParcel(ResilienceParcelIdentifier parcelID) {
+        if (offHeapParcelHandleMap.isEmpty()) {
+            return;
+        }
+        OffHeapParcelHandle handle = offHeapParcelHandleMap.remove(parcelID);
+        if (handle != null) {
+            parcelOffHeapStore.free(handle);
+        }
+    }
+
+    private byte[] serialiseParcel(ResilienceParcel parcel) {
+        ByteArrayOutputStream serialisedParcel = new ByteArrayOutputStream();
+        try (ObjectOutputStream parcelStream = new ObjectOutputStream(serialisedParcel)) {
+            parcelStream.writeObject(parcel);
+        } catch (IOException serialisationException) {
+            LOG.warn(".serialiseParcel(): Unable to serialise parcel, leaving it on-heap, parcelID --> {}", parcel.getIdentifier(), serialisationException);
+            return (null);
+        }
+        return (serialisedParcel.toByteArray());
+    }
+
+    private ResilienceParcel deserialiseParcel(byte[] serialisedParcel) {
+        try (ObjectInputStream parcelStream = new ObjectInputStream(new ByteArrayInputStream(serialisedParcel))) {
+            return ((ResilienceParcel) parcelStream.readObject());
+        } catch (IOException | ClassNotFoundException deserialisationException) {
+            LOG.error(".deserialiseParcel(): Unable to materialise parked parcel", deserialisationException);
+            return (null);
+        }
+    }
+
+    public int getParkedParcelCount() {
+        return (offHeapParcelHandleMap.size());
+    }
+
+    public long getOffHeapLiveBytes() {
+        return (parcelOffHeapStore.getLiveBytes());
+    }
+
 }
@@ -0,0 +1,228 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.core.common.resilience.processingplant.cache;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A simple off-heap store for serialised ResilienceParcels. Space is allocated from large direct ByteBuffer
+ * "segments" using a bump pointer - so millions of parcels are held in a handful of (GC invisible) buffers
+ * rather than as millions of on-heap object graphs. Each segment tracks its live records; once all the
+ * records within a (non-current) segment have been freed, the segment is recycled.
+ * <p>
+ * As a single long-lived record would otherwise pin a whole segment, compact() relocates the live records of
+ * sparsely used segments into the current segment - so those segments can be recycled too.
+ * <p>
+ * The total off-heap capacity is bounded - when it is exhausted, store() returns false and the caller
+ * simply keeps the parcel on-heap.
+ *
+ * @author Mark A. Hunter
+ * @since 2020-08-01
+ */
+public class ProcessingPlantParcelOffHeapStore {
+    private static final Logger LOG = LoggerFactory.getLogger(ProcessingPlantParcelOffHeapStore.class);
+    public static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+    public static final double DEFAULT_COMPACTION_LIVE_RATIO = 0.25;
+
+    static class Segment {
+        private final ByteBuffer buffer;
+        private final Set<OffHeapParcelHandle> liveHandles;
+        private int writeOffset;
+        private long liveByteCount;
+
+        Segment(int segmentSize) {
+            this.buffer = ByteBuffer.allocateDirect(segmentSize);
+            this.liveHandles = new HashSet<OffHeapParcelHandle>();
+            this.writeOffset = 0;
+            this.liveByteCount = 0;
+        }
+    }
+
+    private final int segmentSize;
+    private final long maxOffHeapBytes;
+    private final ArrayDeque<Segment> freeSegments;
+    private final List<Segment> activeSegments;
+    private Segment currentSegment;
+    private long allocatedBytes;
+    private long liveBytes;
+
+    public ProcessingPlantParcelOffHeapStore(long maxOffHeapBytes, int segmentSize) {
+        this.segmentSize = segmentSize;
+        this.maxOffHeapBytes = maxOffHeapBytes;
+        this.freeSegments = new ArrayDeque<Segment>();
+        this.activeSegments = new ArrayList<Segment>();
+        this.currentSegment = null;
+        this.allocatedBytes = 0;
+        this.liveBytes = 0;
+    }
+
+    /**
+     * Copies the serialised parcel into the store, setting its location within the handle.
+     *
+     * @param handle          The handle for the parcel
+     * @param serialisedParcel The serialised parcel
+     * @return True if the parcel was stored, false if there is no (off-heap) capacity for it
+     */
+    public synchronized boolean store(OffHeapParcelHandle handle, byte[] serialisedParcel) {
+        if (!ensureCurrentSegmentCapacity(serialisedParcel.length)) {
+            return (false);
+        }
+        append(handle, serialisedParcel);
+        return (true);
+    }
+
+    /**
+     * Copies the serialised parcel (back) out of the store.
+     *
+     * @param handle The handle for the parcel
+     * @return The serialised parcel
+     */
+    public synchronized byte[] load(OffHeapParcelHandle handle) {
+        byte[] serialisedParcel = new byte[handle.length];
+        ByteBuffer readView = handle.segment.buffer.duplicate();
+        readView.position(handle.offset);
+        readView.get(serialisedParcel);
+        return (serialisedParcel);
+    }
+
+    /**
+     * Releases the space used by the parcel. The handle must not be used after it has been freed.
+     *
+     * @param handle The handle for the parcel
+     */
+    public synchronized void free(OffHeapParcelHandle handle) {
+        detach(handle);
+    }
+
+    /**
+     * Relocates the live records of each (non-current) segment whose live bytes are below the given fraction of
+     * the segment size into the current segment, so that the sparse segments can be recycled. Relocation stops
+     * early if there is no (off-heap) capacity left to relocate into.
+     *
+     * @param minimumLiveRatio The fraction of a segment that must be live for it to be left as is
+     * @return The number of records relocated
+     */
+    public synchronized int compact(double minimumLiveRatio) {
+        long minimumLiveBytes = (long) (segmentSize * minimumLiveRatio);
+        List<Segment> sparseSegments = new ArrayList<Segment>();
+        for (Segment segment : activeSegments) {
+            if ((segment != currentSegment) && (segment.liveByteCount < minimumLiveBytes)) {
+                sparseSegments.add(segment);
+            }
+        }
+        int relocatedCount = 0;
+        for (Segment sparseSegment : sparseSegments) {
+            for (OffHeapParcelHandle handle : new ArrayList<OffHeapParcelHandle>(sparseSegment.liveHandles)) {
+                byte[] serialisedParcel = load(handle);
+                // a sparse segment still has live records, so it is never (re)selected as the current segment
+                if (!ensureCurrentSegmentCapacity(serialisedParcel.length)) {
+                    LOG.debug(".compact(): No capacity to relocate into, relocatedCount --> {}", relocatedCount);
+                    return (relocatedCount);
+                }
+                detach(handle);
+                append(handle, serialisedParcel);
+                relocatedCount += 1;
+            }
+        }
+        LOG.trace(".compact(): Exit, relocatedCount --> {}, sparseSegments --> {}", relocatedCount, sparseSegments.size());
+        return (relocatedCount);
+    }
+
+    private boolean ensureCurrentSegmentCapacity(int length) {
+        if (length > segmentSize) {
+            return (false);
+        }
+        if ((currentSegment != null) && ((segmentSize - currentSegment.writeOffset) >= length)) {
+            return (true);
+        }
+        Segment newSegment = freeSegments.poll();
+        if (newSegment == null) {
+            if ((allocatedBytes + segmentSize) > maxOffHeapBytes) {
+                LOG.trace(".ensureCurrentSegmentCapacity(): Off-heap capacity exhausted, allocatedBytes --> {}", allocatedBytes);
+                return (false);
+            }
+            newSegment = new Segment(segmentSize);
+            allocatedBytes += segmentSize;
+        }
+        Segment previousSegment = currentSegment;
+        currentSegment = newSegment;
+        activeSegments.add(newSegment);
+        if ((previousSegment != null) && previousSegment.liveHandles.isEmpty()) {
+            recycle(previousSegment);
+        }
+        return (true);
+    }
+
+    private void append(OffHeapParcelHandle handle, byte[] serialisedParcel) {
+        ByteBuffer writeView = currentSegment.buffer.duplicate();
+        writeView.position(currentSegment.writeOffset);
+        writeView.put(serialisedParcel);
+        handle.segment = currentSegment;
+        handle.offset = currentSegment.writeOffset;
+        handle.length = serialisedParcel.length;
+        currentSegment.writeOffset += serialisedParcel.length;
+        currentSegment.liveHandles.add(handle);
+        currentSegment.liveByteCount += serialisedParcel.length;
+        liveBytes += serialisedParcel.length;
+    }
+
+    private void detach(OffHeapParcelHandle handle) {
+        Segment segment = handle.segment;
+        if (segment == null) {
+            return;
+        }
+        handle.segment = null;
+        segment.liveHandles.remove(handle);
+        segment.liveByteCount -= handle.length;
+        liveBytes -= handle.length;
+        if (segment.liveHandles.isEmpty() && (segment != currentSegment)) {
+            recycle(segment);
+        }
+    }
+
+    private void recycle(Segment segment) {
+        segment.writeOffset = 0;
+        segment.liveByteCount = 0;
+        activeSegments.remove(segment);
+        freeSegments.push(segment);
+    }
+
+    public synchronized long getAllocatedBytes() {
+        return (allocatedBytes);
+    }
+
+    public synchronized long getLiveBytes() {
+        return (liveBytes);
+    }
+
+    public synchronized int getFreeSegmentCount() {
+        return (freeSegments.size());
+    }
+}
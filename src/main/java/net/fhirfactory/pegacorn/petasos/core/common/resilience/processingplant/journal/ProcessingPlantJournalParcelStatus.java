@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.core.common.resilience.processingplant.journal;
+
+import java.util.Date;
+
+import net.fhirfactory.pegacorn.petasos.model.resilience.parcel.ResilienceParcel;
+import net.fhirfactory.pegacorn.petasos.model.resilience.parcel.ResilienceParcelFinalisationStatusEnum;
+import net.fhirfactory.pegacorn.petasos.model.resilience.parcel.ResilienceParcelProcessingStatusEnum;
+import net.fhirfactory.pegacorn.petasos.model.uow.UoWPayloadSet;
+import net.fhirfactory.pegacorn.petasos.model.uow.UoWProcessingOutcomeEnum;
+
+/**
+ * The (journalled) state transition of a ResilienceParcel - its processing and finalisation status and lifecycle
+ * dates, plus (for the finish and failure transitions) the outcome of its UoW. It is applied to the parcel rebuilt
+ * from the parcel's registration (or snapshot) record, so only the registration journals the whole parcel.
+ *
+ * @author Mark A. Hunter
+ * @since 2020-08-01
+ */
+public class ProcessingPlantJournalParcelStatus {
+    private ResilienceParcelProcessingStatusEnum processingStatus;
+    private ResilienceParcelFinalisationStatusEnum finalisationStatus;
+    private Date startDate;
+    private Date finishedDate;
+    private Date finalisationDate;
+    private boolean outcomeIncluded;
+    private UoWPayloadSet egressContent;
+    private UoWProcessingOutcomeEnum processingOutcome;
+
+    ProcessingPlantJournalParcelStatus() {
+    }
+
+    /**
+     * Sets the journalled status, dates and (if included) UoW outcome on the parcel.
+     *
+     * @param parcel The ResilienceParcel rebuilt from the journal
+     */
+    public void applyTo(ResilienceParcel parcel) {
+        parcel.setProcessingStatus(processingStatus);
+        parcel.setFinalisationStatus(finalisationStatus);
+        parcel.setStartDate(startDate);
+        parcel.setFinishedDate(finishedDate);
+        parcel.setFinalisationDate(finalisationDate);
+        if (outcomeIncluded && parcel.hasActualUoW()) {
+            parcel.getActualUoW().setEgressContent(egressContent);
+            parcel.getActualUoW().setProcessingOutcome(processingOutcome);
+        }
+    }
+
+    public ResilienceParcelProcessingStatusEnum getProcessingStatus() {
+        return (processingStatus);
+    }
+
+    void setProcessingStatus(ResilienceParcelProcessingStatusEnum processingStatus) {
+        this.processingStatus = processingStatus;
+    }
+
+    public ResilienceParcelFinalisationStatusEnum getFinalisationStatus() {
+        return (finalisationStatus);
+    }
+
+    void setFinalisationStatus(ResilienceParcelFinalisationStatusEnum finalisationStatus) {
+        this.finalisationStatus = finalisationStatus;
+    }
+
+    public Date getStartDate() {
+        return (startDate);
+    }
+
+    void setStartDate(Date startDate) {
+        this.startDate = startDate;
+    }
+
+    public Date getFinishedDate() {
+        return (finishedDate);
+    }
+
+    void setFinishedDate(Date finishedDate) {
+        this.finishedDate = finishedDate;
+    }
+
+    public Date getFinalisationDate() {
+        return (finalisationDate);
+    }
+
+    void setFinalisationDate(Date finalisationDate) {
+        this.finalisationDate = finalisationDate;
+    }
+
+    public boolean isOutcomeIncluded() {
+        return (outcomeIncluded);
+    }
+
+    void setOutcome(UoWPayloadSet egressContent, UoWProcessingOutcomeEnum processingOutcome) {
+        this.outcomeIncluded = true;
+        this.egressContent = egressContent;
+        this.processingOutcome = processingOutcome;
+    }
+}
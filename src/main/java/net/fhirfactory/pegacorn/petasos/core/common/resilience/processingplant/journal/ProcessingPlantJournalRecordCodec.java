@@ -0,0 +1,220 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.core.common.resilience.processingplant.journal;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.fhirfactory.pegacorn.common.model.FDNToken;
+import net.fhirfactory.pegacorn.common.model.RDN;
+import net.fhirfactory.pegacorn.petasos.core.common.identifiers.PetasosFDNTokenCodec;
+import net.fhirfactory.pegacorn.petasos.model.pathway.ActivityID;
+import net.fhirfactory.pegacorn.petasos.model.resilience.activitymatrix.moa.EpisodeIdentifier;
+import net.fhirfactory.pegacorn.petasos.model.resilience.parcel.ResilienceParcel;
+import net.fhirfactory.pegacorn.petasos.model.resilience.parcel.ResilienceParcelFinalisationStatusEnum;
+import net.fhirfactory.pegacorn.petasos.model.resilience.parcel.ResilienceParcelIdentifier;
+import net.fhirfactory.pegacorn.petasos.model.resilience.parcel.ResilienceParcelProcessingStatusEnum;
+import net.fhirfactory.pegacorn.petasos.model.uow.UoWPayloadSet;
+import net.fhirfactory.pegacorn.petasos.model.uow.UoWProcessingOutcomeEnum;
+import net.fhirfactory.pegacorn.petasos.model.wup.WUPFunctionToken;
+
+/**
+ * The binary encoding of the keys and payloads of the ProcessingPlantParcelJournal (and snapshot) records.
+ * <p>
+ * The identifiers (the record key, and the Episode IDs within the finalisation records) are written with the
+ * PetasosFDNTokenCodec - as their RDNs, with the well known qualifiers as single bytes - and the processing
+ * status as its name, so the removal records (and the identifier parts of the other records) carry no Java
+ * serialisation overhead at all. Only the model objects this module cannot rebuild field by field (the
+ * ResilienceParcel, ActivityID and WUPFunctionToken - and a finished parcel's egress content) are Java serialised,
+ * as a length-prefixed blob. A parcel status record holds the statuses (by name) and the dates (as epoch millis).
+ *
+ * @author Mark A. Hunter
+ * @since 2020-08-01
+ */
+final class ProcessingPlantJournalRecordCodec {
+    private static final Logger LOG = LoggerFactory.getLogger(ProcessingPlantJournalRecordCodec.class);
+
+    interface PayloadWriter {
+        void write(DataOutput output) throws IOException;
+    }
+
+    private ProcessingPlantJournalRecordCodec() {
+    }
+
+    //
+    // Record Keys and Payloads
+    //
+
+    static byte[] encodeKey(ResilienceParcelIdentifier parcelID) {
+        return (encode(output -> writeIdentifier(output, parcelID)));
+    }
+
+    static ResilienceParcelIdentifier decodeKey(byte[] key) throws IOException {
+        FDNToken parcelID = readIdentifier(new DataInputStream(new ByteArrayInputStream(key)));
+        if ((parcelID == null) || (parcelID instanceof ResilienceParcelIdentifier)) {
+            return ((ResilienceParcelIdentifier) parcelID);
+        }
+        return (new ResilienceParcelIdentifier(parcelID));
+    }
+
+    static byte[] encodeParcel(ResilienceParcel parcel) {
+        return (encode(output -> writeModelObject(output, parcel)));
+    }
+
+    static byte[] encodeParcelStatus(ResilienceParcel parcel, boolean includeOutcome) {
+        return (encode(output -> {
+            writeStatus(output, parcel.getProcessingStatus());
+            output.writeUTF((parcel.getFinalisationStatus() == null) ? "" : parcel.getFinalisationStatus().name());
+            writeDate(output, parcel.getStartDate());
+            writeDate(output, parcel.getFinishedDate());
+            writeDate(output, parcel.getFinalisationDate());
+            boolean writeOutcome = includeOutcome && parcel.hasActualUoW();
+            output.writeBoolean(writeOutcome);
+            if (writeOutcome) {
+                writeModelObject(output, parcel.getActualUoW().getEgressContent());
+                writeModelObject(output, parcel.getActualUoW().getProcessingOutcome());
+            }
+        }));
+    }
+
+    static ProcessingPlantJournalParcelStatus readParcelStatus(DataInput input) throws IOException, ClassNotFoundException {
+        ProcessingPlantJournalParcelStatus parcelStatus = new ProcessingPlantJournalParcelStatus();
+        parcelStatus.setProcessingStatus(readStatus(input));
+        String finalisationStatusName = input.readUTF();
+        parcelStatus.setFinalisationStatus(finalisationStatusName.isEmpty() ? null : ResilienceParcelFinalisationStatusEnum.valueOf(finalisationStatusName));
+        parcelStatus.setStartDate(readDate(input));
+        parcelStatus.setFinishedDate(readDate(input));
+        parcelStatus.setFinalisationDate(readDate(input));
+        if (input.readBoolean()) {
+            UoWPayloadSet egressContent = (UoWPayloadSet) readModelObject(input);
+            parcelStatus.setOutcome(egressContent, (UoWProcessingOutcomeEnum) readModelObject(input));
+        }
+        return (parcelStatus);
+    }
+
+    static byte[] encodeWUAStatus(ActivityID activityID, ResilienceParcelProcessingStatusEnum status) {
+        return (encode(output -> {
+            writeStatus(output, status);
+            writeModelObject(output, activityID);
+        }));
+    }
+
+    static byte[] encodeDownstreamWUPInterest(EpisodeIdentifier wuaEpisodeID, WUPFunctionToken downstreamWUPFunctionID) {
+        return (encode(output -> {
+            writeIdentifier(output, wuaEpisodeID);
+            writeModelObject(output, downstreamWUPFunctionID);
+        }));
+    }
+
+    static byte[] encodeDownstreamEpisodeID(EpisodeIdentifier wuaEpisodeID, WUPFunctionToken downstreamWUPFunctionID, EpisodeIdentifier downstreamEpisodeID) {
+        return (encode(output -> {
+            writeIdentifier(output, wuaEpisodeID);
+            writeIdentifier(output, downstreamEpisodeID);
+            writeModelObject(output, downstreamWUPFunctionID);
+        }));
+    }
+
+    private static byte[] encode(PayloadWriter payloadWriter) {
+        ByteArrayOutputStream encodedPayload = new ByteArrayOutputStream();
+        try (DataOutputStream payloadStream = new DataOutputStream(encodedPayload)) {
+            payloadWriter.write(payloadStream);
+        } catch (IOException | RuntimeException encodingException) {
+            LOG.warn(".encode(): Unable to encode journal record, record not journalled", encodingException);
+            return (null);
+        }
+        return (encodedPayload.toByteArray());
+    }
+
+    //
+    // Field Readers and Writers
+    //
+
+    static void writeIdentifier(DataOutput output, FDNToken identifier) throws IOException {
+        output.writeBoolean(identifier != null);
+        if (identifier != null) {
+            PetasosFDNTokenCodec.writeToken(output, identifier, Collections.emptyList());
+        }
+    }
+
+    static FDNToken readIdentifier(DataInput input) throws IOException {
+        if (!input.readBoolean()) {
+            return (null);
+        }
+        return (PetasosFDNTokenCodec.readToken(input, Collections.emptyList(), new ArrayList<RDN>()));
+    }
+
+    static EpisodeIdentifier readEpisodeIdentifier(DataInput input) throws IOException {
+        FDNToken episodeID = readIdentifier(input);
+        if ((episodeID == null) || (episodeID instanceof EpisodeIdentifier)) {
+            return ((EpisodeIdentifier) episodeID);
+        }
+        return (new EpisodeIdentifier(episodeID));
+    }
+
+    static void writeStatus(DataOutput output, ResilienceParcelProcessingStatusEnum status) throws IOException {
+        output.writeUTF((status == null) ? "" : status.name());
+    }
+
+    static ResilienceParcelProcessingStatusEnum readStatus(DataInput input) throws IOException {
+        String statusName = input.readUTF();
+        return (statusName.isEmpty() ? null : ResilienceParcelProcessingStatusEnum.valueOf(statusName));
+    }
+
+    static void writeDate(DataOutput output, Date date) throws IOException {
+        output.writeLong((date == null) ? Long.MIN_VALUE : date.getTime());
+    }
+
+    static Date readDate(DataInput input) throws IOException {
+        long dateMillis = input.readLong();
+        return ((dateMillis == Long.MIN_VALUE) ? null : new Date(dateMillis));
+    }
+
+    static void writeModelObject(DataOutput output, Object modelObject) throws IOException {
+        ByteArrayOutputStream serialisedObject = new ByteArrayOutputStream();
+        try (ObjectOutputStream objectStream = new ObjectOutputStream(serialisedObject)) {
+            objectStream.writeObject(modelObject);
+        }
+        output.writeInt(serialisedObject.size());
+        output.write(serialisedObject.toByteArray());
+    }
+
+    static Object readModelObject(DataInput input) throws IOException, ClassNotFoundException {
+        byte[] serialisedObject = new byte[input.readInt()];
+        input.readFully(serialisedObject);
+        try (ObjectInputStream objectStream = new ObjectInputStream(new ByteArrayInputStream(serialisedObject))) {
+            return (objectStream.readObject());
+        }
+    }
+}
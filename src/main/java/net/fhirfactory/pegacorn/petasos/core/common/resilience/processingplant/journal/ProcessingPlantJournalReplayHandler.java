@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.core.common.resilience.processingplant.journal;
+
+import net.fhirfactory.pegacorn.petasos.model.pathway.ActivityID;
+import net.fhirfactory.pegacorn.petasos.model.resilience.activitymatrix.moa.EpisodeIdentifier;
+import net.fhirfactory.pegacorn.petasos.model.resilience.parcel.ResilienceParcel;
+import net.fhirfactory.pegacorn.petasos.model.resilience.parcel.ResilienceParcelIdentifier;
+import net.fhirfactory.pegacorn.petasos.model.resilience.parcel.ResilienceParcelProcessingStatusEnum;
+import net.fhirfactory.pegacorn.petasos.model.wup.WUPFunctionToken;
+
+/**
+ * The callback interface through which the ProcessingPlantParcelJournal replays its (surviving) records -
+ * in journal order, after the content of the latest snapshot - into the ProcessingPlant caches at startup.
+ *
+ * @author Mark A. Hunter
+ * @since 2020-08-01
+ */
+public interface ProcessingPlantJournalReplayHandler {
+    public void replayParcel(ResilienceParcel parcel);
+
+    public void replayParcelStatus(ResilienceParcelIdentifier parcelID, ProcessingPlantJournalParcelStatus parcelStatus);
+
+    public void replayParcelRemoval(ResilienceParcelIdentifier parcelID);
+
+    public void replayWUAStatus(ActivityID activityID, ResilienceParcelProcessingStatusEnum status);
+
+    public void replayDownstreamWUPInterest(ResilienceParcelIdentifier upstreamParcelID, EpisodeIdentifier wuaEpisodeID, WUPFunctionToken downstreamWUPFunctionID);
+
+    public void replayDownstreamEpisodeID(ResilienceParcelIdentifier upstreamParcelID, EpisodeIdentifier wuaEpisodeID, WUPFunctionToken downstreamWUPFunctionID, EpisodeIdentifier downstreamEpisodeID);
+
+    public void replayFinalisationStateRemoval(ResilienceParcelIdentifier upstreamParcelID);
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.core.common.resilience.processingplant.journal;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import net.fhirfactory.pegacorn.petasos.model.pathway.ActivityID;
+import net.fhirfactory.pegacorn.petasos.model.resilience.activitymatrix.moa.EpisodeIdentifier;
+import net.fhirfactory.pegacorn.petasos.model.resilience.parcel.ResilienceParcel;
+import net.fhirfactory.pegacorn.petasos.model.resilience.parcel.ResilienceParcelIdentifier;
+import net.fhirfactory.pegacorn.petasos.model.resilience.parcel.ResilienceParcelProcessingStatusEnum;
+import net.fhirfactory.pegacorn.petasos.model.wup.WUPFunctionToken;
+
+/**
+ * A snapshot (being written) of the ProcessingPlant caches. The entries are written in the journal record format,
+ * so a snapshot is replayed exactly as a journal segment is.
+ *
+ * @author Mark A. Hunter
+ * @since 2020-08-01
+ */
+public class ProcessingPlantJournalSnapshot {
+    private FileChannel snapshotChannel;
+    private long recordCount;
+
+    ProcessingPlantJournalSnapshot(FileChannel snapshotChannel) {
+        this.snapshotChannel = snapshotChannel;
+        this.recordCount = 0;
+    }
+
+    public void addParcel(ResilienceParcel parcel) {
+        if ((parcel == null) || !parcel.hasInstanceIdentifier()) {
+            return;
+        }
+        write(ProcessingPlantParcelJournal.RECORD_PARCEL, ProcessingPlantJournalRecordCodec.encodeKey(parcel.getIdentifier()),
+                ProcessingPlantJournalRecordCodec.encodeParcel(parcel));
+    }
+
+    public void addWUAStatus(ActivityID activityID, ResilienceParcelProcessingStatusEnum status) {
+        if ((activityID == null) || (activityID.getPresentParcelIdentifier() == null)) {
+            return;
+        }
+        write(ProcessingPlantParcelJournal.RECORD_WUA_STATUS, ProcessingPlantJournalRecordCodec.encodeKey(activityID.getPresentParcelIdentifier()),
+                ProcessingPlantJournalRecordCodec.encodeWUAStatus(activityID, status));
+    }
+
+    public void addDownstreamWUPInterest(ResilienceParcelIdentifier upstreamParcelID, EpisodeIdentifier wuaEpisodeID, WUPFunctionToken downstreamWUPFunctionID) {
+        if ((upstreamParcelID == null) || (downstreamWUPFunctionID == null)) {
+            return;
+        }
+        write(ProcessingPlantParcelJournal.RECORD_DOWNSTREAM_WUP_INTEREST, ProcessingPlantJournalRecordCodec.encodeKey(upstreamParcelID),
+                ProcessingPlantJournalRecordCodec.encodeDownstreamWUPInterest(wuaEpisodeID, downstreamWUPFunctionID));
+    }
+
+    public void addDownstreamEpisodeID(ResilienceParcelIdentifier upstreamParcelID, EpisodeIdentifier wuaEpisodeID, WUPFunctionToken downstreamWUPFunctionID, EpisodeIdentifier downstreamEpisodeID) {
+        if ((upstreamParcelID == null) || (downstreamWUPFunctionID == null) || (downstreamEpisodeID == null)) {
+            return;
+        }
+        write(ProcessingPlantParcelJournal.RECORD_DOWNSTREAM_EPISODE_ID, ProcessingPlantJournalRecordCodec.encodeKey(upstreamParcelID),
+                ProcessingPlantJournalRecordCodec.encodeDownstreamEpisodeID(wuaEpisodeID, downstreamWUPFunctionID, downstreamEpisodeID));
+    }
+
+    public long getRecordCount() {
+        return (recordCount);
+    }
+
+    private void write(byte recordType, byte[] key, byte[] payload) {
+        if ((key == null) || (payload == null)) {
+            return;
+        }
+        ByteBuffer record = ProcessingPlantParcelJournal.encodeRecord(recordType, key, payload);
+        try {
+            while (record.hasRemaining()) {
+                snapshotChannel.write(record);
+            }
+        } catch (IOException snapshotException) {
+            throw (new UncheckedIOException(".write(): Unable to write snapshot record", snapshotException));
+        }
+        recordCount += 1;
+    }
+}
@@ -0,0 +1,737 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.core.common.resilience.processingplant.journal;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+
+import net.fhirfactory.pegacorn.petasos.core.common.concurrent.PetasosDaemonThreads;
+import net.fhirfactory.pegacorn.petasos.model.pathway.ActivityID;
+import net.fhirfactory.pegacorn.petasos.model.resilience.activitymatrix.moa.EpisodeIdentifier;
+import net.fhirfactory.pegacorn.petasos.model.resilience.parcel.ResilienceParcel;
+import net.fhirfactory.pegacorn.petasos.model.resilience.parcel.ResilienceParcelIdentifier;
+import net.fhirfactory.pegacorn.petasos.model.resilience.parcel.ResilienceParcelProcessingStatusEnum;
+import net.fhirfactory.pegacorn.petasos.model.wup.WUPFunctionToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This class is the append-only, write-ahead journal of the (local) ProcessingPlant parcel state transitions. It
+ * allows a standalone ProcessingPlant to rebuild its ParcelCache, WUA Episode ActivityMatrix and WUA Episode
+ * Finalisation Cache (i.e. recover its in-flight parcels) after a restart, without waiting on a synchronous
+ * cluster write.
+ * <p>
+ * The journal is enabled by setting the "petasos.journal.directory" system property. Records are appended to a
+ * memory-mapped segment file (rolling to a new segment when full), and the segment is forced to disk by a
+ * "group commit" every "petasos.journal.commit.interval.millis" - so many transitions share one fsync. Callers
+ * that need durability before proceeding can use awaitCommit(). The force is done outside the journal lock (a
+ * rolled segment is only sealed, and forced by the next commit), so appends never wait on the disk.
+ * <p>
+ * The whole parcel is only journalled when it is registered - its subsequent transitions are journalled as parcel
+ * status records (the statuses, dates and, on finish or failure, the UoW outcome), which are applied to it on replay.
+ * <p>
+ * Each record is: [int length][byte type][int keyLength][key][payload][int CRC32], where the key is the
+ * (compactly encoded) ResilienceParcelIdentifier - for the finalisation records, that of the upstream Parcel - see
+ * ProcessingPlantJournalRecordCodec for the key and payload encodings. Replay
+ * stops at the first empty or corrupt (torn) record of a segment.
+ * <p>
+ * Snapshots ("petasos.journal.snapshot.interval.seconds") are taken without pausing the ProcessingPlant: the
+ * current segment is rolled - its number becoming the snapshot's epoch - and the registered
+ * ProcessingPlantJournalSnapshotSource then writes the (concurrently changing) cache content. As every record
+ * is an idempotent "latest state" record, replaying the segments from the epoch onwards over the snapshot
+ * yields the correct state - so on restart only the latest snapshot and the journal tail are replayed, and
+ * the segments before the epoch are deleted once the snapshot is complete.
+ * <p>
+ * Between snapshots ("petasos.journal.compaction.interval.seconds") the closed segments of the tail are
+ * compacted - only the latest record for each parcel (with the status records that follow it, and the finalisation
+ * registration records) is kept, together with the removal records (which must still mask entries within the
+ * snapshot). The compacted
+ * output is written to "compact.tmp", renamed to "compact-[segment].ready" once complete, then the closed
+ * segments are deleted and the ready file renamed to replace the last of them. An interrupted compaction
+ * is completed (or discarded) at the next startup.
+ *
+ * @author Mark A. Hunter
+ * @since 2020-08-01
+ */
+@ApplicationScoped
+public class ProcessingPlantParcelJournal {
+    private static final Logger LOG = LoggerFactory.getLogger(ProcessingPlantParcelJournal.class);
+
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+    public static final long DEFAULT_COMMIT_INTERVAL_MILLISECONDS = 10;
+    public static final long DEFAULT_COMPACTION_INTERVAL_SECONDS = 300;
+    public static final long DEFAULT_SNAPSHOT_INTERVAL_SECONDS = 900;
+
+    static final byte RECORD_PARCEL = 1;
+    static final byte RECORD_PARCEL_REMOVED = 2;
+    static final byte RECORD_WUA_STATUS = 3;
+    static final byte RECORD_DOWNSTREAM_WUP_INTEREST = 4;
+    static final byte RECORD_DOWNSTREAM_EPISODE_ID = 5;
+    static final byte RECORD_FINALISATION_STATE_REMOVED = 6;
+    static final byte RECORD_PARCEL_STATUS = 7;
+    private static final int RECORD_OVERHEAD = 4 + 1 + 4 + 4;
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".snap";
+    private static final String SNAPSHOT_TEMP_FILE = "snapshot.tmp";
+    private static final String COMPACTION_TEMP_FILE = "compact.tmp";
+    private static final String COMPACTION_READY_PREFIX = "compact-";
+    private static final String COMPACTION_READY_SUFFIX = ".ready";
+
+    private boolean journalEnabled;
+    // the thread running replay() - its (replayed) cache updates are not re-journalled
+    private volatile Thread replayThread;
+    private volatile ProcessingPlantJournalSnapshotSource snapshotSource;
+    private Path journalDirectory;
+    private int segmentSize;
+    private final Object journalLock = new Object();
+    // serialises the (group) commits, which force the segments outside the journalLock
+    private final Object commitLock = new Object();
+    private FileChannel currentChannel;
+    private MappedByteBuffer currentBuffer;
+    // the rolled segments whose records are yet to be forced (and whose channels are yet to be closed)
+    private List<JournalSegment> sealedSegments = new ArrayList<JournalSegment>();
+    private long currentSegmentNumber;
+    private long appendedRecordCount;
+    private long committedRecordCount;
+    private ScheduledExecutorService commitExecutor;
+    private ScheduledExecutorService maintenanceExecutor;
+
+    @PostConstruct
+    public void start() {
+        String directoryName = System.getProperty("petasos.journal.directory");
+        journalEnabled = (directoryName != null) && !directoryName.isEmpty();
+        if (!journalEnabled) {
+            LOG.debug(".start(): No journal directory configured, journal disabled");
+            return;
+        }
+        segmentSize = Integer.getInteger("petasos.journal.segment.size", DEFAULT_SEGMENT_SIZE);
+        long commitInterval = Long.getLong("petasos.journal.commit.interval.millis", DEFAULT_COMMIT_INTERVAL_MILLISECONDS);
+        long compactionInterval = Long.getLong("petasos.journal.compaction.interval.seconds", DEFAULT_COMPACTION_INTERVAL_SECONDS);
+        long snapshotInterval = Long.getLong("petasos.journal.snapshot.interval.seconds", DEFAULT_SNAPSHOT_INTERVAL_SECONDS);
+        try {
+            journalDirectory = Paths.get(directoryName);
+            Files.createDirectories(journalDirectory);
+            Files.deleteIfExists(journalDirectory.resolve(SNAPSHOT_TEMP_FILE));
+            completeInterruptedCompaction();
+            List<Long> segmentNumbers = listFileNumbers(SEGMENT_PREFIX, SEGMENT_SUFFIX);
+            currentSegmentNumber = segmentNumbers.isEmpty() ? 0 : segmentNumbers.get(segmentNumbers.size() - 1);
+            currentSegmentNumber = Math.max(currentSegmentNumber, getLatestSnapshotEpoch());
+            openNewSegment();
+        } catch (IOException journalException) {
+            LOG.error(".start(): Unable to open the journal, journal disabled, directory --> {}", directoryName, journalException);
+            journalEnabled = false;
+            return;
+        }
+        commitExecutor = PetasosDaemonThreads.newSingleThreadScheduledExecutor("parcel-journal-commit");
+        commitExecutor.scheduleWithFixedDelay(this::groupCommit, commitInterval, commitInterval, TimeUnit.MILLISECONDS);
+        // compaction and snapshots share a (separate) thread, so they never run concurrently or delay a commit
+        maintenanceExecutor = PetasosDaemonThreads.newSingleThreadScheduledExecutor("parcel-journal-maintenance");
+        maintenanceExecutor.scheduleWithFixedDelay(this::compact, compactionInterval, compactionInterval, TimeUnit.SECONDS);
+        maintenanceExecutor.scheduleWithFixedDelay(this::snapshot, snapshotInterval, snapshotInterval, TimeUnit.SECONDS);
+        LOG.info(".start(): Journal started, directory --> {}, segment --> {}", journalDirectory, currentSegmentNumber);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (!journalEnabled) {
+            return;
+        }
+        commitExecutor.shutdownNow();
+        maintenanceExecutor.shutdownNow();
+        groupCommit();
+        synchronized (journalLock) {
+            closeCurrentSegment();
+        }
+    }
+
+    public boolean isEnabled() {
+        return (journalEnabled);
+    }
+
+    /**
+     * Registers the source of the cache content written into each snapshot. Snapshots are not taken until a
+     * source is registered.
+     *
+     * @param source The ProcessingPlantJournalSnapshotSource
+     */
+    public void registerSnapshotSource(ProcessingPlantJournalSnapshotSource source) {
+        this.snapshotSource = source;
+    }
+
+    //
+    // Journal Writers
+    //
+
+    public void journalParcel(ResilienceParcel parcel) {
+        if (!journalEnabled || isReplayThread() || (parcel == null) || !parcel.hasInstanceIdentifier()) {
+            return;
+        }
+        append(RECORD_PARCEL, ProcessingPlantJournalRecordCodec.encodeKey(parcel.getIdentifier()), ProcessingPlantJournalRecordCodec.encodeParcel(parcel));
+    }
+
+    /**
+     * Journals a state transition of an (already journalled) parcel - see ProcessingPlantJournalParcelStatus.
+     *
+     * @param parcel The ResilienceParcel
+     * @param includeOutcome True if the UoW's egress content and processing outcome changed (finish or failure)
+     */
+    public void journalParcelStatus(ResilienceParcel parcel, boolean includeOutcome) {
+        if (!journalEnabled || isReplayThread() || (parcel == null) || !parcel.hasInstanceIdentifier()) {
+            return;
+        }
+        append(RECORD_PARCEL_STATUS, ProcessingPlantJournalRecordCodec.encodeKey(parcel.getIdentifier()), ProcessingPlantJournalRecordCodec.encodeParcelStatus(parcel, includeOutcome));
+    }
+
+    public void journalParcelRemoval(ResilienceParcelIdentifier parcelID) {
+        if (!journalEnabled || isReplayThread() || (parcelID == null)) {
+            return;
+        }
+        append(RECORD_PARCEL_REMOVED, ProcessingPlantJournalRecordCodec.encodeKey(parcelID), new byte[0]);
+    }
+
+    public void journalWUAStatus(ActivityID activityID, ResilienceParcelProcessingStatusEnum status) {
+        if (!journalEnabled || isReplayThread() || (activityID == null) || (activityID.getPresentParcelIdentifier() == null)) {
+            return;
+        }
+        append(RECORD_WUA_STATUS, ProcessingPlantJournalRecordCodec.encodeKey(activityID.getPresentParcelIdentifier()), ProcessingPlantJournalRecordCodec.encodeWUAStatus(activityID, status));
+    }
+
+    public void journalDownstreamWUPInterest(ResilienceParcelIdentifier upstreamParcelID, EpisodeIdentifier wuaEpisodeID, WUPFunctionToken downstreamWUPFunctionID) {
+        if (!journalEnabled || isReplayThread() || (upstreamParcelID == null) || (downstreamWUPFunctionID == null)) {
+            return;
+        }
+        append(RECORD_DOWNSTREAM_WUP_INTEREST, ProcessingPlantJournalRecordCodec.encodeKey(upstreamParcelID), ProcessingPlantJournalRecordCodec.encodeDownstreamWUPInterest(wuaEpisodeID, downstreamWUPFunctionID));
+    }
+
+    public void journalDownstreamEpisodeID(ResilienceParcelIdentifier upstreamParcelID, EpisodeIdentifier wuaEpisodeID, WUPFunctionToken downstreamWUPFunctionID, EpisodeIdentifier downstreamEpisodeID) {
+        if (!journalEnabled || isReplayThread() || (upstreamParcelID == null) || (downstreamWUPFunctionID == null) || (downstreamEpisodeID == null)) {
+            return;
+        }
+        append(RECORD_DOWNSTREAM_EPISODE_ID, ProcessingPlantJournalRecordCodec.encodeKey(upstreamParcelID), ProcessingPlantJournalRecordCodec.encodeDownstreamEpisodeID(wuaEpisodeID, downstreamWUPFunctionID, downstreamEpisodeID));
+    }
+
+    public void journalFinalisationStateRemoval(ResilienceParcelIdentifier upstreamParcelID) {
+        if (!journalEnabled || isReplayThread() || (upstreamParcelID == null)) {
+            return;
+        }
+        append(RECORD_FINALISATION_STATE_REMOVED, ProcessingPlantJournalRecordCodec.encodeKey(upstreamParcelID), new byte[0]);
+    }
+
+    private boolean isReplayThread() {
+        return (Thread.currentThread() == replayThread);
+    }
+
+    private void append(byte recordType, byte[] key, byte[] payload) {
+        if ((key == null) || (payload == null)) {
+            return;
+        }
+        ByteBuffer record = encodeRecord(recordType, key, payload);
+        synchronized (journalLock) {
+            try {
+                if (currentBuffer.remaining() < record.remaining()) {
+                    if (record.remaining() > segmentSize) {
+                        LOG.warn(".append(): Record larger than the journal segment size, not journalled, recordLength --> {}", record.remaining());
+                        return;
+                    }
+                    openNewSegment();
+                }
+                currentBuffer.put(record);
+                appendedRecordCount += 1;
+            } catch (IOException journalException) {
+                LOG.error(".append(): Unable to roll the journal segment, record not journalled", journalException);
+            }
+        }
+    }
+
+    /**
+     * Forces the sealed segments and the current segment to disk if anything has been appended since the last
+     * commit, and releases any threads waiting in awaitCommit(). The segments (and the record count they cover) are
+     * captured under the journal lock, but forced outside it - so appends continue while the commit waits on the disk.
+     */
+    public void groupCommit() {
+        synchronized (commitLock) {
+            List<JournalSegment> commitSegments;
+            MappedByteBuffer commitBuffer;
+            long commitRecordCount;
+            synchronized (journalLock) {
+                if ((committedRecordCount >= appendedRecordCount) && sealedSegments.isEmpty()) {
+                    return;
+                }
+                commitSegments = sealedSegments;
+                sealedSegments = new ArrayList<JournalSegment>();
+                commitBuffer = currentBuffer;
+                commitRecordCount = appendedRecordCount;
+            }
+            for (JournalSegment sealedSegment : commitSegments) {
+                sealedSegment.buffer.force();
+                closeChannel(sealedSegment.channel, sealedSegment.segmentNumber);
+            }
+            if (commitBuffer != null) {
+                commitBuffer.force();
+            }
+            synchronized (journalLock) {
+                committedRecordCount = Math.max(committedRecordCount, commitRecordCount);
+                journalLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Blocks until all records appended (by any thread) before this call have been forced to disk.
+     */
+    public void awaitCommit() throws InterruptedException {
+        if (!journalEnabled) {
+            return;
+        }
+        synchronized (journalLock) {
+            long targetRecordCount = appendedRecordCount;
+            while (committedRecordCount < targetRecordCount) {
+                journalLock.wait();
+            }
+        }
+    }
+
+    //
+    // Replay
+    //
+
+    /**
+     * Replays the latest snapshot (if any) and then every (valid) record of the journal tail, in order, into the
+     * handler. Journalling is suspended for the replaying thread only - so the handler can use the normal cache
+     * update methods, while any concurrent (live) transitions are still journalled. Snapshots and compaction are
+     * deferred until the replay is complete.
+     *
+     * @param handler The ProcessingPlantJournalReplayHandler rebuilding the caches
+     * @return The number of records replayed
+     */
+    public long replay(ProcessingPlantJournalReplayHandler handler) {
+        LOG.debug(".replay(): Entry");
+        if (!journalEnabled) {
+            return (0);
+        }
+        long replayedRecordCount = 0;
+        replayThread = Thread.currentThread();
+        try {
+            long replayStartTime = System.currentTimeMillis();
+            long snapshotEpoch = getLatestSnapshotEpoch();
+            if (snapshotEpoch > 0) {
+                for (byte[][] record : readRecordFile(snapshotPath(snapshotEpoch))) {
+                    dispatch(record, handler);
+                    replayedRecordCount += 1;
+                }
+                LOG.info(".replay(): Snapshot replayed, epoch --> {}, records --> {}", snapshotEpoch, replayedRecordCount);
+            }
+            for (Long segmentNumber : listFileNumbers(SEGMENT_PREFIX, SEGMENT_SUFFIX)) {
+                if ((segmentNumber < snapshotEpoch) || (segmentNumber == currentSegmentNumber)) {
+                    continue;
+                }
+                for (byte[][] record : readRecordFile(segmentPath(segmentNumber))) {
+                    dispatch(record, handler);
+                    replayedRecordCount += 1;
+                }
+            }
+            LOG.info(".replay(): Journal replayed, records --> {}, duration (ms) --> {}", replayedRecordCount, System.currentTimeMillis() - replayStartTime);
+        } catch (IOException journalException) {
+            LOG.error(".replay(): Unable to read the journal, replay incomplete", journalException);
+        } finally {
+            replayThread = null;
+        }
+        return (replayedRecordCount);
+    }
+
+    private void dispatch(byte[][] record, ProcessingPlantJournalReplayHandler handler) {
+        try {
+            DataInputStream payload = new DataInputStream(new ByteArrayInputStream(record[2]));
+            EpisodeIdentifier wuaEpisodeID;
+            switch (record[0][0]) {
+                case RECORD_PARCEL:
+                    handler.replayParcel((ResilienceParcel) ProcessingPlantJournalRecordCodec.readModelObject(payload));
+                    break;
+                case RECORD_PARCEL_STATUS:
+                    handler.replayParcelStatus(ProcessingPlantJournalRecordCodec.decodeKey(record[1]), ProcessingPlantJournalRecordCodec.readParcelStatus(payload));
+                    break;
+                case RECORD_PARCEL_REMOVED:
+                    handler.replayParcelRemoval(ProcessingPlantJournalRecordCodec.decodeKey(record[1]));
+                    break;
+                case RECORD_WUA_STATUS:
+                    ResilienceParcelProcessingStatusEnum status = ProcessingPlantJournalRecordCodec.readStatus(payload);
+                    handler.replayWUAStatus((ActivityID) ProcessingPlantJournalRecordCodec.readModelObject(payload), status);
+                    break;
+                case RECORD_DOWNSTREAM_WUP_INTEREST:
+                    wuaEpisodeID = ProcessingPlantJournalRecordCodec.readEpisodeIdentifier(payload);
+                    handler.replayDownstreamWUPInterest(ProcessingPlantJournalRecordCodec.decodeKey(record[1]), wuaEpisodeID,
+                            (WUPFunctionToken) ProcessingPlantJournalRecordCodec.readModelObject(payload));
+                    break;
+                case RECORD_DOWNSTREAM_EPISODE_ID:
+                    wuaEpisodeID = ProcessingPlantJournalRecordCodec.readEpisodeIdentifier(payload);
+                    EpisodeIdentifier downstreamEpisodeID = ProcessingPlantJournalRecordCodec.readEpisodeIdentifier(payload);
+                    handler.replayDownstreamEpisodeID(ProcessingPlantJournalRecordCodec.decodeKey(record[1]), wuaEpisodeID,
+                            (WUPFunctionToken) ProcessingPlantJournalRecordCodec.readModelObject(payload), downstreamEpisodeID);
+                    break;
+                case RECORD_FINALISATION_STATE_REMOVED:
+                    handler.replayFinalisationStateRemoval(ProcessingPlantJournalRecordCodec.decodeKey(record[1]));
+                    break;
+                default:
+                    LOG.warn(".dispatch(): Unknown journal record type --> {}", record[0][0]);
+            }
+        } catch (IOException | ClassNotFoundException | RuntimeException replayException) {
+            LOG.warn(".dispatch(): Unable to replay journal record, skipping it", replayException);
+        }
+    }
+
+    /**
+     * Reads the valid records of a segment (or snapshot) file as [type, key, payload] triples.
+     */
+    private List<byte[][]> readRecordFile(Path recordFile) throws IOException {
+        List<byte[][]> records = new ArrayList<byte[][]>();
+        try (FileChannel recordChannel = FileChannel.open(recordFile, StandardOpenOption.READ)) {
+            MappedByteBuffer recordBuffer = recordChannel.map(FileChannel.MapMode.READ_ONLY, 0, recordChannel.size());
+            while (recordBuffer.remaining() >= RECORD_OVERHEAD) {
+                int recordLength = recordBuffer.getInt();
+                if ((recordLength <= 0) || (recordLength > recordBuffer.remaining())) {
+                    break;
+                }
+                byte recordType = recordBuffer.get();
+                int keyLength = recordBuffer.getInt();
+                int payloadLength = recordLength - (RECORD_OVERHEAD - 4) - keyLength;
+                if ((keyLength < 0) || (payloadLength < 0)) {
+                    break;
+                }
+                byte[] key = new byte[keyLength];
+                recordBuffer.get(key);
+                byte[] payload = new byte[payloadLength];
+                recordBuffer.get(payload);
+                CRC32 checksum = new CRC32();
+                checksum.update(recordType);
+                checksum.update(key);
+                checksum.update(payload);
+                if (recordBuffer.getInt() != (int) checksum.getValue()) {
+                    LOG.warn(".readRecordFile(): Torn or corrupt record found, ignoring the remainder of file --> {}", recordFile);
+                    break;
+                }
+                records.add(new byte[][]{new byte[]{recordType}, key, payload});
+            }
+        }
+        return (records);
+    }
+
+    //
+    // Snapshots
+    //
+
+    /**
+     * Takes a snapshot of the ProcessingPlant caches (via the registered ProcessingPlantJournalSnapshotSource). The
+     * caches are read while the ProcessingPlant continues to process - see the class description for why this
+     * "fuzzy" snapshot is consistent once the journal tail is replayed over it.
+     */
+    public void snapshot() {
+        if (!journalEnabled || (replayThread != null) || (snapshotSource == null)) {
+            return;
+        }
+        LOG.debug(".snapshot(): Entry");
+        try {
+            long snapshotEpoch;
+            synchronized (journalLock) {
+                openNewSegment();
+                snapshotEpoch = currentSegmentNumber;
+            }
+            groupCommit();
+            long snapshotStartTime = System.currentTimeMillis();
+            Path snapshotTempFile = journalDirectory.resolve(SNAPSHOT_TEMP_FILE);
+            long snapshotRecordCount;
+            try (FileChannel snapshotChannel = FileChannel.open(snapshotTempFile, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                ProcessingPlantJournalSnapshot snapshot = new ProcessingPlantJournalSnapshot(snapshotChannel);
+                snapshotSource.writeSnapshot(snapshot);
+                snapshotRecordCount = snapshot.getRecordCount();
+                snapshotChannel.force(true);
+            }
+            Files.move(snapshotTempFile, snapshotPath(snapshotEpoch), StandardCopyOption.ATOMIC_MOVE);
+            // the snapshot supersedes the earlier snapshots and all the segments before its epoch
+            for (Long snapshotNumber : listFileNumbers(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX)) {
+                if (snapshotNumber < snapshotEpoch) {
+                    Files.deleteIfExists(snapshotPath(snapshotNumber));
+                }
+            }
+            for (Long segmentNumber : listFileNumbers(SEGMENT_PREFIX, SEGMENT_SUFFIX)) {
+                if (segmentNumber < snapshotEpoch) {
+                    Files.deleteIfExists(segmentPath(segmentNumber));
+                }
+            }
+            LOG.info(".snapshot(): Snapshot taken, epoch --> {}, records --> {}, duration (ms) --> {}", snapshotEpoch, snapshotRecordCount, System.currentTimeMillis() - snapshotStartTime);
+        } catch (IOException | RuntimeException snapshotException) {
+            LOG.error(".snapshot(): Snapshot failed, the journal is retained", snapshotException);
+        }
+    }
+
+    private long getLatestSnapshotEpoch() throws IOException {
+        List<Long> snapshotNumbers = listFileNumbers(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX);
+        return (snapshotNumbers.isEmpty() ? 0 : snapshotNumbers.get(snapshotNumbers.size() - 1));
+    }
+
+    //
+    // Compaction
+    //
+
+    /**
+     * Compacts the closed segments of the journal tail - keeping only the latest parcel record (and the parcel status
+     * records that follow it) and WUA status record of each parcel, the finalisation registration records of each
+     * (upstream) parcel, and the removal records.
+     */
+    public void compact() {
+        if (!journalEnabled || (replayThread != null)) {
+            return;
+        }
+        LOG.debug(".compact(): Entry");
+        try {
+            long lastClosedSegmentNumber;
+            synchronized (journalLock) {
+                // roll the current segment, so all the segments being compacted are closed
+                openNewSegment();
+                lastClosedSegmentNumber = currentSegmentNumber - 1;
+            }
+            groupCommit();
+            long snapshotEpoch = getLatestSnapshotEpoch();
+            List<Long> closedSegmentNumbers = new ArrayList<Long>();
+            for (Long segmentNumber : listFileNumbers(SEGMENT_PREFIX, SEGMENT_SUFFIX)) {
+                if ((segmentNumber >= snapshotEpoch) && (segmentNumber <= lastClosedSegmentNumber)) {
+                    closedSegmentNumbers.add(segmentNumber);
+                }
+            }
+            if (closedSegmentNumbers.size() < 2) {
+                return;
+            }
+            LinkedHashMap<ByteBuffer, byte[][]> parcelRecords = new LinkedHashMap<ByteBuffer, byte[][]>();
+            LinkedHashMap<ByteBuffer, List<byte[][]>> parcelStatusRecords = new LinkedHashMap<ByteBuffer, List<byte[][]>>();
+            LinkedHashMap<ByteBuffer, byte[][]> wuaStatusRecords = new LinkedHashMap<ByteBuffer, byte[][]>();
+            LinkedHashMap<ByteBuffer, List<byte[][]>> finalisationRecords = new LinkedHashMap<ByteBuffer, List<byte[][]>>();
+            LinkedHashMap<ByteBuffer, byte[][]> parcelRemovalRecords = new LinkedHashMap<ByteBuffer, byte[][]>();
+            LinkedHashMap<ByteBuffer, byte[][]> finalisationRemovalRecords = new LinkedHashMap<ByteBuffer, byte[][]>();
+            for (Long segmentNumber : closedSegmentNumbers) {
+                for (byte[][] record : readRecordFile(segmentPath(segmentNumber))) {
+                    ByteBuffer recordKey = ByteBuffer.wrap(record[1]);
+                    switch (record[0][0]) {
+                        case RECORD_PARCEL:
+                            parcelRecords.remove(recordKey);
+                            parcelRecords.put(recordKey, record);
+                            // a (re-)registration supersedes the earlier transitions
+                            parcelStatusRecords.remove(recordKey);
+                            break;
+                        case RECORD_PARCEL_STATUS:
+                            // each transition is kept, as only the finish (or failure) carries the UoW outcome
+                            parcelStatusRecords.computeIfAbsent(recordKey, key -> new ArrayList<byte[][]>()).add(record);
+                            break;
+                        case RECORD_WUA_STATUS:
+                            wuaStatusRecords.remove(recordKey);
+                            wuaStatusRecords.put(recordKey, record);
+                            break;
+                        case RECORD_PARCEL_REMOVED:
+                            parcelRecords.remove(recordKey);
+                            parcelStatusRecords.remove(recordKey);
+                            wuaStatusRecords.remove(recordKey);
+                            parcelRemovalRecords.put(recordKey, record);
+                            break;
+                        case RECORD_DOWNSTREAM_WUP_INTEREST:
+                        case RECORD_DOWNSTREAM_EPISODE_ID:
+                            finalisationRecords.computeIfAbsent(recordKey, key -> new ArrayList<byte[][]>()).add(record);
+                            break;
+                        case RECORD_FINALISATION_STATE_REMOVED:
+                            finalisationRecords.remove(recordKey);
+                            finalisationRemovalRecords.put(recordKey, record);
+                            break;
+                        default:
+                            break;
+                    }
+                }
+            }
+            Path compactionTempFile = journalDirectory.resolve(COMPACTION_TEMP_FILE);
+            try (FileChannel compactionChannel = FileChannel.open(compactionTempFile, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                // the removal records are written first - any later re-registration of the same key follows them
+                for (byte[][] record : parcelRemovalRecords.values()) {
+                    writeRecord(compactionChannel, record);
+                }
+                for (byte[][] record : finalisationRemovalRecords.values()) {
+                    writeRecord(compactionChannel, record);
+                }
+                for (byte[][] record : parcelRecords.values()) {
+                    writeRecord(compactionChannel, record);
+                }
+                for (List<byte[][]> recordList : parcelStatusRecords.values()) {
+                    for (byte[][] record : recordList) {
+                        writeRecord(compactionChannel, record);
+                    }
+                }
+                for (byte[][] record : wuaStatusRecords.values()) {
+                    writeRecord(compactionChannel, record);
+                }
+                for (List<byte[][]> recordList : finalisationRecords.values()) {
+                    for (byte[][] record : recordList) {
+                        writeRecord(compactionChannel, record);
+                    }
+                }
+                compactionChannel.force(true);
+            }
+            Path compactionReadyFile = journalDirectory.resolve(COMPACTION_READY_PREFIX + lastClosedSegmentNumber + COMPACTION_READY_SUFFIX);
+            Files.move(compactionTempFile, compactionReadyFile, StandardCopyOption.ATOMIC_MOVE);
+            completeInterruptedCompaction();
+            LOG.debug(".compact(): Exit, segments compacted --> {}, surviving parcels --> {}", closedSegmentNumbers.size(), parcelRecords.size());
+        } catch (IOException journalException) {
+            LOG.error(".compact(): Journal compaction failed, the existing segments are retained", journalException);
+        }
+    }
+
+    private void writeRecord(FileChannel channel, byte[][] record) throws IOException {
+        ByteBuffer recordBuffer = encodeRecord(record[0][0], record[1], record[2]);
+        while (recordBuffer.hasRemaining()) {
+            channel.write(recordBuffer);
+        }
+    }
+
+    /**
+     * Completes a compaction whose output is ready (deleting the segments it replaces and renaming it into their
+     * place), and discards any incomplete compaction output.
+     */
+    private void completeInterruptedCompaction() throws IOException {
+        Files.deleteIfExists(journalDirectory.resolve(COMPACTION_TEMP_FILE));
+        for (Long replacedSegmentNumber : listFileNumbers(COMPACTION_READY_PREFIX, COMPACTION_READY_SUFFIX)) {
+            long snapshotEpoch = getLatestSnapshotEpoch();
+            for (Long segmentNumber : listFileNumbers(SEGMENT_PREFIX, SEGMENT_SUFFIX)) {
+                if ((segmentNumber >= snapshotEpoch) && (segmentNumber < replacedSegmentNumber)) {
+                    Files.deleteIfExists(segmentPath(segmentNumber));
+                }
+            }
+            Path readyFile = journalDirectory.resolve(COMPACTION_READY_PREFIX + replacedSegmentNumber + COMPACTION_READY_SUFFIX);
+            Files.move(readyFile, segmentPath(replacedSegmentNumber), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    //
+    // Segment Helpers
+    //
+
+    /**
+     * Opens the next segment. The current segment (if any) is sealed rather than forced and closed here - that is
+     * left to the next groupCommit(), outside the journal lock.
+     */
+    private void openNewSegment() throws IOException {
+        if (currentChannel != null) {
+            sealedSegments.add(new JournalSegment(currentSegmentNumber, currentChannel, currentBuffer));
+            currentChannel = null;
+        }
+        currentSegmentNumber += 1;
+        currentChannel = FileChannel.open(segmentPath(currentSegmentNumber), StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        currentBuffer = currentChannel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+    }
+
+    private void closeCurrentSegment() {
+        if (currentChannel == null) {
+            return;
+        }
+        closeChannel(currentChannel, currentSegmentNumber);
+        currentChannel = null;
+    }
+
+    private void closeChannel(FileChannel segmentChannel, long segmentNumber) {
+        try {
+            segmentChannel.close();
+        } catch (IOException closeException) {
+            LOG.warn(".closeChannel(): Unable to close journal segment --> {}", segmentNumber, closeException);
+        }
+    }
+
+    private Path segmentPath(long segmentNumber) {
+        return (journalDirectory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, segmentNumber, SEGMENT_SUFFIX)));
+    }
+
+    private Path snapshotPath(long snapshotEpoch) {
+        return (journalDirectory.resolve(String.format("%s%020d%s", SNAPSHOT_PREFIX, snapshotEpoch, SNAPSHOT_SUFFIX)));
+    }
+
+    private List<Long> listFileNumbers(String prefix, String suffix) throws IOException {
+        List<Long> fileNumbers = new ArrayList<Long>();
+        try (DirectoryStream<Path> journalFiles = Files.newDirectoryStream(journalDirectory, prefix + "*" + suffix)) {
+            for (Path journalFile : journalFiles) {
+                String journalFileName = journalFile.getFileName().toString();
+                fileNumbers.add(Long.parseLong(journalFileName.substring(prefix.length(), journalFileName.length() - suffix.length())));
+            }
+        }
+        Collections.sort(fileNumbers);
+        return (fileNumbers);
+    }
+
+    //
+    // Record Encoding
+    //
+
+    static ByteBuffer encodeRecord(byte recordType, byte[] key, byte[] payload) {
+        ByteBuffer recordBuffer = ByteBuffer.allocate(RECORD_OVERHEAD + key.length + payload.length);
+        CRC32 checksum = new CRC32();
+        checksum.update(recordType);
+        checksum.update(key);
+        checksum.update(payload);
+        recordBuffer.putInt(recordBuffer.capacity() - 4);
+        recordBuffer.put(recordType);
+        recordBuffer.putInt(key.length);
+        recordBuffer.put(key);
+        recordBuffer.put(payload);
+        recordBuffer.putInt((int) checksum.getValue());
+        recordBuffer.flip();
+        return (recordBuffer);
+    }
+
+    private static class JournalSegment {
+        private final long segmentNumber;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+
+        JournalSegment(long segmentNumber, FileChannel channel, MappedByteBuffer buffer) {
+            this.segmentNumber = segmentNumber;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+    }
+}
@@ -22,21 +22,21 @@
 
 package net.fhirfactory.pegacorn.petasos.core.moa.brokers;
 
-import java.time.Instant;
-import java.util.Date;
 import java.util.Set;
 
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
 
-import net.fhirfactory.pegacorn.common.model.FDN;
-import net.fhirfactory.pegacorn.common.model.RDN;
+import net.fhirfactory.pegacorn.petasos.core.common.clock.PetasosClock;
 import net.fhirfactory.pegacorn.petasos.audit.api.PetasosAuditWriter;
 import net.fhirfactory.pegacorn.petasos.audit.model.PetasosParcelAuditTrailEntry;
+import net.fhirfactory.pegacorn.petasos.core.common.identifiers.PetasosIdentifierFactory;
 import net.fhirfactory.pegacorn.petasos.core.moa.pathway.interchange.manager.PathwayInterchangeManager;
+import net.fhirfactory.pegacorn.petasos.core.moa.pathway.interchange.properties.InterchangeFanOutProperty;
 import net.fhirfactory.pegacorn.petasos.core.moa.pathway.wupcontainer.manager.WorkUnitProcessorFrameworkManager;
 import net.fhirfactory.pegacorn.petasos.core.moa.resilience.processingplant.manager.ProcessingPlantResilienceActivityServicesController;
 import net.fhirfactory.pegacorn.petasos.core.moa.resilience.processingplant.manager.ProcessingPlantResilienceParcelServicesIM;
+import net.fhirfactory.pegacorn.petasos.model.pathway.ActivityID;
 import net.fhirfactory.pegacorn.petasos.model.resilience.activitymatrix.moa.EpisodeIdentifier;
 import net.fhirfactory.pegacorn.petasos.model.resilience.parcel.ResilienceParcelFinalisationStatusEnum;
 import net.fhirfactory.pegacorn.petasos.model.resilience.parcel.ResilienceParcelProcessingStatusEnum;
@@ -78,6 +78,9 @@ public class PetasosMOAServicesBroker {
     @Inject
     PetasosAuditWriter auditWriter;
 
+    @Inject
+    PetasosIdentifierFactory identifierFactory;
+
     public ParcelStatusElement registerStandardWorkUnitActivity(WUPJobCard jobCard, UoW initialUoW) {
         if ((jobCard == null) || (initialUoW == null)) {
             throw (new IllegalArgumentException(".registerWorkUnitActivity(): jobCard or initialUoW are null"));
@@ -113,6 +116,7 @@ public class PetasosMOAServicesBroker {
         ResilienceParcel finishedParcel = parcelServicesIM
                 .notifyParcelProcessingFinish(jobCard.getActivityID().getPresentParcelIdentifier(), finishedUoW);
         rasController.synchroniseJobCard(jobCard);
+        rasController.finaliseWUAParcelIfCompleted(jobCard.getActivityID());
     }
 
     public void notifyFinalisationOfWorkUnitActivity(WUPJobCard jobCard) {
@@ -164,8 +168,18 @@ public class PetasosMOAServicesBroker {
         return (statusElement);
     }
 
+    public void registerDownstreamWUP(ActivityID upstreamActivityID, WUPFunctionToken interestedWUPFunctionID) {
+        rasController.registerWUAEpisodeDownstreamWUPInterest(upstreamActivityID, interestedWUPFunctionID);
+    }
+
+    /**
+     * @deprecated Downstream interest is tracked per (upstream) ResilienceParcel, as an Episode is shared by every
+     * UoW of the same type processed by a WUP - use registerDownstreamWUP(ActivityID, WUPFunctionToken). This
+     * registration is ignored.
+     */
+    @Deprecated
     public void registerDownstreamWUP(EpisodeIdentifier wuaEpisodeID, WUPFunctionToken interestedWUPFunctionID) {
-        rasController.registerWUAEpisodeDownstreamWUPInterest(wuaEpisodeID, interestedWUPFunctionID);
+        LOG.warn(".registerDownstreamWUP(): Episode level interest is no longer supported, ignored, wuaEpisodeID --> {}, interestedWUPFunctionID --> {}", wuaEpisodeID, interestedWUPFunctionID);
     }
 
     public ResilienceParcel getUnprocessedParcel(FDNToken wupTypeID) {
@@ -176,15 +190,22 @@ public class PetasosMOAServicesBroker {
 
     public void registerWorkUnitProcessor(NodeElement newElement, Set<TopicToken> payloadTopicSet,
                                           WUPArchetypeEnum wupNature) {
-        LOG.debug(".registerWorkUnitProcessor(): Entry, newElement --> {}, payloadTopicSet --> {}", newElement,
-                payloadTopicSet);
+        registerWorkUnitProcessor(newElement, payloadTopicSet, wupNature, new InterchangeFanOutProperty());
+    }
+
+    public void registerWorkUnitProcessor(NodeElement newElement, Set<TopicToken> payloadTopicSet,
+                                          WUPArchetypeEnum wupNature, InterchangeFanOutProperty fanOutProperty) {
+        LOG.debug(".registerWorkUnitProcessor(): Entry, newElement --> {}, payloadTopicSet --> {}, fanOutProperty --> {}", newElement,
+                payloadTopicSet, fanOutProperty);
+        // the in-flight activity must be recovered before any WUP route can register new activity
+        rasController.recoverInFlightActivity();
         switch (wupNature) {
             case WUP_NATURE_LADON_TIMER_TRIGGERED_BEHAVIOUR:
             case WUP_NATURE_LAODN_STIMULI_TRIGGERED_BEHAVIOUR:
                 // Do nothing, as the above WUPs are handled by their own specific frameworks.
                 break;
             case WUP_NATURE_LADON_BEHAVIOUR_WRAPPER:
-                wupInterchangeManager.buildWUPInterchangeRoutes(newElement, wupNature);
+                wupInterchangeManager.buildWUPInterchangeRoutes(newElement, wupNature, fanOutProperty);
                 break;
             case WUP_NATURE_API_ANSWER:
             case WUP_NATURE_API_CLIENT:
@@ -197,7 +218,7 @@ public class PetasosMOAServicesBroker {
             case WUP_NATURE_MESSAGE_WORKER:
             default:
                 wupFrameworkManager.buildWUPFramework(newElement, payloadTopicSet, wupNature);
-                wupInterchangeManager.buildWUPInterchangeRoutes(newElement, wupNature);
+                wupInterchangeManager.buildWUPInterchangeRoutes(newElement, wupNature, fanOutProperty);
         }
     }
 
@@ -212,21 +233,15 @@ public class PetasosMOAServicesBroker {
             throw (new IllegalArgumentException(".writeAuditEntry(): wup, action or theUoW are null"));
         }
         PetasosParcelAuditTrailEntry newAuditEntry = new PetasosParcelAuditTrailEntry();
-        newAuditEntry.setAuditTrailEntryDate(Date.from(Instant.now()));
+        newAuditEntry.setAuditTrailEntryMillis(PetasosClock.wallClockMillis());
         newAuditEntry.setActualUoW(theUoW);
-        FDN auditEntryType = new FDN();
-        auditEntryType.appendFDN(new FDN(theUoW.getTypeID()));
-        auditEntryType.appendRDN(new RDN("action", action));
-        newAuditEntry.setParcelTypeID(auditEntryType.getToken());
-        FDN auditEntryIdentifier = new FDN();
-        auditEntryIdentifier.appendFDN(new FDN(theUoW.getInstanceID()));
-        auditEntryIdentifier.appendRDN(new RDN("action", action));
-        ResilienceParcelIdentifier parcelId = new ResilienceParcelIdentifier(auditEntryIdentifier.getToken());
+        newAuditEntry.setParcelTypeID(identifierFactory.getAuditEntryTypeID(theUoW.getTypeID(), action));
+        ResilienceParcelIdentifier parcelId = identifierFactory.buildAuditEntryIdentifier(theUoW.getInstanceID(), action);
         newAuditEntry.setIdentifier(parcelId);
         newAuditEntry.setParcelFinalsationStatus(ResilienceParcelFinalisationStatusEnum.PARCEL_FINALISATION_STATUS_FINALISED);
         newAuditEntry.setProcessingStatus(ResilienceParcelProcessingStatusEnum.PARCEL_STATUS_FAILED);
-        newAuditEntry.setParcelFinalisedDate(Date.from(Instant.now()));
-        newAuditEntry.setParcelFinishedDate(Date.from(Instant.now()));
+        newAuditEntry.setParcelFinalisedDate(PetasosClock.now());
+        newAuditEntry.setParcelFinishedDate(PetasosClock.now());
         newAuditEntry.setPrimaryWUPIdentifier(wup);
         auditWriter.writeAuditEntry(newAuditEntry, true);
         return (newAuditEntry);
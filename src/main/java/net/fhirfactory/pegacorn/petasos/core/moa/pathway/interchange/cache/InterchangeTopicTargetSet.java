@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.core.moa.pathway.interchange.cache;
+
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElementIdentifier;
+import net.fhirfactory.pegacorn.petasos.model.wup.WUPFunctionTokenSet;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * This class holds the pre-resolved forwarding details for a single Topic: the
+ * set of subscribing Nodes (as known at the time of resolution), the WUP Container
+ * Ingres endpoints for each of them and the corresponding WUPFunctionTokenSet used
+ * for the downstream interest registration of an Episode.
+ * <p>
+ * Instances are treated as immutable once built - consumers must not modify the
+ * endpoint list or the WUPFunctionTokenSet.
+ *
+ * @author Mark A. Hunter
+ * @since 2020-08-01
+ */
+public class InterchangeTopicTargetSet {
+    private Set<NodeElementIdentifier> subscriberNodeSet;
+    private List<String> targetEndpointSet;
+    private WUPFunctionTokenSet downstreamWUPFunctionSet;
+
+    public InterchangeTopicTargetSet(Set<NodeElementIdentifier> subscriberNodeSet, List<String> targetEndpointSet, WUPFunctionTokenSet downstreamWUPFunctionSet){
+        this.subscriberNodeSet = new HashSet<NodeElementIdentifier>(subscriberNodeSet);
+        this.targetEndpointSet = Collections.unmodifiableList(targetEndpointSet);
+        this.downstreamWUPFunctionSet = downstreamWUPFunctionSet;
+    }
+
+    /**
+     * This function checks whether the (current) subscriber set for the Topic is the same
+     * as the one this target set was resolved from.
+     *
+     * @param currentSubscriberNodeSet The current set of subscribers (from the TopicIM)
+     * @return True if the subscriber set is unchanged, false otherwise
+     */
+    public boolean isResolvedFrom(Set<NodeElementIdentifier> currentSubscriberNodeSet){
+        if(currentSubscriberNodeSet == null){
+            return(false);
+        }
+        if(currentSubscriberNodeSet.size() != subscriberNodeSet.size()){
+            return(false);
+        }
+        return(subscriberNodeSet.containsAll(currentSubscriberNodeSet));
+    }
+
+    public List<String> getTargetEndpointSet() {
+        return targetEndpointSet;
+    }
+
+    public WUPFunctionTokenSet getDownstreamWUPFunctionSet() {
+        return downstreamWUPFunctionSet;
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.core.moa.pathway.interchange.cache;
+
+import net.fhirfactory.pegacorn.petasos.model.topics.TopicToken;
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElementIdentifier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.enterprise.context.ApplicationScoped;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class is the Cache Data Manager (CacheDM) for the per-Topic forwarding details used
+ * by the Interchange (see InterchangeTargetWUPTypeRouter). Resolving the subscriber endpoints
+ * and WUPFunctionTokens for a Topic requires a Topology lookup per subscriber, so the result is
+ * built once per Topic and reused for every UoW of that Topic until the subscriber set changes.
+ *
+ * @author Mark A. Hunter
+ * @since 2020-08-01
+ */
+@ApplicationScoped
+public class InterchangeTopicTargetSetCacheDM {
+    private static final Logger LOG = LoggerFactory.getLogger(InterchangeTopicTargetSetCacheDM.class);
+
+    private ConcurrentHashMap<TopicToken, InterchangeTopicTargetSet> topicTargetSetMap;
+
+    public InterchangeTopicTargetSetCacheDM(){
+        topicTargetSetMap = new ConcurrentHashMap<TopicToken, InterchangeTopicTargetSet>();
+    }
+
+    /**
+     * This function returns the cached InterchangeTopicTargetSet for the Topic, if (and only if) it
+     * was resolved from the same subscriber set as the one provided.
+     *
+     * @param topicID The Topic of the UoW being forwarded
+     * @param currentSubscriberNodeSet The current set of subscribers (from the TopicIM)
+     * @return The cached InterchangeTopicTargetSet or null if there isn't a valid one
+     */
+    public InterchangeTopicTargetSet getTargetSet(TopicToken topicID, Set<NodeElementIdentifier> currentSubscriberNodeSet){
+        LOG.debug(".getTargetSet(): Entry, topicID --> {}", topicID);
+        if(topicID == null){
+            return(null);
+        }
+        InterchangeTopicTargetSet targetSet = topicTargetSetMap.get(topicID);
+        if(targetSet == null){
+            LOG.debug(".getTargetSet(): Exit, no cached entry for topic");
+            return(null);
+        }
+        if(!targetSet.isResolvedFrom(currentSubscriberNodeSet)){
+            LOG.debug(".getTargetSet(): Exit, subscriber set has changed, discarding cached entry");
+            topicTargetSetMap.remove(topicID, targetSet);
+            return(null);
+        }
+        LOG.debug(".getTargetSet(): Exit, returning cached entry");
+        return(targetSet);
+    }
+
+    public void setTargetSet(TopicToken topicID, InterchangeTopicTargetSet targetSet){
+        LOG.debug(".setTargetSet(): Entry, topicID --> {}", topicID);
+        if((topicID == null) || (targetSet == null)){
+            return;
+        }
+        topicTargetSetMap.put(topicID, targetSet);
+    }
+
+    public void invalidateTargetSet(TopicToken topicID){
+        LOG.debug(".invalidateTargetSet(): Entry, topicID --> {}", topicID);
+        if(topicID == null){
+            return;
+        }
+        topicTargetSetMap.remove(topicID);
+    }
+}
@@ -31,6 +31,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import net.fhirfactory.pegacorn.petasos.model.topology.NodeElement;
+import net.fhirfactory.pegacorn.petasos.core.moa.pathway.interchange.properties.InterchangeFanOutProperty;
 import net.fhirfactory.pegacorn.petasos.core.moa.pathway.interchange.worker.InterchangeExtractAndRouteTemplate;
 
 @ApplicationScoped
@@ -53,7 +54,19 @@ public class PathwayInterchangeManager {
      */
 
     public void buildWUPInterchangeRoutes(NodeElement nodeElement, WUPArchetypeEnum wupType) {
-        LOG.debug(".buildWUPInterchangeRoutes(): Entry, nodeElement --> {}", nodeElement);
+        buildWUPInterchangeRoutes(nodeElement, wupType, new InterchangeFanOutProperty());
+    }
+
+    /**
+     * As per buildWUPInterchangeRoutes(NodeElement, WUPArchetypeEnum), but with the payload fan-out mode
+     * (sequential, streaming or parallel) specified by the WUP.
+     *
+     * @param nodeElement the WUP's NodeElement we are building the Interchange routes for
+     * @param wupType the WUP's Archetype
+     * @param fanOutProperty the WUP's Interchange fan-out configuration
+     */
+    public void buildWUPInterchangeRoutes(NodeElement nodeElement, WUPArchetypeEnum wupType, InterchangeFanOutProperty fanOutProperty) {
+        LOG.debug(".buildWUPInterchangeRoutes(): Entry, nodeElement --> {}, fanOutProperty --> {}", nodeElement, fanOutProperty);
 
         switch (wupType) {
             case WUP_NATURE_API_ANSWER:
@@ -71,7 +84,7 @@ public class PathwayInterchangeManager {
             default: {
                 LOG.trace(".buildWUPInterchangeRoutes(): This WUP requires an Interchange service");
                 try {
-                    InterchangeExtractAndRouteTemplate newRoute = new InterchangeExtractAndRouteTemplate(camelctx, nodeElement);
+                    InterchangeExtractAndRouteTemplate newRoute = new InterchangeExtractAndRouteTemplate(camelctx, nodeElement, fanOutProperty);
                     LOG.trace(".buildWUPInterchangeRoutes(): Attempting to install new Route");
                     camelctx.addRoutes(newRoute);
                     LOG.trace(".buildWUPInterchangeRoutes(): Route installation successful");
@@ -0,0 +1,41 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.core.moa.pathway.interchange.properties;
+
+/**
+ * The modes in which the Interchange can split the egress UoWPayloadSet of a UoW into new UoWs.
+ * <p>
+ * INTERCHANGE_FANOUT_SEQUENTIAL - (the default) a List of new WorkUnitTransportPackets is built and routed one at a time.
+ * INTERCHANGE_FANOUT_STREAMING - the new WorkUnitTransportPackets are created (and routed) one at a time as the UoWPayloadSet is iterated.
+ * INTERCHANGE_FANOUT_PARALLEL - as per streaming, but routed concurrently on a bounded thread pool (no ordering guarantee).
+ * INTERCHANGE_FANOUT_PARALLEL_TOPIC_ORDERED - the payloads are grouped by Topic, the groups are routed concurrently and the payloads
+ * within each group are routed in their original order.
+ *
+ * @author Mark A. Hunter
+ * @since 2020-08-01
+ */
+public enum InterchangeFanOutModeEnum {
+    INTERCHANGE_FANOUT_SEQUENTIAL,
+    INTERCHANGE_FANOUT_STREAMING,
+    INTERCHANGE_FANOUT_PARALLEL,
+    INTERCHANGE_FANOUT_PARALLEL_TOPIC_ORDERED
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.core.moa.pathway.interchange.properties;
+
+/**
+ * The (per WUP) configuration of the Interchange payload fan-out. By default, the fan-out is sequential -
+ * WUPs opt-in to the streaming or parallel modes (see GenericMOAWUPTemplate.specifyInterchangeFanOutProperty()).
+ * The pool sizes are only used by the parallel modes, in which case the Interchange uses a Camel managed (and,
+ * therefore, queue-bounded) thread pool for the WUP.
+ *
+ * @author Mark A. Hunter
+ * @since 2020-08-01
+ */
+public class InterchangeFanOutProperty {
+    public static final int DEFAULT_FANOUT_POOL_SIZE = 4;
+    public static final int DEFAULT_FANOUT_MAX_POOL_SIZE = 8;
+
+    private InterchangeFanOutModeEnum fanOutMode;
+    private int poolSize;
+    private int maxPoolSize;
+
+    public InterchangeFanOutProperty(){
+        this.fanOutMode = InterchangeFanOutModeEnum.INTERCHANGE_FANOUT_SEQUENTIAL;
+        this.poolSize = DEFAULT_FANOUT_POOL_SIZE;
+        this.maxPoolSize = DEFAULT_FANOUT_MAX_POOL_SIZE;
+    }
+
+    public InterchangeFanOutProperty(InterchangeFanOutModeEnum fanOutMode, int poolSize, int maxPoolSize){
+        this.fanOutMode = fanOutMode;
+        this.poolSize = poolSize;
+        this.maxPoolSize = maxPoolSize;
+    }
+
+    public InterchangeFanOutModeEnum getFanOutMode() {
+        return fanOutMode;
+    }
+
+    public void setFanOutMode(InterchangeFanOutModeEnum fanOutMode) {
+        this.fanOutMode = fanOutMode;
+    }
+
+    public int getPoolSize() {
+        return poolSize;
+    }
+
+    public void setPoolSize(int poolSize) {
+        this.poolSize = poolSize;
+    }
+
+    public int getMaxPoolSize() {
+        return maxPoolSize;
+    }
+
+    public void setMaxPoolSize(int maxPoolSize) {
+        this.maxPoolSize = maxPoolSize;
+    }
+
+    public boolean isParallel(){
+        switch(fanOutMode){
+            case INTERCHANGE_FANOUT_PARALLEL:
+            case INTERCHANGE_FANOUT_PARALLEL_TOPIC_ORDERED:
+                return(true);
+            default:
+                return(false);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "InterchangeFanOutProperty{" +
+                "fanOutMode=" + fanOutMode +
+                ", poolSize=" + poolSize +
+                ", maxPoolSize=" + maxPoolSize +
+                '}';
+    }
+}
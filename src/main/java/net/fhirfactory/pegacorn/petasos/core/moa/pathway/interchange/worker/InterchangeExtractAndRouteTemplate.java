@@ -26,21 +26,34 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import net.fhirfactory.pegacorn.camel.BaseRouteBuilder;
+import net.fhirfactory.pegacorn.petasos.core.moa.pathway.interchange.properties.InterchangeFanOutProperty;
 import net.fhirfactory.pegacorn.petasos.core.moa.pathway.naming.RouteElementNames;
 import net.fhirfactory.pegacorn.petasos.model.topology.NodeElement;
 
+import java.util.concurrent.ExecutorService;
+
 public class InterchangeExtractAndRouteTemplate extends BaseRouteBuilder {
 
     private static final Logger LOG = LoggerFactory.getLogger(InterchangeExtractAndRouteTemplate.class);
 
     private NodeElement wupNodeElement;
     private RouteElementNames nameSet;
+    private InterchangeFanOutProperty fanOutProperty;
 
     public InterchangeExtractAndRouteTemplate(CamelContext context, NodeElement nodeElement) {
+        this(context, nodeElement, new InterchangeFanOutProperty());
+    }
+
+    public InterchangeExtractAndRouteTemplate(CamelContext context, NodeElement nodeElement, InterchangeFanOutProperty fanOutProperty) {
         super(context);
-        LOG.debug(".InterchangeExtractAndRouteTemplate(): Entry, context --> ###, nodeElement --> {}", nodeElement);
+        LOG.debug(".InterchangeExtractAndRouteTemplate(): Entry, context --> ###, nodeElement --> {}, fanOutProperty --> {}", nodeElement, fanOutProperty);
         this.wupNodeElement = nodeElement;
         nameSet = new RouteElementNames(wupNodeElement.getNodeFunctionToken());
+        if(fanOutProperty == null){
+            this.fanOutProperty = new InterchangeFanOutProperty();
+        } else {
+            this.fanOutProperty = fanOutProperty;
+        }
     }
 
     @Override
@@ -49,10 +62,48 @@ public class InterchangeExtractAndRouteTemplate extends BaseRouteBuilder {
         LOG.debug("InterchangeExtractAndRouteTemplate :: EndPointInterchangePayloadTransformerIngres --> {}", nameSet.getEndPointInterchangePayloadTransformerIngres());
         LOG.debug("InterchangeExtractAndRouteTemplate :: EndPointInterchangeRouterIngres --> {}", nameSet.getEndPointInterchangeRouterIngres());
 
-        fromWithStandardExceptionHandling(nameSet.getEndPointInterchangePayloadTransformerIngres())
-                .routeId(nameSet.getRouteInterchangePayloadTransformer())
-                .split().method(InterchangeUoWPayload2NewUoWProcessor.class, "extractUoWPayloadAndCreateNewUoWSet(*, Exchange," + this.wupNodeElement.extractNodeKey() + ")")
-                .to(nameSet.getEndPointInterchangePayloadTransformerEgress());
+        String nodeKey = this.wupNodeElement.extractNodeKey();
+        // the whole fan-out (the subscribers of every egress payload) is registered before any payload is split off and routed
+        switch(fanOutProperty.getFanOutMode()){
+            case INTERCHANGE_FANOUT_STREAMING:
+                fromWithStandardExceptionHandling(nameSet.getEndPointInterchangePayloadTransformerIngres())
+                        .routeId(nameSet.getRouteInterchangePayloadTransformer())
+                        .bean(InterchangeTargetWUPTypeRouter.class, "registerUoWFanOut(*, Exchange," + nodeKey + ")")
+                        .split().method(InterchangeUoWPayload2NewUoWProcessor.class, "extractUoWPayloadAndCreateNewUoWIterator(*, Exchange," + nodeKey + ")")
+                        .streaming()
+                        .to(nameSet.getEndPointInterchangePayloadTransformerEgress());
+                break;
+            case INTERCHANGE_FANOUT_PARALLEL:
+                fromWithStandardExceptionHandling(nameSet.getEndPointInterchangePayloadTransformerIngres())
+                        .routeId(nameSet.getRouteInterchangePayloadTransformer())
+                        .bean(InterchangeTargetWUPTypeRouter.class, "registerUoWFanOut(*, Exchange," + nodeKey + ")")
+                        .split().method(InterchangeUoWPayload2NewUoWProcessor.class, "extractUoWPayloadAndCreateNewUoWIterator(*, Exchange," + nodeKey + ")")
+                        .streaming()
+                        .parallelProcessing()
+                        .executorService(buildFanOutExecutorService())
+                        .to(nameSet.getEndPointInterchangePayloadTransformerEgress());
+                break;
+            case INTERCHANGE_FANOUT_PARALLEL_TOPIC_ORDERED:
+                fromWithStandardExceptionHandling(nameSet.getEndPointInterchangePayloadTransformerIngres())
+                        .routeId(nameSet.getRouteInterchangePayloadTransformer())
+                        .bean(InterchangeTargetWUPTypeRouter.class, "registerUoWFanOut(*, Exchange," + nodeKey + ")")
+                        .split().method(InterchangeUoWPayload2NewUoWProcessor.class, "extractUoWPayloadAndCreateTopicOrderedUoWBatchSet(*, Exchange," + nodeKey + ")")
+                        .streaming()
+                        .parallelProcessing()
+                        .executorService(buildFanOutExecutorService())
+                            .split(body())
+                            .to(nameSet.getEndPointInterchangePayloadTransformerEgress())
+                        .end()
+                        .end();
+                break;
+            case INTERCHANGE_FANOUT_SEQUENTIAL:
+            default:
+                fromWithStandardExceptionHandling(nameSet.getEndPointInterchangePayloadTransformerIngres())
+                        .routeId(nameSet.getRouteInterchangePayloadTransformer())
+                        .bean(InterchangeTargetWUPTypeRouter.class, "registerUoWFanOut(*, Exchange," + nodeKey + ")")
+                        .split().method(InterchangeUoWPayload2NewUoWProcessor.class, "extractUoWPayloadAndCreateNewUoWSet(*, Exchange," + nodeKey + ")")
+                        .to(nameSet.getEndPointInterchangePayloadTransformerEgress());
+        }
 
         fromWithStandardExceptionHandling(nameSet.getEndPointInterchangePayloadTransformerEgress())
                 .routeId(nameSet.getRouteInterchangePayloadTransformerEgress2InterchangePayloadRouterIngres())
@@ -62,4 +113,18 @@ public class InterchangeExtractAndRouteTemplate extends BaseRouteBuilder {
                 .routeId(nameSet.getRouteInterchangeRouter())
                 .bean(InterchangeTargetWUPTypeRouter.class, "forwardUoW2WUPs(*, Exchange," +  this.wupNodeElement.extractNodeKey() + ")");
     }
+
+    /**
+     * This function builds the (Camel managed) thread pool used by the parallel fan-out modes. Camel's default
+     * thread pool profile bounds the task queue, so a very large UoWPayloadSet cannot create an unbounded backlog.
+     *
+     * @return The ExecutorService to be used for the parallel split
+     */
+    private ExecutorService buildFanOutExecutorService(){
+        LOG.debug(".buildFanOutExecutorService(): Entry, fanOutProperty --> {}", fanOutProperty);
+        String poolName = nameSet.getRouteInterchangePayloadTransformer() + ".FanOut";
+        ExecutorService fanOutExecutor = getContext().getExecutorServiceManager().newThreadPool(this, poolName, fanOutProperty.getPoolSize(), fanOutProperty.getMaxPoolSize());
+        LOG.debug(".buildFanOutExecutorService(): Exit, poolName --> {}", poolName);
+        return(fanOutExecutor);
+    }
 }
@@ -23,6 +23,12 @@ package net.fhirfactory.pegacorn.petasos.core.moa.pathway.interchange.worker;
 
 import net.fhirfactory.pegacorn.common.model.FDNToken;
 import net.fhirfactory.pegacorn.deployment.topology.manager.DeploymentTopologyIM;
+import net.fhirfactory.pegacorn.petasos.core.moa.pathway.interchange.cache.InterchangeTopicTargetSet;
+import net.fhirfactory.pegacorn.petasos.core.moa.pathway.interchange.cache.InterchangeTopicTargetSetCacheDM;
+import net.fhirfactory.pegacorn.petasos.core.moa.pathway.metrics.WUPPipelineLatencyDM;
+import net.fhirfactory.pegacorn.petasos.core.moa.pathway.metrics.WUPPipelineStageEnum;
+import net.fhirfactory.pegacorn.petasos.core.moa.pathway.metrics.WUPThroughputDM;
+import net.fhirfactory.pegacorn.petasos.core.moa.pathway.naming.PetasosPathwayExchangePropertyNames;
 import net.fhirfactory.pegacorn.petasos.core.moa.pathway.naming.RouteElementNames;
 import net.fhirfactory.pegacorn.petasos.core.moa.resilience.processingplant.manager.ProcessingPlantResilienceActivityServicesController;
 import net.fhirfactory.pegacorn.petasos.datasets.manager.TopicIM;
@@ -31,7 +37,9 @@ import net.fhirfactory.pegacorn.petasos.model.topics.TopicToken;
 import net.fhirfactory.pegacorn.petasos.model.topology.NodeElement;
 import net.fhirfactory.pegacorn.petasos.model.topology.NodeElementFunctionToken;
 import net.fhirfactory.pegacorn.petasos.model.topology.NodeElementIdentifier;
+import net.fhirfactory.pegacorn.petasos.model.uow.UoWPayload;
 import net.fhirfactory.pegacorn.petasos.model.wup.WUPFunctionToken;
+import net.fhirfactory.pegacorn.petasos.model.wup.WUPFunctionTokenSet;
 import org.apache.camel.Exchange;
 import org.apache.camel.RecipientList;
 import org.slf4j.Logger;
@@ -40,8 +48,11 @@ import org.slf4j.LoggerFactory;
 import javax.enterprise.context.Dependent;
 import javax.inject.Inject;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -62,6 +73,50 @@ public class InterchangeTargetWUPTypeRouter {
     @Inject
     ProcessingPlantResilienceActivityServicesController activityServicesController;
 
+    @Inject
+    InterchangeTopicTargetSetCacheDM topicTargetSetCache;
+
+    @Inject
+    WUPPipelineLatencyDM pipelineLatencyDM;
+
+    @Inject
+    WUPThroughputDM throughputDM;
+
+    @Inject
+    PetasosPathwayExchangePropertyNames exchangePropertyNames;
+
+    /**
+     * This function registers the complete fan-out of the incoming UoW - the subscribers of ALL of its egress payloads -
+     * against the (upstream) Parcel, before the payloads are split into new UoWs and dispatched. Registering per payload
+     * (as each is routed) allows the subscribers of the first payloads to complete (and finalise) the Parcel while later
+     * payloads are still being routed. A subscriber of several of the payloads is registered once per payload.
+     * <p>
+     * The InterchangeTopicTargetSets resolved here are retained within the CamelExchange (and so are shared with the
+     * split Exchanges), so that each payload is routed to exactly the subscribers it was registered for.
+     *
+     * @param ingresPacket The WorkUnitTransportPacket containing the UoW (and its egress payloads) from the upstream WUP
+     * @param camelExchange The Apache Camel Exchange instance associated with this route.
+     * @param wupInstanceKey The upstream WUP's Node Key
+     */
+    public void registerUoWFanOut(WorkUnitTransportPacket ingresPacket, Exchange camelExchange, String wupInstanceKey) {
+        LOG.debug(".registerUoWFanOut(): Entry, ingresPacket (WorkUnitTransportPacket) --> {}, wupInstanceKey (String) --> {}", ingresPacket, wupInstanceKey);
+        HashMap<TopicToken, InterchangeTopicTargetSet> fanOutTargetSetMap = new HashMap<TopicToken, InterchangeTopicTargetSet>();
+        List<WUPFunctionToken> downstreamWUPFunctionFanOut = new ArrayList<WUPFunctionToken>();
+        for (UoWPayload egressPayload : ingresPacket.getPayload().getEgressContent().getPayloadElements()) {
+            TopicToken payloadTopicID = egressPayload.getPayloadTopicID();
+            InterchangeTopicTargetSet topicTargetSet = fanOutTargetSetMap.get(payloadTopicID);
+            if (topicTargetSet == null) {
+                topicTargetSet = getTopicTargetSet(payloadTopicID);
+                fanOutTargetSetMap.put(payloadTopicID, topicTargetSet);
+            }
+            downstreamWUPFunctionFanOut.addAll(topicTargetSet.getDownstreamWUPFunctionSet().getElements());
+        }
+        camelExchange.setProperty(exchangePropertyNames.getExchangeFanOutTargetSetsPropertyName(wupInstanceKey), fanOutTargetSetMap);
+        // Now add the downstream WUPFunctions to the Parcel Finalisation Registry (as a single registration)
+        activityServicesController.registerWUAEpisodeDownstreamWUPFanOut(ingresPacket.getPacketID(), downstreamWUPFunctionFanOut);
+        LOG.debug(".registerUoWFanOut(): Exit, number of downstream registrations --> {}", downstreamWUPFunctionFanOut.size());
+    }
+
     /**
      * Essentially, we get the set of WUPs subscribing to a particular UoW type,
      * create a property within the CamelExchange and then we use that Property
@@ -96,28 +151,75 @@ public class InterchangeTargetWUPTypeRouter {
             LOG.debug(".forwardUoW2WUPs(): Exit, there's no payload (UoW), so return an empty list (and end this route).");
             return(new ArrayList<String>());
         }
+        // The fan-out (and so the InterchangeTopicTargetSet) was registered before the payloads were split, see registerUoWFanOut()
+        Map<TopicToken, InterchangeTopicTargetSet> fanOutTargetSetMap = camelExchange.getProperty(exchangePropertyNames.getExchangeFanOutTargetSetsPropertyName(wupInstanceKey), Map.class);
+        InterchangeTopicTargetSet topicTargetSet = null;
+        if(fanOutTargetSetMap != null){
+            topicTargetSet = fanOutTargetSetMap.get(uowTopicID);
+        }
+        if(topicTargetSet == null){
+            LOG.warn(".forwardUoW2WUPs(): No registered fan-out for the UoW, it is not routed, uowTopicID --> {}", uowTopicID);
+            return(new ArrayList<String>());
+        }
+        if(topicTargetSet.getTargetEndpointSet().isEmpty()){
+            throughputDM.topicRouted(uowTopicID, 0);
+            LOG.debug(".forwardUoW2WUPs(): Exiting, nothing subscribed to that topic, returning empty set");
+            return(new ArrayList<String>());
+        }
+        List<String> targetSubscriberSet = new ArrayList<String>(topicTargetSet.getTargetEndpointSet());
+        throughputDM.topicRouted(uowTopicID, targetSubscriberSet.size());
+        // the fan-out ends (and the subscribers' queue wait starts) with the dispatch of the UoW
+        pipelineLatencyDM.recordHandoff(camelExchange, wupInstanceKey, WUPPipelineStageEnum.WUP_PIPELINE_STAGE_INTERCHANGE_FANOUT);
+        pipelineLatencyDM.markHandoff(camelExchange);
+        LOG.debug(".forwardUoW2WUPs(): Exiting, returning registered/interested endpoints: endpointList -->{}", targetSubscriberSet);
+        return (targetSubscriberSet);
+    }
+
+    /**
+     * This function returns the (cached, if possible) InterchangeTopicTargetSet for the Topic - which is empty if
+     * nothing subscribes to the Topic.
+     *
+     * @param uowTopicID The Topic of the UoW (payload)
+     * @return The InterchangeTopicTargetSet for the Topic
+     */
+    private InterchangeTopicTargetSet getTopicTargetSet(TopicToken uowTopicID){
         Set<NodeElementIdentifier> nodeSet = topicServer.getSubscriberSet(uowTopicID);
-        List<String> targetSubscriberSet = new ArrayList<String>();
         if( nodeSet == null ){
-            LOG.debug(".forwardUoW2WUPs(): Exiting, nothing subscribed to that topic, returning empty set");
-            return(targetSubscriberSet);
-        } else {
-            if (LOG.isTraceEnabled()) {tracePrintSubscribedWUPSet(nodeSet);}
-            Iterator<NodeElementIdentifier> nodeIterator = nodeSet.iterator();
-            while(nodeIterator.hasNext()){
-                NodeElementIdentifier currentNodeIdentifier = nodeIterator.next();
-                LOG.trace(".forwardUoW2WUPs(): Subscriber --> {}", currentNodeIdentifier);
-                NodeElement currentNodeElement = topologyProxy.getNode(currentNodeIdentifier);
-                NodeElementFunctionToken currentNodeFunctionToken = currentNodeElement.getNodeFunctionToken();
-                RouteElementNames routeName = new RouteElementNames(currentNodeFunctionToken);
-                targetSubscriberSet.add(routeName.getEndPointWUPContainerIngresProcessorIngres());
-                // Now add the downstream WUPFunction to the Parcel Finalisation Registry
-                WUPFunctionToken functionToken = new WUPFunctionToken(currentNodeFunctionToken);
-                activityServicesController.registerWUAEpisodeDownstreamWUPInterest(ingresPacket.getPacketID().getPresentEpisodeIdentifier(), functionToken);
-            }
-            LOG.debug(".forwardUoW2WUPs(): Exiting, returning registered/interested endpoints: endpointList -->{}", targetSubscriberSet);
-            return (targetSubscriberSet);
+            nodeSet = new HashSet<NodeElementIdentifier>();
+        }
+        if (LOG.isTraceEnabled()) {tracePrintSubscribedWUPSet(nodeSet);}
+        InterchangeTopicTargetSet topicTargetSet = topicTargetSetCache.getTargetSet(uowTopicID, nodeSet);
+        if(topicTargetSet == null){
+            topicTargetSet = resolveTopicTargetSet(nodeSet);
+            topicTargetSetCache.setTargetSet(uowTopicID, topicTargetSet);
+        }
+        return(topicTargetSet);
+    }
+
+    /**
+     * This function resolves (via the Topology Server) the WUP Container Ingres endpoint and the
+     * WUPFunctionToken for each subscriber of a Topic.
+     *
+     * @param nodeSet The set of (subscribing) Nodes for the Topic
+     * @return An InterchangeTopicTargetSet containing the endpoints and the WUPFunctionTokenSet
+     */
+    private InterchangeTopicTargetSet resolveTopicTargetSet(Set<NodeElementIdentifier> nodeSet){
+        LOG.debug(".resolveTopicTargetSet(): Entry");
+        List<String> targetEndpointSet = new ArrayList<String>();
+        WUPFunctionTokenSet downstreamWUPFunctionSet = new WUPFunctionTokenSet();
+        Iterator<NodeElementIdentifier> nodeIterator = nodeSet.iterator();
+        while(nodeIterator.hasNext()){
+            NodeElementIdentifier currentNodeIdentifier = nodeIterator.next();
+            LOG.trace(".resolveTopicTargetSet(): Subscriber --> {}", currentNodeIdentifier);
+            NodeElement currentNodeElement = topologyProxy.getNode(currentNodeIdentifier);
+            NodeElementFunctionToken currentNodeFunctionToken = currentNodeElement.getNodeFunctionToken();
+            RouteElementNames routeName = new RouteElementNames(currentNodeFunctionToken);
+            targetEndpointSet.add(routeName.getEndPointWUPContainerIngresProcessorIngres());
+            downstreamWUPFunctionSet.addElement(new WUPFunctionToken(currentNodeFunctionToken));
         }
+        InterchangeTopicTargetSet targetSet = new InterchangeTopicTargetSet(nodeSet, targetEndpointSet, downstreamWUPFunctionSet);
+        LOG.debug(".resolveTopicTargetSet(): Exit, targetEndpointSet --> {}", targetEndpointSet);
+        return(targetSet);
     }
 
     private void tracePrintSubscribedWUPSet(Set<NodeElementIdentifier> wupSet) {
@@ -23,7 +23,9 @@
 package net.fhirfactory.pegacorn.petasos.core.moa.pathway.interchange.worker;
 
 import net.fhirfactory.pegacorn.deployment.topology.manager.DeploymentTopologyIM;
+import net.fhirfactory.pegacorn.petasos.core.common.clock.PetasosClock;
 import net.fhirfactory.pegacorn.petasos.model.pathway.WorkUnitTransportPacket;
+import net.fhirfactory.pegacorn.petasos.model.topics.TopicToken;
 import net.fhirfactory.pegacorn.petasos.model.topology.NodeElement;
 import net.fhirfactory.pegacorn.petasos.model.uow.UoW;
 import net.fhirfactory.pegacorn.petasos.model.uow.UoWPayload;
@@ -34,10 +36,9 @@ import org.slf4j.LoggerFactory;
 
 import javax.enterprise.context.Dependent;
 import javax.inject.Inject;
-import java.time.Instant;
 import java.util.ArrayList;
-import java.util.Date;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 
 @Dependent
@@ -84,12 +85,74 @@ public class InterchangeUoWPayload2NewUoWProcessor {
         Iterator<UoWPayload> incomingPayloadIterator = egressPayloadSet.getPayloadElements().iterator();
         while (incomingPayloadIterator.hasNext()) {
             UoWPayload currentPayload = incomingPayloadIterator.next();
-            UoW newUoW = new UoW(currentPayload);
-            WorkUnitTransportPacket transportPacket = new WorkUnitTransportPacket(ingresPacket.getPacketID(), Date.from(Instant.now()), newUoW);
+            WorkUnitTransportPacket transportPacket = buildTransportPacket(ingresPacket, currentPayload);
             newEgressTransportPacketSet.add(transportPacket);
         }
         LOG.debug(".extractUoWPayloadAndCreateNewUoWSet(): Exit, new WorkUnitTransportPackets created, number --> {} ", newEgressTransportPacketSet.size());
 
         return (newEgressTransportPacketSet);
     }
+
+    /**
+     * This method is the streaming equivalent of extractUoWPayloadAndCreateNewUoWSet(). Rather than building
+     * the complete List<> of new WorkUnitTransportPackets, it returns an Iterator that creates each
+     * WorkUnitTransportPacket as the (Camel) Splitter asks for it.
+     *
+     * @param ingresPacket
+     * @param camelExchange
+     * @param wupInstanceKey
+     * @return An Iterator<> of WorkUnitTransportPackets - one for each egress UoWPayload element within the incoming UoW.
+     */
+    public Iterator<WorkUnitTransportPacket> extractUoWPayloadAndCreateNewUoWIterator(WorkUnitTransportPacket ingresPacket, Exchange camelExchange, String wupInstanceKey) {
+        LOG.debug(".extractUoWPayloadAndCreateNewUoWIterator(): Entry, ingresPacket (WorkUnitTransportPacket) --> {}, wupInstanceKey (String) --> {}", ingresPacket, wupInstanceKey);
+        Iterator<UoWPayload> incomingPayloadIterator = ingresPacket.getPayload().getEgressContent().getPayloadElements().iterator();
+        Iterator<WorkUnitTransportPacket> transportPacketIterator = new Iterator<WorkUnitTransportPacket>() {
+            @Override
+            public boolean hasNext() {
+                return (incomingPayloadIterator.hasNext());
+            }
+
+            @Override
+            public WorkUnitTransportPacket next() {
+                return (buildTransportPacket(ingresPacket, incomingPayloadIterator.next()));
+            }
+        };
+        LOG.debug(".extractUoWPayloadAndCreateNewUoWIterator(): Exit");
+        return (transportPacketIterator);
+    }
+
+    /**
+     * This method groups the egress UoWPayload elements of the incoming UoW by their Topic, creating a List<> of
+     * new WorkUnitTransportPackets for each Topic (in the original order of the UoWPayloadSet). It is used by the
+     * topic-ordered parallel fan-out, where each group is routed concurrently with the other groups but the content
+     * of a group is routed sequentially.
+     *
+     * @param ingresPacket
+     * @param camelExchange
+     * @param wupInstanceKey
+     * @return A List<> of (per Topic) List<>s of WorkUnitTransportPackets
+     */
+    public List<List<WorkUnitTransportPacket>> extractUoWPayloadAndCreateTopicOrderedUoWBatchSet(WorkUnitTransportPacket ingresPacket, Exchange camelExchange, String wupInstanceKey) {
+        LOG.debug(".extractUoWPayloadAndCreateTopicOrderedUoWBatchSet(): Entry, ingresPacket (WorkUnitTransportPacket) --> {}, wupInstanceKey (String) --> {}", ingresPacket, wupInstanceKey);
+        LinkedHashMap<TopicToken, List<WorkUnitTransportPacket>> topicBatchMap = new LinkedHashMap<TopicToken, List<WorkUnitTransportPacket>>();
+        Iterator<UoWPayload> incomingPayloadIterator = ingresPacket.getPayload().getEgressContent().getPayloadElements().iterator();
+        while (incomingPayloadIterator.hasNext()) {
+            UoWPayload currentPayload = incomingPayloadIterator.next();
+            List<WorkUnitTransportPacket> topicBatch = topicBatchMap.get(currentPayload.getPayloadTopicID());
+            if (topicBatch == null) {
+                topicBatch = new ArrayList<WorkUnitTransportPacket>();
+                topicBatchMap.put(currentPayload.getPayloadTopicID(), topicBatch);
+            }
+            topicBatch.add(buildTransportPacket(ingresPacket, currentPayload));
+        }
+        List<List<WorkUnitTransportPacket>> topicBatchSet = new ArrayList<List<WorkUnitTransportPacket>>(topicBatchMap.values());
+        LOG.debug(".extractUoWPayloadAndCreateTopicOrderedUoWBatchSet(): Exit, number of topic batches --> {}", topicBatchSet.size());
+        return (topicBatchSet);
+    }
+
+    private WorkUnitTransportPacket buildTransportPacket(WorkUnitTransportPacket ingresPacket, UoWPayload payload) {
+        UoW newUoW = new UoW(payload);
+        WorkUnitTransportPacket transportPacket = new WorkUnitTransportPacket(ingresPacket.getPacketID(), PetasosClock.now(), newUoW);
+        return (transportPacket);
+    }
 }
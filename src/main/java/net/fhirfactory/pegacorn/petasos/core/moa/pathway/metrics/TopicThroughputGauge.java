@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.core.moa.pathway.metrics;
+
+import net.fhirfactory.pegacorn.petasos.core.common.metrics.PetasosThroughputCounter;
+
+/**
+ * The throughput gauges of a single Topic, as seen by the Interchange: in counts the UoWs routed for the Topic,
+ * out the deliveries made to its subscribers, and failed the UoWs that could not be delivered (no subscribers).
+ *
+ * @author Mark A. Hunter
+ * @since 2020-08-01
+ */
+public class TopicThroughputGauge implements TopicThroughputMXBean {
+    private String topic;
+    private PetasosThroughputCounter throughputCounter;
+
+    public TopicThroughputGauge(String topic) {
+        this.topic = topic;
+        this.throughputCounter = new PetasosThroughputCounter();
+    }
+
+    public PetasosThroughputCounter getThroughputCounter() {
+        return (throughputCounter);
+    }
+
+    @Override
+    public String getTopic() {
+        return (topic);
+    }
+
+    @Override
+    public long getInCount() {
+        return (throughputCounter.getInCount());
+    }
+
+    @Override
+    public long getOutCount() {
+        return (throughputCounter.getOutCount());
+    }
+
+    @Override
+    public long getFailedCount() {
+        return (throughputCounter.getFailedCount());
+    }
+
+    @Override
+    public double getInRate() {
+        return (throughputCounter.getInRate());
+    }
+
+    @Override
+    public double getOutRate() {
+        return (throughputCounter.getOutRate());
+    }
+
+    @Override
+    public double getFailedRate() {
+        return (throughputCounter.getFailedRate());
+    }
+}
@@ -0,0 +1,294 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.core.moa.pathway.metrics;
+
+import net.fhirfactory.pegacorn.petasos.core.common.clock.PetasosClock;
+import net.fhirfactory.pegacorn.petasos.core.common.concurrent.PetasosDaemonThreads;
+import net.fhirfactory.pegacorn.petasos.core.common.metrics.LoggingLatencyExporter;
+import net.fhirfactory.pegacorn.petasos.core.common.metrics.PetasosLatencyExporter;
+import net.fhirfactory.pegacorn.petasos.core.common.metrics.PetasosLatencySnapshot;
+import net.fhirfactory.pegacorn.petasos.core.moa.pathway.naming.PetasosPathwayExchangePropertyNames;
+import org.apache.camel.Exchange;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class holds the WUPPipelineLatencyRecorder (per stage latency histograms) of each WUP within the
+ * ProcessingPlant. The WUP Container building blocks (and the Interchange) call it as a UoW passes through the
+ * pipeline; see WUPPipelineStageEnum for the stages.
+ * <p>
+ * Within a WUP Container, the start of a stage that spans building blocks is carried (as a monotonicNanos() value) in
+ * a property of the Camel Exchange. Each WUP's recorder is registered as a WUPPipelineLatencyMXBean and the snapshots
+ * are periodically passed to each registered PetasosLatencyExporter.
+ * <p>
+ * Recording can be disabled ("petasos.metrics.latency.enabled" = false), in which case the calls are no-ops (and the
+ * clock is not read).
+ *
+ * @author Mark A. Hunter
+ * @since 2020-08-01
+ */
+@ApplicationScoped
+public class WUPPipelineLatencyDM {
+    private static final Logger LOG = LoggerFactory.getLogger(WUPPipelineLatencyDM.class);
+    private static final String JMX_OBJECT_NAME_PREFIX = "net.fhirfactory.pegacorn.petasos:type=WUPPipelineLatency,wup=";
+    private static final long DEFAULT_EXPORT_INTERVAL_MILLISECONDS = 60000L;
+
+    @Inject
+    PetasosPathwayExchangePropertyNames exchangePropertyNames;
+
+    private boolean enabled = Boolean.parseBoolean(System.getProperty("petasos.metrics.latency.enabled", "true"));
+    private boolean jmxEnabled = Boolean.parseBoolean(System.getProperty("petasos.metrics.latency.jmx.enabled", "true"));
+    private ConcurrentHashMap<String, WUPPipelineLatencyRecorder> recorderMap;
+    private CopyOnWriteArrayList<PetasosLatencyExporter> exporterList;
+    private ScheduledExecutorService exportExecutor;
+
+    public WUPPipelineLatencyDM() {
+        this.recorderMap = new ConcurrentHashMap<String, WUPPipelineLatencyRecorder>();
+        this.exporterList = new CopyOnWriteArrayList<PetasosLatencyExporter>();
+    }
+
+    @PostConstruct
+    public void initialise() {
+        LOG.debug(".initialise(): Entry, enabled --> {}", enabled);
+        if (!enabled) {
+            return;
+        }
+        if (Boolean.getBoolean("petasos.metrics.latency.export.log")) {
+            exporterList.add(new LoggingLatencyExporter());
+        }
+        long exportInterval = Long.getLong("petasos.metrics.latency.export.interval.millis", DEFAULT_EXPORT_INTERVAL_MILLISECONDS);
+        if (exportInterval > 0) {
+            exportExecutor = PetasosDaemonThreads.newSingleThreadScheduledExecutor("latency-export");
+            exportExecutor.scheduleWithFixedDelay(this::exportLatencies, exportInterval, exportInterval, TimeUnit.MILLISECONDS);
+        }
+        LOG.debug(".initialise(): Exit, exportInterval --> {}", exportInterval);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (exportExecutor != null) {
+            exportExecutor.shutdownNow();
+            exportExecutor = null;
+        }
+        if (jmxEnabled) {
+            MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+            for (String wupInstanceKey : recorderMap.keySet()) {
+                try {
+                    ObjectName objectName = buildObjectName(wupInstanceKey);
+                    if (mbeanServer.isRegistered(objectName)) {
+                        mbeanServer.unregisterMBean(objectName);
+                    }
+                } catch (JMException e) {
+                    LOG.warn(".shutdown(): Could not unregister latency MXBean, wupInstanceKey --> {}, reason --> {}", wupInstanceKey, e.getMessage());
+                }
+            }
+        }
+    }
+
+    public boolean isEnabled() {
+        return (enabled);
+    }
+
+    //
+    // Recording
+    //
+
+    /**
+     * @return The start (monotonicNanos()) of a stage performed within a single call, or 0 if recording is disabled
+     */
+    public long beginStage() {
+        if (!enabled) {
+            return (0);
+        }
+        return (PetasosClock.monotonicNanos());
+    }
+
+    /**
+     * @param wupInstanceKey The NodeElement Instance key of the WUP
+     * @param stage The stage that has completed
+     * @param startNanos The value returned by beginStage()
+     */
+    public void endStage(String wupInstanceKey, WUPPipelineStageEnum stage, long startNanos) {
+        if (!enabled || (startNanos == 0)) {
+            return;
+        }
+        recordStage(wupInstanceKey, stage, PetasosClock.elapsedNanos(startNanos));
+    }
+
+    public void recordStage(String wupInstanceKey, WUPPipelineStageEnum stage, long elapsedNanos) {
+        if (!enabled || (wupInstanceKey == null) || (stage == null)) {
+            return;
+        }
+        getRecorder(wupInstanceKey).record(stage, elapsedNanos);
+    }
+
+    /**
+     * Marks (in the Camel Exchange) the point at which the UoW is handed on from one WUP Container / Interchange
+     * building block to the next - i.e. the start of the QUEUE_WAIT or INTERCHANGE_FANOUT stages.
+     *
+     * @param camelExchange The Apache Camel Exchange carrying the UoW
+     */
+    public void markHandoff(Exchange camelExchange) {
+        if (!enabled || (camelExchange == null)) {
+            return;
+        }
+        camelExchange.setProperty(exchangePropertyNames.getExchangeStageHandoffPropertyName(), PetasosClock.monotonicNanos());
+    }
+
+    /**
+     * Records the stage that started at the last markHandoff() on the Camel Exchange (if any).
+     *
+     * @param camelExchange The Apache Camel Exchange carrying the UoW
+     * @param wupInstanceKey The NodeElement Instance key of the WUP the stage is attributed to
+     * @param stage The stage that has completed
+     */
+    public void recordHandoff(Exchange camelExchange, String wupInstanceKey, WUPPipelineStageEnum stage) {
+        if (!enabled || (camelExchange == null)) {
+            return;
+        }
+        recordSinceProperty(camelExchange, exchangePropertyNames.getExchangeStageHandoffPropertyName(), wupInstanceKey, stage);
+    }
+
+    /**
+     * Marks (in the Camel Exchange) the point at which the UoW is passed into the WUP (Business Logic).
+     *
+     * @param camelExchange The Apache Camel Exchange carrying the UoW
+     * @param wupInstanceKey The NodeElement Instance key of the WUP
+     */
+    public void markExecutionStart(Exchange camelExchange, String wupInstanceKey) {
+        if (!enabled || (camelExchange == null)) {
+            return;
+        }
+        camelExchange.setProperty(exchangePropertyNames.getExchangeExecutionStartPropertyName(wupInstanceKey), PetasosClock.monotonicNanos());
+    }
+
+    /**
+     * Records the WUP_EXECUTION stage, from the markExecutionStart() on the Camel Exchange (if any).
+     *
+     * @param camelExchange The Apache Camel Exchange carrying the UoW
+     * @param wupInstanceKey The NodeElement Instance key of the WUP
+     */
+    public void recordExecution(Exchange camelExchange, String wupInstanceKey) {
+        if (!enabled || (camelExchange == null)) {
+            return;
+        }
+        recordSinceProperty(camelExchange, exchangePropertyNames.getExchangeExecutionStartPropertyName(wupInstanceKey), wupInstanceKey, WUPPipelineStageEnum.WUP_PIPELINE_STAGE_WUP_EXECUTION);
+    }
+
+    private void recordSinceProperty(Exchange camelExchange, String propertyName, String wupInstanceKey, WUPPipelineStageEnum stage) {
+        Long startNanos = camelExchange.getProperty(propertyName, Long.class);
+        if (startNanos == null) {
+            return;
+        }
+        camelExchange.removeProperty(propertyName);
+        recordStage(wupInstanceKey, stage, PetasosClock.elapsedNanos(startNanos));
+    }
+
+    //
+    // Recorders, JMX and Export
+    //
+
+    /**
+     * @param wupInstanceKey The NodeElement Instance key of the WUP
+     * @return The WUP's WUPPipelineLatencyRecorder (created - and registered with JMX - on first use)
+     */
+    public WUPPipelineLatencyRecorder getRecorder(String wupInstanceKey) {
+        WUPPipelineLatencyRecorder recorder = recorderMap.get(wupInstanceKey);
+        if (recorder != null) {
+            return (recorder);
+        }
+        boolean[] created = new boolean[1];
+        recorder = recorderMap.computeIfAbsent(wupInstanceKey, key -> {
+            created[0] = true;
+            return (new WUPPipelineLatencyRecorder(key));
+        });
+        if (created[0] && jmxEnabled) {
+            registerMXBean(recorder);
+        }
+        return (recorder);
+    }
+
+    public Set<String> getWUPInstanceKeySet() {
+        return (Collections.unmodifiableSet(recorderMap.keySet()));
+    }
+
+    public void addExporter(PetasosLatencyExporter exporter) {
+        if (exporter == null) {
+            throw (new IllegalArgumentException(".addExporter(): exporter is null"));
+        }
+        exporterList.addIfAbsent(exporter);
+    }
+
+    public void removeExporter(PetasosLatencyExporter exporter) {
+        exporterList.remove(exporter);
+    }
+
+    /**
+     * Passes the (current) snapshot of every WUP/stage to each registered PetasosLatencyExporter. A failing exporter
+     * is logged and does not prevent the others being called.
+     */
+    public void exportLatencies() {
+        if (exporterList.isEmpty()) {
+            return;
+        }
+        LOG.debug(".exportLatencies(): Entry, recorderMap.size --> {}", recorderMap.size());
+        for (WUPPipelineLatencyRecorder recorder : recorderMap.values()) {
+            for (WUPPipelineStageEnum stage : WUPPipelineStageEnum.values()) {
+                PetasosLatencySnapshot snapshot = recorder.getSnapshot(stage);
+                for (PetasosLatencyExporter exporter : exporterList) {
+                    try {
+                        exporter.exportLatency(recorder.getWUPInstanceKey(), stage.getStageName(), snapshot);
+                    } catch (RuntimeException e) {
+                        LOG.warn(".exportLatencies(): Exporter failed, exporter --> {}, reason --> {}", exporter, e.getMessage());
+                    }
+                }
+            }
+        }
+    }
+
+    private void registerMXBean(WUPPipelineLatencyRecorder recorder) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(recorder, buildObjectName(recorder.getWUPInstanceKey()));
+        } catch (JMException e) {
+            LOG.warn(".registerMXBean(): Could not register latency MXBean, wupInstanceKey --> {}, reason --> {}", recorder.getWUPInstanceKey(), e.getMessage());
+        }
+    }
+
+    private ObjectName buildObjectName(String wupInstanceKey) throws JMException {
+        return (new ObjectName(JMX_OBJECT_NAME_PREFIX + ObjectName.quote(wupInstanceKey)));
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.core.moa.pathway.metrics;
+
+import net.fhirfactory.pegacorn.petasos.core.common.metrics.PetasosLatencyHistogram;
+import net.fhirfactory.pegacorn.petasos.core.common.metrics.PetasosLatencySnapshot;
+
+/**
+ * The set of (per stage) PetasosLatencyHistograms for a single WUP.
+ *
+ * @author Mark A. Hunter
+ * @since 2020-08-01
+ */
+public class WUPPipelineLatencyRecorder implements WUPPipelineLatencyMXBean {
+    private String wupInstanceKey;
+    private PetasosLatencyHistogram[] stageHistograms;
+
+    public WUPPipelineLatencyRecorder(String wupInstanceKey) {
+        this.wupInstanceKey = wupInstanceKey;
+        this.stageHistograms = new PetasosLatencyHistogram[WUPPipelineStageEnum.values().length];
+        for (int index = 0; index < stageHistograms.length; index += 1) {
+            stageHistograms[index] = new PetasosLatencyHistogram();
+        }
+    }
+
+    public void record(WUPPipelineStageEnum stage, long elapsedNanos) {
+        stageHistograms[stage.ordinal()].record(elapsedNanos);
+    }
+
+    public PetasosLatencySnapshot getSnapshot(WUPPipelineStageEnum stage) {
+        return (stageHistograms[stage.ordinal()].snapshot());
+    }
+
+    @Override
+    public String getWUPInstanceKey() {
+        return (wupInstanceKey);
+    }
+
+    @Override
+    public PetasosLatencySnapshot getQueueWait() {
+        return (getSnapshot(WUPPipelineStageEnum.WUP_PIPELINE_STAGE_QUEUE_WAIT));
+    }
+
+    @Override
+    public PetasosLatencySnapshot getIngresSynchronise() {
+        return (getSnapshot(WUPPipelineStageEnum.WUP_PIPELINE_STAGE_INGRES_SYNCHRONISE));
+    }
+
+    @Override
+    public PetasosLatencySnapshot getWUPExecution() {
+        return (getSnapshot(WUPPipelineStageEnum.WUP_PIPELINE_STAGE_WUP_EXECUTION));
+    }
+
+    @Override
+    public PetasosLatencySnapshot getEgressRegistration() {
+        return (getSnapshot(WUPPipelineStageEnum.WUP_PIPELINE_STAGE_EGRESS_REGISTRATION));
+    }
+
+    @Override
+    public PetasosLatencySnapshot getInterchangeFanOut() {
+        return (getSnapshot(WUPPipelineStageEnum.WUP_PIPELINE_STAGE_INTERCHANGE_FANOUT));
+    }
+
+    @Override
+    public void reset() {
+        for (PetasosLatencyHistogram stageHistogram : stageHistograms) {
+            stageHistogram.reset();
+        }
+    }
+}
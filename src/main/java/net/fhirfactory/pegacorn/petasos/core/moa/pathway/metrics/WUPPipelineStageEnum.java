@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.core.moa.pathway.metrics;
+
+/**
+ * The stages of the WUP Container pipeline for which latency is recorded (per WUP).
+ * <p>
+ * WUP_PIPELINE_STAGE_QUEUE_WAIT - from the dispatch of the UoW by the (upstream) Interchange to the start of the
+ * WUPContainerIngresProcessor.
+ * WUP_PIPELINE_STAGE_INGRES_SYNCHRONISE - the WUPContainerIngresProcessor: activity registration and the wait for
+ * execution privileges.
+ * WUP_PIPELINE_STAGE_WUP_EXECUTION - from the WUPIngresConduit to the WUPEgressConduit, i.e. the WUP (Business Logic)
+ * itself.
+ * WUP_PIPELINE_STAGE_EGRESS_REGISTRATION - the WUPContainerEgressProcessor: finish/failure registration of the
+ * activity.
+ * WUP_PIPELINE_STAGE_INTERCHANGE_FANOUT - from the end of the WUPContainerEgressProcessor to the dispatch of the
+ * (new) UoWs to their subscribers by the InterchangeTargetWUPTypeRouter.
+ *
+ * @author Mark A. Hunter
+ * @since 2020-08-01
+ */
+public enum WUPPipelineStageEnum {
+    WUP_PIPELINE_STAGE_QUEUE_WAIT("QueueWait"),
+    WUP_PIPELINE_STAGE_INGRES_SYNCHRONISE("IngresSynchronise"),
+    WUP_PIPELINE_STAGE_WUP_EXECUTION("WUPExecution"),
+    WUP_PIPELINE_STAGE_EGRESS_REGISTRATION("EgressRegistration"),
+    WUP_PIPELINE_STAGE_INTERCHANGE_FANOUT("InterchangeFanOut");
+
+    private String stageName;
+
+    private WUPPipelineStageEnum(String stageName) {
+        this.stageName = stageName;
+    }
+
+    public String getStageName() {
+        return (stageName);
+    }
+}
@@ -0,0 +1,299 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.core.moa.pathway.metrics;
+
+import net.fhirfactory.pegacorn.petasos.core.common.clock.PetasosClock;
+import net.fhirfactory.pegacorn.petasos.core.common.concurrent.PetasosDaemonThreads;
+import net.fhirfactory.pegacorn.petasos.core.common.resilience.processingplant.activitymatrix.ActivityMatrixStatusListener;
+import net.fhirfactory.pegacorn.petasos.model.resilience.activitymatrix.moa.ParcelStatusElement;
+import net.fhirfactory.pegacorn.petasos.model.resilience.parcel.ResilienceParcelProcessingStatusEnum;
+import net.fhirfactory.pegacorn.petasos.model.topics.TopicToken;
+import net.fhirfactory.pegacorn.petasos.model.wup.WUPIdentifier;
+import org.apache.camel.CamelContext;
+import org.apache.camel.Endpoint;
+import org.apache.camel.component.seda.SedaEndpoint;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class maintains the (live) throughput and backlog gauges of each WUP (WUPThroughputGauge) and each Topic
+ * (TopicThroughputGauge) within the ProcessingPlant.
+ * <p>
+ * The WUP gauges are driven by the status transitions of the MOA ActivityMatrix (this class is its
+ * ActivityMatrixStatusListener) and the Topic gauges by the InterchangeTargetWUPTypeRouter - so they are maintained
+ * incrementally, as the work happens, and never by scanning the caches. Since transitions are reported after they
+ * are applied, concurrent transitions of the same parcel may be seen out of order; the in-flight gauges are then
+ * corrected by the parcel's next transition (or its eviction from the ActivityMatrix).
+ * <p>
+ * The per-second rates are recalculated every "petasos.metrics.throughput.rate.interval.millis" (default 1000) and
+ * each gauge is registered as an MXBean. The gauges can be disabled ("petasos.metrics.throughput.enabled" = false).
+ *
+ * @author Mark A. Hunter
+ * @since 2020-08-01
+ */
+@ApplicationScoped
+public class WUPThroughputDM implements ActivityMatrixStatusListener {
+    private static final Logger LOG = LoggerFactory.getLogger(WUPThroughputDM.class);
+    private static final String WUP_OBJECT_NAME_PREFIX = "net.fhirfactory.pegacorn.petasos:type=WUPThroughput,wup=";
+    private static final String TOPIC_OBJECT_NAME_PREFIX = "net.fhirfactory.pegacorn.petasos:type=TopicThroughput,topic=";
+    private static final long DEFAULT_RATE_INTERVAL_MILLISECONDS = 1000L;
+
+    @Inject
+    CamelContext camelContext;
+
+    private boolean enabled = Boolean.parseBoolean(System.getProperty("petasos.metrics.throughput.enabled", "true"));
+    private boolean jmxEnabled = Boolean.parseBoolean(System.getProperty("petasos.metrics.throughput.jmx.enabled", "true"));
+    private ConcurrentHashMap<WUPIdentifier, WUPThroughputGauge> wupGaugeMap;
+    private ConcurrentHashMap<TopicToken, TopicThroughputGauge> topicGaugeMap;
+    private AtomicLong inFlightSequence;
+    private List<ObjectName> registeredObjectNames;
+    private ScheduledExecutorService rateExecutor;
+    private long lastRateUpdateNanos;
+
+    public WUPThroughputDM() {
+        this.wupGaugeMap = new ConcurrentHashMap<WUPIdentifier, WUPThroughputGauge>();
+        this.topicGaugeMap = new ConcurrentHashMap<TopicToken, TopicThroughputGauge>();
+        this.inFlightSequence = new AtomicLong(0);
+        this.registeredObjectNames = new ArrayList<ObjectName>();
+    }
+
+    @PostConstruct
+    public void initialise() {
+        LOG.debug(".initialise(): Entry, enabled --> {}", enabled);
+        if (!enabled) {
+            return;
+        }
+        long rateInterval = Long.getLong("petasos.metrics.throughput.rate.interval.millis", DEFAULT_RATE_INTERVAL_MILLISECONDS);
+        lastRateUpdateNanos = PetasosClock.monotonicNanos();
+        rateExecutor = PetasosDaemonThreads.newSingleThreadScheduledExecutor("throughput-rates");
+        rateExecutor.scheduleAtFixedRate(this::updateRates, rateInterval, rateInterval, TimeUnit.MILLISECONDS);
+        LOG.debug(".initialise(): Exit, rateInterval --> {}", rateInterval);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (rateExecutor != null) {
+            rateExecutor.shutdownNow();
+            rateExecutor = null;
+        }
+        MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+        synchronized (registeredObjectNames) {
+            for (ObjectName objectName : registeredObjectNames) {
+                try {
+                    if (mbeanServer.isRegistered(objectName)) {
+                        mbeanServer.unregisterMBean(objectName);
+                    }
+                } catch (JMException e) {
+                    LOG.warn(".shutdown(): Could not unregister throughput MXBean --> {}, reason --> {}", objectName, e.getMessage());
+                }
+            }
+            registeredObjectNames.clear();
+        }
+    }
+
+    public boolean isEnabled() {
+        return (enabled);
+    }
+
+    //
+    // WUP Gauges
+    //
+
+    @Override
+    public void statusTransition(ParcelStatusElement statusElement, ResilienceParcelProcessingStatusEnum previousStatus, ResilienceParcelProcessingStatusEnum newStatus) {
+        if (!enabled || (statusElement == null) || (previousStatus == newStatus)) {
+            return;
+        }
+        WUPIdentifier wupIdentifier = statusElement.getActivityID().getPresentWUPIdentifier();
+        if ((wupIdentifier == null) || (statusElement.getParcelInstanceID() == null)) {
+            return;
+        }
+        WUPThroughputGauge gauge = getWUPGauge(wupIdentifier);
+        if ((previousStatus == null) && (newStatus != null)) {
+            gauge.getThroughputCounter().countIn();
+        }
+        if (newStatus == ResilienceParcelProcessingStatusEnum.PARCEL_STATUS_FINISHED) {
+            gauge.getThroughputCounter().countOut(1);
+        } else if (newStatus == ResilienceParcelProcessingStatusEnum.PARCEL_STATUS_FAILED) {
+            gauge.getThroughputCounter().countFailed();
+        }
+        if (isInFlight(newStatus)) {
+            gauge.enterInFlight(statusElement.getParcelInstanceID(), inFlightSequence.incrementAndGet());
+        } else {
+            gauge.leaveInFlight(statusElement.getParcelInstanceID());
+        }
+    }
+
+    private boolean isInFlight(ResilienceParcelProcessingStatusEnum status) {
+        if (status == null) {
+            return (false);
+        }
+        switch (status) {
+            case PARCEL_STATUS_REGISTERED:
+            case PARCEL_STATUS_INITIATED:
+            case PARCEL_STATUS_ACTIVE:
+            case PARCEL_STATUS_ACTIVE_ELSEWHERE:
+                return (true);
+            default:
+                return (false);
+        }
+    }
+
+    /**
+     * @param wupIdentifier The WUPIdentifier
+     * @return True if the WUP's ingres endpoint has not yet been resolved (see registerIngresEndpoint())
+     */
+    public boolean needsIngresEndpoint(WUPIdentifier wupIdentifier) {
+        if (!enabled || (wupIdentifier == null)) {
+            return (false);
+        }
+        return (!getWUPGauge(wupIdentifier).hasIngresEndpoint());
+    }
+
+    /**
+     * Associates the WUP's ingres (WUP Container Ingres Processor) endpoint with its gauge, so the depth of its
+     * queue (if it is a seda endpoint) can be read.
+     *
+     * @param wupIdentifier The WUPIdentifier
+     * @param endpointName The (Camel) URI of the ingres endpoint
+     */
+    public void registerIngresEndpoint(WUPIdentifier wupIdentifier, String endpointName) {
+        LOG.debug(".registerIngresEndpoint(): Entry, wupIdentifier --> {}, endpointName --> {}", wupIdentifier, endpointName);
+        if (!enabled || (wupIdentifier == null) || (endpointName == null)) {
+            return;
+        }
+        Endpoint ingresEndpoint = camelContext.hasEndpoint(endpointName);
+        if (ingresEndpoint == null) {
+            LOG.debug(".registerIngresEndpoint(): Exit, endpoint not (yet) created");
+            return;
+        }
+        if (ingresEndpoint instanceof SedaEndpoint) {
+            getWUPGauge(wupIdentifier).setIngresEndpoint(endpointName, (SedaEndpoint) ingresEndpoint);
+        } else {
+            getWUPGauge(wupIdentifier).setIngresEndpoint(endpointName, null);
+        }
+    }
+
+    public WUPThroughputGauge getWUPGauge(WUPIdentifier wupIdentifier) {
+        WUPThroughputGauge gauge = wupGaugeMap.get(wupIdentifier);
+        if (gauge != null) {
+            return (gauge);
+        }
+        boolean[] created = new boolean[1];
+        gauge = wupGaugeMap.computeIfAbsent(wupIdentifier, key -> {
+            created[0] = true;
+            return (new WUPThroughputGauge(wupIdentifier.getUnqualifiedToken()));
+        });
+        if (created[0]) {
+            registerMXBean(gauge, WUP_OBJECT_NAME_PREFIX + ObjectName.quote(gauge.getWUPIdentifier()));
+        }
+        return (gauge);
+    }
+
+    //
+    // Topic Gauges
+    //
+
+    /**
+     * Records the routing of a UoW (of the Topic) by the Interchange.
+     *
+     * @param topic The Topic of the UoW
+     * @param subscriberCount The number of subscribers it was delivered to (0 - it could not be delivered)
+     */
+    public void topicRouted(TopicToken topic, int subscriberCount) {
+        if (!enabled || (topic == null)) {
+            return;
+        }
+        TopicThroughputGauge gauge = getTopicGauge(topic);
+        gauge.getThroughputCounter().countIn();
+        if (subscriberCount > 0) {
+            gauge.getThroughputCounter().countOut(subscriberCount);
+        } else {
+            gauge.getThroughputCounter().countFailed();
+        }
+    }
+
+    public TopicThroughputGauge getTopicGauge(TopicToken topic) {
+        TopicThroughputGauge gauge = topicGaugeMap.get(topic);
+        if (gauge != null) {
+            return (gauge);
+        }
+        boolean[] created = new boolean[1];
+        gauge = topicGaugeMap.computeIfAbsent(topic, key -> {
+            created[0] = true;
+            return (new TopicThroughputGauge(String.valueOf(key)));
+        });
+        if (created[0]) {
+            registerMXBean(gauge, TOPIC_OBJECT_NAME_PREFIX + ObjectName.quote(gauge.getTopic()));
+        }
+        return (gauge);
+    }
+
+    //
+    // Rates and JMX
+    //
+
+    /**
+     * Recalculates the per-second rates of every gauge (called by the rate thread only).
+     */
+    void updateRates() {
+        long currentNanos = PetasosClock.monotonicNanos();
+        long intervalMillis = TimeUnit.NANOSECONDS.toMillis(currentNanos - lastRateUpdateNanos);
+        lastRateUpdateNanos = currentNanos;
+        for (WUPThroughputGauge gauge : wupGaugeMap.values()) {
+            gauge.getThroughputCounter().updateRates(intervalMillis);
+        }
+        for (TopicThroughputGauge gauge : topicGaugeMap.values()) {
+            gauge.getThroughputCounter().updateRates(intervalMillis);
+        }
+    }
+
+    private void registerMXBean(Object gauge, String objectNameString) {
+        if (!jmxEnabled) {
+            return;
+        }
+        try {
+            ObjectName objectName = new ObjectName(objectNameString);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(gauge, objectName);
+            synchronized (registeredObjectNames) {
+                registeredObjectNames.add(objectName);
+            }
+        } catch (JMException e) {
+            LOG.warn(".registerMXBean(): Could not register throughput MXBean --> {}, reason --> {}", objectNameString, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.core.moa.pathway.metrics;
+
+import net.fhirfactory.pegacorn.petasos.core.common.clock.PetasosClock;
+import net.fhirfactory.pegacorn.petasos.core.common.metrics.PetasosThroughputCounter;
+import net.fhirfactory.pegacorn.petasos.model.resilience.parcel.ResilienceParcelIdentifier;
+import org.apache.camel.component.seda.SedaEndpoint;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The throughput and backlog gauges of a single WUP:
+ * <p>
+ * - the in/out/failed counters (and rates) - in counting newly registered parcels, out those that have finished
+ * and failed those that have failed,
+ * <p>
+ * - the in-flight parcels - held as an index (parcel -> entry sequence) plus an ordered map (entry sequence -> entry
+ * time), so the in-flight count and the age of the oldest in-flight parcel are read without scanning anything, and
+ * <p>
+ * - the depth of the WUP's (seda) ingres queue, read directly from the endpoint.
+ * <p>
+ * All are maintained incrementally by the WUPThroughputDM as the WUP's parcels change status.
+ *
+ * @author Mark A. Hunter
+ * @since 2020-08-01
+ */
+public class WUPThroughputGauge implements WUPThroughputMXBean {
+    private String wupIdentifier;
+    private PetasosThroughputCounter throughputCounter;
+    private ConcurrentHashMap<ResilienceParcelIdentifier, Long> inFlightSequenceMap;
+    private ConcurrentSkipListMap<Long, Long> inFlightEntryTimeMap;
+    private AtomicInteger inFlightCount;
+    private volatile SedaEndpoint ingresEndpoint;
+    private volatile String ingresEndpointName;
+
+    public WUPThroughputGauge(String wupIdentifier) {
+        this.wupIdentifier = wupIdentifier;
+        this.throughputCounter = new PetasosThroughputCounter();
+        this.inFlightSequenceMap = new ConcurrentHashMap<ResilienceParcelIdentifier, Long>();
+        this.inFlightEntryTimeMap = new ConcurrentSkipListMap<Long, Long>();
+        this.inFlightCount = new AtomicInteger(0);
+        this.ingresEndpoint = null;
+        this.ingresEndpointName = null;
+    }
+
+    public PetasosThroughputCounter getThroughputCounter() {
+        return (throughputCounter);
+    }
+
+    /**
+     * @param parcelKey The key of the parcel now in-flight
+     * @param entrySequence A (ProcessingPlant wide) increasing sequence number, giving the order of entry
+     */
+    void enterInFlight(ResilienceParcelIdentifier parcelKey, long entrySequence) {
+        if (inFlightSequenceMap.putIfAbsent(parcelKey, entrySequence) == null) {
+            inFlightEntryTimeMap.put(entrySequence, PetasosClock.wallClockMillis());
+            inFlightCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * @param parcelKey The key of the parcel no longer in-flight (ignored if it wasn't)
+     */
+    void leaveInFlight(ResilienceParcelIdentifier parcelKey) {
+        Long entrySequence = inFlightSequenceMap.remove(parcelKey);
+        if (entrySequence != null) {
+            inFlightEntryTimeMap.remove(entrySequence);
+            inFlightCount.decrementAndGet();
+        }
+    }
+
+    void setIngresEndpoint(String endpointName, SedaEndpoint endpoint) {
+        this.ingresEndpoint = endpoint;
+        this.ingresEndpointName = endpointName;
+    }
+
+    boolean hasIngresEndpoint() {
+        return (ingresEndpointName != null);
+    }
+
+    @Override
+    public String getWUPIdentifier() {
+        return (wupIdentifier);
+    }
+
+    @Override
+    public long getInCount() {
+        return (throughputCounter.getInCount());
+    }
+
+    @Override
+    public long getOutCount() {
+        return (throughputCounter.getOutCount());
+    }
+
+    @Override
+    public long getFailedCount() {
+        return (throughputCounter.getFailedCount());
+    }
+
+    @Override
+    public double getInRate() {
+        return (throughputCounter.getInRate());
+    }
+
+    @Override
+    public double getOutRate() {
+        return (throughputCounter.getOutRate());
+    }
+
+    @Override
+    public double getFailedRate() {
+        return (throughputCounter.getFailedRate());
+    }
+
+    @Override
+    public int getInFlightCount() {
+        return (inFlightCount.get());
+    }
+
+    @Override
+    public long getOldestInFlightAgeMillis() {
+        Map.Entry<Long, Long> oldestEntry = inFlightEntryTimeMap.firstEntry();
+        if (oldestEntry == null) {
+            return (0);
+        }
+        return (Math.max(0, PetasosClock.wallClockMillis() - oldestEntry.getValue()));
+    }
+
+    /**
+     * @return The number of UoWs waiting in the WUP's ingres queue (0 if the ingres is not a seda endpoint)
+     */
+    @Override
+    public int getQueueDepth() {
+        SedaEndpoint currentEndpoint = ingresEndpoint;
+        if (currentEndpoint == null) {
+            return (0);
+        }
+        return (currentEndpoint.getCurrentQueueSize());
+    }
+}
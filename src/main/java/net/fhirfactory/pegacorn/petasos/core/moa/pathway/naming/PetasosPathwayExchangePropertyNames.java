@@ -29,6 +29,11 @@ public class PetasosPathwayExchangePropertyNames {
     private static final String JOB_CARD_PREFIX = "WUPJobCard";
     private static final String STATUS_ELEMENT_PREFIX = "StatusElement";
     private static final String UOW_PREFIX = "UoW";
+    private static final String EXECUTION_START_PREFIX = "WUPExecutionStart";
+    private static final String STAGE_HANDOFF = "PetasosStageHandoff";
+    private static final String TRACE_SPAN_PREFIX = "PetasosTraceSpan";
+    private static final String TRACE_CONTEXT = "PetasosTraceContext";
+    private static final String FANOUT_TARGET_SETS_PREFIX = "InterchangeFanOutTargetSets";
 
     public String getExchangeJobCardPropertyName(String wupKey){
         return(JOB_CARD_PREFIX+wupKey);
@@ -41,4 +46,24 @@ public class PetasosPathwayExchangePropertyNames {
     public String getExchangeUoWPropertyName(String wupKey){
         return(UOW_PREFIX+wupKey);
     }
+
+    public String getExchangeExecutionStartPropertyName(String wupKey){
+        return(EXECUTION_START_PREFIX+wupKey);
+    }
+
+    public String getExchangeStageHandoffPropertyName(){
+        return(STAGE_HANDOFF);
+    }
+
+    public String getExchangeTraceSpanPropertyName(String wupKey){
+        return(TRACE_SPAN_PREFIX+wupKey);
+    }
+
+    public String getExchangeTraceContextPropertyName(){
+        return(TRACE_CONTEXT);
+    }
+
+    public String getExchangeFanOutTargetSetsPropertyName(String wupKey){
+        return(FANOUT_TARGET_SETS_PREFIX+wupKey);
+    }
 }
@@ -0,0 +1,43 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.core.moa.pathway.tracing;
+
+import java.util.List;
+
+/**
+ * An exporter of (finished) PetasosTraceSpans - e.g. to a file or a tracing system. Exporters are registered with the
+ * WUPPipelineTracer and invoked from its flush thread with each batch of spans; they should not block for long.
+ *
+ * @author Mark A. Hunter
+ * @since 2020-08-01
+ */
+public interface PetasosTraceExporter {
+    /**
+     * @param spans The batch of finished spans (not in any particular order)
+     */
+    public void exportSpans(List<PetasosTraceSpan> spans);
+
+    /**
+     * Releases any resources held by the exporter - called when the WUPPipelineTracer is shut down.
+     */
+    public void close();
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.core.moa.pathway.tracing;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * A PetasosTraceExporter that appends each span, as a line of JSON, to a local file - so traces can be collected
+ * without any external tracing system. When the file exceeds maxFileSize it is rolled over to "<file>.1" (replacing
+ * any previous one) and a new file is started.
+ *
+ * @author Mark A. Hunter
+ * @since 2020-08-01
+ */
+public class PetasosTraceFileExporter implements PetasosTraceExporter {
+    private static final Logger LOG = LoggerFactory.getLogger(PetasosTraceFileExporter.class);
+
+    private Path traceFile;
+    private long maxFileSize;
+    private ObjectMapper spanObjectMapper;
+    private BufferedWriter traceWriter;
+    private long currentFileSize;
+
+    /**
+     * @param traceFile The file the spans are written to
+     * @param maxFileSize The size (bytes) at which the file is rolled over (0 - never)
+     */
+    public PetasosTraceFileExporter(Path traceFile, long maxFileSize) {
+        if (traceFile == null) {
+            throw (new IllegalArgumentException(".PetasosTraceFileExporter(): traceFile is null"));
+        }
+        this.traceFile = traceFile;
+        this.maxFileSize = maxFileSize;
+        this.spanObjectMapper = new ObjectMapper();
+        this.traceWriter = null;
+    }
+
+    @Override
+    public synchronized void exportSpans(List<PetasosTraceSpan> spans) {
+        LOG.debug(".exportSpans(): Entry, spans.size --> {}", spans.size());
+        try {
+            for (PetasosTraceSpan span : spans) {
+                String spanLine = spanObjectMapper.writeValueAsString(span) + System.lineSeparator();
+                if ((maxFileSize > 0) && (traceWriter != null) && ((currentFileSize + spanLine.length()) > maxFileSize)) {
+                    rollOver();
+                }
+                if (traceWriter == null) {
+                    openTraceFile();
+                }
+                traceWriter.write(spanLine);
+                currentFileSize += spanLine.length();
+            }
+            if (traceWriter != null) {
+                traceWriter.flush();
+            }
+        } catch (JsonProcessingException e) {
+            LOG.warn(".exportSpans(): Could not serialise span, reason --> {}", e.getMessage());
+        } catch (IOException e) {
+            LOG.warn(".exportSpans(): Could not write to trace file --> {}, reason --> {}", traceFile, e.getMessage());
+            closeTraceFile();
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        closeTraceFile();
+    }
+
+    private void openTraceFile() throws IOException {
+        Path parentDirectory = traceFile.toAbsolutePath().getParent();
+        if (parentDirectory != null) {
+            Files.createDirectories(parentDirectory);
+        }
+        traceWriter = Files.newBufferedWriter(traceFile, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        currentFileSize = Files.size(traceFile);
+    }
+
+    private void rollOver() throws IOException {
+        closeTraceFile();
+        Path rolledFile = traceFile.resolveSibling(traceFile.getFileName() + ".1");
+        Files.move(traceFile, rolledFile, StandardCopyOption.REPLACE_EXISTING);
+        LOG.debug(".rollOver(): Trace file rolled over to --> {}", rolledFile);
+    }
+
+    private void closeTraceFile() {
+        if (traceWriter == null) {
+            return;
+        }
+        try {
+            traceWriter.close();
+        } catch (IOException e) {
+            LOG.warn(".closeTraceFile(): Could not close trace file --> {}, reason --> {}", traceFile, e.getMessage());
+        }
+        traceWriter = null;
+    }
+
+    public static Path defaultTraceFile() {
+        return (new File(System.getProperty("java.io.tmpdir"), "petasos-trace.jsonl").toPath());
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.core.moa.pathway.tracing;
+
+/**
+ * A (lightweight) trace span: the passage of a single ResilienceParcel through a WUP Container - from the start of
+ * the WUPContainerIngresProcessor to the end of the WUPContainerEgressProcessor.
+ * <p>
+ * The spanID is the parcel's (unqualified) identifier and the parentSpanID is that of the upstream parcel (from the
+ * ActivityID), so the spans sharing a traceID can be assembled into the path of a message through the
+ * ProcessingPlant. The traceID is the spanID of the first (sampled) span of that path.
+ *
+ * @author Mark A. Hunter
+ * @since 2020-08-01
+ */
+public class PetasosTraceSpan {
+    private String traceID;
+    private String spanID;
+    private String parentSpanID;
+    private String episodeID;
+    private String wupInstanceKey;
+    private String outcome;
+    private long startMillis;
+    private long startNanos;
+    private long durationNanos;
+
+    public PetasosTraceSpan(String traceID, String spanID, String parentSpanID, String episodeID, String wupInstanceKey, long startMillis, long startNanos) {
+        this.traceID = traceID;
+        this.spanID = spanID;
+        this.parentSpanID = parentSpanID;
+        this.episodeID = episodeID;
+        this.wupInstanceKey = wupInstanceKey;
+        this.startMillis = startMillis;
+        this.startNanos = startNanos;
+        this.outcome = null;
+        this.durationNanos = -1;
+    }
+
+    public void finish(String outcome, long finishNanos) {
+        this.outcome = outcome;
+        this.durationNanos = finishNanos - startNanos;
+    }
+
+    public boolean isFinished() {
+        return (durationNanos >= 0);
+    }
+
+    public String getTraceID() {
+        return (traceID);
+    }
+
+    public String getSpanID() {
+        return (spanID);
+    }
+
+    public String getParentSpanID() {
+        return (parentSpanID);
+    }
+
+    public String getEpisodeID() {
+        return (episodeID);
+    }
+
+    public String getWupInstanceKey() {
+        return (wupInstanceKey);
+    }
+
+    public String getOutcome() {
+        return (outcome);
+    }
+
+    /**
+     * @return The wall-clock start (milliseconds since the epoch)
+     */
+    public long getStartMillis() {
+        return (startMillis);
+    }
+
+    /**
+     * @return The wall-clock finish (milliseconds since the epoch), derived from the (monotonic) duration
+     */
+    public long getFinishMillis() {
+        return (startMillis + (durationNanos / 1000000L));
+    }
+
+    public long getDurationNanos() {
+        return (durationNanos);
+    }
+
+    @Override
+    public String toString() {
+        return ("PetasosTraceSpan{traceID=" + traceID + ", spanID=" + spanID + ", parentSpanID=" + parentSpanID
+                + ", episodeID=" + episodeID + ", wupInstanceKey=" + wupInstanceKey + ", outcome=" + outcome
+                + ", startMillis=" + startMillis + ", durationNanos=" + durationNanos + "}");
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.core.moa.pathway.tracing;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded, single-producer/single-consumer ring of finished PetasosTraceSpans. Each pipeline thread owns one
+ * (see WUPPipelineTracer) and is its only producer; the tracer's flush thread is the only consumer. Neither side
+ * locks or waits: the producer publishes a span by (lazily) advancing the tail, the consumer releases the slots by
+ * (lazily) advancing the head, and if the ring is full the span is dropped (and counted).
+ *
+ * @author Mark A. Hunter
+ * @since 2020-08-01
+ */
+public class PetasosTraceSpanBuffer {
+    private Thread owner;
+    private PetasosTraceSpan[] slots;
+    private int mask;
+    private AtomicLong head;
+    private AtomicLong tail;
+    private AtomicLong droppedCount;
+
+    /**
+     * @param owner The (producer) Thread that owns the buffer
+     * @param capacity The capacity - rounded up to a power of two
+     */
+    public PetasosTraceSpanBuffer(Thread owner, int capacity) {
+        int ringSize = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.owner = owner;
+        this.slots = new PetasosTraceSpan[ringSize];
+        this.mask = ringSize - 1;
+        this.head = new AtomicLong(0);
+        this.tail = new AtomicLong(0);
+        this.droppedCount = new AtomicLong(0);
+    }
+
+    /**
+     * Producer (owning thread) only.
+     *
+     * @param span The finished span
+     * @return False if the buffer was full (and the span dropped)
+     */
+    public boolean offer(PetasosTraceSpan span) {
+        long currentTail = tail.get();
+        if ((currentTail - head.get()) >= slots.length) {
+            droppedCount.incrementAndGet();
+            return (false);
+        }
+        slots[(int) (currentTail & mask)] = span;
+        tail.lazySet(currentTail + 1);
+        return (true);
+    }
+
+    /**
+     * Consumer (flush thread) only.
+     *
+     * @param drainedSpans The List the buffered spans are added to
+     * @return The number of spans drained
+     */
+    public int drainTo(List<PetasosTraceSpan> drainedSpans) {
+        long currentHead = head.get();
+        long currentTail = tail.get();
+        for (long position = currentHead; position < currentTail; position += 1) {
+            int index = (int) (position & mask);
+            drainedSpans.add(slots[index]);
+            slots[index] = null;
+        }
+        head.lazySet(currentTail);
+        return ((int) (currentTail - currentHead));
+    }
+
+    public boolean isEmpty() {
+        return (tail.get() == head.get());
+    }
+
+    public Thread getOwner() {
+        return (owner);
+    }
+
+    public long getDroppedCount() {
+        return (droppedCount.get());
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.core.moa.pathway.tracing;
+
+import net.fhirfactory.pegacorn.petasos.core.common.clock.PetasosClock;
+import net.fhirfactory.pegacorn.petasos.core.common.concurrent.PetasosDaemonThreads;
+import net.fhirfactory.pegacorn.petasos.core.moa.pathway.naming.PetasosPathwayExchangePropertyNames;
+import net.fhirfactory.pegacorn.petasos.model.pathway.ActivityID;
+import org.apache.camel.Exchange;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class traces the passage of (sampled) messages through the WUP Containers of the ProcessingPlant - as one
+ * PetasosTraceSpan per ResilienceParcel, linked to the upstream parcel.
+ * <p>
+ * A span is started by the WUPContainerIngresProcessor and finished by the WUPContainerEgressProcessor, the open span
+ * being carried in the Camel Exchange. The sampling decision is made once, where a message enters the ProcessingPlant
+ * (i.e. where the Exchange carries no trace context), and is then carried in the Exchange - through the Interchange -
+ * to every downstream WUP, so a sampled message is traced along its whole path.
+ * <p>
+ * Finished spans are placed in a (lock-free) PetasosTraceSpanBuffer owned by the finishing thread, and the buffers
+ * are drained - every "petasos.tracing.flush.interval.millis" - to the registered PetasosTraceExporters. Unless
+ * disabled ("petasos.tracing.file.enabled" = false), a PetasosTraceFileExporter writing to
+ * "petasos.tracing.file.path" (default: java.io.tmpdir/petasos-trace.jsonl) is registered.
+ * <p>
+ * Tracing is off unless "petasos.tracing.enabled" = true; "petasos.tracing.sample.rate" (0.0 to 1.0, default 0.01)
+ * sets the proportion of messages traced.
+ *
+ * @author Mark A. Hunter
+ * @since 2020-08-01
+ */
+@ApplicationScoped
+public class WUPPipelineTracer {
+    private static final Logger LOG = LoggerFactory.getLogger(WUPPipelineTracer.class);
+    private static final String NOT_SAMPLED = "";
+    private static final long DEFAULT_FLUSH_INTERVAL_MILLISECONDS = 1000L;
+    private static final int DEFAULT_BUFFER_CAPACITY = 1024;
+    private static final long DEFAULT_TRACE_FILE_MAX_BYTES = 64L * 1024L * 1024L;
+
+    @Inject
+    PetasosPathwayExchangePropertyNames exchangePropertyNames;
+
+    private boolean enabled = Boolean.getBoolean("petasos.tracing.enabled");
+    private double sampleRate = Double.parseDouble(System.getProperty("petasos.tracing.sample.rate", "0.01"));
+    private int bufferCapacity = Integer.getInteger("petasos.tracing.buffer.capacity", DEFAULT_BUFFER_CAPACITY);
+    private CopyOnWriteArrayList<PetasosTraceSpanBuffer> bufferList;
+    private ThreadLocal<PetasosTraceSpanBuffer> threadBuffer;
+    private CopyOnWriteArrayList<PetasosTraceExporter> exporterList;
+    private ScheduledExecutorService flushExecutor;
+    private long retiredDroppedCount;
+
+    public WUPPipelineTracer() {
+        this.bufferList = new CopyOnWriteArrayList<PetasosTraceSpanBuffer>();
+        this.exporterList = new CopyOnWriteArrayList<PetasosTraceExporter>();
+        this.threadBuffer = ThreadLocal.withInitial(() -> {
+            PetasosTraceSpanBuffer buffer = new PetasosTraceSpanBuffer(Thread.currentThread(), bufferCapacity);
+            bufferList.add(buffer);
+            return (buffer);
+        });
+        this.retiredDroppedCount = 0;
+    }
+
+    @PostConstruct
+    public void initialise() {
+        LOG.debug(".initialise(): Entry, enabled --> {}, sampleRate --> {}", enabled, sampleRate);
+        if (!enabled) {
+            return;
+        }
+        if (Boolean.parseBoolean(System.getProperty("petasos.tracing.file.enabled", "true"))) {
+            String traceFilePath = System.getProperty("petasos.tracing.file.path");
+            long traceFileMaxBytes = Long.getLong("petasos.tracing.file.max.bytes", DEFAULT_TRACE_FILE_MAX_BYTES);
+            if (traceFilePath == null) {
+                exporterList.add(new PetasosTraceFileExporter(PetasosTraceFileExporter.defaultTraceFile(), traceFileMaxBytes));
+            } else {
+                exporterList.add(new PetasosTraceFileExporter(Paths.get(traceFilePath), traceFileMaxBytes));
+            }
+        }
+        long flushInterval = Long.getLong("petasos.tracing.flush.interval.millis", DEFAULT_FLUSH_INTERVAL_MILLISECONDS);
+        flushExecutor = PetasosDaemonThreads.newSingleThreadScheduledExecutor("trace-flush");
+        flushExecutor.scheduleWithFixedDelay(this::flush, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+        LOG.debug(".initialise(): Exit, flushInterval --> {}", flushInterval);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (flushExecutor != null) {
+            flushExecutor.shutdownNow();
+            try {
+                flushExecutor.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            flushExecutor = null;
+            // a final flush, now that the flush thread has stopped (so there is still only one consumer)
+            flush();
+        }
+        for (PetasosTraceExporter exporter : exporterList) {
+            exporter.close();
+        }
+    }
+
+    public boolean isEnabled() {
+        return (enabled);
+    }
+
+    //
+    // Span lifecycle
+    //
+
+    /**
+     * Starts the span of the parcel (if the message is sampled) and stores it in the Camel Exchange.
+     *
+     * @param camelExchange The Apache Camel Exchange carrying the UoW
+     * @param wupInstanceKey The NodeElement Instance key of the WUP
+     * @param activityID The ActivityID of the (registered) parcel
+     * @param startNanos The (monotonicNanos()) start of the span - i.e. the entry into the WUP Container
+     */
+    public void startSpan(Exchange camelExchange, String wupInstanceKey, ActivityID activityID, long startNanos) {
+        if (!enabled || (camelExchange == null) || (activityID == null) || !activityID.hasPresentParcelIdentifier()) {
+            return;
+        }
+        String traceContextPropertyName = exchangePropertyNames.getExchangeTraceContextPropertyName();
+        String traceID = camelExchange.getProperty(traceContextPropertyName, String.class);
+        if (traceID == null) {
+            traceID = NOT_SAMPLED;
+            if (ThreadLocalRandom.current().nextDouble() < sampleRate) {
+                traceID = activityID.getPresentParcelIdentifier().getUnqualifiedToken();
+            }
+            camelExchange.setProperty(traceContextPropertyName, traceID);
+        }
+        if (NOT_SAMPLED.equals(traceID)) {
+            return;
+        }
+        String parentSpanID = null;
+        if (activityID.getPreviousParcelIdentifier() != null) {
+            parentSpanID = activityID.getPreviousParcelIdentifier().getUnqualifiedToken();
+        }
+        String episodeID = null;
+        if (activityID.getPresentEpisodeIdentifier() != null) {
+            episodeID = activityID.getPresentEpisodeIdentifier().getUnqualifiedToken();
+        }
+        long startMillis = PetasosClock.wallClockMillis() - TimeUnit.NANOSECONDS.toMillis(PetasosClock.elapsedNanos(startNanos));
+        PetasosTraceSpan span = new PetasosTraceSpan(traceID, activityID.getPresentParcelIdentifier().getUnqualifiedToken(), parentSpanID, episodeID, wupInstanceKey, startMillis, startNanos);
+        camelExchange.setProperty(exchangePropertyNames.getExchangeTraceSpanPropertyName(wupInstanceKey), span);
+    }
+
+    /**
+     * Finishes the (open) span of the WUP carried in the Camel Exchange, if there is one, and buffers it for export.
+     *
+     * @param camelExchange The Apache Camel Exchange carrying the UoW
+     * @param wupInstanceKey The NodeElement Instance key of the WUP
+     * @param outcome The outcome of the activity (e.g. the parcel's processing status)
+     */
+    public void finishSpan(Exchange camelExchange, String wupInstanceKey, String outcome) {
+        if (!enabled || (camelExchange == null)) {
+            return;
+        }
+        Object openSpan = camelExchange.removeProperty(exchangePropertyNames.getExchangeTraceSpanPropertyName(wupInstanceKey));
+        if (!(openSpan instanceof PetasosTraceSpan)) {
+            return;
+        }
+        PetasosTraceSpan span = (PetasosTraceSpan) openSpan;
+        span.finish(outcome, PetasosClock.monotonicNanos());
+        threadBuffer.get().offer(span);
+    }
+
+    //
+    // Export
+    //
+
+    public void addExporter(PetasosTraceExporter exporter) {
+        if (exporter == null) {
+            throw (new IllegalArgumentException(".addExporter(): exporter is null"));
+        }
+        exporterList.addIfAbsent(exporter);
+    }
+
+    public void removeExporter(PetasosTraceExporter exporter) {
+        exporterList.remove(exporter);
+    }
+
+    /**
+     * @return The number of spans dropped because a thread's buffer was full
+     */
+    public long getDroppedSpanCount() {
+        long droppedCount = retiredDroppedCount;
+        for (PetasosTraceSpanBuffer buffer : bufferList) {
+            droppedCount += buffer.getDroppedCount();
+        }
+        return (droppedCount);
+    }
+
+    /**
+     * Drains every thread's buffer and passes the spans to each PetasosTraceExporter. The buffers of threads that
+     * have terminated are discarded once empty. Must only be called from one thread at a time (normally the flush
+     * thread).
+     */
+    void flush() {
+        List<PetasosTraceSpan> flushedSpans = new ArrayList<PetasosTraceSpan>();
+        for (PetasosTraceSpanBuffer buffer : bufferList) {
+            buffer.drainTo(flushedSpans);
+            if (!buffer.getOwner().isAlive() && buffer.isEmpty()) {
+                retiredDroppedCount += buffer.getDroppedCount();
+                bufferList.remove(buffer);
+            }
+        }
+        if (flushedSpans.isEmpty()) {
+            return;
+        }
+        LOG.debug(".flush(): Exporting spans, count --> {}", flushedSpans.size());
+        for (PetasosTraceExporter exporter : exporterList) {
+            try {
+                exporter.exportSpans(flushedSpans);
+            } catch (RuntimeException e) {
+                LOG.warn(".flush(): Exporter failed, exporter --> {}, reason --> {}", exporter, e.getMessage());
+            }
+        }
+    }
+}
@@ -33,7 +33,10 @@ import org.slf4j.LoggerFactory;
 
 import net.fhirfactory.pegacorn.deployment.topology.manager.DeploymentTopologyIM;
 import net.fhirfactory.pegacorn.petasos.core.moa.brokers.PetasosMOAServicesBroker;
+import net.fhirfactory.pegacorn.petasos.core.moa.pathway.metrics.WUPPipelineLatencyDM;
+import net.fhirfactory.pegacorn.petasos.core.moa.pathway.metrics.WUPPipelineStageEnum;
 import net.fhirfactory.pegacorn.petasos.core.moa.pathway.naming.RouteElementNames;
+import net.fhirfactory.pegacorn.petasos.core.moa.pathway.tracing.WUPPipelineTracer;
 import net.fhirfactory.pegacorn.petasos.model.pathway.WorkUnitTransportPacket;
 import net.fhirfactory.pegacorn.petasos.model.resilience.activitymatrix.moa.ParcelStatusElement;
 import net.fhirfactory.pegacorn.petasos.model.resilience.parcel.ResilienceParcelProcessingStatusEnum;
@@ -57,9 +60,16 @@ public class WUPContainerEgressProcessor {
     @Inject
 	DeploymentTopologyIM topologyProxy;
 
+    @Inject
+    WUPPipelineLatencyDM pipelineLatencyDM;
+
+    @Inject
+    WUPPipelineTracer pipelineTracer;
+
 
     public WorkUnitTransportPacket egressContentProcessor(WorkUnitTransportPacket ingresPacket, Exchange camelExchange, String wupInstanceKey) {
       	LOG.debug(".egressContentProcessor(): Entry, ingresPacket (WorkUnitTransportPacket) --> {}, wupInstanceKey (String) --> {}", ingresPacket, wupInstanceKey);
+        long egressStartNanos = pipelineLatencyDM.beginStage();
         // Get my Petasos Context
         NodeElement node = topologyProxy.getNodeByKey(wupInstanceKey);
         if(LOG.isTraceEnabled()) {
@@ -85,6 +95,9 @@ public class WUPContainerEgressProcessor {
                 LOG.trace(".egressContentProcessor(): Deployment Mode --> PETASOS_MODE_STANDALONE");
                 egressPacket = standaloneDeploymentModeECP(ingresPacket, camelExchange,node);
         }
+        pipelineLatencyDM.endStage(wupInstanceKey, WUPPipelineStageEnum.WUP_PIPELINE_STAGE_EGRESS_REGISTRATION, egressStartNanos);
+        pipelineLatencyDM.markHandoff(camelExchange);
+        pipelineTracer.finishSpan(camelExchange, wupInstanceKey, String.valueOf(ingresPacket.getCurrentParcelStatus().getParcelStatus()));
 		LOG.debug(".egressContentProcessor(): Exit, egressPacket (WorkUnitTransportPacket) --> {}", egressPacket);
         return (egressPacket);
     }
@@ -22,10 +22,15 @@
 
 package net.fhirfactory.pegacorn.petasos.core.moa.pathway.wupcontainer.worker.buildingblocks;
 
+import net.fhirfactory.pegacorn.petasos.core.common.clock.PetasosClock;
 import net.fhirfactory.pegacorn.common.model.FDNToken;
 import net.fhirfactory.pegacorn.deployment.topology.manager.DeploymentTopologyIM;
 import net.fhirfactory.pegacorn.petasos.core.moa.brokers.PetasosMOAServicesBroker;
+import net.fhirfactory.pegacorn.petasos.core.moa.pathway.metrics.WUPPipelineLatencyDM;
+import net.fhirfactory.pegacorn.petasos.core.moa.pathway.metrics.WUPPipelineStageEnum;
+import net.fhirfactory.pegacorn.petasos.core.moa.pathway.metrics.WUPThroughputDM;
 import net.fhirfactory.pegacorn.petasos.core.moa.pathway.naming.RouteElementNames;
+import net.fhirfactory.pegacorn.petasos.core.moa.pathway.tracing.WUPPipelineTracer;
 import net.fhirfactory.pegacorn.petasos.model.configuration.PetasosPropertyConstants;
 import net.fhirfactory.pegacorn.petasos.model.pathway.ActivityID;
 import net.fhirfactory.pegacorn.petasos.model.pathway.WorkUnitTransportPacket;
@@ -48,8 +53,6 @@ import org.slf4j.LoggerFactory;
 
 import javax.enterprise.context.Dependent;
 import javax.inject.Inject;
-import java.time.Instant;
-import java.util.Date;
 
 /**
  * @author Mark A. Hunter
@@ -65,6 +68,15 @@ public class WUPContainerIngresProcessor {
 
     @Inject
     DeploymentTopologyIM topologyProxy;
+
+    @Inject
+    WUPPipelineLatencyDM pipelineLatencyDM;
+
+    @Inject
+    WUPPipelineTracer pipelineTracer;
+
+    @Inject
+    WUPThroughputDM throughputDM;
     
     /**
      * This class/method is used as the injection point into the WUP Processing Framework for the specific WUP Type/Instance in question.
@@ -92,6 +104,8 @@ public class WUPContainerIngresProcessor {
      */
     public WorkUnitTransportPacket ingresContentProcessor(WorkUnitTransportPacket transportPacket, Exchange camelExchange, String wupInstanceKey) {
         LOG.debug(".ingresContentProcessor(): Enter, transportPacket (WorkUnitTransportPacket) --> {}, wupInstanceKey (String) --> {}", transportPacket,wupInstanceKey );
+        pipelineLatencyDM.recordHandoff(camelExchange, wupInstanceKey, WUPPipelineStageEnum.WUP_PIPELINE_STAGE_QUEUE_WAIT);
+        long ingresStartNanos = PetasosClock.monotonicNanos();
         // Get my Petasos Context
         NodeElement node = topologyProxy.getNodeByKey(wupInstanceKey);
         NodeElementFunctionToken wupFunctionToken = node.getNodeFunctionToken();
@@ -148,7 +162,14 @@ public class WUPContainerIngresProcessor {
             ParcelStatusElement currentParcelStatus = newTransportPacket.getCurrentParcelStatus();
             currentParcelStatus.setRequiresRetry(true);
             currentParcelStatus.setParcelStatus(ResilienceParcelProcessingStatusEnum.PARCEL_STATUS_FAILED);
+        } else {
+            pipelineTracer.startSpan(camelExchange, wupInstanceKey, jobCard.getActivityID(), ingresStartNanos);
+        }
+        WUPIdentifier presentWUPIdentifier = jobCard.getActivityID().getPresentWUPIdentifier();
+        if (throughputDM.needsIngresEndpoint(presentWUPIdentifier)) {
+            throughputDM.registerIngresEndpoint(presentWUPIdentifier, elementNames.getEndPointWUPContainerIngresProcessorIngres());
         }
+        pipelineLatencyDM.endStage(wupInstanceKey, WUPPipelineStageEnum.WUP_PIPELINE_STAGE_INGRES_SYNCHRONISE, ingresStartNanos);
         LOG.debug(".ingresContentProcessor(): Exit, newTransportPacket --> {}", newTransportPacket);
         return (newTransportPacket);
     }
@@ -172,7 +193,7 @@ public class WUPContainerIngresProcessor {
         newActivityID.setPresentWUPFunctionToken(localWUPTypeID);
         newActivityID.setPresentWUPIdentifier(localWUPInstanceID);
         LOG.trace(".standardIngresContentProcessor(): Creating new JobCard");
-        WUPJobCard activityJobCard = new WUPJobCard(newActivityID, WUPActivityStatusEnum.WUP_ACTIVITY_STATUS_WAITING, WUPActivityStatusEnum.WUP_ACTIVITY_STATUS_EXECUTING, ConcurrencyModeEnum.CONCURRENCY_MODE_STANDALONE, ResilienceModeEnum.RESILIENCE_MODE_STANDALONE, Date.from(Instant.now()));
+        WUPJobCard activityJobCard = new WUPJobCard(newActivityID, WUPActivityStatusEnum.WUP_ACTIVITY_STATUS_WAITING, WUPActivityStatusEnum.WUP_ACTIVITY_STATUS_EXECUTING, ConcurrencyModeEnum.CONCURRENCY_MODE_STANDALONE, ResilienceModeEnum.RESILIENCE_MODE_STANDALONE, PetasosClock.now());
         LOG.trace(".standardIngresContentProcessor(): Registering the Work Unit Activity using the ActivityID --> {} and UoW --> {}", newActivityID, theUoW);
         ParcelStatusElement statusElement = petasosMOAServicesBroker.registerStandardWorkUnitActivity(activityJobCard, theUoW);
         LOG.trace(".standardIngresContentProcessor(): Let's check the status of everything");
@@ -195,7 +216,7 @@ public class WUPContainerIngresProcessor {
                 activityJobCard.setRequestedStatus(WUPActivityStatusEnum.WUP_ACTIVITY_STATUS_CANCELED);
                 activityJobCard.setIsToBeDiscarded(true);
         }
-        WorkUnitTransportPacket newTransportPacket = new WorkUnitTransportPacket(newActivityID, Date.from(Instant.now()),transportPacket.getPayload());
+        WorkUnitTransportPacket newTransportPacket = new WorkUnitTransportPacket(newActivityID, PetasosClock.now(),transportPacket.getPayload());
         newTransportPacket.setCurrentJobCard(activityJobCard);
         newTransportPacket.setCurrentParcelStatus(statusElement);
         LOG.debug(".ingresContentProcessor(): Exit, newTransportPacket --> {}", newTransportPacket);
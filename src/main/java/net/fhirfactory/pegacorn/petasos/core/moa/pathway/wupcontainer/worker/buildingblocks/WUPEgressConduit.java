@@ -22,7 +22,9 @@
 
 package net.fhirfactory.pegacorn.petasos.core.moa.pathway.wupcontainer.worker.buildingblocks;
 
+import net.fhirfactory.pegacorn.petasos.core.common.clock.PetasosClock;
 import net.fhirfactory.pegacorn.deployment.topology.manager.DeploymentTopologyIM;
+import net.fhirfactory.pegacorn.petasos.core.moa.pathway.metrics.WUPPipelineLatencyDM;
 import net.fhirfactory.pegacorn.petasos.core.moa.pathway.naming.PetasosPathwayExchangePropertyNames;
 import net.fhirfactory.pegacorn.petasos.core.moa.pathway.naming.RouteElementNames;
 import net.fhirfactory.pegacorn.petasos.model.pathway.WorkUnitTransportPacket;
@@ -39,8 +41,6 @@ import org.slf4j.LoggerFactory;
 
 import javax.enterprise.context.Dependent;
 import javax.inject.Inject;
-import java.time.Instant;
-import java.util.Date;
 
 /**
  * @author Mark A. Hunter
@@ -55,6 +55,9 @@ public class WUPEgressConduit {
 
     @Inject
     PetasosPathwayExchangePropertyNames exchangePropertyNames;
+
+    @Inject
+    WUPPipelineLatencyDM pipelineLatencyDM;
     
     /**
      * This function reconstitutes the WorkUnitTransportPacket by extracting the WUPJobCard and ParcelStatusElement
@@ -67,6 +70,7 @@ public class WUPEgressConduit {
      */
     public WorkUnitTransportPacket receiveFromWUP(UoW incomingUoW, Exchange camelExchange, String wupInstanceKey) {
         LOG.debug(".receiveFromWUP(): Entry, incomingUoW (UoW) --> {}, wupInstanceKey (String) --> {}", incomingUoW, wupInstanceKey);
+        pipelineLatencyDM.recordExecution(camelExchange, wupInstanceKey);
         // Get my Petasos Context
         if( topologyProxy == null ) {
         	LOG.error(".receiveFromWUP(): Guru Software Meditation Error: topologyProxy is null");
@@ -83,7 +87,7 @@ public class WUPEgressConduit {
         WUPJobCard jobCard = camelExchange.getProperty(jobcardPropertyKey, WUPJobCard.class);
         ParcelStatusElement statusElement = camelExchange.getProperty(parcelStatusPropertyKey, ParcelStatusElement.class);
         // Now process incoming content
-        WorkUnitTransportPacket transportPacket = new WorkUnitTransportPacket(jobCard.getActivityID(), Date.from(Instant.now()), incomingUoW);
+        WorkUnitTransportPacket transportPacket = new WorkUnitTransportPacket(jobCard.getActivityID(), PetasosClock.now(), incomingUoW);
         LOG.trace(".receiveFromWUP(): We only want to check if the UoW was successful and modify the JobCard/StatusElement accordingly.");
         LOG.trace(".receiveFromWUP(): All detailed checking of the Cluster/SiteWide details is done in the WUPContainerEgressProcessor");
         switch (incomingUoW.getProcessingOutcome()) {
@@ -92,7 +96,7 @@ public class WUPEgressConduit {
                 jobCard.setCurrentStatus(WUPActivityStatusEnum.WUP_ACTIVITY_STATUS_FINISHED);
                 jobCard.setRequestedStatus(WUPActivityStatusEnum.WUP_ACTIVITY_STATUS_FINISHED);
                 statusElement.setParcelStatus(ResilienceParcelProcessingStatusEnum.PARCEL_STATUS_FINISHED);
-                statusElement.setEntryDate(Date.from(Instant.now()));
+                statusElement.setEntryDate(PetasosClock.now());
                 break;
             case UOW_OUTCOME_NOTSTARTED:
             case UOW_OUTCOME_INCOMPLETE:
@@ -102,7 +106,7 @@ public class WUPEgressConduit {
                 jobCard.setCurrentStatus(WUPActivityStatusEnum.WUP_ACTIVITY_STATUS_FAILED);
                 jobCard.setRequestedStatus(WUPActivityStatusEnum.WUP_ACTIVITY_STATUS_FAILED);
                 statusElement.setParcelStatus(ResilienceParcelProcessingStatusEnum.PARCEL_STATUS_FAILED);
-                statusElement.setEntryDate(Date.from(Instant.now()));
+                statusElement.setEntryDate(PetasosClock.now());
                 break;
         }
         transportPacket.setCurrentJobCard(jobCard);
@@ -22,6 +22,7 @@
 
 package net.fhirfactory.pegacorn.petasos.core.moa.pathway.wupcontainer.worker.buildingblocks;
 
+import net.fhirfactory.pegacorn.petasos.core.moa.pathway.metrics.WUPPipelineLatencyDM;
 import net.fhirfactory.pegacorn.petasos.core.moa.pathway.naming.PetasosPathwayExchangePropertyNames;
 import net.fhirfactory.pegacorn.petasos.model.pathway.WorkUnitTransportPacket;
 import net.fhirfactory.pegacorn.petasos.model.uow.UoW;
@@ -42,6 +43,9 @@ public class WUPIngresConduit {
     @Inject
     PetasosPathwayExchangePropertyNames exchangePropertyNames;
 
+    @Inject
+    WUPPipelineLatencyDM pipelineLatencyDM;
+
     private static final Logger LOG = LoggerFactory.getLogger(WUPIngresConduit.class);
     /**
      * This function strips the WUPJobCard and ParcelStatusElement from the ingresParcel, and injects them into the
@@ -61,6 +65,7 @@ public class WUPIngresConduit {
         String parcelStatusPropertyKey = exchangePropertyNames.getExchangeStatusElementPropertyName(wupInstanceKey);
         camelExchange.setProperty(jobcardPropertyKey, ingresParcel.getCurrentJobCard());
         camelExchange.setProperty(parcelStatusPropertyKey, ingresParcel.getCurrentParcelStatus());
+        pipelineLatencyDM.markExecutionStart(camelExchange, wupInstanceKey);
         LOG.debug(".forwardIntoWUP(): Exit, returning the UoW --> {}", theUoW);
         return(theUoW);
     }
@@ -22,19 +22,27 @@
 
 package net.fhirfactory.pegacorn.petasos.core.moa.resilience.cluster.cache;
 
-import java.util.Iterator;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
 
 import javax.annotation.PostConstruct;
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
 
+import net.fhirfactory.pegacorn.petasos.core.common.resilience.parcel.ResilienceParcelCopier;
 import net.fhirfactory.pegacorn.petasos.model.resilience.parcel.ResilienceParcel;
+import net.fhirfactory.pegacorn.petasos.model.resilience.parcel.ResilienceParcelIdentifier;
 import net.fhirfactory.pegacorn.petasos.model.resilience.parcel.ResilienceParcelProcessingStatusEnum;
 import org.apache.camel.CamelContext;
 import org.infinispan.Cache;
 import org.infinispan.manager.DefaultCacheManager;
+import org.infinispan.stream.CacheCollectors;
+import org.infinispan.util.function.SerializablePredicate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -43,7 +51,25 @@ import net.fhirfactory.pegacorn.common.model.FDNToken;
 
 
 /**
- * 
+ * The clustered (Infinispan) cache of ResilienceParcels for the Petasos::Node cluster.
+ * <p>
+ * Alongside the parcel cache itself, a small status index cache (ParcelID to ProcessingStatus) is
+ * maintained. State-based queries are run as distributed streams over the index cache - so the
+ * filtering is done on the owning nodes - and only the matching ResilienceParcels are then
+ * retrieved, rather than the whole parcel set being pulled to the local node. (There is deliberately
+ * no "get all parcels" query - it would transfer the entire distributed cache to the caller.)
+ * <p>
+ * Both caches are keyed by the ParcelID (as a ResilienceParcelIdentifier) itself, so any node can
+ * address a parcel directly from its ID - no key lookup, and no locally held key state. Both caches are grouped
+ * by episode (see ResilienceParcelIdentifierGrouper), so a parcel and its index entry share their owners.
+ * <p>
+ * Single parcel reads are served from a bounded local PetasosNearCache where possible. The near-cache is
+ * populated on local writes and reads, and is invalidated (via a local listener and the cache's L1 invalidations)
+ * whenever another node modifies or removes a parcel - so a parcel's ingres/egress lifecycle on this node costs
+ * (at most) one remote get. See PetasosNearCacheInvalidationListener for the parcels the near-cache may hold.
+ * The near-cache holds (and hands out) private copies, so getParcel() never returns a shared instance; callers
+ * that modify a parcel must write it back via updateParcel().
+ *
  * @author Mark A. Hunter
  * @author Scott Yeadon
  *
@@ -63,12 +89,59 @@ public class ClusteredGeneralParcelMap {
     
    
     // The clustered cache for the PetasosParcels coordinated by this Petasos::Node (cluster) instance
-    private Cache<FDNToken, ResilienceParcel> petasosParcelCache;
+    private Cache<ResilienceParcelIdentifier, ResilienceParcel> petasosParcelCache;
+    // The (small) clustered index of ParcelID to ProcessingStatus, used for state-based queries
+    private Cache<ResilienceParcelIdentifier, ResilienceParcelProcessingStatusEnum> petasosParcelStatusIndex;
+    // The local near-cache of (recently used) ResilienceParcels
+    private PetasosNearCache<ResilienceParcelIdentifier, ResilienceParcel> petasosParcelNearCache;
+    private PetasosNearCacheInvalidationListener<ResilienceParcelIdentifier, ResilienceParcel> petasosParcelNearCacheListener;
+    // the number of parcels added by this node - the denominator of the remote gets per parcel
+    private AtomicLong addedParcelCount = new AtomicLong(0);
     
     @PostConstruct
     public void start() {
         // get or create the clustered cache which will hold the transactions (aka Units of Work)
         petasosParcelCache = petasosCacheManager.getCache("petasos-parcel-cache", true);    	
+        petasosParcelStatusIndex = petasosCacheManager.getCache("petasos-parcel-status-index", true);
+        petasosParcelNearCache = new PetasosNearCache<ResilienceParcelIdentifier, ResilienceParcel>(PetasosNearCache.DEFAULT_NEAR_CACHE_SIZE, ResilienceParcelCopier::copy);
+        petasosParcelNearCacheListener = new PetasosNearCacheInvalidationListener<ResilienceParcelIdentifier, ResilienceParcel>(petasosParcelCache, petasosParcelNearCache);
+        petasosParcelCache.addListener(petasosParcelNearCacheListener);
+    }
+
+    /**
+     * This function returns the cache key for the given ParcelID. The key is derived from the ParcelID alone - a
+     * ParcelID supplied as a plain FDNToken is normalised to a ResilienceParcelIdentifier, so that every caller
+     * (and every node) uses an equal key for the same parcel.
+     *
+     * @param parcelID The ParcelID
+     * @return The cache key
+     */
+    private ResilienceParcelIdentifier toParcelKey(FDNToken parcelID) {
+    	if(parcelID instanceof ResilienceParcelIdentifier) {
+    		return((ResilienceParcelIdentifier) parcelID);
+    	}
+    	return(new ResilienceParcelIdentifier(parcelID));
+    }
+
+    public ResilienceParcel getParcel(FDNToken parcelID) {
+    	LOG.debug(".getParcel(): Entry, parcelID --> {}", parcelID);
+    	if(parcelID == null) {
+    		return(null);
+    	}
+    	ResilienceParcelIdentifier parcelKey = toParcelKey(parcelID);
+    	ResilienceParcel parcel = petasosParcelNearCache.get(parcelKey);
+    	if(parcel == null) {
+    		long nearCacheLifespan = petasosParcelNearCacheListener.getNearCacheLifespan(parcelKey, false);
+    		if(nearCacheLifespan == PetasosNearCacheInvalidationListener.NOT_CACHEABLE) {
+    			parcel = petasosParcelCache.get(parcelKey);
+    		} else {
+    			long nearCacheVersion = petasosParcelNearCache.getVersion(parcelKey);
+    			parcel = petasosParcelCache.get(parcelKey);
+    			petasosParcelNearCache.putIfNotInvalidated(parcelKey, parcel, nearCacheVersion, nearCacheLifespan);
+    		}
+    	}
+    	LOG.debug(".getParcel(): Exit, parcel --> {}", parcel);
+    	return(parcel);
     }
     
     public void addParcel(ResilienceParcel parcel) {
@@ -79,8 +152,50 @@ public class ClusteredGeneralParcelMap {
     	if(!parcel.hasInstanceIdentifier()) {
     		return;
     	}
-    	FDNToken parcelID = parcel.getIdentifier();
-    	petasosParcelCache.put(parcelID, parcel);
+    	ResilienceParcelIdentifier parcelKey = toParcelKey(parcel.getIdentifier());
+    	writeParcel(parcelKey, parcel);
+    	addedParcelCount.incrementAndGet();
+    	updateStatusIndex(parcelKey, parcel);
+    }
+
+    public void updateParcel(ResilienceParcel parcel) {
+    	LOG.debug(".updateParcel(): Entry, parcel --> {}", parcel);
+    	if(parcel == null) {
+    		throw (new IllegalArgumentException(".updateParcel(): parcel is null"));
+    	}
+    	if(!parcel.hasInstanceIdentifier()) {
+    		return;
+    	}
+    	ResilienceParcelIdentifier parcelKey = toParcelKey(parcel.getIdentifier());
+    	writeParcel(parcelKey, parcel);
+    	updateStatusIndex(parcelKey, parcel);
+    }
+
+    /**
+     * This function writes the parcel to the clustered cache. The near-cache write is begun before (so no concurrent
+     * read can cache the parcel being overwritten) and completed after the clustered write - even if it fails.
+     */
+    private void writeParcel(ResilienceParcelIdentifier parcelKey, ResilienceParcel parcel) {
+    	long writeVersion = petasosParcelNearCache.beginWrite(parcelKey);
+    	ResilienceParcel writtenParcel = null;
+    	long nearCacheLifespan = 0L;
+    	try {
+    		petasosParcelCache.put(parcelKey, parcel);
+    		nearCacheLifespan = petasosParcelNearCacheListener.getNearCacheLifespan(parcelKey, true);
+    		if(nearCacheLifespan != PetasosNearCacheInvalidationListener.NOT_CACHEABLE) {
+    			writtenParcel = parcel;
+    		}
+    	} finally {
+    		petasosParcelNearCache.completeWrite(parcelKey, writtenParcel, writeVersion, Math.max(nearCacheLifespan, 0L));
+    	}
+    }
+
+    private void updateStatusIndex(ResilienceParcelIdentifier parcelKey, ResilienceParcel parcel) {
+    	if(parcel.hasProcessingStatus()) {
+    		petasosParcelStatusIndex.put(parcelKey, parcel.getProcessingStatus());
+    	} else {
+    		petasosParcelStatusIndex.remove(parcelKey);
+    	}
     }
     
     public void removeParcel(ResilienceParcel parcel) {
@@ -91,7 +206,7 @@ public class ClusteredGeneralParcelMap {
     	if(!parcel.hasInstanceIdentifier()) {
     		return;
     	}
-    	petasosParcelCache.remove(parcel.getIdentifier());
+    	removeParcel(parcel.getIdentifier());
     }
     
     public void removeParcel(FDN parcelInstanceID) {
@@ -99,28 +214,74 @@ public class ClusteredGeneralParcelMap {
     	if(parcelInstanceID==null) {
     		return;
     	}
-    	petasosParcelCache.remove(parcelInstanceID);
+    	removeParcel(parcelInstanceID.getToken());
+    }
+
+    private void removeParcel(FDNToken parcelID) {
+    	ResilienceParcelIdentifier parcelKey = toParcelKey(parcelID);
+    	long writeVersion = petasosParcelNearCache.beginWrite(parcelKey);
+    	try {
+    		petasosParcelCache.remove(parcelKey);
+    	} finally {
+    		petasosParcelNearCache.completeWrite(parcelKey, null, writeVersion, 0L);
+    	}
+    	petasosParcelStatusIndex.remove(parcelKey);
     }
     
-    public List<ResilienceParcel> getParcelSet(){
-    	LOG.debug(".getParcelSet(): Entry");
-    	List<ResilienceParcel> parcelList = new LinkedList<ResilienceParcel>();
-    	petasosParcelCache.entrySet().forEach(entry -> parcelList.add(entry.getValue()));
-    	return(parcelList);
+    private Set<ResilienceParcelIdentifier> getParcelKeySetByState(ResilienceParcelProcessingStatusEnum status){
+    	SerializablePredicate<Map.Entry<ResilienceParcelIdentifier, ResilienceParcelProcessingStatusEnum>> statusFilter = entry -> entry.getValue() == status;
+    	Set<ResilienceParcelIdentifier> parcelKeySet = petasosParcelStatusIndex.entrySet().stream()
+    			.filter(statusFilter)
+    			.map(entry -> entry.getKey())
+    			.collect(CacheCollectors.serializableCollector(() -> Collectors.toSet()));
+    	return(parcelKeySet);
     }
     
+    /**
+     * This function returns the IDs of the ResilienceParcels currently in the given state. The filter is
+     * executed (as a distributed stream) on the nodes owning the status index entries, so only the matching
+     * IDs are transferred to this node.
+     *
+     * @param status The ProcessingStatus of interest
+     * @return The set of ParcelIDs (FDNTokens) for the Parcels in that state
+     */
+    public Set<FDNToken> getParcelIDSetByState(ResilienceParcelProcessingStatusEnum status){
+    	LOG.debug(".getParcelIDSetByState(): Entry, status --> {}", status);
+    	Set<FDNToken> parcelIDSet = new HashSet<FDNToken>(getParcelKeySetByState(status));
+    	LOG.debug(".getParcelIDSetByState(): Exit, number of parcels --> {}", parcelIDSet.size());
+    	return(parcelIDSet);
+    }
+
+    /**
+     * This function returns the number of ResilienceParcels currently in the given state, without transferring
+     * either the Parcels or their IDs - for use by dashboards and the watchdog.
+     *
+     * @param status The ProcessingStatus of interest
+     * @return The number of Parcels in that state
+     */
+    public long getParcelCountByState(ResilienceParcelProcessingStatusEnum status){
+    	LOG.debug(".getParcelCountByState(): Entry, status --> {}", status);
+    	SerializablePredicate<Map.Entry<ResilienceParcelIdentifier, ResilienceParcelProcessingStatusEnum>> statusFilter = entry -> entry.getValue() == status;
+    	long parcelCount = petasosParcelStatusIndex.entrySet().stream().filter(statusFilter).count();
+    	LOG.debug(".getParcelCountByState(): Exit, parcelCount --> {}", parcelCount);
+    	return(parcelCount);
+    }
+
     public List<ResilienceParcel> getParcelSetByState(ResilienceParcelProcessingStatusEnum status){
-    	LOG.debug(".getParcelSet(): Entry, status --> {}", status);
+    	LOG.debug(".getParcelSetByState(): Entry, status --> {}", status);
     	List<ResilienceParcel> parcelList = new LinkedList<ResilienceParcel>();
-    	Iterator<ResilienceParcel> parcelListIterator = parcelList.iterator();
-    	while(parcelListIterator.hasNext()) {
-    		ResilienceParcel currentParcel = parcelListIterator.next();
-    		if(currentParcel.hasProcessingStatus()) {
-    			if(currentParcel.getProcessingStatus()==status) {
-    				parcelList.add(currentParcel);
-    			}
-    		}
+    	Set<ResilienceParcelIdentifier> parcelKeySet = getParcelKeySetByState(status);
+    	if(parcelKeySet.isEmpty()) {
+    		return(parcelList);
     	}
+    	Map<ResilienceParcelIdentifier, ResilienceParcel> parcelMap = petasosParcelCache.getAdvancedCache().getAll(parcelKeySet);
+    	parcelMap.values().forEach(currentParcel -> {
+    		// the index is updated after the parcel, so re-check the state of the retrieved parcel
+    		if(currentParcel.hasProcessingStatus() && (currentParcel.getProcessingStatus() == status)) {
+    			parcelList.add(currentParcel);
+    		}
+    	});
+    	LOG.debug(".getParcelSetByState(): Exit, number of parcels --> {}", parcelList.size());
     	return(parcelList);
     }    
     
@@ -147,4 +308,45 @@ public class ClusteredGeneralParcelMap {
     	parcelList.addAll(getParcelSetByState(ResilienceParcelProcessingStatusEnum.PARCEL_STATUS_REGISTERED));
     	return(parcelList);
     }
+
+    /**
+     * The number of parcel reads served by the local near-cache (i.e. remote gets avoided).
+     *
+     * @return The near-cache hit count
+     */
+    public long getNearCacheHitCount(){
+    	return(petasosParcelNearCache.getHitCount());
+    }
+
+    /**
+     * The number of parcel reads that fell through to the clustered cache (i.e. potential remote gets).
+     *
+     * @return The near-cache miss count
+     */
+    public long getNearCacheMissCount(){
+    	return(petasosParcelNearCache.getMissCount());
+    }
+
+    /**
+     * The number of parcel reads that fell through to the clustered cache per parcel added by this node - the
+     * "remote gets per parcel" of the (local) parcel lifecycle.
+     *
+     * @return The near-cache misses per added parcel (0 if no parcel has been added)
+     */
+    public double getNearCacheRemoteGetsPerParcel(){
+    	long parcelCount = addedParcelCount.get();
+    	if(parcelCount == 0) {
+    		return(0.0);
+    	}
+    	return((double) petasosParcelNearCache.getMissCount() / parcelCount);
+    }
+
+    /**
+     * The number of parcel reads that weren't cached because the parcel changed while it was being read.
+     *
+     * @return The near-cache dropped load count
+     */
+    public long getNearCacheDroppedLoadCount(){
+    	return(petasosParcelNearCache.getDroppedLoadCount());
+    }
 }
@@ -27,6 +27,7 @@ import javax.inject.Inject;
 import org.apache.camel.CamelContext;
 import org.infinispan.Cache;
 import org.infinispan.manager.DefaultCacheManager;
+import org.infinispan.util.function.SerializableBiFunction;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -34,6 +35,11 @@ import net.fhirfactory.pegacorn.common.model.FDN;
 import net.fhirfactory.pegacorn.common.model.FDNTokenSet;
 
 /**
+ * The clustered (Infinispan) map of UoW Instance ID to the set of ResilienceParcel Instance IDs associated with it.
+ * <p>
+ * Reads are served from a bounded local PetasosNearCache where possible; the near-cache is invalidated (via a
+ * local listener and the cache's L1 invalidations) whenever another node links a parcel to, or removes, a UoW entry.
+ *
  * @author Mark A. Hunter
  *
  */
@@ -51,27 +57,95 @@ public class ClusteredUoW2ParcelInstanceIDSetMap {
 
 
     private Cache<FDN, FDNTokenSet> uow2ParcelSetMap;
+    private PetasosNearCache<FDN, FDNTokenSet> uow2ParcelSetNearCache;
+    private PetasosNearCacheInvalidationListener<FDN, FDNTokenSet> uow2ParcelSetNearCacheListener;
 
     @PostConstruct
     public void start() {
         uow2ParcelSetMap = petasosCacheManager.getCache("petasos-uow-map", true);
+        uow2ParcelSetNearCache = new PetasosNearCache<FDN, FDNTokenSet>(PetasosNearCache.DEFAULT_NEAR_CACHE_SIZE, ClusteredUoW2ParcelInstanceIDSetMap::copyParcelSet);
+        uow2ParcelSetNearCacheListener = new PetasosNearCacheInvalidationListener<FDN, FDNTokenSet>(uow2ParcelSetMap, uow2ParcelSetNearCache);
+        uow2ParcelSetMap.addListener(uow2ParcelSetNearCacheListener);
+    }
+
+    /**
+     * This function returns the set of ResilienceParcel Instance IDs associated with the UoW - from the local
+     * near-cache if present, otherwise from the clustered cache.
+     *
+     * @param uowInstanceID The UoW Instance ID
+     * @return A copy of the set of associated ResilienceParcel Instance IDs (or null if there are none)
+     */
+    public FDNTokenSet getParcelSetForUoW(FDN uowInstanceID) {
+        LOG.debug(".getParcelSetForUoW(): Entry, uowInstanceID --> {}", uowInstanceID);
+        if (uowInstanceID == null) {
+            return (null);
+        }
+        FDNTokenSet parcelSet = uow2ParcelSetNearCache.get(uowInstanceID);
+        if (parcelSet == null) {
+            long nearCacheLifespan = uow2ParcelSetNearCacheListener.getNearCacheLifespan(uowInstanceID, false);
+            if (nearCacheLifespan == PetasosNearCacheInvalidationListener.NOT_CACHEABLE) {
+                parcelSet = uow2ParcelSetMap.get(uowInstanceID);
+            } else {
+                long nearCacheVersion = uow2ParcelSetNearCache.getVersion(uowInstanceID);
+                parcelSet = uow2ParcelSetMap.get(uowInstanceID);
+                uow2ParcelSetNearCache.putIfNotInvalidated(uowInstanceID, parcelSet, nearCacheVersion, nearCacheLifespan);
+            }
+        }
+        LOG.debug(".getParcelSetForUoW(): Exit, parcelSet --> {}", parcelSet);
+        return (parcelSet);
     }
 
+    /**
+     * This function links the ResilienceParcel to the UoW. The link is applied as a single (atomic) merge - which
+     * Infinispan executes on the primary owner of the UoW entry - so concurrent links to the same UoW are never lost
+     * and each link costs a single network operation. The stored FDNTokenSet is never modified in place; the
+     * remapping function always returns a new set.
+     *
+     * @param uowInstanceID The UoW Instance ID
+     * @param parcelInstanceID The ResilienceParcel Instance ID to be associated with the UoW
+     */
     public void linkUoW2Parcel(FDN uowInstanceID, FDN parcelInstanceID) {
+        LOG.debug(".linkUoW2Parcel(): Entry, uowInstanceID --> {}, parcelInstanceID --> {}", uowInstanceID, parcelInstanceID);
         if (parcelInstanceID == null) {
             return;
         }
         if (uowInstanceID == null) {
             return;
         }
-        FDNTokenSet associatedParcelSet;
-        if (uow2ParcelSetMap.containsKey(uowInstanceID)) {
-            associatedParcelSet = uow2ParcelSetMap.get(uowInstanceID);
-            associatedParcelSet.addElement(parcelInstanceID.getToken());
-        } else {
-            associatedParcelSet = new FDNTokenSet();
-            associatedParcelSet.addElement(parcelInstanceID.getToken());
-            uow2ParcelSetMap.put(uowInstanceID, associatedParcelSet);
+        FDNTokenSet newParcelSet = new FDNTokenSet();
+        newParcelSet.addElement(parcelInstanceID.getToken());
+        SerializableBiFunction<FDNTokenSet, FDNTokenSet, FDNTokenSet> parcelSetMerger = (existingParcelSet, additionalParcelSet) -> {
+            FDNTokenSet mergedParcelSet = new FDNTokenSet();
+            existingParcelSet.getElements().forEach(parcelID -> mergedParcelSet.addElement(parcelID));
+            additionalParcelSet.getElements().forEach(parcelID -> mergedParcelSet.addElement(parcelID));
+            return (mergedParcelSet);
+        };
+        long writeVersion = uow2ParcelSetNearCache.beginWrite(uowInstanceID);
+        FDNTokenSet writtenParcelSet = null;
+        long nearCacheLifespan = 0L;
+        try {
+            FDNTokenSet mergedParcelSet = uow2ParcelSetMap.merge(uowInstanceID, newParcelSet, parcelSetMerger);
+            nearCacheLifespan = uow2ParcelSetNearCacheListener.getNearCacheLifespan(uowInstanceID, true);
+            if (nearCacheLifespan != PetasosNearCacheInvalidationListener.NOT_CACHEABLE) {
+                writtenParcelSet = mergedParcelSet;
+            }
+        } finally {
+            uow2ParcelSetNearCache.completeWrite(uowInstanceID, writtenParcelSet, writeVersion, Math.max(nearCacheLifespan, 0L));
         }
+        LOG.debug(".linkUoW2Parcel(): Exit");
+    }
+
+    private static FDNTokenSet copyParcelSet(FDNTokenSet parcelSet) {
+        FDNTokenSet parcelSetCopy = new FDNTokenSet();
+        parcelSet.getElements().forEach(parcelID -> parcelSetCopy.addElement(parcelID));
+        return (parcelSetCopy);
+    }
+
+    public long getNearCacheHitCount() {
+        return (uow2ParcelSetNearCache.getHitCount());
+    }
+
+    public long getNearCacheMissCount() {
+        return (uow2ParcelSetNearCache.getMissCount());
     }
 }
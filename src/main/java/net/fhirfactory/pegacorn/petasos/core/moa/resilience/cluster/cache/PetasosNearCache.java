@@ -0,0 +1,335 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.core.moa.resilience.cluster.cache;
+
+import net.fhirfactory.pegacorn.petasos.core.common.clock.PetasosClock;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.UnaryOperator;
+
+/**
+ * A small, bounded, local (near) cache that sits in front of a clustered (Infinispan) cache. Reads of
+ * recently touched entries - such as the ingres/egress lifecycle of the same ResilienceParcel - are served
+ * locally rather than via a remote get to the owning node. Entries are invalidated by a
+ * PetasosNearCacheInvalidationListener when the clustered entry is modified by another node.
+ * <p>
+ * Every change to a key - a cached value or an invalidation (a tombstone) - is stamped with a version from a
+ * (per near-cache) counter. A loader takes the key's version before going to the clustered cache and
+ * populates the near-cache with putIfNotInvalidated() - which drops the value only if THAT key has changed in
+ * the meantime, so invalidations of other keys never cost a load. A local writer invalidates the key first
+ * (which marks a write as pending, so no load can cache the value being overwritten), writes the clustered
+ * cache and then completes the write with completeWrite().
+ * <p>
+ * Reads are lock-free (a ConcurrentHashMap get). Once the maximum size is reached, entries are evicted in
+ * approximately least-recently-used order using the CLOCK (second-chance) algorithm: a read marks the entry
+ * as referenced, and the eviction sweep removes the first unreferenced entries (clearing the mark on those it
+ * passes over). Entries may also be given a lifespan, for values whose invalidation is only guaranteed for a
+ * limited time.
+ * <p>
+ * Values are copied (via the supplied copier) both as they are cached and as they are returned, so callers
+ * never share - and can never modify - the near-cache's own instance.
+ * <p>
+ * The hit/miss counters provide the number of remote gets avoided (hits) and performed (misses).
+ *
+ * @param <K> The key type of the clustered cache
+ * @param <V> The value type of the clustered cache
+ * @author Mark A. Hunter
+ * @since 2020-08-01
+ */
+public class PetasosNearCache<K, V> {
+    public static final int DEFAULT_NEAR_CACHE_SIZE = 1000;
+
+    private final ConcurrentHashMap<K, NearCacheEntry<V>> nearCacheMap;
+    private final int maximumSize;
+    private final UnaryOperator<V> valueCopier;
+    private final AtomicLong versionCounter;
+    // the highest version of any tombstone evicted from the map - a load that started before it can't be trusted
+    private final AtomicLong evictedTombstoneVersion;
+    private final AtomicLong hitCount;
+    private final AtomicLong missCount;
+    private final AtomicLong invalidationCount;
+    private final AtomicLong droppedLoadCount;
+
+    public PetasosNearCache(int maximumSize, UnaryOperator<V> valueCopier) {
+        if (valueCopier == null) {
+            throw (new IllegalArgumentException(".PetasosNearCache(): valueCopier is null"));
+        }
+        this.nearCacheMap = new ConcurrentHashMap<K, NearCacheEntry<V>>();
+        this.maximumSize = maximumSize;
+        this.valueCopier = valueCopier;
+        this.versionCounter = new AtomicLong(0);
+        this.evictedTombstoneVersion = new AtomicLong(0);
+        this.hitCount = new AtomicLong(0);
+        this.missCount = new AtomicLong(0);
+        this.invalidationCount = new AtomicLong(0);
+        this.droppedLoadCount = new AtomicLong(0);
+    }
+
+    public V get(K key) {
+        NearCacheEntry<V> entry = nearCacheMap.get(key);
+        if ((entry == null) || entry.isTombstone() || entry.isExpired()) {
+            missCount.incrementAndGet();
+            return (null);
+        }
+        entry.referenced = true;
+        hitCount.incrementAndGet();
+        return (valueCopier.apply(entry.value));
+    }
+
+    /**
+     * This function returns the key's current version - to be taken before a value is read from the clustered cache,
+     * and passed to putIfNotInvalidated() once that read completes. If the key isn't present, a (tombstone) marker is
+     * added for it, so that an invalidation of the key during the read is recorded.
+     *
+     * @param key The key
+     * @return The key's current version
+     */
+    public long getVersion(K key) {
+        NearCacheEntry<V> entry = nearCacheMap.computeIfAbsent(key, entryKey -> newTombstone(0, true));
+        return (entry.version);
+    }
+
+    /**
+     * This function caches (a copy of) the value read from the clustered cache, unless the key has been changed
+     * (invalidated, written or re-loaded) since the version was taken, or a write of the key is pending.
+     *
+     * @param key     The key
+     * @param value   The value read from the clustered cache
+     * @param version The version taken before the clustered cache read
+     * @return True if the value was cached, false if it was dropped (or was null)
+     */
+    public boolean putIfNotInvalidated(K key, V value, long version) {
+        return (putIfNotInvalidated(key, value, version, 0L));
+    }
+
+    /**
+     * This function is as putIfNotInvalidated(K, V, long), but the cached value expires after the given lifespan.
+     *
+     * @param key            The key
+     * @param value          The value read from the clustered cache
+     * @param version        The version taken before the clustered cache read
+     * @param lifespanMillis The lifespan of the cached value (milliseconds), or 0 if it doesn't expire
+     * @return True if the value was cached, false if it was dropped (or was null)
+     */
+    public boolean putIfNotInvalidated(K key, V value, long version, long lifespanMillis) {
+        if (key == null) {
+            return (false);
+        }
+        if (value == null) {
+            // nothing to cache, so discard the load marker added by getVersion() (if it is still there)
+            nearCacheMap.computeIfPresent(key, (entryKey, currentEntry) -> {
+                if (currentEntry.isTombstone() && (currentEntry.pendingWriteCount == 0) && (currentEntry.version == version)) {
+                    return (null);
+                }
+                return (currentEntry);
+            });
+            return (false);
+        }
+        NearCacheEntry<V> newEntry = new NearCacheEntry<V>(valueCopier.apply(value), 0, lifespanMillis);
+        NearCacheEntry<V> resultEntry = nearCacheMap.compute(key, (entryKey, currentEntry) -> {
+            if (currentEntry == null) {
+                if (evictedTombstoneVersion.get() >= version) {
+                    return (null);
+                }
+            } else if ((currentEntry.version > version) || (currentEntry.pendingWriteCount > 0)) {
+                return (currentEntry);
+            }
+            newEntry.version = versionCounter.incrementAndGet();
+            return (newEntry);
+        });
+        if (resultEntry != newEntry) {
+            droppedLoadCount.incrementAndGet();
+            return (false);
+        }
+        evictIfRequired();
+        return (true);
+    }
+
+    /**
+     * This function invalidates the key - replacing any cached value (or marker) with a tombstone with a new version,
+     * so any load in flight for the key is dropped. A key that isn't present has no cached value and no load in
+     * flight, so nothing is recorded for it.
+     *
+     * @param key The key
+     */
+    public void invalidate(K key) {
+        if (key == null) {
+            return;
+        }
+        nearCacheMap.computeIfPresent(key, (entryKey, currentEntry) -> {
+            if (!currentEntry.isTombstone()) {
+                invalidationCount.incrementAndGet();
+            }
+            return (newTombstone(currentEntry.pendingWriteCount, false));
+        });
+    }
+
+    /**
+     * This function starts a (local) write of the key - it invalidates the key and marks a write as pending, so no
+     * load can cache the value that is being overwritten. The write must be completed with completeWrite().
+     *
+     * @param key The key
+     * @return The write version, to be passed to completeWrite()
+     */
+    public long beginWrite(K key) {
+        NearCacheEntry<V> tombstone = nearCacheMap.compute(key, (entryKey, currentEntry) -> {
+            int pendingWriteCount = 1;
+            if (currentEntry != null) {
+                pendingWriteCount += currentEntry.pendingWriteCount;
+            }
+            return (newTombstone(pendingWriteCount, false));
+        });
+        return (tombstone.version);
+    }
+
+    /**
+     * This function completes a (local) write of the key started by beginWrite(). The written value is cached only if
+     * nothing else has changed the key since the write began (and no other write is pending) - otherwise the key is
+     * left invalidated, as the order of the clustered writes isn't known.
+     *
+     * @param key            The key
+     * @param value          The value written to the clustered cache, or null if it isn't to be cached
+     * @param writeVersion   The version returned by beginWrite()
+     * @param lifespanMillis The lifespan of the cached value (milliseconds), or 0 if it doesn't expire
+     * @return True if the value was cached, false otherwise
+     */
+    public boolean completeWrite(K key, V value, long writeVersion, long lifespanMillis) {
+        if (key == null) {
+            return (false);
+        }
+        NearCacheEntry<V> newEntry = (value == null) ? null : new NearCacheEntry<V>(valueCopier.apply(value), 0, lifespanMillis);
+        NearCacheEntry<V> resultEntry = nearCacheMap.computeIfPresent(key, (entryKey, currentEntry) -> {
+            if (!currentEntry.isTombstone()) {
+                return (currentEntry);
+            }
+            int pendingWriteCount = Math.max(currentEntry.pendingWriteCount - 1, 0);
+            if ((newEntry != null) && (pendingWriteCount == 0) && (currentEntry.version == writeVersion)) {
+                newEntry.version = versionCounter.incrementAndGet();
+                return (newEntry);
+            }
+            NearCacheEntry<V> tombstone = new NearCacheEntry<V>(null, pendingWriteCount, 0L);
+            tombstone.version = currentEntry.version;
+            tombstone.referenced = false;
+            return (tombstone);
+        });
+        if ((newEntry == null) || (resultEntry != newEntry)) {
+            return (false);
+        }
+        evictIfRequired();
+        return (true);
+    }
+
+    public void clear() {
+        Iterator<K> keyIterator = nearCacheMap.keySet().iterator();
+        while (keyIterator.hasNext()) {
+            invalidate(keyIterator.next());
+        }
+    }
+
+    /**
+     * A new tombstone - a load marker (referenced, so it gets the same second chance as a value) or an invalidation
+     * (unreferenced, so it is evicted first - it is only of use to a load already in flight).
+     */
+    private NearCacheEntry<V> newTombstone(int pendingWriteCount, boolean referenced) {
+        NearCacheEntry<V> tombstone = new NearCacheEntry<V>(null, pendingWriteCount, 0L);
+        tombstone.version = versionCounter.incrementAndGet();
+        tombstone.referenced = referenced;
+        return (tombstone);
+    }
+
+    /**
+     * The CLOCK sweep - removes unreferenced (or expired) entries until the near-cache is within its maximum size.
+     * Tombstones of pending writes are never evicted. A sweep makes (at most) two passes of the map.
+     */
+    private void evictIfRequired() {
+        if (nearCacheMap.size() <= maximumSize) {
+            return;
+        }
+        for (int pass = 0; (pass < 2) && (nearCacheMap.size() > maximumSize); pass++) {
+            Iterator<Map.Entry<K, NearCacheEntry<V>>> entryIterator = nearCacheMap.entrySet().iterator();
+            while (entryIterator.hasNext() && (nearCacheMap.size() > maximumSize)) {
+                Map.Entry<K, NearCacheEntry<V>> mapEntry = entryIterator.next();
+                NearCacheEntry<V> entry = mapEntry.getValue();
+                if (entry.pendingWriteCount > 0) {
+                    continue;
+                }
+                if (entry.referenced && !entry.isExpired()) {
+                    entry.referenced = false;
+                    continue;
+                }
+                if (nearCacheMap.remove(mapEntry.getKey(), entry) && entry.isTombstone()) {
+                    evictedTombstoneVersion.accumulateAndGet(entry.version, Math::max);
+                }
+            }
+        }
+    }
+
+    public int getSize() {
+        return (nearCacheMap.size());
+    }
+
+    public long getHitCount() {
+        return (hitCount.get());
+    }
+
+    public long getMissCount() {
+        return (missCount.get());
+    }
+
+    public long getInvalidationCount() {
+        return (invalidationCount.get());
+    }
+
+    public long getDroppedLoadCount() {
+        return (droppedLoadCount.get());
+    }
+
+    /**
+     * A near-cache entry - a (copied) value, or a tombstone (a null value) recording an invalidation and any
+     * pending local writes. Entries are replaced, never modified, other than the (CLOCK) referenced flag.
+     */
+    private static final class NearCacheEntry<V> {
+        private final V value;
+        private final int pendingWriteCount;
+        private final long expiryNanos;
+        private long version;
+        private volatile boolean referenced;
+
+        private NearCacheEntry(V value, int pendingWriteCount, long lifespanMillis) {
+            this.value = value;
+            this.pendingWriteCount = pendingWriteCount;
+            this.expiryNanos = (lifespanMillis > 0) ? (PetasosClock.monotonicNanos() + (lifespanMillis * 1000000L)) : 0L;
+            this.referenced = true;
+        }
+
+        private boolean isTombstone() {
+            return (value == null);
+        }
+
+        private boolean isExpired() {
+            return ((expiryNanos != 0L) && (PetasosClock.monotonicNanos() - expiryNanos > 0));
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.core.moa.resilience.cluster.cache;
+
+import org.infinispan.Cache;
+import org.infinispan.configuration.cache.L1Configuration;
+import org.infinispan.distribution.DistributionManager;
+import org.infinispan.notifications.Listener;
+import org.infinispan.notifications.cachelistener.annotation.CacheEntryExpired;
+import org.infinispan.notifications.cachelistener.annotation.CacheEntryInvalidated;
+import org.infinispan.notifications.cachelistener.annotation.CacheEntryModified;
+import org.infinispan.notifications.cachelistener.annotation.CacheEntryRemoved;
+import org.infinispan.notifications.cachelistener.annotation.TopologyChanged;
+import org.infinispan.notifications.cachelistener.event.CacheEntryEvent;
+import org.infinispan.notifications.cachelistener.event.TopologyChangedEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A local (non-clustered) Infinispan listener that invalidates the PetasosNearCache copy of an entry, and decides
+ * which entries the near-cache may hold (and for how long).
+ * <p>
+ * A local listener only receives the events of the entries this node owns, plus the (L1) invalidations of
+ * the entries it has read from their owners - the clustered caches are configured with L1 enabled, and the
+ * owner invalidates every node that has read an entry when the entry is modified. So the near-cache holds:
+ * <p>
+ * - any entry this node owns (read or written), invalidated via its modified/removed/expired events, and
+ * <p>
+ * - any entry read from another node, invalidated via its L1 invalidation - but only for (half) the L1 lifespan, as
+ * the owner forgets the reader once that has passed.
+ * <p>
+ * An entry written by this node but owned by another is not cached (the owner doesn't track writers). Ownership
+ * changes on every topology change, so the near-cache is then cleared. Modified and removed events for writes made
+ * by this node are ignored, as the near-cache is updated directly by the local writer.
+ *
+ * @param <K> The key type of the clustered cache
+ * @param <V> The value type of the clustered cache
+ * @author Mark A. Hunter
+ * @since 2020-08-01
+ */
+@Listener
+public class PetasosNearCacheInvalidationListener<K, V> {
+    private static final Logger LOG = LoggerFactory.getLogger(PetasosNearCacheInvalidationListener.class);
+
+    public static final long NOT_CACHEABLE = -1L;
+
+    private final Cache<K, V> clusteredCache;
+    private final PetasosNearCache<K, V> nearCache;
+
+    public PetasosNearCacheInvalidationListener(Cache<K, V> clusteredCache, PetasosNearCache<K, V> nearCache) {
+        this.clusteredCache = clusteredCache;
+        this.nearCache = nearCache;
+    }
+
+    /**
+     * This function returns the lifespan with which a value (read from, or written to, the clustered cache) may be
+     * held by the near-cache.
+     *
+     * @param key     The key
+     * @param written True if the value was written by this node, false if it was read
+     * @return 0 if the value may be held until invalidated, the lifespan (milliseconds) if it may only be held for
+     * a limited time, or NOT_CACHEABLE if it mustn't be held at all
+     */
+    public long getNearCacheLifespan(K key, boolean written) {
+        DistributionManager distributionManager = clusteredCache.getAdvancedCache().getDistributionManager();
+        if ((distributionManager == null) || distributionManager.getCacheTopology().isWriteOwner(key)) {
+            return (0L);
+        }
+        L1Configuration l1Configuration = clusteredCache.getCacheConfiguration().clustering().l1();
+        if (written || !l1Configuration.enabled()) {
+            return (NOT_CACHEABLE);
+        }
+        // the read may have been served from an (older) L1 copy, so the owner may forget this node before a full
+        // L1 lifespan has passed - half of it is held
+        return (l1Configuration.lifespan() / 2);
+    }
+
+    @CacheEntryModified
+    public void onEntryModified(CacheEntryEvent<K, V> event) {
+        if (!event.isOriginLocal()) {
+            invalidate(event);
+        }
+    }
+
+    @CacheEntryRemoved
+    public void onEntryRemoved(CacheEntryEvent<K, V> event) {
+        if (!event.isOriginLocal()) {
+            invalidate(event);
+        }
+    }
+
+    @CacheEntryExpired
+    public void onEntryExpired(CacheEntryEvent<K, V> event) {
+        invalidate(event);
+    }
+
+    @CacheEntryInvalidated
+    public void onEntryInvalidated(CacheEntryEvent<K, V> event) {
+        invalidate(event);
+    }
+
+    @TopologyChanged
+    public void onTopologyChanged(TopologyChangedEvent<K, V> event) {
+        if (event.isPre()) {
+            return;
+        }
+        LOG.debug(".onTopologyChanged(): Topology changed, clearing near-cache, topologyId --> {}", event.getNewTopologyId());
+        nearCache.clear();
+    }
+
+    private void invalidate(CacheEntryEvent<K, V> event) {
+        if (event.isPre()) {
+            return;
+        }
+        LOG.trace(".invalidate(): Invalidating near-cache entry, key --> {}", event.getKey());
+        nearCache.invalidate(event.getKey());
+    }
+}
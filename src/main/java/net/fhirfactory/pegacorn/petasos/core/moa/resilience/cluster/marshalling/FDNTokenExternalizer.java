@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.core.moa.resilience.cluster.marshalling;
+
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.infinispan.commons.marshall.AdvancedExternalizer;
+
+import net.fhirfactory.pegacorn.common.model.FDNToken;
+import net.fhirfactory.pegacorn.petasos.core.common.identifiers.PetasosFDNTokenCodec;
+import net.fhirfactory.pegacorn.petasos.model.resilience.activitymatrix.moa.EpisodeIdentifier;
+import net.fhirfactory.pegacorn.petasos.model.resilience.parcel.ResilienceParcelIdentifier;
+
+/**
+ * The compact Infinispan Externalizer for FDNTokens - see PetasosFDNTokenCodec for the encoding. Infinispan selects
+ * an Externalizer by the exact class of the object, so the FDNToken subtypes used as cache keys are registered
+ * too (the codec records, and restores, the subtype).
+ *
+ * @author Mark A. Hunter
+ * @since 2020-08-01
+ */
+public class FDNTokenExternalizer implements AdvancedExternalizer<FDNToken> {
+
+    @Override
+    public Set<Class<? extends FDNToken>> getTypeClasses() {
+        return (new HashSet<Class<? extends FDNToken>>(Arrays.asList(FDNToken.class, ResilienceParcelIdentifier.class, EpisodeIdentifier.class)));
+    }
+
+    @Override
+    public Integer getId() {
+        return (PetasosExternalizerIds.FDN_TOKEN);
+    }
+
+    @Override
+    public void writeObject(ObjectOutput output, FDNToken token) throws IOException {
+        PetasosFDNTokenCodec.writeToken(output, token, Collections.emptyList());
+    }
+
+    @Override
+    public FDNToken readObject(ObjectInput input) throws IOException, ClassNotFoundException {
+        return (PetasosFDNTokenCodec.readToken(input, Collections.emptyList(), new ArrayList<>()));
+    }
+}
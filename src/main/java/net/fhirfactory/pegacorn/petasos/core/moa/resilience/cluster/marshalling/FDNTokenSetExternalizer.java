@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.core.moa.resilience.cluster.marshalling;
+
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import org.infinispan.commons.marshall.AdvancedExternalizer;
+
+import net.fhirfactory.pegacorn.common.model.FDNToken;
+import net.fhirfactory.pegacorn.common.model.FDNTokenSet;
+import net.fhirfactory.pegacorn.common.model.RDN;
+import net.fhirfactory.pegacorn.petasos.core.common.identifiers.PetasosFDNTokenCodec;
+
+/**
+ * The compact Infinispan Externalizer for FDNTokenSets. The tokens within a set typically share a long common
+ * prefix (e.g. the ResilienceParcel IDs for the same UoW), so each token is written relative to the previous one
+ * - see PetasosFDNTokenCodec.
+ *
+ * @author Mark A. Hunter
+ * @since 2020-08-01
+ */
+public class FDNTokenSetExternalizer implements AdvancedExternalizer<FDNTokenSet> {
+
+    @Override
+    public Set<Class<? extends FDNTokenSet>> getTypeClasses() {
+        return (Collections.singleton(FDNTokenSet.class));
+    }
+
+    @Override
+    public Integer getId() {
+        return (PetasosExternalizerIds.FDN_TOKEN_SET);
+    }
+
+    @Override
+    public void writeObject(ObjectOutput output, FDNTokenSet tokenSet) throws IOException {
+        output.writeInt(tokenSet.getElements().size());
+        List<RDN> previousRDNs = Collections.emptyList();
+        for (FDNToken token : tokenSet.getElements()) {
+            previousRDNs = PetasosFDNTokenCodec.writeToken(output, token, previousRDNs);
+        }
+    }
+
+    @Override
+    public FDNTokenSet readObject(ObjectInput input) throws IOException, ClassNotFoundException {
+        int tokenCount = input.readInt();
+        FDNTokenSet tokenSet = new FDNTokenSet();
+        List<RDN> previousRDNs = Collections.emptyList();
+        for (int counter = 0; counter < tokenCount; counter += 1) {
+            List<RDN> tokenRDNs = new ArrayList<RDN>();
+            tokenSet.addElement(PetasosFDNTokenCodec.readToken(input, previousRDNs, tokenRDNs));
+            previousRDNs = tokenRDNs;
+        }
+        return (tokenSet);
+    }
+}
@@ -30,71 +30,167 @@
  */
 package net.fhirfactory.pegacorn.petasos.core.moa.resilience.cluster.utility;
 
+import java.util.HashMap;
+import java.util.Map;
+
 import javax.annotation.PreDestroy;
 import javax.enterprise.inject.Produces;
 import javax.enterprise.context.ApplicationScoped;
+import org.infinispan.Cache;
+import org.infinispan.commons.marshall.JavaSerializationMarshaller;
 import org.infinispan.manager.DefaultCacheManager;
 
+import org.infinispan.configuration.cache.CacheMode;
+import org.infinispan.configuration.cache.Configuration;
+import org.infinispan.configuration.cache.ConfigurationBuilder;
 import org.infinispan.configuration.global.GlobalConfiguration;
 import org.infinispan.configuration.global.GlobalConfigurationBuilder;
+import org.infinispan.eviction.EvictionType;
+import org.infinispan.configuration.cache.StorageType;
+import org.infinispan.stats.Stats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.fhirfactory.pegacorn.petasos.core.moa.resilience.cluster.marshalling.FDNTokenExternalizer;
+import net.fhirfactory.pegacorn.petasos.core.moa.resilience.cluster.marshalling.FDNTokenSetExternalizer;
 
 @ApplicationScoped
 public class PetasosCacheManager {
+	private static final Logger LOG = LoggerFactory.getLogger(PetasosCacheManager.class);
 
 	private DefaultCacheManager petasosCacheManager;
+	private PetasosCacheProfileProperty cacheProfileProperty;
 
 	@Produces
 	public DefaultCacheManager getCacheManager() {
 		if (petasosCacheManager == null) {
+			// the profile, sizing and cluster details are selected per deployment
+			cacheProfileProperty = PetasosCacheProfileProperty.fromSystemProperties();
+			LOG.info(".getCacheManager(): Creating cache manager, cacheProfileProperty --> {}", cacheProfileProperty);
+
 			// configure a named clustered cache configuration using Infinispan defined
 			// defaults
 			GlobalConfigurationBuilder builder = new GlobalConfigurationBuilder().clusteredDefault();
 
+			// register the compact marshallers for the Petasos key types; the remaining (model) types, such as the
+			// ResilienceParcel, are Java serialised - but only if their classes are on the allow-list, so bytes
+			// received from the cluster cannot instantiate arbitrary classes
+			builder.serialization().addAdvancedExternalizer(new FDNTokenExternalizer(), new FDNTokenSetExternalizer())
+					.marshaller(new JavaSerializationMarshaller())
+					.whiteList().addRegexps("net\\.fhirfactory\\.pegacorn\\..*", "java\\.util\\..*",
+							"java\\.lang\\.(Enum|Number|Boolean|Integer|Long|Short|Byte|Character|Double|Float)");
+
 			// complete the config with a cluster name, jgroups config, and enable JMX
 			// statistics
-			GlobalConfiguration global = builder.transport().clusterName("petasos-cluster")
-					.addProperty("configurationFile", "jgroups-petasos.xml").jmx().enable().build();
+			GlobalConfiguration global = builder.transport().clusterName(cacheProfileProperty.getClusterName())
+					.addProperty("configurationFile", cacheProfileProperty.getJgroupsConfigurationFile()).jmx().enable().build();
 
 			// define a local configuration for setting finer level properties including
 			// individual cache statistics and methods required for configuring the cache
-			// as clustered
-			//            Configuration local = new ConfigurationBuilder().statistics().enable().clustering()
-			//                    .cacheMode(CacheMode.DIST_SYNC).build();
-			// note the doco for each of the persistence methods is poor so I have just
-			// copied the
-			// persistence config from
-			// https://infinispan.org/docs/stable/titles/configuring/configuring.html#configuring_cache_stores-persistence
-			// not sure about preload effect when starting a new pod - could out of date
-			// info clobber newer info, see
-			// https://docs.jboss.org/infinispan/10.1/apidocs/org/infinispan/configuration/cache/AbstractStoreConfigurationBuilder.html#preload(boolean)
-			/* Configuration local = new ConfigurationBuilder().statistics().enable().clustering()
-					.cacheMode(CacheMode.DIST_SYNC).persistence().passivation(true) // only write the cache overflow to
-																					// disk
-					.addSingleFileStore() // the disk cache
-					.preload(true).shared(false).fetchPersistentState(true).ignoreModifications(false)
-					.purgeOnStartup(false).location(petasosProperties.getCacheOverflowDirectory()).async().enabled(true)
-					.threadPoolSize(5).memory()
-//               .storageType(StorageType.BINARY) // let Infinispan decide?
-					.evictionType(EvictionType.MEMORY).size(petasosProperties.getCacheSizeInBytes()) // cache size in
-																										// bytes, need
-																										// to make
-																										// configurable
-					.build(); */
+			// as clustered - bounded (and overflowed) as per the selected profile
+			ConfigurationBuilder localBuilder = new ConfigurationBuilder();
+			localBuilder.statistics().enable().clustering().cacheMode(CacheMode.DIST_SYNC);
+			// L1 holds entries read from other nodes - and the owners invalidate those copies when the entry is
+			// modified, which is what keeps the (local) Petasos near-caches coherent for entries this node doesn't own
+			localBuilder.clustering().l1().enable().lifespan(cacheProfileProperty.getL1LifespanMillis());
+			applyCacheProfile(localBuilder, cacheProfileProperty);
+			Configuration local = localBuilder.build();
+			// the parcel cache and its status index are grouped by episode, so a parcel and its index entry (and
+			// the other parcels of the episode) share their owners
+			ConfigurationBuilder parcelBuilder = new ConfigurationBuilder().read(local);
+			parcelBuilder.clustering().hash().groups().enabled().addGrouper(new ResilienceParcelIdentifierGrouper());
+			Configuration parcel = parcelBuilder.build();
 
 			// create a cache manager based on the gloabl configuration
-			/* petasosCacheManager = new DefaultCacheManager(global);
+			petasosCacheManager = new DefaultCacheManager(global);
 			// define a set of caches based on the local configuration
-			petasosCacheManager.defineConfiguration("petasos-parcel-cache", local);
-			petasosCacheManager.defineConfiguration("petasos-watchdog-cache", "petasos-parcel-cache", local);
-			petasosCacheManager.defineConfiguration("petasos-uow-to-wup-map", "petasos-parcel-cache", local);
-			petasosCacheManager.defineConfiguration("capability-map", "petasos-parcel-cache", local); */
+			petasosCacheManager.defineConfiguration("petasos-parcel-cache", parcel);
+			petasosCacheManager.defineConfiguration("petasos-parcel-status-index", parcel);
+			petasosCacheManager.defineConfiguration("petasos-uow-map", local);
+			petasosCacheManager.defineConfiguration("petasos-watchdog-cache", local);
+			petasosCacheManager.defineConfiguration("petasos-uow-to-wup-map", local);
+			petasosCacheManager.defineConfiguration("capability-map", local);
 		}
 		return petasosCacheManager;
 	}
 
+	/**
+	 * Applies the memory, eviction and persistence settings of the selected profile to the cache configuration.
+	 * <p>
+	 * The caches hold in-flight ResilienceParcels, so an evicted entry must be overflowed (passivated) to disk rather
+	 * than lost. A bounded profile without an overflow directory therefore falls back to the unbounded profile (with a
+	 * WARN) rather than silently discarding in-flight parcels.
+	 * <p>
+	 * Note that Infinispan's count based eviction approximates LRU (it uses a frequency-aware LRU policy).
+	 *
+	 * @param builder  The cache ConfigurationBuilder
+	 * @param property The deployment's cache profile properties
+	 */
+	private void applyCacheProfile(ConfigurationBuilder builder, PetasosCacheProfileProperty property) {
+		if ((property.getProfile() != PetasosCacheProfileEnum.PETASOS_CACHE_PROFILE_UNBOUNDED) && !property.hasOverflowDirectory()) {
+			LOG.warn(".applyCacheProfile(): Profile {} requires petasos.cache.overflow.directory (evicted parcels would be lost), using {} instead",
+					property.getProfile(), PetasosCacheProfileEnum.PETASOS_CACHE_PROFILE_UNBOUNDED);
+			property.setProfile(PetasosCacheProfileEnum.PETASOS_CACHE_PROFILE_UNBOUNDED);
+		}
+		switch (property.getProfile()) {
+			case PETASOS_CACHE_PROFILE_OFF_HEAP_MEMORY_BOUNDED:
+				builder.memory().storageType(StorageType.OFF_HEAP).evictionType(EvictionType.MEMORY)
+						.size(property.getMaxSizeInBytes());
+				applyOverflowFileStore(builder, property);
+				break;
+			case PETASOS_CACHE_PROFILE_COUNT_BOUNDED:
+			case PETASOS_CACHE_PROFILE_FILE_STORE_OVERFLOW:
+				builder.memory().storageType(StorageType.OBJECT).evictionType(EvictionType.COUNT)
+						.size(property.getMaxEntries());
+				applyOverflowFileStore(builder, property);
+				break;
+			case PETASOS_CACHE_PROFILE_UNBOUNDED:
+			default:
+				break;
+		}
+	}
+
+	// note the doco for each of the persistence methods is poor, the persistence config is from
+	// https://infinispan.org/docs/stable/titles/configuring/configuring.html#configuring_cache_stores-persistence
+	// not sure about preload effect when starting a new pod - could out of date
+	// info clobber newer info, see
+	// https://docs.jboss.org/infinispan/10.1/apidocs/org/infinispan/configuration/cache/AbstractStoreConfigurationBuilder.html#preload(boolean)
+	private void applyOverflowFileStore(ConfigurationBuilder builder, PetasosCacheProfileProperty property) {
+		builder.persistence().passivation(true) // only write the cache overflow to disk
+				.addSingleFileStore() // the disk cache
+				.preload(true).shared(false).fetchPersistentState(true).ignoreModifications(false)
+				.purgeOnStartup(false).location(property.getOverflowDirectory())
+				.async().enable().threadPoolSize(property.getWriteBehindThreadPoolSize());
+	}
+
+	public PetasosCacheProfileProperty getCacheProfileProperty() {
+		return cacheProfileProperty;
+	}
+
+	/**
+	 * Returns the eviction statistics (evictions, in-memory entry count, and data/off-heap memory used) for the
+	 * named cache - so the effect of the selected profile can be monitored.
+	 *
+	 * @param cacheName The name of the cache
+	 * @return A map of statistic name to value (empty if the cache manager has not been created)
+	 */
+	public Map<String, Long> getCacheEvictionStatistics(String cacheName) {
+		Map<String, Long> statistics = new HashMap<String, Long>();
+		if ((petasosCacheManager == null) || !petasosCacheManager.cacheExists(cacheName)) {
+			return (statistics);
+		}
+		Cache<Object, Object> cache = petasosCacheManager.getCache(cacheName);
+		Stats cacheStats = cache.getAdvancedCache().getStats();
+		statistics.put("evictions", cacheStats.getEvictions());
+		statistics.put("entriesInMemory", (long) cacheStats.getCurrentNumberOfEntriesInMemory());
+		statistics.put("dataMemoryUsed", cacheStats.getDataMemoryUsed());
+		statistics.put("offHeapMemoryUsed", cacheStats.getOffHeapMemoryUsed());
+		return (statistics);
+	}
+
 	@PreDestroy
 	public void cleanUp() {
 		petasosCacheManager.stop();
 		petasosCacheManager = null;
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.core.moa.resilience.cluster.utility;
+
+/**
+ * The configuration profiles for the Petasos clustered caches.
+ * <p>
+ * PETASOS_CACHE_PROFILE_UNBOUNDED - (the default) entries are held on-heap with no bound.
+ * PETASOS_CACHE_PROFILE_OFF_HEAP_MEMORY_BOUNDED - entries are held off-heap, bounded by a total size in bytes.
+ * PETASOS_CACHE_PROFILE_COUNT_BOUNDED - entries are held on-heap, bounded by an entry count (least recently/frequently used entries are evicted).
+ * PETASOS_CACHE_PROFILE_FILE_STORE_OVERFLOW - as per count bounded, but evicted entries are passivated to a (local) SingleFileStore
+ * using asynchronous write-behind, so no entry is lost.
+ * <p>
+ * All bounded profiles require an overflow directory, to which evicted entries are passivated (so in-flight parcels are
+ * not lost); without one, the unbounded profile is used instead.
+ *
+ * @author Mark A. Hunter
+ * @since 2020-08-01
+ */
+public enum PetasosCacheProfileEnum {
+    PETASOS_CACHE_PROFILE_UNBOUNDED,
+    PETASOS_CACHE_PROFILE_OFF_HEAP_MEMORY_BOUNDED,
+    PETASOS_CACHE_PROFILE_COUNT_BOUNDED,
+    PETASOS_CACHE_PROFILE_FILE_STORE_OVERFLOW
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.core.moa.resilience.cluster.utility;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The (per deployment) configuration of the Petasos clustered caches. The values are read from system properties
+ * (see fromSystemProperties()), so each deployment (pod) can select its profile and size its caches independently.
+ *
+ * @author Mark A. Hunter
+ * @since 2020-08-01
+ */
+public class PetasosCacheProfileProperty {
+    private static final Logger LOG = LoggerFactory.getLogger(PetasosCacheProfileProperty.class);
+    public static final String DEFAULT_CLUSTER_NAME = "petasos-cluster";
+    public static final String DEFAULT_JGROUPS_CONFIGURATION_FILE = "jgroups-petasos.xml";
+    public static final long DEFAULT_MAX_ENTRIES = 100000;
+    public static final long DEFAULT_MAX_SIZE_IN_BYTES = 256L * 1024L * 1024L;
+    public static final int DEFAULT_WRITE_BEHIND_THREAD_POOL_SIZE = 5;
+    public static final long DEFAULT_L1_LIFESPAN_MILLIS = 10L * 60L * 1000L;
+
+    private PetasosCacheProfileEnum profile;
+    private String clusterName;
+    private String jgroupsConfigurationFile;
+    private long maxEntries;
+    private long maxSizeInBytes;
+    private String overflowDirectory;
+    private int writeBehindThreadPoolSize;
+    private long l1LifespanMillis;
+
+    public PetasosCacheProfileProperty() {
+        this.profile = PetasosCacheProfileEnum.PETASOS_CACHE_PROFILE_UNBOUNDED;
+        this.clusterName = DEFAULT_CLUSTER_NAME;
+        this.jgroupsConfigurationFile = DEFAULT_JGROUPS_CONFIGURATION_FILE;
+        this.maxEntries = DEFAULT_MAX_ENTRIES;
+        this.maxSizeInBytes = DEFAULT_MAX_SIZE_IN_BYTES;
+        this.overflowDirectory = null;
+        this.writeBehindThreadPoolSize = DEFAULT_WRITE_BEHIND_THREAD_POOL_SIZE;
+        this.l1LifespanMillis = DEFAULT_L1_LIFESPAN_MILLIS;
+    }
+
+    /**
+     * Builds the property set from the following system properties (each is optional):
+     * petasos.cache.profile (a PetasosCacheProfileEnum name - an unknown name is ignored), petasos.cache.cluster.name,
+     * petasos.cache.jgroups.configuration, petasos.cache.max.entries, petasos.cache.max.bytes,
+     * petasos.cache.overflow.directory, petasos.cache.writebehind.threads and petasos.cache.l1.lifespan.millis.
+     *
+     * @return The PetasosCacheProfileProperty for this deployment
+     */
+    public static PetasosCacheProfileProperty fromSystemProperties() {
+        PetasosCacheProfileProperty property = new PetasosCacheProfileProperty();
+        String profileName = System.getProperty("petasos.cache.profile");
+        if (profileName != null) {
+            try {
+                property.setProfile(PetasosCacheProfileEnum.valueOf(profileName.trim()));
+            } catch (IllegalArgumentException unknownProfileException) {
+                LOG.warn(".fromSystemProperties(): Unknown petasos.cache.profile --> {}, using {}", profileName, property.getProfile());
+            }
+        }
+        property.setClusterName(System.getProperty("petasos.cache.cluster.name", DEFAULT_CLUSTER_NAME));
+        property.setJgroupsConfigurationFile(System.getProperty("petasos.cache.jgroups.configuration", DEFAULT_JGROUPS_CONFIGURATION_FILE));
+        property.setMaxEntries(Long.getLong("petasos.cache.max.entries", DEFAULT_MAX_ENTRIES));
+        property.setMaxSizeInBytes(Long.getLong("petasos.cache.max.bytes", DEFAULT_MAX_SIZE_IN_BYTES));
+        property.setOverflowDirectory(System.getProperty("petasos.cache.overflow.directory"));
+        property.setWriteBehindThreadPoolSize(Integer.getInteger("petasos.cache.writebehind.threads", DEFAULT_WRITE_BEHIND_THREAD_POOL_SIZE));
+        property.setL1LifespanMillis(Long.getLong("petasos.cache.l1.lifespan.millis", DEFAULT_L1_LIFESPAN_MILLIS));
+        return (property);
+    }
+
+    public PetasosCacheProfileEnum getProfile() {
+        return profile;
+    }
+
+    public void setProfile(PetasosCacheProfileEnum profile) {
+        this.profile = profile;
+    }
+
+    public String getClusterName() {
+        return clusterName;
+    }
+
+    public void setClusterName(String clusterName) {
+        this.clusterName = clusterName;
+    }
+
+    public String getJgroupsConfigurationFile() {
+        return jgroupsConfigurationFile;
+    }
+
+    public void setJgroupsConfigurationFile(String jgroupsConfigurationFile) {
+        this.jgroupsConfigurationFile = jgroupsConfigurationFile;
+    }
+
+    public long getMaxEntries() {
+        return maxEntries;
+    }
+
+    public void setMaxEntries(long maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    public long getMaxSizeInBytes() {
+        return maxSizeInBytes;
+    }
+
+    public void setMaxSizeInBytes(long maxSizeInBytes) {
+        this.maxSizeInBytes = maxSizeInBytes;
+    }
+
+    public String getOverflowDirectory() {
+        return overflowDirectory;
+    }
+
+    public void setOverflowDirectory(String overflowDirectory) {
+        this.overflowDirectory = overflowDirectory;
+    }
+
+    public boolean hasOverflowDirectory() {
+        return ((overflowDirectory != null) && !overflowDirectory.isEmpty());
+    }
+
+    public int getWriteBehindThreadPoolSize() {
+        return writeBehindThreadPoolSize;
+    }
+
+    public void setWriteBehindThreadPoolSize(int writeBehindThreadPoolSize) {
+        this.writeBehindThreadPoolSize = writeBehindThreadPoolSize;
+    }
+
+    public long getL1LifespanMillis() {
+        return l1LifespanMillis;
+    }
+
+    public void setL1LifespanMillis(long l1LifespanMillis) {
+        this.l1LifespanMillis = l1LifespanMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "PetasosCacheProfileProperty{" +
+                "profile=" + profile +
+                ", clusterName=" + clusterName +
+                ", jgroupsConfigurationFile=" + jgroupsConfigurationFile +
+                ", maxEntries=" + maxEntries +
+                ", maxSizeInBytes=" + maxSizeInBytes +
+                ", overflowDirectory=" + overflowDirectory +
+                ", writeBehindThreadPoolSize=" + writeBehindThreadPoolSize +
+                ", l1LifespanMillis=" + l1LifespanMillis +
+                '}';
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2020 MAHun
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.core.moa.resilience.cluster.utility;
+
+import java.util.List;
+
+import org.infinispan.distribution.group.Grouper;
+
+import net.fhirfactory.pegacorn.common.model.FDN;
+import net.fhirfactory.pegacorn.common.model.RDN;
+import net.fhirfactory.pegacorn.petasos.model.resilience.parcel.ResilienceParcelIdentifier;
+
+/**
+ * The Infinispan Grouper for the clustered parcel caches. A ParcelID is the FDN of the WUP (episode) that produced
+ * the parcel, qualified by a final (instance) RDN - so the group is the ParcelID less that final RDN. All the parcels
+ * of an episode (and their status index entries) therefore share their owners, rather than each parcel being
+ * placed by the hash of its own ID.
+ * <p>
+ * The group is derived from the key alone, so every node computes the same group (and owners) for a parcel. A
+ * ParcelID with a single RDN has no episode part, and is placed by its own hash (a null group).
+ *
+ * @author Mark A. Hunter
+ * @since 2020-08-01
+ */
+public class ResilienceParcelIdentifierGrouper implements Grouper<ResilienceParcelIdentifier> {
+
+    @Override
+    public String computeGroup(ResilienceParcelIdentifier key, String group) {
+        if (group != null) {
+            // an explicit (@Group) group takes precedence
+            return (group);
+        }
+        FDN parcelFDN = new FDN(key);
+        if (parcelFDN.getRDNCount() < 2) {
+            return (null);
+        }
+        List<RDN> rdnList = parcelFDN.getRDNSet();
+        StringBuilder episodeGroup = new StringBuilder();
+        for (int counter = 0; counter < rdnList.size() - 1; counter += 1) {
+            RDN currentRDN = rdnList.get(counter);
+            episodeGroup.append(currentRDN.getQualifier()).append('=').append(currentRDN.getValue()).append('.');
+        }
+        return (episodeGroup.toString());
+    }
+
+    @Override
+    public Class<ResilienceParcelIdentifier> getKeyType() {
+        return (ResilienceParcelIdentifier.class);
+    }
+}
@@ -21,7 +21,12 @@
  */
 package net.fhirfactory.pegacorn.petasos.core.moa.resilience.processingplant.cache;
 
+import net.fhirfactory.pegacorn.petasos.core.common.clock.PetasosClock;
+import net.fhirfactory.pegacorn.petasos.core.common.resilience.processingplant.activitymatrix.ProcessingPlantActivityMatrix;
+import net.fhirfactory.pegacorn.petasos.core.common.resilience.processingplant.activitymatrix.TerminalStatusRetentionEvictionPolicy;
 import net.fhirfactory.pegacorn.petasos.core.common.resilience.processingplant.cache.ProcessingPlantParcelCacheDM;
+import net.fhirfactory.pegacorn.petasos.core.common.resilience.processingplant.journal.ProcessingPlantParcelJournal;
+import net.fhirfactory.pegacorn.petasos.core.moa.pathway.metrics.WUPThroughputDM;
 import net.fhirfactory.pegacorn.petasos.model.pathway.ActivityID;
 import net.fhirfactory.pegacorn.petasos.model.resilience.activitymatrix.moa.EpisodeIdentifier;
 import net.fhirfactory.pegacorn.petasos.model.resilience.parcel.ResilienceParcelIdentifier;
@@ -31,11 +36,12 @@ import net.fhirfactory.pegacorn.petasos.model.resilience.activitymatrix.moa.Parc
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
-import java.time.Instant;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 import net.fhirfactory.pegacorn.petasos.model.configuration.PetasosPropertyConstants;
 
 /**
@@ -43,6 +49,10 @@ import net.fhirfactory.pegacorn.petasos.model.configuration.PetasosPropertyConst
  * ResilienceParcels. It is a representational Matrix of all the Resilience
  * Parcel activity within the ServiceModule - and has hooks for supporting
  * updates from Clustered and Multi-Site equivalents.
+ * <p>
+ * The activity tracking itself is delegated to the (shared) ProcessingPlantActivityMatrix, with terminal
+ * (finalised, failed or cancelled) elements evicted once older than the cache entry retention period
+ * ("petasos.activitymatrix.moa.retention.millis" overrides it).
  *
  * @author Mark A. Hunter
  * @since 2020-06-01
@@ -52,8 +62,9 @@ public class ProcessingPlantWUAEpisodeActivityMatrixDM {
 
     private static final Logger LOG = LoggerFactory.getLogger(ProcessingPlantWUAEpisodeActivityMatrixDM.class);
 
-    private ConcurrentHashMap<ResilienceParcelIdentifier, ParcelStatusElement> parcelStatusElementCache;
-    private ConcurrentHashMap<EpisodeIdentifier, HashSet<ResilienceParcelIdentifier>> wuaEpisode2ParcelInstanceMap;
+    public static final long DEFAULT_EVICTION_SWEEP_INTERVAL_MILLISECONDS = 10000L;
+
+    private ProcessingPlantActivityMatrix activityMatrix;
 
     @Inject
     ProcessingPlantParcelCacheDM parcelCacheDM;
@@ -61,20 +72,37 @@ public class ProcessingPlantWUAEpisodeActivityMatrixDM {
     @Inject
     TopologyIM moduleIM;
 
+    @Inject
+    ProcessingPlantParcelJournal parcelJournal;
+
+    @Inject
+    WUPThroughputDM throughputDM;
+
     public ProcessingPlantWUAEpisodeActivityMatrixDM() {
-        parcelStatusElementCache = new ConcurrentHashMap<ResilienceParcelIdentifier, ParcelStatusElement>();
-        wuaEpisode2ParcelInstanceMap = new ConcurrentHashMap<EpisodeIdentifier, HashSet<ResilienceParcelIdentifier>>();
+        long retentionPeriod = Long.getLong("petasos.activitymatrix.moa.retention.millis", PetasosPropertyConstants.CACHE_ENTRY_RETENTION_PERIOD_SECONDS * 1000L);
+        activityMatrix = new ProcessingPlantActivityMatrix("moa-activitymatrix", new TerminalStatusRetentionEvictionPolicy(retentionPeriod));
+    }
+
+    @PostConstruct
+    public void start() {
+        if (throughputDM.isEnabled()) {
+            activityMatrix.setStatusListener(throughputDM);
+        }
+        activityMatrix.startEviction(DEFAULT_EVICTION_SWEEP_INTERVAL_MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        activityMatrix.stopEviction();
     }
     
     /**
      * This function registers (adds) the ParcelIdentifier and an associated ParcelStatusElement to the
-     * ParcelStatusElementCache (ConcurrentHashMap<ResilienceParcelIdentifier, ParcelStatusElement>). It
-     * first checks to see if there is an instance already there. This functionality needs to be
-     * enhanced to support cluster-based behaviours.
+     * ActivityMatrix. If there is an instance already there for the same ActivityID, its status is simply
+     * updated. This functionality needs to be enhanced to support cluster-based behaviours.
      *
-     * It then registers (adds) the ParcelIdentifier to the WUAEpisode2ParcelMap
-     * (ConcurrentHashMap<EpisodeIdentifier,HashSet<ResilienceParcelIdentifier>>) to track that
-     * the specific Parcel is part of a processing Episode.
+     * The ParcelIdentifier is also registered against its Episode, to track that the specific Parcel is
+     * part of a processing Episode.
      *
      * @param activityID The WUP/Parcel ActivityID
      * @param initialProcessingStatus The initial (provided) Processing Status of the ResilienceParcel
@@ -98,72 +126,8 @@ public class ProcessingPlantWUAEpisodeActivityMatrixDM {
         if (activityID == null) {
             throw (new IllegalArgumentException(".registerParcelExecution(): activityID is null"));
         }
-        // First we are going to update the ParcelCache
-        LOG.trace(".addWUA(): Adding/Updating the ParcelStatusElementCache with a new ParcelStatusElement");
-        ParcelStatusElement newStatusElement = null;
-        if(parcelStatusElementCache.containsKey(activityID.getPresentParcelIdentifier()))
-        {
-            LOG.trace(".addWUA(): ParcelIdentifier already registered in the ParcelStatusElementCache, let's make sure it's the same though!");
-            ParcelStatusElement existingStatusElement = parcelStatusElementCache.get(activityID.getPresentParcelIdentifier());
-            boolean sameInstanceID = existingStatusElement.getParcelInstanceID().equals(activityID.getPresentParcelIdentifier());
-            boolean sameEpisodeID = existingStatusElement.getActivityID().getPresentEpisodeIdentifier().equals(activityID.getPresentEpisodeIdentifier());
-            boolean sameWUPInstanceID = existingStatusElement.getActivityID().getPresentWUPIdentifier().equals(activityID.getPresentWUPIdentifier());
-            boolean sameWUPTypeID = existingStatusElement.getActivityID().getPresentWUPFunctionToken().equals(activityID.getPresentWUPFunctionToken());
-            boolean sameUpstreamEpisodeID = existingStatusElement.getActivityID().getPreviousEpisodeIdentifier().equals(activityID.getPreviousEpisodeIdentifier());
-            if( sameInstanceID && sameEpisodeID && sameWUPInstanceID && sameWUPTypeID && sameUpstreamEpisodeID ){
-                LOG.trace(".addWUA(): New ActivityID and existing (registered) ID the same, so update the status (maybe) and then exit");
-                existingStatusElement.setParcelStatus(initialProcessingStatus);
-                LOG.trace(".addWUA(): Set the to-be-returned ParcelStatusElement to the existingStatusElement");
-                newStatusElement = existingStatusElement;
-            } else {
-                LOG.trace(".addWUA(): New ActivityID and existing (registered) ID are different, so delete the existing one from the ParcelStatusElementCache!");
-                parcelStatusElementCache.remove(activityID.getPresentParcelIdentifier());
-                LOG.trace(".addWUA(): Now create a new ParcelStatusElement, set its initial status and add it to the ParcelStatusElementCache!");
-                newStatusElement = new ParcelStatusElement(activityID);
-                newStatusElement.setParcelStatus(initialProcessingStatus);
-                LOG.trace(".addWUA(): New ParcelStatusElement created, newStatusElement --> {}", newStatusElement);
-                parcelStatusElementCache.put(activityID.getPresentParcelIdentifier(), newStatusElement);
-            }
-        } else {
-            LOG.trace(".addWUA(): Create a new ParcelStatusElement, set its initial status and add it to the ParcelStatusElementCache!");
-            newStatusElement = new ParcelStatusElement(activityID);
-            newStatusElement.setParcelStatus(initialProcessingStatus);
-            LOG.trace(".addWUA(): New ParcelStatusElement created, newStatusElement --> {}", newStatusElement);
-            parcelStatusElementCache.put(activityID.getPresentParcelIdentifier(), newStatusElement);
-        }
-        // Now let's update the WUAEpisode2ParcelMap for the Episode/ResilienceParcel combination
-        if(LOG.isTraceEnabled()) {
-            LOG.trace(".addWUA(): Adding the ReslienceParcelIdentifier to the WUAEpisode2ParcelMap");
-            LOG.trace(".addWUA(): EpisodeIdentifier --> {}", activityID.getPresentEpisodeIdentifier() );
-            LOG.trace(".addWUA(): ResilienceParcelIdentifier --> {}", activityID.getPresentParcelIdentifier());
-        }
-        if(!wuaEpisode2ParcelInstanceMap.containsKey(activityID.getPresentEpisodeIdentifier()) ){
-        	LOG.trace(".addWUA(): No WUAEpisode2ParcelMap Entry for this Episode, creating!");
-        	HashSet<ResilienceParcelIdentifier> wuaEpisodeParcelSet = new HashSet<ResilienceParcelIdentifier>();
-        	LOG.trace(".addWUA(): Add the ResilienceParcelIdentifier to the HashSet<ResilienceParcelIdentifier> set of Parcels associated to this Episode");
-            wuaEpisodeParcelSet.add(activityID.getPresentParcelIdentifier());
-            LOG.trace(".addWUA(): Add the EpisodeIdentifier/HashSet<ResilienceParcelIdentifier> combination to the WUAEpisode2ParcelMap");
-        	wuaEpisode2ParcelInstanceMap.put(activityID.getPresentEpisodeIdentifier(),wuaEpisodeParcelSet );
-        } else {
-        	LOG.trace(".addWUA(): WUAEpisode2ParcelMap Entry exists for this Episode, so retrieve the HashSet<ResilienceParcelIdentifier> set of Parcels associated to this Episode!");
-            Set<ResilienceParcelIdentifier> wuaEpisodeParcelSet = wuaEpisode2ParcelInstanceMap.get(activityID.getPresentEpisodeIdentifier());
-            LOG.trace(".addWUA(): Now check to see if the ResilienceParcelIdentifier is already in the HashSet<ResilienceParcelIdentifier> set of Parcels associated to this Episode?");
-            Iterator<ResilienceParcelIdentifier> setIterator = wuaEpisodeParcelSet.iterator();
-            boolean foundParcelIdentifierInSet = false;
-            while(setIterator.hasNext()){
-                ResilienceParcelIdentifier currentParcelIdentifier = setIterator.next();
-                if(currentParcelIdentifier.equals(activityID.getPresentParcelIdentifier())){
-                    foundParcelIdentifierInSet = true;
-                    break;
-                }
-            }
-            if(!foundParcelIdentifierInSet) {
-                LOG.trace(".addWUA(): The ResilienceParcelIdentifier is not already in the HashSet<ResilienceParcelIdentifier> set, so add it!");
-                wuaEpisodeParcelSet.add(activityID.getPresentParcelIdentifier());
-            } else {
-                LOG.trace(".addWUA(): The ResilienceParcelIdentifier is already in the HashSet<ResilienceParcelIdentifier> set, so do nothing!");
-            }
-        }
+        ParcelStatusElement newStatusElement = activityMatrix.registerActivity(activityID, initialProcessingStatus);
+        parcelJournal.journalWUAStatus(activityID, initialProcessingStatus);
         LOG.debug(".addWUA(): Exit, newStatusElement --> {}", newStatusElement);
         return(newStatusElement);
     }
@@ -181,14 +145,10 @@ public class ProcessingPlantWUAEpisodeActivityMatrixDM {
         if (activityID == null) {
             throw (new IllegalArgumentException(".updateParcelActivity(): ActivityID (activityID) Processing Status (status) is null"));
         }
-        LOG.trace(".updateWUA(): Get the current ParcelStatusElement");
         ResilienceParcelIdentifier parcelInstanceID = activityID.getPresentParcelIdentifier();
-        ParcelStatusElement currentStatusElement;
-        if(parcelStatusElementCache.containsKey(parcelInstanceID)) {
-            LOG.trace(".updateWUA(): ParcelStatusElement exists -> get it!");
-            currentStatusElement = parcelStatusElementCache.get(parcelInstanceID);
-            LOG.trace(".updateWUA(): Updating status of the ParcelStatusElement!");
-            currentStatusElement.setParcelStatus(status);
+        ParcelStatusElement currentStatusElement = activityMatrix.updateActivityStatus(parcelInstanceID, status);
+        if(currentStatusElement != null) {
+            parcelJournal.journalWUAStatus(activityID, status);
         } else {
             LOG.trace(".updateWUA(): ParcelStatusElement does not exist -> create it!");
             currentStatusElement = this.addWUA(activityID, status);
@@ -196,36 +156,22 @@ public class ProcessingPlantWUAEpisodeActivityMatrixDM {
         LOG.debug(".updateWUA(): Exit, updated currentStatusElement --> {}", currentStatusElement);
     }
 
-    public ParcelStatusElement getParcelStatusElement(ResilienceParcelIdentifier parcelInstanceID) {
-        LOG.debug(".getCurrentParcelStatusElement(): Entry, parcelInstanceID --> {}", parcelInstanceID);
-        if(parcelStatusElementCache.containsKey(parcelInstanceID)) {
-	        ParcelStatusElement requestedElement = parcelStatusElementCache.get(parcelInstanceID);
-	        LOG.debug(".getCurrentParcelStatusElement(): Exit, returning requestedElement --> {}", requestedElement);
-	        return (requestedElement);
-        }
-        else {
-            LOG.debug(".getCurrentParcelStatusElement(): no matching element.");
-            return (null);        	
-        }
+    /**
+     * This function passes each ParcelStatusElement in the ActivityMatrix to the consumer. The iteration is weakly
+     * consistent (the matrix is not locked), which is sufficient for (fuzzy) journal snapshots.
+     *
+     * @param statusElementConsumer The consumer of the ParcelStatusElements
+     */
+    public void snapshotParcelStatusElements(Consumer<ParcelStatusElement> statusElementConsumer) {
+        LOG.debug(".snapshotParcelStatusElements(): Entry");
+        activityMatrix.forEachStatusElement(statusElementConsumer);
     }
 
-    private EpisodeIdentifier findEpisodeIdentifierForParcelInstance(ResilienceParcelIdentifier parcelInstanceID) {
-        Enumeration<EpisodeIdentifier> wuaEpisodeEnumeration = wuaEpisode2ParcelInstanceMap.keys();
-        while (wuaEpisodeEnumeration.hasMoreElements()) {
-            EpisodeIdentifier presentWUAEpisode = wuaEpisodeEnumeration.nextElement();
-            Set<ResilienceParcelIdentifier> tokenSet = wuaEpisode2ParcelInstanceMap.get(presentWUAEpisode);
-            if(tokenSet == null){
-                return(null);
-            }
-            Iterator<ResilienceParcelIdentifier> tokenSetIterator = tokenSet.iterator();
-            while(tokenSetIterator.hasNext()) {
-                ResilienceParcelIdentifier currentIdentifier = tokenSetIterator.next();
-                if (currentIdentifier.equals(parcelInstanceID)) {
-                    return (presentWUAEpisode);
-                }
-            }
-        }
-        return (null);
+    public ParcelStatusElement getParcelStatusElement(ResilienceParcelIdentifier parcelInstanceID) {
+        LOG.debug(".getCurrentParcelStatusElement(): Entry, parcelInstanceID --> {}", parcelInstanceID);
+        ParcelStatusElement requestedElement = activityMatrix.getStatusElement(parcelInstanceID);
+        LOG.debug(".getCurrentParcelStatusElement(): Exit, returning requestedElement --> {}", requestedElement);
+        return (requestedElement);
     }
 
     /**
@@ -242,26 +188,12 @@ public class ProcessingPlantWUAEpisodeActivityMatrixDM {
     public ResilienceParcelIdentifier getSiteWideFocusElement(EpisodeIdentifier wuaEpisodeID) {
         LOG.debug(".getSiteWideFocusElement(): Entry, wuaEpisodeID --> {}", wuaEpisodeID);
         LOG.trace(".getSiteWideFocusElement(): Retrieve the ResilienceParcels for the Episode");
-        if(!wuaEpisode2ParcelInstanceMap.containsKey(wuaEpisodeID)) {
-            LOG.debug(".getSiteWideFocusElement(): Exit, No parcel was found with System Wide Focus, returning -null-");
-            return (null);
-        }
-        Set<ResilienceParcelIdentifier> wuaEpisodeParcelIDSet = wuaEpisode2ParcelInstanceMap.get(wuaEpisodeID);
+        Set<ResilienceParcelIdentifier> wuaEpisodeParcelIDSet = activityMatrix.getEpisodeParcelIDs(wuaEpisodeID);
         LOG.trace(".getSiteWideFocusElement(): Extracted the set of ResilienceParcel IDs for the Episode (wuaEpisode), wuaEpisodeParcelIDSet (FDNTokenSet) --> {}", wuaEpisodeParcelIDSet);
-        LOG.trace(".getSiteWideFocusElement(): Iterator through the Parcel IDs, extract each actual ParcelStatusElement and check to see if it has SystemWide focus");
-        Iterator<ResilienceParcelIdentifier> wuaEpisodeParcelIDIterator = wuaEpisodeParcelIDSet.iterator();
-        if(LOG.isTraceEnabled()) {
-        	Enumeration<ResilienceParcelIdentifier> statusElementKeys = parcelStatusElementCache.keys();
-        	while(statusElementKeys.hasMoreElements()) {
-        		LOG.trace(".getSiteWideFocusElement(): ParcelStatusElementCache, Key --> {}", statusElementKeys.nextElement());
-        	}
-        }
-        while (wuaEpisodeParcelIDIterator.hasNext()) {
-            ResilienceParcelIdentifier currentParcelID = wuaEpisodeParcelIDIterator.next();
+        for (ResilienceParcelIdentifier currentParcelID : wuaEpisodeParcelIDSet) {
             LOG.trace(".getSiteWideFocusElement(): Checking ParcelStatusElement for ResilienceParcel ID --> {}", currentParcelID);
-            ParcelStatusElement currentStatusElement = parcelStatusElementCache.get(currentParcelID);
-            LOG.trace(".getSiteWideFocusElement(): Extracted ParcelStatusElement --> {}", currentStatusElement);
-            if (currentStatusElement.getHasSystemWideFocus()) {
+            ParcelStatusElement currentStatusElement = activityMatrix.getStatusElement(currentParcelID);
+            if ((currentStatusElement != null) && currentStatusElement.getHasSystemWideFocus()) {
                 LOG.debug(".getSiteWideFocusElement(): Exit, Parcel has been found that has System Wide Focus, returning parcelInstanceID --> {}", currentParcelID);
                 return (currentParcelID);
             }
@@ -283,12 +215,9 @@ public class ProcessingPlantWUAEpisodeActivityMatrixDM {
      */
     public ResilienceParcelIdentifier getClusterFocusElement(EpisodeIdentifier wuaEpisodeID) {
         LOG.debug(".getClusterFocusElement(): Entry, wuaEpisodeID --> {}", wuaEpisodeID);
-        Set<ResilienceParcelIdentifier> wuaEpisodeParcelIDSet = wuaEpisode2ParcelInstanceMap.get(wuaEpisodeID);
-        Iterator<ResilienceParcelIdentifier> wuaEpisodeParcelIDIterator = wuaEpisodeParcelIDSet.iterator();
-        while (wuaEpisodeParcelIDIterator.hasNext()) {
-            ResilienceParcelIdentifier currentParcelID = wuaEpisodeParcelIDIterator.next();
-            ParcelStatusElement currentStatusElement = parcelStatusElementCache.get(currentParcelID);
-            if (currentStatusElement.getHasClusterFocus()) {
+        for (ResilienceParcelIdentifier currentParcelID : activityMatrix.getEpisodeParcelIDs(wuaEpisodeID)) {
+            ParcelStatusElement currentStatusElement = activityMatrix.getStatusElement(currentParcelID);
+            if ((currentStatusElement != null) && currentStatusElement.getHasClusterFocus()) {
                 LOG.debug(".getClusterFocusElement(): Exit, Parcel has been found that has Cluster Focus, returning parcelInstanceID --> {}", currentParcelID);
                 return (currentParcelID);
             }
@@ -303,64 +232,39 @@ public class ProcessingPlantWUAEpisodeActivityMatrixDM {
     public List<ResilienceParcelIdentifier> getAgedContentFromUpActivityMatrix() {
         LOG.debug(".getAgedContentFromUpActivityMatrix(): Entry");
         ArrayList<ResilienceParcelIdentifier> agedContent = new ArrayList<ResilienceParcelIdentifier>();
-        Enumeration<EpisodeIdentifier> parcelEpisodeIDIterator = wuaEpisode2ParcelInstanceMap.keys();
-        LOG.trace(".getAgedContentFromUpActivityMatrix(): Iterating through each EpisodeID");
-        Date currentDate = Date.from(Instant.now());
+        LOG.trace(".getAgedContentFromUpActivityMatrix(): Iterating through each ParcelStatusElement");
+        Date currentDate = PetasosClock.now();
         Long cutOffAge = currentDate.getTime() - (PetasosPropertyConstants.CACHE_ENTRY_RETENTION_PERIOD_SECONDS);
         Long timeOutAge = currentDate.getTime() - (PetasosPropertyConstants.WUP_ACTIVITY_DURATION_SECONDS);
-        while (parcelEpisodeIDIterator.hasMoreElements()) {
-            EpisodeIdentifier parcelEpisodeID = parcelEpisodeIDIterator.nextElement();
-            Set<ResilienceParcelIdentifier> statusSet = wuaEpisode2ParcelInstanceMap.get(parcelEpisodeID);
-            LOG.trace(".clearAgedContentFromUpActivityMatrix(): Iterating through ALL ParcelStatusElements to see if one is FINISHED, ParcelEpisodeID --> {}, ", parcelEpisodeID);
-            Iterator<ResilienceParcelIdentifier> initialSearchStatusIterator = statusSet.iterator();
-            boolean foundFinished = false;
-            ResilienceParcelIdentifier finishedParcelID = null;
-            while (initialSearchStatusIterator.hasNext()) {
-                ResilienceParcelIdentifier currentParcelInstanceID = initialSearchStatusIterator.next();
-                ParcelStatusElement currentElement = parcelStatusElementCache.get(currentParcelInstanceID);
-                switch (currentElement.getParcelStatus()) {
-                    case PARCEL_STATUS_FINALISED:
-                    case PARCEL_STATUS_FINALISED_ELSEWHERE:
-                        if (currentElement.getEntryDate().getTime() > cutOffAge) {
-                            agedContent.add(currentParcelInstanceID);
-                        }
-                        break;
-                    case PARCEL_STATUS_REGISTERED:
-                    case PARCEL_STATUS_INITIATED:
-                    case PARCEL_STATUS_ACTIVE:
-                    case PARCEL_STATUS_FINISHED:
-                    case PARCEL_STATUS_FINISHED_ELSEWHERE:
-                        if (currentElement.getEntryDate().getTime() < timeOutAge) {
-                            break;
-                        }
-                    case PARCEL_STATUS_FAILED:
-                    default:
+        activityMatrix.forEachStatusElement(currentElement -> {
+            ResilienceParcelIdentifier currentParcelInstanceID = currentElement.getParcelInstanceID();
+            switch (currentElement.getParcelStatus()) {
+                case PARCEL_STATUS_FINALISED:
+                case PARCEL_STATUS_FINALISED_ELSEWHERE:
+                    if (currentElement.getEntryDate().getTime() > cutOffAge) {
                         agedContent.add(currentParcelInstanceID);
+                    }
+                    break;
+                case PARCEL_STATUS_REGISTERED:
+                case PARCEL_STATUS_INITIATED:
+                case PARCEL_STATUS_ACTIVE:
+                case PARCEL_STATUS_FINISHED:
+                case PARCEL_STATUS_FINISHED_ELSEWHERE:
+                    if (currentElement.getEntryDate().getTime() < timeOutAge) {
                         break;
-                }
+                    }
+                case PARCEL_STATUS_FAILED:
+                default:
+                    agedContent.add(currentParcelInstanceID);
+                    break;
             }
-        }
+        });
         return(agedContent);
     }
 
     public List<ParcelStatusElement> getEpisodeElementSet(EpisodeIdentifier episodeID){
         LOG.debug(".getEpisodeElementSet(): Entry, episodeID --> {}", episodeID);
-        ArrayList<ParcelStatusElement> episodeSet = new ArrayList<ParcelStatusElement>();
-        Set<ResilienceParcelIdentifier> episodeParcelIDs = wuaEpisode2ParcelInstanceMap.get(episodeID);
-        if(episodeParcelIDs == null){
-            return(episodeSet);
-        }
-        if(episodeParcelIDs.isEmpty()){
-            return(episodeSet);
-        }
-        Iterator<ResilienceParcelIdentifier> parcelStatusIDIterator = episodeParcelIDs.iterator();
-        while(parcelStatusIDIterator.hasNext()){
-            ParcelStatusElement currentElement = parcelStatusElementCache.get(parcelStatusIDIterator.next());
-            if(currentElement != null){
-                episodeSet.add(currentElement);
-            }
-        }
-        return(episodeSet);
+        return(activityMatrix.getEpisodeElementSet(episodeID));
     }
 
     /**
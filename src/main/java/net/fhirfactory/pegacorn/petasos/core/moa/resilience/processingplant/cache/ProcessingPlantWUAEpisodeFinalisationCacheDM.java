@@ -23,33 +23,37 @@
 package net.fhirfactory.pegacorn.petasos.core.moa.resilience.processingplant.cache;
 
 import net.fhirfactory.pegacorn.common.model.FDNToken;
+import net.fhirfactory.pegacorn.petasos.core.common.resilience.processingplant.journal.ProcessingPlantParcelJournal;
 import net.fhirfactory.pegacorn.petasos.model.resilience.activitymatrix.moa.EpisodeIdentifier;
-import net.fhirfactory.pegacorn.petasos.model.resilience.activitymatrix.moa.WUAEpisodeFinalisationRegistrationStatus;
-import net.fhirfactory.pegacorn.petasos.model.resilience.activitymatrix.moa.WUAEpisodeFinalisationRegistrationStatusEnum;
+import net.fhirfactory.pegacorn.petasos.model.resilience.activitymatrix.moa.ParcelStatusElement;
+import net.fhirfactory.pegacorn.petasos.model.resilience.parcel.ResilienceParcelIdentifier;
 import net.fhirfactory.pegacorn.petasos.model.wup.WUPFunctionToken;
-import net.fhirfactory.pegacorn.petasos.model.wup.WUPFunctionTokenSet;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Iterator;
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
 
 /**
- * This class is the Cache Data Manager (CacheDM) for the ServiceModule WorkUnitActivity Episode ID
- * finalisation map. This map essentially allows for registration of WUPs that have registered interest
- * in the output UoW from a particular Episode. It then tracks when those "downstream" WUPs register a
- * new Episode ID for the processing out the output UoW from this "upstream" WorkUnitAcitivity Episode.
+ * This class is the Cache Data Manager (CacheDM) for the ServiceModule WorkUnitActivity finalisation map. This map
+ * essentially allows for registration of WUPs that have registered interest in the output UoW from a particular
+ * (upstream) ResilienceParcel. It then tracks when those "downstream" WUPs register a new Episode ID for the
+ * processing of the output UoW from this "upstream" ResilienceParcel.
  * <p>
- * It uses a ConcurrentHasMap to store a full list of all downstream WUP Registered instances:
- * ConcurrentHashMap<FDNToken, WUAEpisodeFinalisationRegistrationStatus> downstreamRegistrationStatusSet
- where the FDNToken is the WUPInstanceID and the WUAEpisodeFinalisationRegistrationStatus is their
- registration status.
- <p>
- * It also uses a ConcurrentHashMap to store a list of WUPs that have registered to consume the specific
- * UoW of the current WUAEpisodeID
- * ConcurrentHashMap<FDNToken, FDNTokenSet> downstreamWUPRegistrationMap
- where the FDNToken is the EpisodeID and the FDNTokenSet is the list of WUPInstanceIDs for the downstream WUPS.
+ * It uses a ConcurrentHashMap to store a WUAEpisodeFinalisationState per (upstream) Parcel:
+ * ConcurrentHashMap<ResilienceParcelIdentifier, WUAEpisodeFinalisationState> parcelFinalisationStateMap
+ * where the WUAEpisodeFinalisationState holds the registration status of each downstream WUP Function
+ * and a count of the successor Episode IDs (one per UoW routed to a downstream WUP) yet to be registered. The state is
+ * keyed by Parcel rather than by Episode, as an Episode (WUP Function + UoW Type) is shared by every UoW of that
+ * type processed by the WUP - and each of those UoWs is fanned-out (and so finalised) independently.
+ * <p>
+ * All updates for a Parcel are performed within ConcurrentHashMap.compute() - so registrations against
+ * different Parcels never contend with one another - and the finalisation check is simply a read of the
+ * Parcel's outstanding count.
  *
  * @author Mark A. Hunter
  * @since 2020.07.01
@@ -59,83 +63,197 @@ import javax.enterprise.context.ApplicationScoped;
 public class ProcessingPlantWUAEpisodeFinalisationCacheDM {
     private static final Logger LOG = LoggerFactory.getLogger(ProcessingPlantWUAEpisodeFinalisationCacheDM.class);
 
-    private ConcurrentHashMap<EpisodeIdentifier, WUAEpisodeFinalisationRegistrationStatus> downstreamRegistrationStatusSet;
-    private ConcurrentHashMap<EpisodeIdentifier, WUPFunctionTokenSet> downstreamWUPRegistrationMap;
-    private Object wupRegistrationSetLock;
+    private ConcurrentHashMap<ResilienceParcelIdentifier, WUAEpisodeFinalisationState> parcelFinalisationStateMap;
+
+    @Inject
+    ProcessingPlantParcelJournal parcelJournal;
+
+    @Inject
+    ProcessingPlantWUAEpisodeActivityMatrixDM activityMatrixDM;
 
     /**
      * The default constructor. This function merely initialises all the various to non-null states,
      * including instantiation of the ConcurrentHashMaps used for caching the data.
      */
     public ProcessingPlantWUAEpisodeFinalisationCacheDM() {
-        downstreamRegistrationStatusSet = new ConcurrentHashMap<EpisodeIdentifier, WUAEpisodeFinalisationRegistrationStatus>();
-        downstreamWUPRegistrationMap = new ConcurrentHashMap<EpisodeIdentifier, WUPFunctionTokenSet>();
-        wupRegistrationSetLock = new Object();
+        parcelFinalisationStateMap = new ConcurrentHashMap<ResilienceParcelIdentifier, WUAEpisodeFinalisationState>();
     }
 
     /**
-     * This function allows for the Registration of a WUPInstance as a consumer of the UoW from the given EpisodeID.
+     * This function allows for the Registration of a WUPInstance as a consumer of the UoW from the given (upstream) Parcel.
      * <p>
-     * It first adds the WUP Instance to the complete registration set by first creating a WUAEpisodeFinalisationRegistrationStatus
-     * for it and then adding it to the downstreamRegistrationStatusSet ConcurrentHashMap using the WUPInstanceID as the key.
-     * <p>
-     * It then adds the WUPInstanceID to the FDNTokenSet associated with the WUA EpisodeID for tracking - as stored in the
-     * downstreamWUPRegistrationMap cache - which uses the WUA EpisodeID as the key.
+     * It creates (if required) the WUAEpisodeFinalisationState for the Parcel and then registers the WUP Function
+     * within it, incrementing the Parcel's outstanding downstream count.
      * <p>
      * It should be noted that this registration is performed by the PetasosIntersection elements - as it is only at the point
      * of Egress from the WUP processing is it known if a particular UoW is (successfully produced) by a WUP Instance.
      *
-     * @param wuaEpisodeID            The WUA Episode ID (that generates the output UoW which we are tracking the finalisation of the associated parcel of)
-     * @param downstreamWUPFunctionId The WUP Function that will consuming the UoW and, therefore, is a downstream consumer of the output of this WUA Episode.
+     * @param upstreamParcelID        The ResilienceParcel ID (that generates the output UoW which we are tracking the finalisation of)
+     * @param wuaEpisodeID            The WUA Episode ID of the upstream Parcel
+     * @param downstreamWUPFunctionId The WUP Function that will consuming the UoW and, therefore, is a downstream consumer of the output of this Parcel.
      */
-    public void registerDownstreamWUPInterest(EpisodeIdentifier wuaEpisodeID, WUPFunctionToken downstreamWUPFunctionId) {
-        LOG.debug(".registerDownstreamWUPInterest(): Entry, wuaEpisodeID --> {}, downstreamWUPFunctionId --> {}", wuaEpisodeID, downstreamWUPFunctionId);
-        if ((wuaEpisodeID == null) || (downstreamWUPFunctionId == null)) {
-            throw (new IllegalArgumentException(".registerDownstreamWUPInterest(): wuaEpisodeID or downstreamWUPFunctionId are null"));
+    public void registerDownstreamWUPInterest(ResilienceParcelIdentifier upstreamParcelID, EpisodeIdentifier wuaEpisodeID, WUPFunctionToken downstreamWUPFunctionId) {
+        LOG.debug(".registerDownstreamWUPInterest(): Entry, upstreamParcelID --> {}, downstreamWUPFunctionId --> {}", upstreamParcelID, downstreamWUPFunctionId);
+        if ((upstreamParcelID == null) || (downstreamWUPFunctionId == null)) {
+            throw (new IllegalArgumentException(".registerDownstreamWUPInterest(): upstreamParcelID or downstreamWUPFunctionId are null"));
         }
-        synchronized (wupRegistrationSetLock) {
-            if(!downstreamRegistrationStatusSet.containsKey(wuaEpisodeID)) {
-                WUAEpisodeFinalisationRegistrationStatus newRegistrationStatusElement = new WUAEpisodeFinalisationRegistrationStatus(downstreamWUPFunctionId);
-                downstreamRegistrationStatusSet.put(wuaEpisodeID,newRegistrationStatusElement );
+        parcelFinalisationStateMap.compute(upstreamParcelID, (parcelKey, parcelState) -> {
+            if (parcelState == null) {
+                parcelState = new WUAEpisodeFinalisationState(parcelKey, wuaEpisodeID);
             }
-            if (downstreamWUPRegistrationMap.containsKey(wuaEpisodeID)) {
-                WUPFunctionTokenSet downstreamEpisode2WUPSet = downstreamWUPRegistrationMap.get(wuaEpisodeID);
-                downstreamEpisode2WUPSet.addElement(downstreamWUPFunctionId);
-            } else {
-                WUPFunctionTokenSet downstreamEpisode2WUPSet = new WUPFunctionTokenSet();
-                downstreamEpisode2WUPSet.addElement(downstreamWUPFunctionId);
-                downstreamWUPRegistrationMap.put(wuaEpisodeID, downstreamEpisode2WUPSet);
+            parcelState.registerInterest(downstreamWUPFunctionId);
+            return (parcelState);
+        });
+        parcelJournal.journalDownstreamWUPInterest(upstreamParcelID, wuaEpisodeID, downstreamWUPFunctionId);
+    }
+
+    /**
+     * This function allows for the Registration of the complete fan-out of the UoW(s) from the given (upstream) Parcel.
+     * It is the bulk equivalent of registerDownstreamWUPInterest(ResilienceParcelIdentifier, EpisodeIdentifier,
+     * WUPFunctionToken) and is used by the Interchange, which registers the subscribers of ALL the egress payloads of
+     * the Parcel's UoW (within a single, per Parcel, atomic update) before any of the derived UoWs is dispatched - so the
+     * Parcel can't be completed by the subscribers of the first payloads while later payloads are still being routed.
+     * <p>
+     * Each element of the list is one expected successor Episode - a WUP Function that subscribes to several of the
+     * egress payloads appears once per payload.
+     *
+     * @param upstreamParcelID            The ResilienceParcel ID (that generates the output UoW which we are tracking the finalisation of)
+     * @param wuaEpisodeID                The WUA Episode ID of the upstream Parcel
+     * @param downstreamWUPFunctionFanOut The WUP Functions that will be consuming the UoW(s), one entry per routed UoW.
+     */
+    public void registerDownstreamWUPFanOut(ResilienceParcelIdentifier upstreamParcelID, EpisodeIdentifier wuaEpisodeID, List<WUPFunctionToken> downstreamWUPFunctionFanOut) {
+        LOG.debug(".registerDownstreamWUPFanOut(): Entry, upstreamParcelID --> {}, downstreamWUPFunctionFanOut --> {}", upstreamParcelID, downstreamWUPFunctionFanOut);
+        if ((upstreamParcelID == null) || (downstreamWUPFunctionFanOut == null)) {
+            throw (new IllegalArgumentException(".registerDownstreamWUPFanOut(): upstreamParcelID or downstreamWUPFunctionFanOut are null"));
+        }
+        if (downstreamWUPFunctionFanOut.isEmpty()) {
+            LOG.debug(".registerDownstreamWUPFanOut(): Exit, downstreamWUPFunctionFanOut is empty, nothing to register");
+            return;
+        }
+        parcelFinalisationStateMap.compute(upstreamParcelID, (parcelKey, parcelState) -> {
+            if (parcelState == null) {
+                parcelState = new WUAEpisodeFinalisationState(parcelKey, wuaEpisodeID);
+            }
+            for (WUPFunctionToken downstreamWUPFunctionId : downstreamWUPFunctionFanOut) {
+                parcelState.registerInterest(downstreamWUPFunctionId);
             }
+            return (parcelState);
+        });
+        for (WUPFunctionToken downstreamWUPFunctionId : downstreamWUPFunctionFanOut) {
+            parcelJournal.journalDownstreamWUPInterest(upstreamParcelID, wuaEpisodeID, downstreamWUPFunctionId);
         }
+        LOG.debug(".registerDownstreamWUPFanOut(): Exit");
     }
 
     /**
-     * This function allows for the Registration of a "downstream" EpisodeID as a consumer of the UoW from the given EpisodeID.
+     * This function allows for the Registration of a "downstream" EpisodeID as a consumer of the UoW from the given (upstream) Parcel.
+     * <p>
+     * Once a "downstream" Episode ID has been registered, the "upstream" Parcel can assume that the Petasos framework will ensure that
+     * it will be processed. Therefore, once ALL the potential "downstream" Episodes are registered, this "upstream" Parcel can be
+     * considered as "Finalised".
      * <p>
-     * Once a "downstream" Episode ID has been registered, the "upstream" Episode can assume that the Petasos framework will ensure that
-     * it will be processed. Therefore, once ALL the potential "downstream" Episodes are registered, this "upstream" can be considered as
-     * "Finalised".
+     * The return value is true for exactly one caller per Parcel - the one whose registration brought the Parcel's outstanding
+     * downstream count to zero - and so can be used to trigger the finalisation of the "upstream" Parcel. A registration for a Parcel
+     * with no finalisation state (no interest was registered, or it has already been finalised) is ignored.
      *
-     * @param originalEpisodeID       The WUA Episode ID (that generates the output UoW which we are tracking the finalisation of the associated parcel of)
-     * @param downstreamWUPFunctionID The WUP Instance that will consuming the UoW and, therefore, is a downstream consumer of the output of this WUA Episode.
+     * @param upstreamParcelID        The ResilienceParcel ID (that generates the output UoW which we are tracking the finalisation of)
+     * @param downstreamWUPFunctionID The WUP Instance that will consuming the UoW and, therefore, is a downstream consumer of the output of this Parcel.
      * @param downstreamEpisodeID     The new WUA Episode ID creating by the WUP (and, therefore, synchronised across the WHOLE deployment).
+     * @return True if this registration completed the "upstream" Parcel (i.e. it can now be finalised), false otherwise.
+     */
+    public boolean registerDownstreamEpisodeID(ResilienceParcelIdentifier upstreamParcelID, WUPFunctionToken downstreamWUPFunctionID, EpisodeIdentifier downstreamEpisodeID) {
+        LOG.debug(".registerDownstreamEpisodeID(): Entry, upstreamParcelID --> {}, downstreamWUPInstanceID --> {}, downstreamEpisodeID --> {} ", upstreamParcelID, downstreamWUPFunctionID, downstreamEpisodeID);
+        if ((upstreamParcelID == null) || (downstreamWUPFunctionID == null) || (downstreamEpisodeID == null)) {
+            throw (new IllegalArgumentException(".registerDownstreamEpisodeID(): upstreamParcelID, downstreamWUPInstanceID, downstreamEpisodeID are null"));
+        }
+        AtomicBoolean parcelCompleted = new AtomicBoolean(false);
+        WUAEpisodeFinalisationState parcelState = parcelFinalisationStateMap.computeIfPresent(upstreamParcelID, (parcelKey, currentState) -> {
+            parcelCompleted.set(currentState.registerDownstreamEpisodeID(downstreamWUPFunctionID, downstreamEpisodeID));
+            return (currentState);
+        });
+        if (parcelState == null) {
+            LOG.debug(".registerDownstreamEpisodeID(): Exit, no finalisation state for the upstream Parcel, ignoring");
+            return (false);
+        }
+        parcelJournal.journalDownstreamEpisodeID(upstreamParcelID, parcelState.getEpisodeID(), downstreamWUPFunctionID, downstreamEpisodeID);
+        LOG.debug(".registerDownstreamEpisodeID(): Exit, parcelCompleted --> {}", parcelCompleted.get());
+        return (parcelCompleted.get());
+    }
+
+    /**
+     * This function removes the finalisation state for the given (upstream) Parcel from the cache. It is invoked once the
+     * Parcel has actually been finalised (a completed Parcel that isn't yet finished keeps its state, see
+     * checkForCompletedParcel()).
+     *
+     * @param upstreamParcelID The ResilienceParcel ID whose finalisation state is to be removed.
      */
-    public void registerDownstreamEpisodeID(EpisodeIdentifier originalEpisodeID, WUPFunctionToken downstreamWUPFunctionID, EpisodeIdentifier downstreamEpisodeID) {
-        LOG.debug(".registerDownstreamEpisodeID(): Entry, originalEpisodeID --> {}, downstreamWUPInstanceID --> {}, downstreamEpisodeID --> {} ", originalEpisodeID, downstreamWUPFunctionID, downstreamEpisodeID);
-        if ((originalEpisodeID == null) || (downstreamWUPFunctionID == null) || (downstreamEpisodeID == null)) {
-            throw (new IllegalArgumentException(".registerDownstreamEpisodeID(): originalEpisodeID, downstreamWUPInstanceID, downstreamEpisodeID are null"));
+    public void removeParcel(ResilienceParcelIdentifier upstreamParcelID) {
+        LOG.debug(".removeParcel(): Entry, upstreamParcelID --> {}", upstreamParcelID);
+        if (upstreamParcelID == null) {
+            return;
         }
-        WUAEpisodeFinalisationRegistrationStatus wupInstanceFinalisationStatus;
-        if (!downstreamRegistrationStatusSet.containsKey(downstreamWUPFunctionID)) {
-            registerDownstreamWUPInterest(originalEpisodeID, downstreamWUPFunctionID);
+        if (parcelFinalisationStateMap.remove(upstreamParcelID) != null) {
+            parcelJournal.journalFinalisationStateRemoval(upstreamParcelID);
         }
-        wupInstanceFinalisationStatus = downstreamRegistrationStatusSet.get(downstreamWUPFunctionID);
-        wupInstanceFinalisationStatus.setActualDownstreamEpisodeID(downstreamEpisodeID);
     }
 
     /**
-     * This function parses all the FinalisationStatus elements associated to the WUA Episode ID and, if all are Finalised - returns true,
-     * otherwise, it returns false.
+     * This function passes each (upstream) Parcel's WUAEpisodeFinalisationState to the consumer. The iteration is
+     * weakly consistent (the map is not locked), which is sufficient for (fuzzy) journal snapshots.
+     *
+     * @param parcelStateConsumer The consumer of the WUAEpisodeFinalisationStates
+     */
+    public void snapshotFinalisationStates(Consumer<WUAEpisodeFinalisationState> parcelStateConsumer) {
+        LOG.debug(".snapshotFinalisationStates(): Entry");
+        parcelFinalisationStateMap.values().forEach(parcelStateConsumer);
+    }
+
+    /**
+     * This function returns true if all the downstream WUPs registered against the (upstream) Parcel have registered a
+     * successor Episode ID (i.e. the Parcel's outstanding downstream count is zero), otherwise, it returns false.
+     *
+     * @param upstreamParcelID The ResilienceParcel ID that we would like to know if all the downstream WUPs have registered a successor WUA Episode ID for.
+     * @return True if all downstream WUPs have registered a new WUA Episode ID (for a successor task), false if one or more haven't.
+     */
+    public boolean checkForParcelFinalisation(ResilienceParcelIdentifier upstreamParcelID) {
+        LOG.debug(".checkForParcelFinalisation(): Entry, upstreamParcelID --> {} ", upstreamParcelID);
+        if (upstreamParcelID == null) {
+            LOG.debug(".checkForParcelFinalisation(): upstreamParcelID parameter is null, returning false");
+            return (false);
+        }
+        WUAEpisodeFinalisationState parcelState = parcelFinalisationStateMap.get(upstreamParcelID);
+        if (parcelState == null) {
+            LOG.debug(".checkForParcelFinalisation(): If there are no registered downstream WUPs, then - by default - it's finalised! Returning -true-");
+            return (true);
+        }
+        boolean isFinalised = parcelState.isFinalised();
+        LOG.debug(".checkForParcelFinalisation(): Exit, outstanding downstream count --> {}, returning --> {}", parcelState.getOutstandingDownstreamCount(), isFinalised);
+        return (isFinalised);
+    }
+
+    /**
+     * This function returns true if the (upstream) Parcel has finalisation state and every successor Episode ID expected
+     * by that state has been registered - i.e. the Parcel was completed by its downstream WUPs, but (as it is still held)
+     * hasn't yet been finalised. Unlike checkForParcelFinalisation(), a Parcel without any state is NOT reported, as its
+     * fan-out may simply not have been registered yet.
+     *
+     * @param upstreamParcelID The ResilienceParcel ID
+     * @return True if the Parcel is completed and awaiting finalisation, false otherwise
+     */
+    public boolean checkForCompletedParcel(ResilienceParcelIdentifier upstreamParcelID) {
+        LOG.debug(".checkForCompletedParcel(): Entry, upstreamParcelID --> {} ", upstreamParcelID);
+        if (upstreamParcelID == null) {
+            return (false);
+        }
+        WUAEpisodeFinalisationState parcelState = parcelFinalisationStateMap.get(upstreamParcelID);
+        boolean isCompleted = (parcelState != null) && parcelState.isFinalised();
+        LOG.debug(".checkForCompletedParcel(): Exit, returning --> {}", isCompleted);
+        return (isCompleted);
+    }
+
+    /**
+     * This function returns true if, for every Parcel of the WUA Episode, all the downstream WUPs have registered a
+     * successor Episode ID, otherwise, it returns false.
      *
      * @param wuaEpisodeID The Episode ID that we would like to know if all the downstream WUPs have registered a successor WUA Episode ID for.
      * @return True if all downstream WUPs have registered a new WUA Episode ID (for a successor task), false if one or more haven't.
@@ -146,23 +264,13 @@ public class ProcessingPlantWUAEpisodeFinalisationCacheDM {
             LOG.debug(".checkForEpisodeFinalisation(): wuaEpisodeID parameter is null, returning false");
             return(false);
         }
-        WUPFunctionTokenSet downstreamEpisode2WUPSet = downstreamWUPRegistrationMap.get(wuaEpisodeID);
-        if(downstreamEpisode2WUPSet.isEmpty()){
-            LOG.debug(".checkForEpisodeFinalisation(): If there are no registered downstream WUPs, then - by default - it's finalised! Returning -true-");
-            return(true);
-        }
-        Iterator<WUPFunctionToken> wupInstanceIDIterator = downstreamEpisode2WUPSet.getElements().iterator();
-        while(wupInstanceIDIterator.hasNext()){
-            WUPFunctionToken wupInstanceID = wupInstanceIDIterator.next();
-            if(downstreamRegistrationStatusSet.containsKey(wupInstanceID)) {
-                WUAEpisodeFinalisationRegistrationStatus finalisationRegistrationStatus = downstreamRegistrationStatusSet.get(wupInstanceID);
-                if (finalisationRegistrationStatus.getRegistrationStatus() == WUAEpisodeFinalisationRegistrationStatusEnum.DOWNSTREAM_EPISODE_ID_NOT_REGISTERED) {
-                    LOG.debug(".checkForEpisodeFinalisation(): If any single registered downstream WUP has registered a successor WUA Episode ID, then it is finalised! Returning -false-");
-                    return (false);
-                }
+        for (ParcelStatusElement episodeElement : activityMatrixDM.getEpisodeElementSet(new EpisodeIdentifier(wuaEpisodeID))) {
+            if (!checkForParcelFinalisation(episodeElement.getParcelInstanceID())) {
+                LOG.debug(".checkForEpisodeFinalisation(): Exit, parcel --> {} is not finalised, returning -false-", episodeElement.getParcelInstanceID());
+                return (false);
             }
         }
-        LOG.debug(".checkForEpisodeFinalisation(): It seems that ALL dowstream WUPs have registered successor WUA Episode IDs - returning -true-");
+        LOG.debug(".checkForEpisodeFinalisation(): Exit, returning -true-");
         return(true);
     }
 }
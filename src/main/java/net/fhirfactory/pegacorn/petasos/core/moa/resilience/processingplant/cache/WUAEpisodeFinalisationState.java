@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.core.moa.resilience.processingplant.cache;
+
+import net.fhirfactory.pegacorn.petasos.model.resilience.activitymatrix.moa.EpisodeIdentifier;
+import net.fhirfactory.pegacorn.petasos.model.resilience.activitymatrix.moa.WUAEpisodeFinalisationRegistrationStatus;
+import net.fhirfactory.pegacorn.petasos.model.resilience.parcel.ResilienceParcelIdentifier;
+import net.fhirfactory.pegacorn.petasos.model.wup.WUPFunctionToken;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class holds the finalisation state for a single (upstream) ResilienceParcel of a WUA Episode. That is,
+ * the registration status of each downstream WUP Function that has an interest in the output UoW(s) of the
+ * Parcel, the number of successor Episode IDs expected from (and still outstanding for) each of them, and a
+ * count of all the successor Episode IDs that are yet to be registered. A WUP Function is expected to register
+ * once per UoW routed to it - the Interchange may route several of the Parcel's egress payloads to the same
+ * WUP. It is held per Parcel (rather than per Episode) as an Episode is shared by every UoW of the same type
+ * processed by the same WUP.
+ * <p>
+ * All mutations are expected to be performed from within a ConcurrentHashMap.compute() on the
+ * owning map (see ProcessingPlantWUAEpisodeFinalisationCacheDM), which serialises changes per
+ * Parcel. The outstanding count is atomic so that it can be read without any locking.
+ *
+ * @author Mark A. Hunter
+ * @since 2020-08-01
+ */
+public class WUAEpisodeFinalisationState {
+    private ResilienceParcelIdentifier upstreamParcelID;
+    private EpisodeIdentifier episodeID;
+    private ConcurrentHashMap<WUPFunctionToken, WUAEpisodeFinalisationRegistrationStatus> downstreamRegistrationStatusMap;
+    private ConcurrentHashMap<WUPFunctionToken, Integer> expectedRegistrationCountMap;
+    private ConcurrentHashMap<WUPFunctionToken, Integer> outstandingRegistrationCountMap;
+    private AtomicInteger outstandingDownstreamCount;
+
+    public WUAEpisodeFinalisationState(ResilienceParcelIdentifier upstreamParcelID, EpisodeIdentifier episodeID){
+        this.upstreamParcelID = upstreamParcelID;
+        this.episodeID = episodeID;
+        this.downstreamRegistrationStatusMap = new ConcurrentHashMap<WUPFunctionToken, WUAEpisodeFinalisationRegistrationStatus>();
+        this.expectedRegistrationCountMap = new ConcurrentHashMap<WUPFunctionToken, Integer>();
+        this.outstandingRegistrationCountMap = new ConcurrentHashMap<WUPFunctionToken, Integer>();
+        this.outstandingDownstreamCount = new AtomicInteger(0);
+    }
+
+    /**
+     * Registers a downstream WUP Function's interest in (one UoW of) the Parcel. Each registration adds one
+     * expected successor Episode ID, so a WUP Function that is routed several UoWs from the Parcel is
+     * registered once per UoW.
+     *
+     * @param downstreamWUPFunctionID The downstream WUP Function
+     * @return True if this is the first registration of the WUP Function, false otherwise
+     */
+    public boolean registerInterest(WUPFunctionToken downstreamWUPFunctionID){
+        boolean isNewFunction = !downstreamRegistrationStatusMap.containsKey(downstreamWUPFunctionID);
+        if(isNewFunction){
+            downstreamRegistrationStatusMap.put(downstreamWUPFunctionID, new WUAEpisodeFinalisationRegistrationStatus(downstreamWUPFunctionID));
+        }
+        expectedRegistrationCountMap.merge(downstreamWUPFunctionID, 1, Integer::sum);
+        outstandingRegistrationCountMap.merge(downstreamWUPFunctionID, 1, Integer::sum);
+        outstandingDownstreamCount.incrementAndGet();
+        return(isNewFunction);
+    }
+
+    /**
+     * Registers a successor (downstream) Episode ID for a downstream WUP Function. A registration from a WUP
+     * Function that has no outstanding (expected) registration is recorded but doesn't change the outstanding
+     * count - so it can never complete the Parcel a second time.
+     *
+     * @param downstreamWUPFunctionID The downstream WUP Function
+     * @param downstreamEpisodeID The Episode ID created by the downstream WUP Function
+     * @return True if this registration brought the outstanding count to zero, false otherwise
+     */
+    public boolean registerDownstreamEpisodeID(WUPFunctionToken downstreamWUPFunctionID, EpisodeIdentifier downstreamEpisodeID){
+        WUAEpisodeFinalisationRegistrationStatus registrationStatus = downstreamRegistrationStatusMap.get(downstreamWUPFunctionID);
+        if(registrationStatus == null){
+            registrationStatus = new WUAEpisodeFinalisationRegistrationStatus(downstreamWUPFunctionID);
+            downstreamRegistrationStatusMap.put(downstreamWUPFunctionID, registrationStatus);
+        }
+        registrationStatus.setActualDownstreamEpisodeID(downstreamEpisodeID);
+        int outstandingRegistrations = outstandingRegistrationCountMap.getOrDefault(downstreamWUPFunctionID, 0);
+        if(outstandingRegistrations > 0){
+            outstandingRegistrationCountMap.put(downstreamWUPFunctionID, outstandingRegistrations - 1);
+            return(outstandingDownstreamCount.decrementAndGet() == 0);
+        }
+        return(false);
+    }
+
+    public boolean isFinalised(){
+        return(outstandingDownstreamCount.get() == 0);
+    }
+
+    public int getOutstandingDownstreamCount(){
+        return(outstandingDownstreamCount.get());
+    }
+
+    /**
+     * @param downstreamWUPFunctionID The downstream WUP Function
+     * @return The number of successor Episode IDs expected from the WUP Function (i.e. the number of UoWs routed to it)
+     */
+    public int getExpectedRegistrationCount(WUPFunctionToken downstreamWUPFunctionID){
+        if(downstreamWUPFunctionID == null){
+            return(0);
+        }
+        return(expectedRegistrationCountMap.getOrDefault(downstreamWUPFunctionID, 0));
+    }
+
+    /**
+     * @param downstreamWUPFunctionID The downstream WUP Function
+     * @return The number of successor Episode IDs still to be registered by the WUP Function
+     */
+    public int getOutstandingRegistrationCount(WUPFunctionToken downstreamWUPFunctionID){
+        if(downstreamWUPFunctionID == null){
+            return(0);
+        }
+        return(outstandingRegistrationCountMap.getOrDefault(downstreamWUPFunctionID, 0));
+    }
+
+    public ResilienceParcelIdentifier getUpstreamParcelID() {
+        return upstreamParcelID;
+    }
+
+    public EpisodeIdentifier getEpisodeID() {
+        return episodeID;
+    }
+
+    /**
+     * @return A copy of the set of downstream WUP Functions registered against the Parcel
+     */
+    public Set<WUPFunctionToken> getDownstreamWUPFunctionSet(){
+        return(new HashSet<WUPFunctionToken>(downstreamRegistrationStatusMap.keySet()));
+    }
+
+    public WUAEpisodeFinalisationRegistrationStatus getRegistrationStatus(WUPFunctionToken downstreamWUPFunctionID){
+        if(downstreamWUPFunctionID == null){
+            return(null);
+        }
+        return(downstreamRegistrationStatusMap.get(downstreamWUPFunctionID));
+    }
+}
@@ -22,12 +22,14 @@
 
 package net.fhirfactory.pegacorn.petasos.core.moa.resilience.processingplant.manager;
 
-import net.fhirfactory.pegacorn.petasos.model.resilience.activitymatrix.moa.EpisodeIdentifier;
 import net.fhirfactory.pegacorn.petasos.model.resilience.parcel.ResilienceParcelIdentifier;
 import net.fhirfactory.pegacorn.petasos.core.moa.resilience.processingplant.cache.ProcessingPlantWUAEpisodeActivityMatrixDM;
 import net.fhirfactory.pegacorn.petasos.core.moa.resilience.processingplant.cache.ProcessingPlantWUAEpisodeFinalisationCacheDM;
+import net.fhirfactory.pegacorn.petasos.core.moa.resilience.processingplant.manager.tasks.FinaliseMOAWorkUnitActivityEpisodeTask;
+import net.fhirfactory.pegacorn.petasos.core.moa.resilience.processingplant.manager.tasks.RecoverMOAWorkUnitActivityJournalTask;
 import net.fhirfactory.pegacorn.petasos.core.moa.resilience.processingplant.manager.tasks.RegisterNewMOAWorkUnitActivityTask;
 import net.fhirfactory.pegacorn.petasos.core.moa.resilience.processingplant.manager.tasks.SynchroniseMOAWorkUnitActivityJobCardTask;
+import net.fhirfactory.pegacorn.petasos.model.pathway.ActivityID;
 import net.fhirfactory.pegacorn.petasos.model.resilience.activitymatrix.moa.ParcelStatusElement;
 import net.fhirfactory.pegacorn.petasos.model.wup.WUPFunctionToken;
 import net.fhirfactory.pegacorn.petasos.model.wup.WUPJobCard;
@@ -37,6 +39,7 @@ import org.slf4j.LoggerFactory;
 
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
+import java.util.List;
 
 /**
  *
@@ -59,6 +62,18 @@ public class ProcessingPlantResilienceActivityServicesController {
     @Inject
     SynchroniseMOAWorkUnitActivityJobCardTask taskSynchroniseWUA;
 
+    @Inject
+    FinaliseMOAWorkUnitActivityEpisodeTask taskFinaliseEpisode;
+
+    @Inject
+    RecoverMOAWorkUnitActivityJournalTask taskRecoverJournal;
+
+    public void recoverInFlightActivity() {
+        // rebuild the local caches from the (write-ahead) journal before any new activity is registered - normally
+        // already done at startup, in which case this is a no-op
+        taskRecoverJournal.recoverFromJournal();
+    }
+
 
     public ParcelStatusElement registerNewWorkUnitActivity(WUPJobCard jobCard) {
         LOG.debug(".registerNewWorkUnitActivity(): Entry, activityID --> {}, statusEnum --> {}", jobCard);
@@ -67,6 +82,7 @@ public class ProcessingPlantResilienceActivityServicesController {
         }
         ParcelStatusElement parcelStatusElement = wuaRegistry.registerNewWUA(jobCard);
         synchroniseJobCard(jobCard);
+        registerWUAEpisodeAsDownstreamEpisode(jobCard.getActivityID());
         LOG.debug(".registerNewWorkUnitActivity(): Exit, parcelStatusElement --> {}", parcelStatusElement);
         return (parcelStatusElement);
     }
@@ -87,8 +103,66 @@ public class ProcessingPlantResilienceActivityServicesController {
         return(retrievedElement);
     }
 
-    public void registerWUAEpisodeDownstreamWUPInterest(EpisodeIdentifier wuaEpisodeID, WUPFunctionToken downstreamWUPInstanceID) {
-        finalisationCacheDM.registerDownstreamWUPInterest(wuaEpisodeID,downstreamWUPInstanceID);
+    /**
+     * This function registers the downstream WUP Function's interest in the output UoW of the (present) Parcel of
+     * the upstream ActivityID.
+     *
+     * @param upstreamActivityID The ActivityID of the WUA that produced the UoW
+     * @param downstreamWUPFunctionID The WUP Function that will consume the UoW
+     */
+    public void registerWUAEpisodeDownstreamWUPInterest(ActivityID upstreamActivityID, WUPFunctionToken downstreamWUPFunctionID) {
+        finalisationCacheDM.registerDownstreamWUPInterest(upstreamActivityID.getPresentParcelIdentifier(), upstreamActivityID.getPresentEpisodeIdentifier(), downstreamWUPFunctionID);
+    }
+
+    /**
+     * This function registers the complete fan-out of the output UoW(s) of the (present) Parcel of the upstream
+     * ActivityID - it must be invoked before any of the UoWs is dispatched to the downstream WUPs.
+     *
+     * @param upstreamActivityID The ActivityID of the WUA that produced the UoW(s)
+     * @param downstreamWUPFunctionFanOut The WUP Functions that will consume the UoW(s), one entry per routed UoW
+     */
+    public void registerWUAEpisodeDownstreamWUPFanOut(ActivityID upstreamActivityID, List<WUPFunctionToken> downstreamWUPFunctionFanOut) {
+        finalisationCacheDM.registerDownstreamWUPFanOut(upstreamActivityID.getPresentParcelIdentifier(), upstreamActivityID.getPresentEpisodeIdentifier(), downstreamWUPFunctionFanOut);
+    }
+
+    /**
+     * This function finalises the (present) Parcel of the ActivityID if its downstream WUPs completed it before it
+     * had finished (in which case the finalisation was deferred). It should be invoked once the Parcel has finished.
+     *
+     * @param activityID The ActivityID of the (finished) WUA
+     */
+    public void finaliseWUAParcelIfCompleted(ActivityID activityID) {
+        LOG.debug(".finaliseWUAParcelIfCompleted(): Entry, activityID --> {}", activityID);
+        if ((activityID == null) || (activityID.getPresentParcelIdentifier() == null)) {
+            return;
+        }
+        if (finalisationCacheDM.checkForCompletedParcel(activityID.getPresentParcelIdentifier())) {
+            LOG.trace(".finaliseWUAParcelIfCompleted(): Parcel was already completed by its downstream WUPs, finalising --> {}", activityID.getPresentParcelIdentifier());
+            taskFinaliseEpisode.finaliseParcel(activityID.getPresentParcelIdentifier());
+        }
+        LOG.debug(".finaliseWUAParcelIfCompleted(): Exit");
+    }
+
+    /**
+     * This function registers the (present) Episode of a newly registered WUA as the successor Episode of its
+     * "upstream" Parcel. If that completes the set of downstream registrations for the "upstream" Parcel, that
+     * Parcel (only) is finalised immediately.
+     *
+     * @param activityID The ActivityID of the newly registered WUA
+     */
+    public void registerWUAEpisodeAsDownstreamEpisode(ActivityID activityID){
+        LOG.debug(".registerWUAEpisodeAsDownstreamEpisode(): Entry, activityID --> {}", activityID);
+        if((activityID.getPreviousParcelIdentifier() == null) || (activityID.getPresentEpisodeIdentifier() == null) || (activityID.getPresentWUPFunctionToken() == null)){
+            LOG.debug(".registerWUAEpisodeAsDownstreamEpisode(): Exit, no upstream Parcel to register against");
+            return;
+        }
+        WUPFunctionToken downstreamWUPFunctionToken = new WUPFunctionToken(activityID.getPresentWUPFunctionToken());
+        boolean upstreamParcelCompleted = finalisationCacheDM.registerDownstreamEpisodeID(activityID.getPreviousParcelIdentifier(), downstreamWUPFunctionToken, activityID.getPresentEpisodeIdentifier());
+        if(upstreamParcelCompleted){
+            LOG.trace(".registerWUAEpisodeAsDownstreamEpisode(): All downstream Episodes registered, finalising upstream Parcel --> {}", activityID.getPreviousParcelIdentifier());
+            taskFinaliseEpisode.finaliseParcel(activityID.getPreviousParcelIdentifier());
+        }
+        LOG.debug(".registerWUAEpisodeAsDownstreamEpisode(): Exit, upstreamParcelCompleted --> {}", upstreamParcelCompleted);
     }
 
 
@@ -22,9 +22,11 @@
 
 package net.fhirfactory.pegacorn.petasos.core.moa.resilience.processingplant.manager;
 
-import net.fhirfactory.pegacorn.common.model.FDN;
+import net.fhirfactory.pegacorn.petasos.core.common.clock.PetasosClock;
 import net.fhirfactory.pegacorn.petasos.audit.api.PetasosAuditWriter;
+import net.fhirfactory.pegacorn.petasos.core.common.identifiers.PetasosIdentifierFactory;
 import net.fhirfactory.pegacorn.petasos.core.common.resilience.processingplant.cache.ProcessingPlantParcelCacheDM;
+import net.fhirfactory.pegacorn.petasos.core.common.resilience.processingplant.journal.ProcessingPlantParcelJournal;
 import net.fhirfactory.pegacorn.petasos.model.pathway.ActivityID;
 import net.fhirfactory.pegacorn.petasos.model.resilience.activitymatrix.moa.EpisodeIdentifier;
 import net.fhirfactory.pegacorn.petasos.model.resilience.parcel.ResilienceParcelIdentifier;
@@ -37,7 +39,6 @@ import org.slf4j.LoggerFactory;
 
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
-import java.time.Instant;
 import java.util.Date;
 import javax.transaction.Transactional;
 
@@ -54,6 +55,12 @@ public class ProcessingPlantResilienceParcelServicesIM {
 
     @Inject
     PetasosAuditWriter auditWriter;
+
+    @Inject
+    ProcessingPlantParcelJournal parcelJournal;
+
+    @Inject
+    PetasosIdentifierFactory identifierFactory;
     
 
     @Transactional
@@ -83,10 +90,7 @@ public class ProcessingPlantResilienceParcelServicesIM {
         }
         LOG.trace(".registerParcel(): Checking and/or Creating a WUAEpisde ID");
         if(!activityID.hasPresentEpisodeIdentifier()) {
-        	FDN newWUAFDN = new FDN(activityID.getPresentWUPFunctionToken().getAsSingleFDNToken());
-        	FDN uowTypeFDN = new FDN(unitOfWork.getTypeID());
-        	newWUAFDN.appendFDN(uowTypeFDN);
-        	EpisodeIdentifier wuaEpisodeToken = new EpisodeIdentifier(newWUAFDN.getToken());
+        	EpisodeIdentifier wuaEpisodeToken = identifierFactory.getWUAEpisodeIdentifier(activityID.getPresentWUPFunctionToken(), unitOfWork.getTypeID());
         	activityID.setPresentEpisodeIdentifier(wuaEpisodeToken);
         }
         // 1st, lets register the parcel
@@ -100,13 +104,14 @@ public class ProcessingPlantResilienceParcelServicesIM {
             parcelCacheDM.addParcel(parcelInstance);
             LOG.trace(".registerParcel(): Set the PresentParcelInstanceID in the ActivityID (ActivityID), ParcelInstanceID --> {}", parcelInstance.getIdentifier());
             activityID.setPresentParcelIdentifier(parcelInstance.getIdentifier());
-            Date registrationDate = Date.from(Instant.now());
+            Date registrationDate = PetasosClock.now();
             LOG.trace(".registerParcel(): Set the Registration Date --> {}", registrationDate);
             parcelInstance.setRegistrationDate(registrationDate);
             LOG.trace(".registerParcel(): Set the Parcel Finalisation Status --> {} ", ResilienceParcelFinalisationStatusEnum.PARCEL_FINALISATION_STATUS_NOT_FINALISED);
             parcelInstance.setFinalisationStatus(ResilienceParcelFinalisationStatusEnum.PARCEL_FINALISATION_STATUS_NOT_FINALISED);
             LOG.trace(".registerParcel(): Set the Parcel Processing Status --> {}", ResilienceParcelProcessingStatusEnum.PARCEL_STATUS_REGISTERED);
             parcelInstance.setProcessingStatus(ResilienceParcelProcessingStatusEnum.PARCEL_STATUS_REGISTERED);
+            parcelJournal.journalParcel(parcelInstance);
             LOG.trace(".registerParcel(): Doing an Audit Write");
             auditWriter.writeAuditEntry(parcelInstance, synchronousWriteToAudit);
         }
@@ -143,13 +148,14 @@ public class ProcessingPlantResilienceParcelServicesIM {
         }
         LOG.trace(".notifyParcelProcessingStart(): retrieve existing Parcel");
         ResilienceParcel currentParcel = parcelCacheDM.getParcelInstance(parcelID);
-        Date startDate = Date.from(Instant.now());
+        Date startDate = PetasosClock.now();
         LOG.trace(".notifyParcelProcessingStart(): Set the Start Date --> {}", startDate);
         currentParcel.setStartDate(startDate);
         LOG.trace(".notifyParcelProcessingStart(): Set the Parcel Finalisation Status --> {} ", ResilienceParcelFinalisationStatusEnum.PARCEL_FINALISATION_STATUS_NOT_FINALISED);
         currentParcel.setFinalisationStatus(ResilienceParcelFinalisationStatusEnum.PARCEL_FINALISATION_STATUS_NOT_FINALISED);
         LOG.trace(".notifyParcelProcessingStart(): Set the Parcel Processing Status --> {}", ResilienceParcelProcessingStatusEnum.PARCEL_STATUS_ACTIVE);
         currentParcel.setProcessingStatus(ResilienceParcelProcessingStatusEnum.PARCEL_STATUS_ACTIVE);
+        parcelJournal.journalParcelStatus(currentParcel, false);
         // TODO Check to see if we should do an Audit Entry when we start processing (as well as when it is registered)
         // LOG.trace(".notifyParcelProcessingStart(): Doing an Audit Write, note that it is asynchronous by design");
         // auditWriter.writeAuditEntry(currentParcel,false);
@@ -173,13 +179,14 @@ public class ProcessingPlantResilienceParcelServicesIM {
             LOG.trace(".notifyParcelProcessingFinish(): update the UoW Processing Outcome --> {}", unitOfWork.getProcessingOutcome());
             currentParcel.getActualUoW().setProcessingOutcome(unitOfWork.getProcessingOutcome());
         }
-        Date finishDate = Date.from(Instant.now());
+        Date finishDate = PetasosClock.now();
         LOG.trace(".notifyParcelProcessingFinish(): Set the Finish Date --> {}", finishDate);
         currentParcel.setFinishedDate(finishDate);
         LOG.trace(".notifyParcelProcessingFinish(): Set the Parcel Finalisation Status --> {} ", ResilienceParcelFinalisationStatusEnum.PARCEL_FINALISATION_STATUS_NOT_FINALISED);
         currentParcel.setFinalisationStatus(ResilienceParcelFinalisationStatusEnum.PARCEL_FINALISATION_STATUS_NOT_FINALISED);
         LOG.trace(".notifyParcelProcessingFinish(): Set the Parcel Processing Status --> {}", ResilienceParcelProcessingStatusEnum.PARCEL_STATUS_FINISHED);
         currentParcel.setProcessingStatus(ResilienceParcelProcessingStatusEnum.PARCEL_STATUS_FINISHED);
+        parcelJournal.journalParcelStatus(currentParcel, true);
         // TODO Check to see if we should do an Audit Entry when we finish processing
         // LOG.trace(".notifyParcelProcessingFinish(): Doing an Audit Write, note that it is asynchronous by design");
         auditWriter.writeAuditEntry(currentParcel,true);
@@ -199,13 +206,14 @@ public class ProcessingPlantResilienceParcelServicesIM {
         currentParcel.getActualUoW().setEgressContent(unitOfWork.getEgressContent());
         LOG.trace(".notifyParcelProcessingFailure(): update the UoW Processing Outcome --> {}", unitOfWork.getProcessingOutcome());
         currentParcel.getActualUoW().setProcessingOutcome(unitOfWork.getProcessingOutcome());
-        Date finishDate = Date.from(Instant.now());
+        Date finishDate = PetasosClock.now();
         LOG.trace(".notifyParcelProcessingFailure(): Set the Finish Date --> {}", finishDate);
         currentParcel.setFinishedDate(finishDate);
         LOG.trace(".notifyParcelProcessingFailure(): Set the Parcel Finalisation Status --> {} ", ResilienceParcelFinalisationStatusEnum.PARCEL_FINALISATION_STATUS_NOT_FINALISED);
         currentParcel.setFinalisationStatus(ResilienceParcelFinalisationStatusEnum.PARCEL_FINALISATION_STATUS_NOT_FINALISED);
         LOG.trace(".notifyParcelProcessingFailure(): Set the Parcel Processing Status --> {}", ResilienceParcelProcessingStatusEnum.PARCEL_STATUS_FAILED);
         currentParcel.setProcessingStatus(ResilienceParcelProcessingStatusEnum.PARCEL_STATUS_FAILED);
+        parcelJournal.journalParcelStatus(currentParcel, true);
         LOG.trace(".notifyParcelProcessingFailure(): Doing an Audit Write, note that it is asynchronous by desgin");
         auditWriter.writeAuditEntry(currentParcel,false);
         LOG.debug(".notifyParcelProcessingFailure(): Exit, returning failed Parcel --> {}", currentParcel);
@@ -222,17 +230,18 @@ public class ProcessingPlantResilienceParcelServicesIM {
         ResilienceParcel currentParcel = parcelCacheDM.getParcelInstance(parcelID);
         LOG.trace(".notifyParcelProcessingFinalisation(): checking to see if finish date has been set and, if not, setting it");
         if(!currentParcel.hasFinishedDate()) {
-            Date finishDate = Date.from(Instant.now());
+            Date finishDate = PetasosClock.now();
             LOG.trace(".notifyParcelProcessingFinalisation(): Set the Finish Date --> {}", finishDate);
             currentParcel.setFinishedDate(finishDate);
         }
-        Date finalisationDate = Date.from(Instant.now());
+        Date finalisationDate = PetasosClock.now();
         LOG.trace(".notifyParcelProcessingFinalisation(): Set the Finalisation Date --> {}", finalisationDate);
         currentParcel.setFinalisationDate(finalisationDate);
         LOG.trace(".notifyParcelProcessingFinalisation(): Set the Parcel Finalisation Status --> {} ", ResilienceParcelFinalisationStatusEnum.PARCEL_FINALISATION_STATUS_FINALISED);
         currentParcel.setFinalisationStatus(ResilienceParcelFinalisationStatusEnum.PARCEL_FINALISATION_STATUS_FINALISED);
         LOG.trace(".notifyParcelProcessingFinalisation(): Set the Parcel Processing Status --> {}", ResilienceParcelProcessingStatusEnum.PARCEL_STATUS_FINALISED);
         currentParcel.setProcessingStatus(ResilienceParcelProcessingStatusEnum.PARCEL_STATUS_FINALISED);
+        parcelJournal.journalParcelStatus(currentParcel, false);
         LOG.trace(".notifyParcelProcessingFinalisation(): Doing an Audit Write, note that it is asynchronous by design");
         auditWriter.writeAuditEntry(currentParcel,false);
         LOG.debug(".notifyParcelProcessingFinalisation(): Exit, returning finished Parcel --> {}", currentParcel);
@@ -249,17 +258,18 @@ public class ProcessingPlantResilienceParcelServicesIM {
         ResilienceParcel currentParcel = parcelCacheDM.getParcelInstance(parcelID);
         LOG.trace(".notifyParcelProcessingCancellation(): checking to see if finish date has been set and, if not, setting it");
         if(!currentParcel.hasFinishedDate()) {
-            Date finishDate = Date.from(Instant.now());
+            Date finishDate = PetasosClock.now();
             LOG.trace(".notifyParcelProcessingCancellation(): Set the Finish Date --> {}", finishDate);
             currentParcel.setFinishedDate(finishDate);
         }
-        Date finalisationDate = Date.from(Instant.now());
+        Date finalisationDate = PetasosClock.now();
         LOG.trace(".notifyParcelProcessingCancellation(): Set the Finalisation Date --> {}", finalisationDate);
         currentParcel.setFinalisationDate(finalisationDate);
         LOG.trace(".notifyParcelProcessingCancellation(): Set the Parcel Finalisation Status --> {} ", ResilienceParcelFinalisationStatusEnum.PARCEL_FINALISATION_STATUS_FINALISED);
         currentParcel.setFinalisationStatus(ResilienceParcelFinalisationStatusEnum.PARCEL_FINALISATION_STATUS_FINALISED);
         LOG.trace(".notifyParcelProcessingCancellation(): Set the Parcel Processing Status --> {}", ResilienceParcelProcessingStatusEnum.PARCEL_STATUS_FINALISED);
         currentParcel.setProcessingStatus(ResilienceParcelProcessingStatusEnum.PARCEL_STATUS_FINALISED);
+        parcelJournal.journalParcelStatus(currentParcel, false);
         LOG.trace(".notifyParcelProcessingCancellation(): Doing an Audit Write, note that it is asynchronous by design");
         auditWriter.writeAuditEntry(currentParcel,false);
         LOG.debug(".notifyParcelProcessingCancellation(): Exit, returning finished Parcel --> {}", currentParcel);
@@ -273,6 +283,7 @@ public class ProcessingPlantResilienceParcelServicesIM {
             throw (new IllegalArgumentException(".notifyParcelProcessingPurge(): parcelID is null in method invocation"));
         }
         LOG.trace(".notifyParcelProcessingPurge(): retrieve existing Parcel");
+        parcelJournal.journalParcelRemoval(parcelID);
         // TODO: Ascertain if we need to do an audit-entry for this.
         //        LOG.trace(".notifyParcelProcessingPurge(): Doing an Audit Write, note that it is asynchronous by design");
         //        auditWriter.writeAuditEntry(currentParcel,false);
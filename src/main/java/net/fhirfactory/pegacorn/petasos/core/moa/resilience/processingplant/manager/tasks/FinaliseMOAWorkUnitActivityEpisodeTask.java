@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fhirfactory.pegacorn.petasos.core.moa.resilience.processingplant.manager.tasks;
+
+import net.fhirfactory.pegacorn.petasos.core.common.clock.PetasosClock;
+import net.fhirfactory.pegacorn.petasos.core.common.resilience.processingplant.cache.ProcessingPlantParcelCacheDM;
+import net.fhirfactory.pegacorn.petasos.core.common.resilience.processingplant.journal.ProcessingPlantParcelJournal;
+import net.fhirfactory.pegacorn.petasos.core.moa.resilience.processingplant.cache.ProcessingPlantWUAEpisodeActivityMatrixDM;
+import net.fhirfactory.pegacorn.petasos.core.moa.resilience.processingplant.cache.ProcessingPlantWUAEpisodeFinalisationCacheDM;
+import net.fhirfactory.pegacorn.petasos.core.moa.resilience.processingplant.manager.ProcessingPlantResilienceParcelServicesIM;
+import net.fhirfactory.pegacorn.petasos.model.resilience.activitymatrix.moa.ParcelStatusElement;
+import net.fhirfactory.pegacorn.petasos.model.resilience.parcel.ResilienceParcelIdentifier;
+import net.fhirfactory.pegacorn.petasos.model.resilience.parcel.ResilienceParcelProcessingStatusEnum;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+/**
+ * This task is invoked when all the downstream WUPs of an (upstream) ResilienceParcel have registered their
+ * successor Episode (i.e. the Parcel's outstanding downstream count within the ProcessingPlantWUAEpisodeFinalisationCacheDM
+ * has reached zero). It finalises that (finished) ResilienceParcel and evicts its finalisation state and the Parcel
+ * itself from the local caches. Only the completed Parcel is finalised - the other Parcels of its WUA Episode are
+ * (other UoWs) tracked and finalised independently. A completed Parcel that hasn't yet finished keeps its finalisation
+ * state, and is finalised when it does.
+ *
+ * @author Mark A. Hunter
+ * @since 2020-08-01
+ */
+@ApplicationScoped
+public class FinaliseMOAWorkUnitActivityEpisodeTask {
+	private static final Logger LOG = LoggerFactory.getLogger(FinaliseMOAWorkUnitActivityEpisodeTask.class);
+
+	@Inject
+	ProcessingPlantWUAEpisodeActivityMatrixDM activityMatrixDM;
+
+	@Inject
+	ProcessingPlantWUAEpisodeFinalisationCacheDM finalisationCacheDM;
+
+	@Inject
+	ProcessingPlantResilienceParcelServicesIM parcelServicesIM;
+
+	@Inject
+	ProcessingPlantParcelCacheDM parcelCacheDM;
+
+	@Inject
+	ProcessingPlantParcelJournal parcelJournal;
+
+	public void finaliseParcel(ResilienceParcelIdentifier parcelInstanceID) {
+		LOG.debug(".finaliseParcel(): Entry, parcelInstanceID --> {}", parcelInstanceID);
+		if (parcelInstanceID == null) {
+			throw (new IllegalArgumentException(".finaliseParcel(): parcelInstanceID is null"));
+		}
+		ParcelStatusElement statusElement = activityMatrixDM.getParcelStatusElement(parcelInstanceID);
+		if (statusElement == null) {
+			LOG.trace(".finaliseParcel(): ResilienceParcel is not in the ActivityMatrix, nothing to finalise --> {}", parcelInstanceID);
+		} else {
+			switch (statusElement.getParcelStatus()) {
+			case PARCEL_STATUS_FINISHED:
+				LOG.trace(".finaliseParcel(): Finalising ResilienceParcel --> {}", parcelInstanceID);
+				parcelServicesIM.notifyParcelProcessingFinalisation(parcelInstanceID);
+				activityMatrixDM.updateWUA(statusElement.getActivityID(), ResilienceParcelProcessingStatusEnum.PARCEL_STATUS_FINALISED);
+				statusElement.setEntryDate(PetasosClock.now());
+				LOG.trace(".finaliseParcel(): Evicting finalised ResilienceParcel from the ParcelCache");
+				parcelCacheDM.removeParcel(parcelInstanceID);
+				parcelJournal.journalParcelRemoval(parcelInstanceID);
+				break;
+			case PARCEL_STATUS_FINISHED_ELSEWHERE:
+				LOG.trace(".finaliseParcel(): ResilienceParcel was processed elsewhere, marking as finalised elsewhere --> {}", parcelInstanceID);
+				activityMatrixDM.updateWUA(statusElement.getActivityID(), ResilienceParcelProcessingStatusEnum.PARCEL_STATUS_FINALISED_ELSEWHERE);
+				statusElement.setEntryDate(PetasosClock.now());
+				break;
+			case PARCEL_STATUS_FINALISED:
+			case PARCEL_STATUS_FINALISED_ELSEWHERE:
+				LOG.trace(".finaliseParcel(): ResilienceParcel has already been finalised --> {}", parcelInstanceID);
+				break;
+			default:
+				// the downstream WUPs completed the Parcel before it finished, keep its (completed) finalisation state so
+				// that it is finalised once it does finish (see ProcessingPlantResilienceActivityServicesController.finaliseWUAParcelIfCompleted())
+				LOG.trace(".finaliseParcel(): Exit, ResilienceParcel not finished, deferring its finalisation --> {}", parcelInstanceID);
+				return;
+			}
+		}
+		LOG.trace(".finaliseParcel(): Evicting the Parcel's finalisation state");
+		finalisationCacheDM.removeParcel(parcelInstanceID);
+		LOG.debug(".finaliseParcel(): Exit");
+	}
+}
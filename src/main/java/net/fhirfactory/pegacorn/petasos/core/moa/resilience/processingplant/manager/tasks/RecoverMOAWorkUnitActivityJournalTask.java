@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.core.moa.resilience.processingplant.manager.tasks;
+
+import net.fhirfactory.pegacorn.petasos.core.common.resilience.processingplant.cache.ProcessingPlantParcelCacheDM;
+import net.fhirfactory.pegacorn.petasos.core.common.resilience.processingplant.journal.ProcessingPlantJournalParcelStatus;
+import net.fhirfactory.pegacorn.petasos.core.common.resilience.processingplant.journal.ProcessingPlantJournalReplayHandler;
+import net.fhirfactory.pegacorn.petasos.core.common.resilience.processingplant.journal.ProcessingPlantJournalSnapshot;
+import net.fhirfactory.pegacorn.petasos.core.common.resilience.processingplant.journal.ProcessingPlantJournalSnapshotSource;
+import net.fhirfactory.pegacorn.petasos.core.common.resilience.processingplant.journal.ProcessingPlantParcelJournal;
+import net.fhirfactory.pegacorn.petasos.core.moa.resilience.processingplant.cache.ProcessingPlantWUAEpisodeActivityMatrixDM;
+import net.fhirfactory.pegacorn.petasos.core.moa.resilience.processingplant.cache.ProcessingPlantWUAEpisodeFinalisationCacheDM;
+import net.fhirfactory.pegacorn.petasos.model.pathway.ActivityID;
+import net.fhirfactory.pegacorn.petasos.model.resilience.activitymatrix.moa.EpisodeIdentifier;
+import net.fhirfactory.pegacorn.petasos.model.resilience.activitymatrix.moa.WUAEpisodeFinalisationRegistrationStatus;
+import net.fhirfactory.pegacorn.petasos.model.resilience.activitymatrix.moa.WUAEpisodeFinalisationRegistrationStatusEnum;
+import net.fhirfactory.pegacorn.petasos.model.resilience.parcel.ResilienceParcel;
+import net.fhirfactory.pegacorn.petasos.model.resilience.parcel.ResilienceParcelIdentifier;
+import net.fhirfactory.pegacorn.petasos.model.resilience.parcel.ResilienceParcelProcessingStatusEnum;
+import net.fhirfactory.pegacorn.petasos.model.wup.WUPFunctionToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.context.Initialized;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+
+/**
+ * This task rebuilds the ProcessingPlant ParcelCache, WUA Episode ActivityMatrix and WUA Episode Finalisation
+ * Cache from the ProcessingPlantParcelJournal (latest snapshot plus journal tail) at startup - so the parcels
+ * that were in-flight when the ProcessingPlant stopped are recovered. Once recovered, it is also the source of
+ * the cache content for subsequent journal snapshots. It is a no-op if the journal is not enabled.
+ * <p>
+ * The recovery is run eagerly, when the application context is initialised. As the container does not order that
+ * event relative to other startup activity, the WUP registration path also calls recoverFromJournal() (which only
+ * ever recovers once) before any WUP route is built - so no new activity is registered ahead of the replay.
+ * <p>
+ * The upstream Parcels whose downstream Episode registrations were completed by the replay are finalised once the
+ * replay is complete (their finalisation was not journalled before the ProcessingPlant stopped).
+ *
+ * @author Mark A. Hunter
+ * @since 2020-08-01
+ */
+@ApplicationScoped
+public class RecoverMOAWorkUnitActivityJournalTask implements ProcessingPlantJournalReplayHandler, ProcessingPlantJournalSnapshotSource {
+	private static final Logger LOG = LoggerFactory.getLogger(RecoverMOAWorkUnitActivityJournalTask.class);
+
+	@Inject
+	ProcessingPlantParcelJournal parcelJournal;
+
+	@Inject
+	ProcessingPlantParcelCacheDM parcelCacheDM;
+
+	@Inject
+	ProcessingPlantWUAEpisodeActivityMatrixDM activityMatrixDM;
+
+	@Inject
+	ProcessingPlantWUAEpisodeFinalisationCacheDM finalisationCacheDM;
+
+	@Inject
+	FinaliseMOAWorkUnitActivityEpisodeTask taskFinaliseEpisode;
+
+	private boolean recovered;
+	// the upstream Parcels completed (by their downstream Episode registrations) during the replay
+	private Set<ResilienceParcelIdentifier> completedParcelIDSet = new LinkedHashSet<ResilienceParcelIdentifier>();
+
+	public void onApplicationInitialised(@Observes @Initialized(ApplicationScoped.class) Object initialisationEvent) {
+		LOG.debug(".onApplicationInitialised(): Entry");
+		recoverFromJournal();
+	}
+
+	public synchronized void recoverFromJournal() {
+		LOG.debug(".recoverFromJournal(): Entry");
+		if (recovered) {
+			LOG.debug(".recoverFromJournal(): Exit, already recovered");
+			return;
+		}
+		recovered = true;
+		if (!parcelJournal.isEnabled()) {
+			LOG.debug(".recoverFromJournal(): Exit, journal not enabled");
+			return;
+		}
+		long replayedRecordCount = parcelJournal.replay(this);
+		LOG.trace(".recoverFromJournal(): Finalising the Parcels completed during the replay, count --> {}", completedParcelIDSet.size());
+		for (ResilienceParcelIdentifier completedParcelID : completedParcelIDSet) {
+			taskFinaliseEpisode.finaliseParcel(completedParcelID);
+		}
+		completedParcelIDSet.clear();
+		// only snapshot once the caches have been rebuilt - an earlier snapshot would supersede unreplayed state
+		parcelJournal.registerSnapshotSource(this);
+		LOG.debug(".recoverFromJournal(): Exit, replayedRecordCount --> {}", replayedRecordCount);
+	}
+
+	@Override
+	public void replayParcel(ResilienceParcel parcel) {
+		LOG.trace(".replayParcel(): Entry, parcel --> {}", parcel);
+		parcelCacheDM.addParcel(parcel);
+	}
+
+	@Override
+	public void replayParcelStatus(ResilienceParcelIdentifier parcelID, ProcessingPlantJournalParcelStatus parcelStatus) {
+		LOG.trace(".replayParcelStatus(): Entry, parcelID --> {}, status --> {}", parcelID, parcelStatus.getProcessingStatus());
+		ResilienceParcel parcel = parcelCacheDM.getParcelInstance(parcelID);
+		if (parcel == null) {
+			LOG.trace(".replayParcelStatus(): Parcel not recovered (already purged), ignoring its status record");
+			return;
+		}
+		parcelStatus.applyTo(parcel);
+	}
+
+	@Override
+	public void replayParcelRemoval(ResilienceParcelIdentifier parcelID) {
+		LOG.trace(".replayParcelRemoval(): Entry, parcelID --> {}", parcelID);
+		parcelCacheDM.removeParcel(parcelID);
+	}
+
+	@Override
+	public void replayWUAStatus(ActivityID activityID, ResilienceParcelProcessingStatusEnum status) {
+		LOG.trace(".replayWUAStatus(): Entry, activityID --> {}, status --> {}", activityID, status);
+		activityMatrixDM.updateWUA(activityID, status);
+	}
+
+	@Override
+	public void replayDownstreamWUPInterest(ResilienceParcelIdentifier upstreamParcelID, EpisodeIdentifier wuaEpisodeID, WUPFunctionToken downstreamWUPFunctionID) {
+		LOG.trace(".replayDownstreamWUPInterest(): Entry, upstreamParcelID --> {}, downstreamWUPFunctionID --> {}", upstreamParcelID, downstreamWUPFunctionID);
+		finalisationCacheDM.registerDownstreamWUPInterest(upstreamParcelID, wuaEpisodeID, downstreamWUPFunctionID);
+	}
+
+	@Override
+	public void replayDownstreamEpisodeID(ResilienceParcelIdentifier upstreamParcelID, EpisodeIdentifier wuaEpisodeID, WUPFunctionToken downstreamWUPFunctionID, EpisodeIdentifier downstreamEpisodeID) {
+		LOG.trace(".replayDownstreamEpisodeID(): Entry, upstreamParcelID --> {}, downstreamEpisodeID --> {}", upstreamParcelID, downstreamEpisodeID);
+		if (finalisationCacheDM.registerDownstreamEpisodeID(upstreamParcelID, downstreamWUPFunctionID, downstreamEpisodeID)) {
+			completedParcelIDSet.add(upstreamParcelID);
+		}
+	}
+
+	@Override
+	public void replayFinalisationStateRemoval(ResilienceParcelIdentifier upstreamParcelID) {
+		LOG.trace(".replayFinalisationStateRemoval(): Entry, upstreamParcelID --> {}", upstreamParcelID);
+		finalisationCacheDM.removeParcel(upstreamParcelID);
+		completedParcelIDSet.remove(upstreamParcelID);
+	}
+
+	@Override
+	public void writeSnapshot(ProcessingPlantJournalSnapshot snapshot) {
+		LOG.debug(".writeSnapshot(): Entry");
+		parcelCacheDM.snapshotParcels(parcel -> snapshot.addParcel(parcel));
+		activityMatrixDM.snapshotParcelStatusElements(statusElement -> snapshot.addWUAStatus(statusElement.getActivityID(), statusElement.getParcelStatus()));
+		finalisationCacheDM.snapshotFinalisationStates(parcelState -> {
+			for (WUPFunctionToken downstreamWUPFunctionID : parcelState.getDownstreamWUPFunctionSet()) {
+				// one interest record per expected successor Episode, one Episode ID record per registered one
+				int expectedRegistrationCount = parcelState.getExpectedRegistrationCount(downstreamWUPFunctionID);
+				int registeredCount = expectedRegistrationCount - parcelState.getOutstandingRegistrationCount(downstreamWUPFunctionID);
+				for (int counter = 0; counter < expectedRegistrationCount; counter++) {
+					snapshot.addDownstreamWUPInterest(parcelState.getUpstreamParcelID(), parcelState.getEpisodeID(), downstreamWUPFunctionID);
+				}
+				WUAEpisodeFinalisationRegistrationStatus registrationStatus = parcelState.getRegistrationStatus(downstreamWUPFunctionID);
+				if ((registrationStatus != null) && (registrationStatus.getRegistrationStatus() != WUAEpisodeFinalisationRegistrationStatusEnum.DOWNSTREAM_EPISODE_ID_NOT_REGISTERED)) {
+					for (int counter = 0; counter < registeredCount; counter++) {
+						snapshot.addDownstreamEpisodeID(parcelState.getUpstreamParcelID(), parcelState.getEpisodeID(), downstreamWUPFunctionID, registrationStatus.getActualDownstreamEpisodeID());
+					}
+				}
+			}
+		});
+		LOG.debug(".writeSnapshot(): Exit, records --> {}", snapshot.getRecordCount());
+	}
+}
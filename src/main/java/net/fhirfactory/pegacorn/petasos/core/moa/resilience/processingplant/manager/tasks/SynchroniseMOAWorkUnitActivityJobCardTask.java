@@ -22,6 +22,7 @@
 
 package net.fhirfactory.pegacorn.petasos.core.moa.resilience.processingplant.manager.tasks;
 
+import net.fhirfactory.pegacorn.petasos.core.common.clock.PetasosClock;
 import net.fhirfactory.pegacorn.petasos.core.moa.resilience.processingplant.cache.ProcessingPlantWUAEpisodeActivityMatrixDM;
 import net.fhirfactory.pegacorn.petasos.model.pathway.ActivityID;
 import net.fhirfactory.pegacorn.petasos.model.resilience.activitymatrix.moa.EpisodeIdentifier;
@@ -33,7 +34,6 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.inject.Inject;
-import java.time.Instant;
 import java.util.Date;
 import java.util.List;
 import javax.enterprise.context.ApplicationScoped;
@@ -177,7 +177,7 @@ public class SynchroniseMOAWorkUnitActivityJobCardTask {
 		statusElement.setHasClusterFocus(true);
 		LOG.trace(".standaloneModeSynchroniseJobCard(): Now, lets update the JobCard based on the ActivityMatrix");
 		actionableJobCard.setGrantedStatus(actionableJobCard.getRequestedStatus());
-		actionableJobCard.setUpdateDate(Date.from(Instant.now()));
+		actionableJobCard.setUpdateDate(PetasosClock.now());
 		if (LOG.isDebugEnabled()) {
 			LOG.debug(".standaloneModeSynchroniseJobCard(): Exit");
         	LOG.debug(".standaloneModeSynchroniseJobCard(): actionableJobCard (WUPJobCard).cardID (ActivityID).previousParcelIdentifier -->{}", actionableJobCard.getActivityID().getPreviousParcelIdentifier());
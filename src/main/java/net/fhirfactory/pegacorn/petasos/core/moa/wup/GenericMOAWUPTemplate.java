@@ -37,6 +37,7 @@ import net.fhirfactory.pegacorn.datasets.fhir.r4.internal.topics.FHIRElementTopi
 import net.fhirfactory.pegacorn.deployment.names.PegacornLadonComponentNames;
 import net.fhirfactory.pegacorn.deployment.topology.manager.DeploymentTopologyIM;
 import net.fhirfactory.pegacorn.petasos.core.moa.brokers.PetasosMOAServicesBroker;
+import net.fhirfactory.pegacorn.petasos.core.moa.pathway.interchange.properties.InterchangeFanOutProperty;
 import net.fhirfactory.pegacorn.petasos.core.moa.pathway.naming.RouteElementNames;
 import net.fhirfactory.pegacorn.petasos.model.processingplant.ProcessingPlantServicesInterface;
 import net.fhirfactory.pegacorn.petasos.model.topics.TopicToken;
@@ -162,6 +163,18 @@ public abstract class GenericMOAWUPTemplate extends BaseRouteBuilder {
         // Subclasses can optionally override
     }
 
+    /**
+     * This function specifies how the Interchange splits the egress UoWPayloadSet of this WUP's UoWs (see
+     * InterchangeFanOutModeEnum). The default is sequential - WUPs that produce large payload sets (e.g. the
+     * split of a FHIR Bundle) can override this to opt-in to the streaming or parallel modes.
+     *
+     * @return The Interchange fan-out configuration for this WUP
+     */
+    protected InterchangeFanOutProperty specifyInterchangeFanOutProperty(){
+        // Subclasses can optionally override
+        return(new InterchangeFanOutProperty());
+    }
+
     /**
      * This function goes to the Topology Server and extracts the NodeElementFunctionToken - which is a combination of
      * the Function ID (and FDNToken) and a Version qualifier (as a String).
@@ -192,7 +205,7 @@ public abstract class GenericMOAWUPTemplate extends BaseRouteBuilder {
 
     public void buildWUPFramework(CamelContext routeContext) {
         getLogger().debug(".buildWUPFramework(): Entry");
-        servicesBroker.registerWorkUnitProcessor(this.wupTopologyNodeElement, this.getTopicSubscriptionSet(), this.getWupArchetype());
+        servicesBroker.registerWorkUnitProcessor(this.wupTopologyNodeElement, this.getTopicSubscriptionSet(), this.getWupArchetype(), specifyInterchangeFanOutProperty());
         getLogger().debug(".buildWUPFramework(): Exit");
     }
     
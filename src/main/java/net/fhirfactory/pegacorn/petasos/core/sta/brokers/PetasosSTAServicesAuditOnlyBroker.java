@@ -21,8 +21,8 @@
  */
 package net.fhirfactory.pegacorn.petasos.core.sta.brokers;
 
-import java.time.Instant;
 import java.util.Date;
+import net.fhirfactory.pegacorn.petasos.core.common.clock.PetasosClock;
 import net.fhirfactory.pegacorn.petasos.model.resilience.activitymatrix.moa.ParcelStatusElement;
 import net.fhirfactory.pegacorn.petasos.model.resilience.activitymatrix.sta.STATransaction;
 import net.fhirfactory.pegacorn.petasos.model.resilience.parcel.ResilienceParcel;
@@ -33,10 +33,9 @@ import org.slf4j.LoggerFactory;
 
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
-import net.fhirfactory.pegacorn.common.model.FDN;
-import net.fhirfactory.pegacorn.common.model.RDN;
 import net.fhirfactory.pegacorn.petasos.audit.api.PetasosAuditWriter;
 import net.fhirfactory.pegacorn.petasos.audit.model.PetasosParcelAuditTrailEntry;
+import net.fhirfactory.pegacorn.petasos.core.common.identifiers.PetasosIdentifierFactory;
 import net.fhirfactory.pegacorn.petasos.model.resilience.parcel.ResilienceParcelFinalisationStatusEnum;
 import net.fhirfactory.pegacorn.petasos.model.resilience.parcel.ResilienceParcelIdentifier;
 import net.fhirfactory.pegacorn.petasos.model.wup.WUPIdentifier;
@@ -49,6 +48,9 @@ public class PetasosSTAServicesAuditOnlyBroker {
     @Inject
     PetasosAuditWriter auditWriter;
 
+    @Inject
+    PetasosIdentifierFactory identifierFactory;
+
     public PetasosParcelAuditTrailEntry transactionAuditEntry(WUPIdentifier wup, String action, UoW theUoW, PetasosParcelAuditTrailEntry previousTransaction) {
         if(LOG.isDebugEnabled()){
             LOG.debug(".transactionAuditEntry(): Entry, ");
@@ -61,28 +63,20 @@ public class PetasosSTAServicesAuditOnlyBroker {
             throw (new IllegalArgumentException(".writeAuditEntry(): wup, action or theUoW are null"));
         }
         PetasosParcelAuditTrailEntry newAuditEntry = new PetasosParcelAuditTrailEntry();
-        newAuditEntry.setAuditTrailEntryDate(Date.from(Instant.now()));
+        newAuditEntry.setAuditTrailEntryMillis(PetasosClock.wallClockMillis());
         newAuditEntry.setActualUoW(theUoW);
         if (previousTransaction != null) {
             newAuditEntry.setParcelTypeID(previousTransaction.getParcelTypeID());
             newAuditEntry.setIdentifier(previousTransaction.getIdentifier());
         } else {
-            FDN auditEntryType = new FDN();
-            auditEntryType.appendFDN(new FDN(theUoW.getTypeID()));
-            auditEntryType.appendRDN(new RDN("action", action));
-            newAuditEntry.setParcelTypeID(auditEntryType.getToken());
-            FDN auditEntryIdentifier = new FDN();
-            auditEntryIdentifier.appendFDN(new FDN(theUoW.getInstanceID()));
-            auditEntryIdentifier.appendRDN(new RDN("action", action));
-            ResilienceParcelIdentifier parcelId = new ResilienceParcelIdentifier(auditEntryIdentifier.getToken());
-            newAuditEntry.setIdentifier(parcelId);
+            assignAuditEntryIdentity(newAuditEntry, action, theUoW);
         }
         switch (theUoW.getProcessingOutcome()) {
             case UOW_OUTCOME_SUCCESS: {
                 newAuditEntry.setParcelFinalsationStatus(ResilienceParcelFinalisationStatusEnum.PARCEL_FINALISATION_STATUS_FINALISED);
                 newAuditEntry.setProcessingStatus(ResilienceParcelProcessingStatusEnum.PARCEL_STATUS_FINISHED);
-                newAuditEntry.setParcelFinalisedDate(Date.from(Instant.now()));
-                newAuditEntry.setParcelFinishedDate(Date.from(Instant.now()));
+                newAuditEntry.setParcelFinalisedDate(PetasosClock.now());
+                newAuditEntry.setParcelFinishedDate(PetasosClock.now());
                 if (previousTransaction != null) {
                     newAuditEntry.setParcelRegistrationDate(previousTransaction.getParcelRegistrationDate());
                     newAuditEntry.setParcelStartDate(previousTransaction.getParcelStartDate());
@@ -92,8 +86,8 @@ public class PetasosSTAServicesAuditOnlyBroker {
             case UOW_OUTCOME_FAILED: {
                 newAuditEntry.setParcelFinalsationStatus(ResilienceParcelFinalisationStatusEnum.PARCEL_FINALISATION_STATUS_FINALISED);
                 newAuditEntry.setProcessingStatus(ResilienceParcelProcessingStatusEnum.PARCEL_STATUS_FAILED);
-                newAuditEntry.setParcelFinalisedDate(Date.from(Instant.now()));
-                newAuditEntry.setParcelFinishedDate(Date.from(Instant.now()));
+                newAuditEntry.setParcelFinalisedDate(PetasosClock.now());
+                newAuditEntry.setParcelFinishedDate(PetasosClock.now());
                 if (previousTransaction != null) {
                     newAuditEntry.setParcelRegistrationDate(previousTransaction.getParcelRegistrationDate());
                     newAuditEntry.setParcelStartDate(previousTransaction.getParcelStartDate());
@@ -104,12 +98,45 @@ public class PetasosSTAServicesAuditOnlyBroker {
             case UOW_OUTCOME_NOTSTARTED: {
                 newAuditEntry.setParcelFinalsationStatus(ResilienceParcelFinalisationStatusEnum.PARCEL_FINALISATION_STATUS_NOT_FINALISED);
                 newAuditEntry.setProcessingStatus(ResilienceParcelProcessingStatusEnum.PARCEL_STATUS_ACTIVE);
-                newAuditEntry.setParcelStartDate(Date.from(Instant.now()));
-                newAuditEntry.setParcelRegistrationDate(Date.from(Instant.now()));
+                newAuditEntry.setParcelStartDate(PetasosClock.now());
+                newAuditEntry.setParcelRegistrationDate(PetasosClock.now());
             }
         }
         newAuditEntry.setPrimaryWUPIdentifier(wup);
         auditWriter.writeAuditEntry(newAuditEntry, true);
         return (newAuditEntry);
     }
+
+    /**
+     * This function writes the single audit entry of a (lightweight) Transaction that was not registered as a
+     * ResilienceParcel - i.e. nothing was audited at its start. The entry records the Transaction's start date as
+     * its registration/start date and its outcome (from the UoW) as its final status.
+     *
+     * @param wup The WUP that performed the Transaction
+     * @param action The action (e.g. the API method) of the Transaction
+     * @param theUoW The completed UoW
+     * @param transactionStartDate The date the Transaction started
+     * @return The PetasosParcelAuditTrailEntry written, or null if the UoW has no processing outcome
+     */
+    public PetasosParcelAuditTrailEntry completedTransactionAuditEntry(WUPIdentifier wup, String action, UoW theUoW, Date transactionStartDate) {
+        LOG.debug(".completedTransactionAuditEntry(): Entry, wup --> {}, action --> {}", wup, action);
+        if ((wup == null) || (action == null) || (theUoW == null)) {
+            throw (new IllegalArgumentException(".completedTransactionAuditEntry(): wup, action or theUoW are null"));
+        }
+        if (theUoW.getProcessingOutcome() == null) {
+            LOG.warn(".completedTransactionAuditEntry(): UoW has no processing outcome, no audit entry written, wup --> {}", wup);
+            return (null);
+        }
+        PetasosParcelAuditTrailEntry startAuditEntry = new PetasosParcelAuditTrailEntry();
+        assignAuditEntryIdentity(startAuditEntry, action, theUoW);
+        startAuditEntry.setParcelRegistrationDate(transactionStartDate);
+        startAuditEntry.setParcelStartDate(transactionStartDate);
+        return (transactionAuditEntry(wup, action, theUoW, startAuditEntry));
+    }
+
+    private void assignAuditEntryIdentity(PetasosParcelAuditTrailEntry auditEntry, String action, UoW theUoW) {
+        auditEntry.setParcelTypeID(identifierFactory.getAuditEntryTypeID(theUoW.getTypeID(), action));
+        ResilienceParcelIdentifier parcelId = identifierFactory.buildAuditEntryIdentifier(theUoW.getInstanceID(), action);
+        auditEntry.setIdentifier(parcelId);
+    }
 }
@@ -22,6 +22,8 @@
 
 package net.fhirfactory.pegacorn.petasos.core.sta.brokers;
 
+import net.fhirfactory.pegacorn.petasos.core.common.clock.PetasosClock;
+import net.fhirfactory.pegacorn.petasos.core.common.concurrent.PetasosDaemonThreads;
 import net.fhirfactory.pegacorn.common.model.FDNToken;
 import net.fhirfactory.pegacorn.petasos.core.sta.resilience.processingplant.cache.STAServiceModuleActivityMatrixDM;
 import net.fhirfactory.pegacorn.petasos.core.sta.resilience.processingplant.manager.STAResilienceParcelServicesIM;
@@ -35,18 +37,62 @@ import net.fhirfactory.pegacorn.petasos.model.topics.TopicToken;
 import net.fhirfactory.pegacorn.petasos.model.topology.NodeElement;
 import net.fhirfactory.pegacorn.petasos.model.uow.UoW;
 import net.fhirfactory.pegacorn.petasos.model.wup.WUPArchetypeEnum;
+import net.fhirfactory.pegacorn.petasos.model.wup.WUPIdentifier;
 import net.fhirfactory.pegacorn.petasos.model.wup.WUPJobCard;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
+import java.util.Date;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
+/**
+ * The Petasos services broker for STA (Synchronous Transaction Activity) WUPs - e.g. the API gateways.
+ * <p>
+ * Besides the full (resilient) transaction - a registered ResilienceParcel, audited at start and completion, and
+ * tracked within the STA ActivityMatrix - it supports a lightweight transaction for read-only/idempotent calls
+ * (see registerLightweightSTAWorkUnitActivity()), unless disabled ("petasos.sta.lightweight.enabled" = false, it is
+ * enabled by default). The completion methods handle either kind of transaction - each registration marks the (returned)
+ * PetasosSTATransaction as full or lightweight.
+ * <p>
+ * Each operation is also available as a non-blocking variant (the *Async() methods), returning a CompletionStage
+ * which completes once the operation - including its audit write - has been done on the broker's executor (or a
+ * caller supplied Executor). This allows asynchronous (e.g. JAX-RS AsyncResponse) callers to pipeline registration,
+ * work and audit without holding a container thread. The synchronous methods and the *Async() methods are thin
+ * wrappers around the same implementation; the synchronous methods run it on the calling thread - except for the
+ * audit write of a lightweight transaction, which is always done on the broker's executor.
+ * <p>
+ * The broker's executor has a bounded queue ("petasos.sta.async.queue.capacity"); once it is full, an *Async()
+ * submission is rejected and its stage completes exceptionally (with a RejectedExecutionException).
+ *
+ * @author Mark A. Hunter
+ * @since 2020-08-01
+ */
 @ApplicationScoped
 public class PetasosSTAServicesBroker {
     private static final Logger LOG = LoggerFactory.getLogger(PetasosSTAServicesBroker.class);
 
+    public static final String LIGHTWEIGHT_TRANSACTION_AUDIT_ACTION = "lightweight-transaction";
+
+    // only callers of registerLightweightSTAWorkUnitActivity() (the read-only API gateways) are affected by this
+    private boolean lightweightTransactionsEnabled = Boolean.parseBoolean(System.getProperty("petasos.sta.lightweight.enabled", "true"));
+    // the broker's work (parcel registration and audit writes) blocks on I/O, so the pool is sized well above the CPU count
+    private int asyncThreadCount = Integer.getInteger("petasos.sta.async.threads", 4 * Runtime.getRuntime().availableProcessors());
+    private int asyncQueueCapacity = Integer.getInteger("petasos.sta.async.queue.capacity", 1024);
+
+    private ThreadPoolExecutor asyncExecutor;
+
     @Inject
     STAResilienceParcelServicesIM parcelServicesIM;
 
@@ -56,45 +102,302 @@ public class PetasosSTAServicesBroker {
     @Inject
     TopicIM topicManager;
 
+    @Inject
+    PetasosSTAServicesAuditOnlyBroker auditOnlyBroker;
+
+    @PostConstruct
+    public void start(){
+        int threadCount = Math.max(1, asyncThreadCount);
+        // a bounded queue - once it is full, submissions are rejected (completing their stage exceptionally)
+        asyncExecutor = new ThreadPoolExecutor(threadCount, threadCount, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(Math.max(1, asyncQueueCapacity)),
+                PetasosDaemonThreads.numberedThreadFactory("sta-broker"), new ThreadPoolExecutor.AbortPolicy());
+        asyncExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    @PreDestroy
+    public void stop(){
+        if(asyncExecutor != null){
+            asyncExecutor.shutdown();
+        }
+    }
+
+    //
+    // Synchronous API
+    //
+
     public STATransaction registerSTAWorkUnitActivity(WUPJobCard jobCard, UoW initialUoW){
+        return(registerTransaction(jobCard, initialUoW));
+    }
+
+    /**
+     * This function registers a lightweight transaction - intended for read-only (idempotent) API calls, which
+     * don't need to be recovered or re-executed on failure. No ResilienceParcel is created (so nothing is inserted
+     * into the ParcelCache and no Episode identifiers are built), the transaction is not tracked within the STA
+     * ActivityMatrix and nothing is audited at its start: a single audit entry is written at its completion.
+     * <p>
+     * If lightweight transactions are disabled ("petasos.sta.lightweight.enabled" = false), a full transaction is
+     * registered instead.
+     *
+     * @param jobCard The WUPJobCard for the transaction
+     * @param initialUoW The UoW of the transaction
+     * @return The STATransaction (to be passed to the notify*OfWorkUnitActivity() completion methods)
+     */
+    public STATransaction registerLightweightSTAWorkUnitActivity(WUPJobCard jobCard, UoW initialUoW){
+        return(registerLightweightTransaction(jobCard, initialUoW));
+    }
+
+    /**
+     * This function registers a (full) transaction whose STATransaction record - with its WUPJobCard and UoW - has
+     * already been built, e.g. one borrowed from an STATransactionPool.
+     *
+     * @param transaction The STATransaction to be registered
+     * @return The (same) STATransaction, now registered
+     */
+    public STATransaction registerSTAWorkUnitActivity(STATransaction transaction){
+        return(registerTransaction(transaction));
+    }
+
+    /**
+     * This function registers a lightweight transaction (see registerLightweightSTAWorkUnitActivity(WUPJobCard, UoW))
+     * whose STATransaction record has already been built, e.g. one borrowed from an STATransactionPool. Only a
+     * PetasosSTATransaction can be marked as lightweight - any other STATransaction is registered as a full transaction.
+     *
+     * @param transaction The STATransaction to be registered
+     * @return The (same) STATransaction, now registered
+     */
+    public STATransaction registerLightweightSTAWorkUnitActivity(STATransaction transaction){
+        return(registerLightweightTransaction(transaction));
+    }
+
+    public void notifyFinishOfWorkUnitActivity(STATransaction transaction){
+        finishTransaction(transaction);
+    }
+
+    public void notifyFailureOfWorkUnitActivity(STATransaction transaction){
+        failTransaction(transaction);
+    }
+
+    public void notifyCancellationOfWorkUnitActivity(STATransaction transaction){
+        cancelTransaction(transaction);
+    }
+
+    public void notifyPurgeOfWorkUnitActivity(STATransaction transaction){
+        purgeTransaction(transaction);
+    }
+
+    //
+    // Asynchronous (non-blocking) API - any failure (including invalid arguments, and a rejected submission once the
+    // executor's queue is full) completes the stage exceptionally
+    //
+
+    public CompletionStage<STATransaction> registerSTAWorkUnitActivityAsync(WUPJobCard jobCard, UoW initialUoW){
+        return(registerSTAWorkUnitActivityAsync(jobCard, initialUoW, asyncExecutor));
+    }
+
+    public CompletionStage<STATransaction> registerSTAWorkUnitActivityAsync(WUPJobCard jobCard, UoW initialUoW, Executor executor){
+        return(submit(() -> registerTransaction(jobCard, initialUoW), executor));
+    }
+
+    public CompletionStage<STATransaction> registerLightweightSTAWorkUnitActivityAsync(WUPJobCard jobCard, UoW initialUoW){
+        return(registerLightweightSTAWorkUnitActivityAsync(jobCard, initialUoW, asyncExecutor));
+    }
+
+    public CompletionStage<STATransaction> registerLightweightSTAWorkUnitActivityAsync(WUPJobCard jobCard, UoW initialUoW, Executor executor){
+        return(submit(() -> registerLightweightTransaction(jobCard, initialUoW), executor));
+    }
+
+    public CompletionStage<Void> notifyFinishOfWorkUnitActivityAsync(STATransaction transaction){
+        return(notifyFinishOfWorkUnitActivityAsync(transaction, asyncExecutor));
+    }
+
+    public CompletionStage<Void> notifyFinishOfWorkUnitActivityAsync(STATransaction transaction, Executor executor){
+        return(submit(() -> finishTransaction(transaction), executor).thenCompose(auditStage -> auditStage));
+    }
+
+    public CompletionStage<Void> notifyFailureOfWorkUnitActivityAsync(STATransaction transaction){
+        return(notifyFailureOfWorkUnitActivityAsync(transaction, asyncExecutor));
+    }
+
+    public CompletionStage<Void> notifyFailureOfWorkUnitActivityAsync(STATransaction transaction, Executor executor){
+        return(submit(() -> failTransaction(transaction), executor).thenCompose(auditStage -> auditStage));
+    }
+
+    public CompletionStage<Void> notifyCancellationOfWorkUnitActivityAsync(STATransaction transaction){
+        return(notifyCancellationOfWorkUnitActivityAsync(transaction, asyncExecutor));
+    }
+
+    public CompletionStage<Void> notifyCancellationOfWorkUnitActivityAsync(STATransaction transaction, Executor executor){
+        return(submit(() -> cancelTransaction(transaction), executor).thenCompose(auditStage -> auditStage));
+    }
+
+    public CompletionStage<Void> notifyPurgeOfWorkUnitActivityAsync(STATransaction transaction){
+        return(notifyPurgeOfWorkUnitActivityAsync(transaction, asyncExecutor));
+    }
+
+    public CompletionStage<Void> notifyPurgeOfWorkUnitActivityAsync(STATransaction transaction, Executor executor){
+        return(submit(() -> {
+            purgeTransaction(transaction);
+            return((Void) null);
+        }, executor));
+    }
+
+    //
+    // Implementation
+    //
+
+    private STATransaction registerTransaction(WUPJobCard jobCard, UoW initialUoW){
         if((jobCard == null) || (initialUoW == null)){
             throw( new IllegalArgumentException(".registerWorkUnitActivity(): jobCard or initialUoW are null"));
         }
-        ResilienceParcel newParcel = parcelServicesIM.registerSOAParcel(jobCard.getActivityID(), initialUoW );
+        STATransaction transaction = new PetasosSTATransaction();
+        transaction.setUnitOfWork(initialUoW);
+        transaction.setJobCard(jobCard);
+        return(registerTransaction(transaction));
+    }
+
+    private STATransaction registerTransaction(STATransaction transaction){
+        if((transaction == null) || (transaction.getJobCard() == null) || (transaction.getUnitOfWork() == null)){
+            throw( new IllegalArgumentException(".registerWorkUnitActivity(): transaction, its jobCard or its initialUoW are null"));
+        }
+        markLightweight(transaction, false);
+        WUPJobCard jobCard = transaction.getJobCard();
+        ResilienceParcel newParcel = parcelServicesIM.registerSOAParcel(jobCard.getActivityID(), transaction.getUnitOfWork() );
         jobCard.getActivityID().setPresentParcelIdentifier(newParcel.getIdentifier());
         ParcelStatusElement statusElement = activityMatrixDM.startTransaction(jobCard.getActivityID(), ResilienceParcelProcessingStatusEnum.PARCEL_STATUS_ACTIVE );
-        STATransaction transaction = new STATransaction();
-        transaction.setUnitOfWork(initialUoW);
         transaction.setStatusElement(statusElement);
+        return(transaction);
+    }
+
+    private STATransaction registerLightweightTransaction(WUPJobCard jobCard, UoW initialUoW){
+        if((jobCard == null) || (initialUoW == null)){
+            throw( new IllegalArgumentException(".registerLightweightSTAWorkUnitActivity(): jobCard or initialUoW are null"));
+        }
+        STATransaction transaction = new PetasosSTATransaction();
+        transaction.setUnitOfWork(initialUoW);
         transaction.setJobCard(jobCard);
+        return(registerLightweightTransaction(transaction));
+    }
+
+    private STATransaction registerLightweightTransaction(STATransaction transaction){
+        if((transaction == null) || (transaction.getJobCard() == null) || (transaction.getUnitOfWork() == null)){
+            throw( new IllegalArgumentException(".registerLightweightSTAWorkUnitActivity(): transaction, its jobCard or its initialUoW are null"));
+        }
+        if(!lightweightTransactionsEnabled || !(transaction instanceof PetasosSTATransaction)){
+            LOG.trace(".registerLightweightSTAWorkUnitActivity(): Registering a full transaction, lightweightTransactionsEnabled --> {}", lightweightTransactionsEnabled);
+            transaction.setStatusElement(null);
+            return(registerTransaction(transaction));
+        }
+        markLightweight(transaction, true);
+        // a (pooled) lightweight transaction's ParcelStatusElement is reused - it is referenced by nothing else
+        ParcelStatusElement statusElement = transaction.getStatusElement();
+        if(statusElement == null){
+            statusElement = new ParcelStatusElement(transaction.getJobCard().getActivityID());
+            transaction.setStatusElement(statusElement);
+        }
+        statusElement.setParcelStatus(ResilienceParcelProcessingStatusEnum.PARCEL_STATUS_ACTIVE);
+        statusElement.setEntryDate(PetasosClock.now());
         return(transaction);
     }
 
-    public void notifyFinishOfWorkUnitActivity(STATransaction transaction){
+    private void markLightweight(STATransaction transaction, boolean lightweight){
+        if(transaction instanceof PetasosSTATransaction){
+            ((PetasosSTATransaction) transaction).setLightweight(lightweight);
+        }
+    }
+
+    private boolean isLightweightTransaction(STATransaction transaction){
+        return((transaction instanceof PetasosSTATransaction) && ((PetasosSTATransaction) transaction).isLightweight());
+    }
+
+    /**
+     * Completes a lightweight transaction. Its (single) audit entry is written asynchronously on the broker's executor -
+     * or on the calling thread if the executor's queue is full, so that no audit entry is dropped.
+     *
+     * @return A stage that completes once the audit entry has been written
+     */
+    private CompletableFuture<Void> completeLightweightTransaction(STATransaction transaction, ResilienceParcelProcessingStatusEnum status){
+        LOG.debug(".completeLightweightTransaction(): Entry, status --> {}", status);
+        ParcelStatusElement statusElement = transaction.getStatusElement();
+        statusElement.setParcelStatus(status);
+        // capture the audit details now - a pooled transaction is reset once the caller has been notified
+        WUPIdentifier wupIdentifier = transaction.getJobCard().getActivityID().getPresentWUPIdentifier();
+        UoW completedUoW = transaction.getUnitOfWork();
+        Date transactionStartDate = statusElement.getEntryDate();
+        Runnable auditWrite = () -> auditOnlyBroker.completedTransactionAuditEntry(wupIdentifier, LIGHTWEIGHT_TRANSACTION_AUDIT_ACTION, completedUoW, transactionStartDate);
+        try {
+            CompletableFuture<Void> auditStage = CompletableFuture.runAsync(auditWrite, asyncExecutor);
+            auditStage.whenComplete((result, auditException) -> {
+                if(auditException != null){
+                    LOG.warn(".completeLightweightTransaction(): Unable to write audit entry, wup --> {}", wupIdentifier, auditException);
+                }
+            });
+            return(auditStage);
+        } catch (RejectedExecutionException rejectedException) {
+            LOG.debug(".completeLightweightTransaction(): Executor queue full, writing the audit entry on the calling thread");
+            auditWrite.run();
+            return(CompletableFuture.completedFuture(null));
+        }
+    }
+
+    /**
+     * Runs the operation on the executor - the returned stage completes with its result, or exceptionally if the
+     * operation fails or the executor rejects it.
+     */
+    private <T> CompletableFuture<T> submit(Supplier<T> operation, Executor executor){
+        CompletableFuture<T> operationStage = new CompletableFuture<T>();
+        try {
+            executor.execute(() -> {
+                try {
+                    operationStage.complete(operation.get());
+                } catch (RuntimeException operationException) {
+                    operationStage.completeExceptionally(operationException);
+                }
+            });
+        } catch (RejectedExecutionException rejectedException) {
+            LOG.warn(".submit(): Operation rejected by the executor (queue full)");
+            operationStage.completeExceptionally(rejectedException);
+        }
+        return(operationStage);
+    }
+
+    private CompletableFuture<Void> finishTransaction(STATransaction transaction){
         if((transaction == null)){
             throw( new IllegalArgumentException(".notifyFinishOfWorkUnitActivity(): transaction is null"));
         }
+        if(isLightweightTransaction(transaction)){
+            return(completeLightweightTransaction(transaction, ResilienceParcelProcessingStatusEnum.PARCEL_STATUS_FINISHED));
+        }
         ResilienceParcel finishedParcel = parcelServicesIM.notifySOAParcelProcessingFinish(transaction.getJobCard().getActivityID().getPresentParcelIdentifier(), transaction.getUnitOfWork());
-        activityMatrixDM.finishTransaction(transaction.getJobCard().getActivityID(), ResilienceParcelProcessingStatusEnum.PARCEL_STATUS_FINISHED);
+        activityMatrixDM.completeTransaction(transaction.getJobCard().getActivityID(), ResilienceParcelProcessingStatusEnum.PARCEL_STATUS_FINISHED);
+        return(CompletableFuture.completedFuture(null));
     }
 
-    public void notifyFailureOfWorkUnitActivity(STATransaction transaction){
+    private CompletableFuture<Void> failTransaction(STATransaction transaction){
         if(transaction == null){
             throw( new IllegalArgumentException(".notifyFailureOfWorkUnitActivity(): jobCard or finishedUoW are null"));
         }
+        if(isLightweightTransaction(transaction)){
+            return(completeLightweightTransaction(transaction, ResilienceParcelProcessingStatusEnum.PARCEL_STATUS_FAILED));
+        }
         ResilienceParcel failedParcel = parcelServicesIM.notifySOAParcelProcessingFailure(transaction.getJobCard().getActivityID().getPresentParcelIdentifier(), transaction.getUnitOfWork());
-        activityMatrixDM.finishTransaction(transaction.getJobCard().getActivityID(), ResilienceParcelProcessingStatusEnum.PARCEL_STATUS_FAILED);
+        activityMatrixDM.completeTransaction(transaction.getJobCard().getActivityID(), ResilienceParcelProcessingStatusEnum.PARCEL_STATUS_FAILED);
+        return(CompletableFuture.completedFuture(null));
     }
 
-    public void notifyCancellationOfWorkUnitActivity(STATransaction transaction){
+    private CompletableFuture<Void> cancelTransaction(STATransaction transaction){
         if(transaction == null){
             throw( new IllegalArgumentException(".notifyCancellationOfWorkUnitActivity(): jobCard or finishedUoW are null"));
         }
+        if(isLightweightTransaction(transaction)){
+            return(completeLightweightTransaction(transaction, ResilienceParcelProcessingStatusEnum.PARCEL_STATUS_CANCELLED));
+        }
         ResilienceParcel failedParcel = parcelServicesIM.notifySOAParcelProcessingCancellation(transaction.getJobCard().getActivityID().getPresentParcelIdentifier());
-        activityMatrixDM.finishTransaction(transaction.getJobCard().getActivityID(),ResilienceParcelProcessingStatusEnum.PARCEL_STATUS_CANCELLED);
+        activityMatrixDM.completeTransaction(transaction.getJobCard().getActivityID(),ResilienceParcelProcessingStatusEnum.PARCEL_STATUS_CANCELLED);
+        return(CompletableFuture.completedFuture(null));
     }
 
-    public void notifyPurgeOfWorkUnitActivity(STATransaction transaction){
+    private void purgeTransaction(STATransaction transaction){
         if((transaction == null)){
             throw( new IllegalArgumentException(".registerWorkUnitActivity(): jobCard is null"));
         }
@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.core.sta.brokers;
+
+import net.fhirfactory.pegacorn.petasos.model.resilience.activitymatrix.sta.STATransaction;
+
+/**
+ * An STATransaction that records (explicitly) how it was registered with the PetasosSTAServicesBroker - as a full
+ * (parcel-backed) transaction or as a lightweight one - so the completion methods never have to infer the kind of
+ * transaction from its ActivityID.
+ * <p>
+ * The broker (and the STATransactionPool) create these; the flag is set by the broker on each registration.
+ *
+ * @author Mark A. Hunter
+ * @since 2020-08-01
+ */
+public class PetasosSTATransaction extends STATransaction {
+    private boolean lightweight;
+
+    public PetasosSTATransaction() {
+        super();
+        this.lightweight = false;
+    }
+
+    public boolean isLightweight() {
+        return (lightweight);
+    }
+
+    void setLightweight(boolean lightweight) {
+        this.lightweight = lightweight;
+    }
+}
@@ -21,9 +21,10 @@
  */
 package net.fhirfactory.pegacorn.petasos.core.sta.resilience.processingplant.cache;
 
+import net.fhirfactory.pegacorn.petasos.core.common.resilience.processingplant.activitymatrix.ProcessingPlantActivityMatrix;
+import net.fhirfactory.pegacorn.petasos.core.common.resilience.processingplant.activitymatrix.TerminalStatusRetentionEvictionPolicy;
 import net.fhirfactory.pegacorn.petasos.core.common.resilience.processingplant.cache.ProcessingPlantParcelCacheDM;
 import net.fhirfactory.pegacorn.petasos.model.pathway.ActivityID;
-import net.fhirfactory.pegacorn.petasos.model.resilience.activitymatrix.moa.EpisodeIdentifier;
 import net.fhirfactory.pegacorn.petasos.model.resilience.activitymatrix.moa.ParcelStatusElement;
 import net.fhirfactory.pegacorn.petasos.model.resilience.parcel.ResilienceParcelIdentifier;
 import net.fhirfactory.pegacorn.petasos.model.resilience.parcel.ResilienceParcelProcessingStatusEnum;
@@ -31,12 +32,12 @@ import net.fhirfactory.pegacorn.petasos.topology.manager.TopologyIM;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * This is the re-factored Resilience framework ActivityMatrix for
@@ -44,6 +45,16 @@ import java.util.concurrent.ConcurrentHashMap;
  * It is a representational Matrix of all the Resilience
  * Parcel activity (effectively, Transactions) within the ServiceModule -
  * and has hooks for supporting updates from Clustered and Multi-Site equivalents.
+ * <p>
+ * The activity tracking itself is delegated to the (shared) ProcessingPlantActivityMatrix - the same engine
+ * used by the MOA ProcessingPlantWUAEpisodeActivityMatrixDM.
+ * <p>
+ * A Transaction is removed from the matrix as soon as it completes (see completeTransaction()), so the matrix only
+ * ever holds the in-flight Transactions. If "petasos.sta.transaction.retention.millis" is set, completed Transactions
+ * remain visible (via getTransactionElement()) for that window from a fixed-size STATransactionRetentionBuffer
+ * ("petasos.sta.transaction.retention.capacity" entries). As a backstop, the eviction sweep removes terminal
+ * Transactions older than "petasos.activitymatrix.sta.retention.millis" and in-flight ones older than
+ * "petasos.activitymatrix.sta.abandonment.millis" (whose completion was never notified).
  *
  * @author Mark A. Hunter
  * @since 2020-08-26
@@ -53,8 +64,13 @@ public class STAServiceModuleActivityMatrixDM {
 
     private static final Logger LOG = LoggerFactory.getLogger(STAServiceModuleActivityMatrixDM.class);
 
-    private ConcurrentHashMap<ResilienceParcelIdentifier, ParcelStatusElement> parcelStatusElementCache;
-    private ConcurrentHashMap<EpisodeIdentifier, HashSet<ResilienceParcelIdentifier>> wuaEpisode2ParcelInstanceMap;
+    public static final long DEFAULT_RETENTION_PERIOD_MILLISECONDS = 60000L;
+    public static final long DEFAULT_ABANDONMENT_PERIOD_MILLISECONDS = 600000L;
+    public static final long DEFAULT_EVICTION_SWEEP_INTERVAL_MILLISECONDS = 10000L;
+    public static final int DEFAULT_COMPLETED_TRANSACTION_RETENTION_CAPACITY = 1024;
+
+    private ProcessingPlantActivityMatrix activityMatrix;
+    private STATransactionRetentionBuffer completedTransactionBuffer;
 
     @Inject
     ProcessingPlantParcelCacheDM parcelCacheDM;
@@ -63,19 +79,33 @@ public class STAServiceModuleActivityMatrixDM {
     TopologyIM moduleIM;
 
     public STAServiceModuleActivityMatrixDM() {
-        parcelStatusElementCache = new ConcurrentHashMap<ResilienceParcelIdentifier, ParcelStatusElement>();
-        wuaEpisode2ParcelInstanceMap = new ConcurrentHashMap<EpisodeIdentifier, HashSet<ResilienceParcelIdentifier>>();
+        long retentionPeriod = Long.getLong("petasos.activitymatrix.sta.retention.millis", DEFAULT_RETENTION_PERIOD_MILLISECONDS);
+        long abandonmentPeriod = Long.getLong("petasos.activitymatrix.sta.abandonment.millis", DEFAULT_ABANDONMENT_PERIOD_MILLISECONDS);
+        activityMatrix = new ProcessingPlantActivityMatrix("sta-activitymatrix", new TerminalStatusRetentionEvictionPolicy(retentionPeriod, abandonmentPeriod));
+        long completedTransactionRetention = Long.getLong("petasos.sta.transaction.retention.millis", 0L);
+        if (completedTransactionRetention > 0) {
+            int retentionCapacity = Integer.getInteger("petasos.sta.transaction.retention.capacity", DEFAULT_COMPLETED_TRANSACTION_RETENTION_CAPACITY);
+            completedTransactionBuffer = new STATransactionRetentionBuffer(retentionCapacity, completedTransactionRetention);
+        }
+    }
+
+    @PostConstruct
+    public void start() {
+        activityMatrix.startEviction(DEFAULT_EVICTION_SWEEP_INTERVAL_MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        activityMatrix.stopEviction();
     }
     
     /**
      * This function registers (adds) the ParcelIdentifier and an associated ParcelStatusElement to the
-     * ParcelStatusElementCache (ConcurrentHashMap<ResilienceParcelIdentifier, ParcelStatusElement>). It
-     * first checks to see if there is an instance already there. This functionality needs to be
-     * enhanced to support cluster-based behaviours.
+     * ActivityMatrix. If there is an instance already there for the same ActivityID, its status is simply
+     * updated. This functionality needs to be enhanced to support cluster-based behaviours.
      *
-     * It then registers (adds) the ParcelIdentifier to the WUAEpisode2ParcelMap
-     * (ConcurrentHashMap<EpisodeIdentifier,HashSet<ResilienceParcelIdentifier>>) to track that
-     * the specific Parcel is part of a processing Episode.
+     * The ParcelIdentifier is also registered against its Episode, to track that the specific Parcel is
+     * part of a processing Episode.
      *
      * @param activityID The WUP/Parcel ActivityID
      * @param initialProcessingStatus The initial (provided) Processing Status of the ResilienceParcel
@@ -99,74 +129,7 @@ public class STAServiceModuleActivityMatrixDM {
         if (activityID == null) {
             throw (new IllegalArgumentException(".startTransaction(): activityID is null"));
         }
-        // First we are going to update the ParcelCache
-        LOG.trace(".startTransaction(): Adding/Updating the ParcelStatusElementCache with a new ParcelStatusElement");
-        ParcelStatusElement newStatusElement = null;
-        if(parcelStatusElementCache.containsKey(activityID.getPresentParcelIdentifier()))
-        {
-            // This really shouldn't happen, as concurrency should already be handled by the calling system... But, it's
-            // better to be safe than sorry!
-            LOG.trace(".startTransaction(): ParcelIdentifier already registered in the ParcelStatusElementCache, let's make sure it's the same though!");
-            ParcelStatusElement existingStatusElement = parcelStatusElementCache.get(activityID.getPresentParcelIdentifier());
-            boolean sameInstanceID = existingStatusElement.getParcelInstanceID().equals(activityID.getPresentParcelIdentifier());
-            boolean sameEpisodeID = existingStatusElement.getActivityID().getPresentEpisodeIdentifier().equals(activityID.getPresentEpisodeIdentifier());
-            boolean sameWUPInstanceID = existingStatusElement.getActivityID().getPresentWUPIdentifier().equals(activityID.getPresentWUPIdentifier());
-            boolean sameWUPTypeID = existingStatusElement.getActivityID().getPresentWUPFunctionToken().equals(activityID.getPresentWUPFunctionToken());
-            boolean sameUpstreamEpisodeID = existingStatusElement.getActivityID().getPreviousEpisodeIdentifier().equals(activityID.getPreviousEpisodeIdentifier());
-            if( sameInstanceID && sameEpisodeID && sameWUPInstanceID && sameWUPTypeID && sameUpstreamEpisodeID ){
-                LOG.trace(".startTransaction(): New ActivityID and existing (registered) ID the same, so update the status (maybe) and then exit");
-                existingStatusElement.setParcelStatus(initialProcessingStatus);
-                LOG.trace(".startTransaction(): Set the to-be-returned ParcelStatusElement to the existingStatusElement");
-                newStatusElement = existingStatusElement;
-            } else {
-                LOG.trace(".startTransaction(): New ActivityID and existing (registered) ID are different, so delete the existing one from the ParcelStatusElementCache!");
-                parcelStatusElementCache.remove(activityID.getPresentParcelIdentifier());
-                LOG.trace(".startTransaction(): Now create a new ParcelStatusElement, set its initial status and add it to the ParcelStatusElementCache!");
-                newStatusElement = new ParcelStatusElement(activityID);
-                newStatusElement.setParcelStatus(initialProcessingStatus);
-                LOG.trace(".startTransaction(): New ParcelStatusElement created, newStatusElement --> {}", newStatusElement);
-                parcelStatusElementCache.put(activityID.getPresentParcelIdentifier(), newStatusElement);
-            }
-        } else {
-            LOG.trace(".startTransaction(): Create a new ParcelStatusElement, set its initial status and add it to the ParcelStatusElementCache!");
-            newStatusElement = new ParcelStatusElement(activityID);
-            newStatusElement.setParcelStatus(initialProcessingStatus);
-            LOG.trace(".startTransaction(): New ParcelStatusElement created, newStatusElement --> {}", newStatusElement);
-            parcelStatusElementCache.put(activityID.getPresentParcelIdentifier(), newStatusElement);
-        }
-        // Now let's update the WUAEpisode2ParcelMap for the Episode/ResilienceParcel combination
-        if(LOG.isTraceEnabled()) {
-            LOG.trace(".startTransaction(): Adding the ReslienceParcelIdentifier to the WUAEpisode2ParcelMap");
-            LOG.trace(".startTransaction(): EpisodeIdentifier --> {}", activityID.getPresentEpisodeIdentifier() );
-            LOG.trace(".startTransaction(): ResilienceParcelIdentifier --> {}", activityID.getPresentParcelIdentifier());
-        }
-        if(!wuaEpisode2ParcelInstanceMap.containsKey(activityID.getPresentEpisodeIdentifier()) ){
-        	LOG.trace(".startTransaction(): No WUAEpisode2ParcelMap Entry for this Episode, creating!");
-        	HashSet<ResilienceParcelIdentifier> wuaEpisodeParcelSet = new HashSet<ResilienceParcelIdentifier>();
-        	LOG.trace(".startTransaction(): Add the ResilienceParcelIdentifier to the HashSet<ResilienceParcelIdentifier> set of Parcels associated to this Episode");
-            wuaEpisodeParcelSet.add(activityID.getPresentParcelIdentifier());
-            LOG.trace(".startTransaction(): Add the EpisodeIdentifier/HashSet<ResilienceParcelIdentifier> combination to the WUAEpisode2ParcelMap");
-        	wuaEpisode2ParcelInstanceMap.put(activityID.getPresentEpisodeIdentifier(),wuaEpisodeParcelSet );
-        } else {
-        	LOG.trace(".startTransaction(): WUAEpisode2ParcelMap Entry exists for this Episode, so retrieve the HashSet<ResilienceParcelIdentifier> set of Parcels associated to this Episode!");
-            Set<ResilienceParcelIdentifier> wuaEpisodeParcelSet = wuaEpisode2ParcelInstanceMap.get(activityID.getPresentEpisodeIdentifier());
-            LOG.trace(".startTransaction(): Now check to see if the ResilienceParcelIdentifier is already in the HashSet<ResilienceParcelIdentifier> set of Parcels associated to this Episode?");
-            Iterator<ResilienceParcelIdentifier> setIterator = wuaEpisodeParcelSet.iterator();
-            boolean foundParcelIdentifierInSet = false;
-            while(setIterator.hasNext()){
-                ResilienceParcelIdentifier currentParcelIdentifier = setIterator.next();
-                if(currentParcelIdentifier.equals(activityID.getPresentParcelIdentifier())){
-                    foundParcelIdentifierInSet = true;
-                    break;
-                }
-            }
-            if(!foundParcelIdentifierInSet) {
-                LOG.trace(".startTransaction(): The ResilienceParcelIdentifier is not already in the HashSet<ResilienceParcelIdentifier> set, so add it!");
-                wuaEpisodeParcelSet.add(activityID.getPresentParcelIdentifier());
-            } else {
-                LOG.trace(".startTransaction(): The ResilienceParcelIdentifier is already in the HashSet<ResilienceParcelIdentifier> set, so do nothing!");
-            }
-        }
+        ParcelStatusElement newStatusElement = activityMatrix.registerActivity(activityID, initialProcessingStatus);
         LOG.debug(".startTransaction(): Exit, newStatusElement --> {}", newStatusElement);
         return(newStatusElement);
     }
@@ -179,45 +142,71 @@ public class STAServiceModuleActivityMatrixDM {
      */
     public void finishTransaction(ActivityID activityID, ResilienceParcelProcessingStatusEnum status) {
         if (activityID == null) {
-            throw (new IllegalArgumentException(".updateParcelActivity(): ActivityID (activityID) Processing Status (status) is null"));
+            throw (new IllegalArgumentException(".finishTransaction(): activityID is null"));
         }
         if(LOG.isDebugEnabled()) {
             // There's just too much information in this object to have it print on a single line and be able to debug with it!!!
-            LOG.debug(".startTransaction(): Entry");
-            LOG.debug(".startTransaction(): activityID (ActivityID).previousParcelIdentifier -->{}", activityID.getPreviousParcelIdentifier());
-            LOG.debug(".startTransaction(): activityID (ActivityID).previousEpisodeIdentifier --> {}", activityID.getPreviousEpisodeIdentifier());
-            LOG.debug(".startTransaction(): activityID (ActivityID).previousWUPFunctionToken --> {}", activityID.getPreviousWUPFunctionToken());
-            LOG.debug(".startTransaction(): activityID (ActivityID).perviousWUPIdentifier --> {}", activityID.getPreviousWUPIdentifier());
-            LOG.debug(".startTransaction(): activityID (ActivityID).presentParcelIdentifier -->{}", activityID.getPresentParcelIdentifier());
-            LOG.debug(".startTransaction(): activityID (ActivityID).presentEpisodeIdentifier --> {}", activityID.getPresentEpisodeIdentifier());
-            LOG.debug(".startTransaction(): activityID (ActivityID).presentWUPFunctionTokan --> {}", activityID.getPresentWUPFunctionToken());
-            LOG.debug(".startTransaction(): activityID (ActivityID).presentWUPIdentifier --> {}", activityID.getPresentWUPIdentifier());
-            LOG.debug(".startTransaction(): activityID (ContunuityID).createDate --> {}", activityID.getCreationDate());
-            LOG.debug(".startTransaction(): initialProcessingStatus (ResilienceParcelProcessingStatusEnum) --> {}", status);
+            LOG.debug(".finishTransaction(): Entry");
+            LOG.debug(".finishTransaction(): activityID (ActivityID).previousParcelIdentifier -->{}", activityID.getPreviousParcelIdentifier());
+            LOG.debug(".finishTransaction(): activityID (ActivityID).previousEpisodeIdentifier --> {}", activityID.getPreviousEpisodeIdentifier());
+            LOG.debug(".finishTransaction(): activityID (ActivityID).previousWUPFunctionToken --> {}", activityID.getPreviousWUPFunctionToken());
+            LOG.debug(".finishTransaction(): activityID (ActivityID).perviousWUPIdentifier --> {}", activityID.getPreviousWUPIdentifier());
+            LOG.debug(".finishTransaction(): activityID (ActivityID).presentParcelIdentifier -->{}", activityID.getPresentParcelIdentifier());
+            LOG.debug(".finishTransaction(): activityID (ActivityID).presentEpisodeIdentifier --> {}", activityID.getPresentEpisodeIdentifier());
+            LOG.debug(".finishTransaction(): activityID (ActivityID).presentWUPFunctionTokan --> {}", activityID.getPresentWUPFunctionToken());
+            LOG.debug(".finishTransaction(): activityID (ActivityID).presentWUPIdentifier --> {}", activityID.getPresentWUPIdentifier());
+            LOG.debug(".finishTransaction(): activityID (ContunuityID).createDate --> {}", activityID.getCreationDate());
+            LOG.debug(".finishTransaction(): status (ResilienceParcelProcessingStatusEnum) --> {}", status);
+        }
+        ParcelStatusElement currentStatusElement = activityMatrix.updateActivityStatus(activityID.getPresentParcelIdentifier(), status);
+        LOG.debug(".finishTransaction(): Exit, updated currentStatusElement --> {}", currentStatusElement);
+    }
+
+    /**
+     * This function completes the Transaction - setting its final status and removing it from the ActivityMatrix
+     * (retaining it in the STATransactionRetentionBuffer, if enabled).
+     *
+     * @param activityID The unique Identifier that distinctly represents this work/resilience activity function
+     * @param status     The final status of the Transaction (finished, failed or cancelled)
+     * @return The completed ParcelStatusElement, or null if the Transaction was not (or is no longer) registered
+     */
+    public ParcelStatusElement completeTransaction(ActivityID activityID, ResilienceParcelProcessingStatusEnum status) {
+        LOG.debug(".completeTransaction(): Entry, status --> {}", status);
+        if (activityID == null) {
+            throw (new IllegalArgumentException(".completeTransaction(): activityID is null"));
         }
-        LOG.trace(".finishTransaction(): Get the current ParcelStatusElement");
-        ResilienceParcelIdentifier parcelInstanceID = activityID.getPresentParcelIdentifier();
-        ParcelStatusElement currentStatusElement;
-        if(parcelStatusElementCache.containsKey(parcelInstanceID)) {
-            LOG.trace(".finishTransaction(): ParcelStatusElement exists -> get it!");
-            currentStatusElement = parcelStatusElementCache.get(parcelInstanceID);
-            LOG.trace(".finishTransaction(): Updating status of the ParcelStatusElement!");
-            currentStatusElement.setParcelStatus(status);
+        ParcelStatusElement completedElement = activityMatrix.removeActivity(activityID.getPresentParcelIdentifier());
+        if (completedElement != null) {
+            completedElement.setParcelStatus(status);
+            if (completedTransactionBuffer != null) {
+                completedTransactionBuffer.record(completedElement);
+            }
         }
-        LOG.debug(".finishTransaction(): Exit, updated currentStatusElement --> {}");
+        LOG.debug(".completeTransaction(): Exit, completedElement --> {}", completedElement);
+        return (completedElement);
     }
 
     public ParcelStatusElement getTransactionElement(ResilienceParcelIdentifier parcelInstanceID) {
         LOG.debug(".getCurrentParcelStatusElement(): Entry, parcelInstanceID --> {}", parcelInstanceID);
-        if(parcelStatusElementCache.containsKey(parcelInstanceID)) {
-	        ParcelStatusElement requestedElement = parcelStatusElementCache.get(parcelInstanceID);
-	        LOG.debug(".getCurrentParcelStatusElement(): Exit, returning requestedElement --> {}", requestedElement);
-	        return (requestedElement);
+        ParcelStatusElement requestedElement = activityMatrix.getStatusElement(parcelInstanceID);
+        if ((requestedElement == null) && (completedTransactionBuffer != null)) {
+            requestedElement = completedTransactionBuffer.find(parcelInstanceID);
         }
-        else {
-            LOG.debug(".getCurrentParcelStatusElement(): no matching element.");
-            return (null);        	
+        LOG.debug(".getCurrentParcelStatusElement(): Exit, returning requestedElement --> {}", requestedElement);
+        return (requestedElement);
+    }
+
+    /**
+     * @return The completed Transactions still within the retention window (most recent first), empty if retention is disabled
+     */
+    public List<ParcelStatusElement> getRecentlyCompletedTransactions() {
+        if (completedTransactionBuffer == null) {
+            return (Collections.emptyList());
         }
+        return (completedTransactionBuffer.getRetainedElements());
     }
 
+    public int getInFlightTransactionCount() {
+        return (activityMatrix.getActivityCount());
+    }
 }
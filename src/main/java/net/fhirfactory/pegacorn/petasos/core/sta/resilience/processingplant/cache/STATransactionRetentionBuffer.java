@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.core.sta.resilience.processingplant.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import net.fhirfactory.pegacorn.petasos.model.resilience.activitymatrix.moa.ParcelStatusElement;
+import net.fhirfactory.pegacorn.petasos.model.resilience.parcel.ResilienceParcelIdentifier;
+
+/**
+ * A fixed-size ring buffer of recently completed (finished, failed or cancelled) STA Transactions, retained for
+ * diagnostics once they have been removed from the STA ActivityMatrix. Each slot holds the completed
+ * ParcelStatusElement and its completion time; a slot is simply overwritten once the buffer wraps, so the memory
+ * used is bounded regardless of the request rate. Entries older than the retention window are ignored.
+ * <p>
+ * Recording is lock-free (a single atomic increment to claim a slot). Lookups scan the buffer and are intended
+ * for diagnostics only.
+ *
+ * @author Mark A. Hunter
+ * @since 2020-08-01
+ */
+public class STATransactionRetentionBuffer {
+    private AtomicReferenceArray<ParcelStatusElement> completedElements;
+    private AtomicLongArray completionTimes;
+    private AtomicLong nextSlot;
+    private long retentionWindow;
+
+    /**
+     * @param capacity The number of completed Transactions the buffer can hold
+     * @param retentionWindow The period (milliseconds) a completed Transaction is retained for
+     */
+    public STATransactionRetentionBuffer(int capacity, long retentionWindow) {
+        if (capacity <= 0) {
+            throw (new IllegalArgumentException(".STATransactionRetentionBuffer(): capacity must be positive"));
+        }
+        this.completedElements = new AtomicReferenceArray<ParcelStatusElement>(capacity);
+        this.completionTimes = new AtomicLongArray(capacity);
+        this.nextSlot = new AtomicLong(0);
+        this.retentionWindow = retentionWindow;
+    }
+
+    public void record(ParcelStatusElement completedElement) {
+        if (completedElement == null) {
+            return;
+        }
+        int slot = (int) (nextSlot.getAndIncrement() % completedElements.length());
+        // the time is cleared first, so a concurrent reader never pairs the new element with a stale time
+        completionTimes.set(slot, 0L);
+        completedElements.set(slot, completedElement);
+        completionTimes.set(slot, System.currentTimeMillis());
+    }
+
+    /**
+     * @param parcelInstanceID The ResilienceParcelIdentifier of the Transaction
+     * @return The most recently completed (and still retained) ParcelStatusElement for the parcel, or null
+     */
+    public ParcelStatusElement find(ResilienceParcelIdentifier parcelInstanceID) {
+        if (parcelInstanceID == null) {
+            return (null);
+        }
+        long cutOffTime = System.currentTimeMillis() - retentionWindow;
+        long lastSlot = nextSlot.get();
+        long firstSlot = Math.max(0, lastSlot - completedElements.length());
+        for (long currentSlot = lastSlot - 1; currentSlot >= firstSlot; currentSlot--) {
+            int slot = (int) (currentSlot % completedElements.length());
+            ParcelStatusElement completedElement = completedElements.get(slot);
+            if ((completedElement != null) && (completionTimes.get(slot) >= cutOffTime) && parcelInstanceID.equals(completedElement.getParcelInstanceID())) {
+                return (completedElement);
+            }
+        }
+        return (null);
+    }
+
+    /**
+     * @return The completed Transactions still within the retention window, most recent first
+     */
+    public List<ParcelStatusElement> getRetainedElements() {
+        List<ParcelStatusElement> retainedElements = new ArrayList<ParcelStatusElement>();
+        long cutOffTime = System.currentTimeMillis() - retentionWindow;
+        long lastSlot = nextSlot.get();
+        long firstSlot = Math.max(0, lastSlot - completedElements.length());
+        for (long currentSlot = lastSlot - 1; currentSlot >= firstSlot; currentSlot--) {
+            int slot = (int) (currentSlot % completedElements.length());
+            ParcelStatusElement completedElement = completedElements.get(slot);
+            if ((completedElement != null) && (completionTimes.get(slot) >= cutOffTime)) {
+                retainedElements.add(completedElement);
+            }
+        }
+        return (retainedElements);
+    }
+
+    public long getRecordedCount() {
+        return (nextSlot.get());
+    }
+}
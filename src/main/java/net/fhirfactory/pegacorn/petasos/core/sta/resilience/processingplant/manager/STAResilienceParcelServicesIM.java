@@ -22,8 +22,9 @@
 
 package net.fhirfactory.pegacorn.petasos.core.sta.resilience.processingplant.manager;
 
-import net.fhirfactory.pegacorn.common.model.FDN;
+import net.fhirfactory.pegacorn.petasos.core.common.clock.PetasosClock;
 import net.fhirfactory.pegacorn.petasos.audit.api.PetasosAuditWriter;
+import net.fhirfactory.pegacorn.petasos.core.common.identifiers.PetasosIdentifierFactory;
 import net.fhirfactory.pegacorn.petasos.core.common.resilience.processingplant.cache.ProcessingPlantParcelCacheDM;
 import net.fhirfactory.pegacorn.petasos.model.pathway.ActivityID;
 import net.fhirfactory.pegacorn.petasos.model.resilience.activitymatrix.moa.EpisodeIdentifier;
@@ -38,7 +39,6 @@ import org.slf4j.LoggerFactory;
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
 import javax.transaction.Transactional;
-import java.time.Instant;
 import java.util.Date;
 
 /**
@@ -53,6 +53,9 @@ public class STAResilienceParcelServicesIM {
 
     @Inject
     PetasosAuditWriter auditWriter;
+
+    @Inject
+    PetasosIdentifierFactory identifierFactory;
     
 
     @Transactional
@@ -82,10 +85,7 @@ public class STAResilienceParcelServicesIM {
         LOG.trace(".registerParcel(): Checking and/or Creating a SOAWUAEpisde ID");
 
         if(!activityID.hasPresentEpisodeIdentifier()) {
-        	FDN newWUAFDN = new FDN(activityID.getPresentWUPFunctionToken().getAsSingleFDNToken());
-        	FDN uowTypeFDN = new FDN(unitOfWork.getTypeID());
-        	newWUAFDN.appendFDN(uowTypeFDN);
-        	EpisodeIdentifier wuaEpisodeToken = new EpisodeIdentifier(newWUAFDN.getToken());
+        	EpisodeIdentifier wuaEpisodeToken = identifierFactory.getWUAEpisodeIdentifier(activityID.getPresentWUPFunctionToken(), unitOfWork.getTypeID());
         	activityID.setPresentEpisodeIdentifier(wuaEpisodeToken);
         }
         // 1st, lets register the parcel
@@ -99,7 +99,7 @@ public class STAResilienceParcelServicesIM {
             parcelCacheDM.addParcel(parcelInstance);
             LOG.trace(".registerSOAParcel(): Set the PresentParcelInstanceID in the ActivityID (ActivityID), ParcelInstanceID --> {}", parcelInstance.getIdentifier());
             activityID.setPresentParcelIdentifier(parcelInstance.getIdentifier());
-            Date registrationDate = Date.from(Instant.now());
+            Date registrationDate = PetasosClock.now();
             LOG.trace(".registerSOAParcel(): Set the Registration Date --> {}", registrationDate);
             parcelInstance.setRegistrationDate(registrationDate);
             LOG.trace(".registerSOAParcel(): Set the Parcel Finalisation Status --> {} ", ResilienceParcelFinalisationStatusEnum.PARCEL_FINALISATION_STATUS_NOT_FINALISED);
@@ -142,7 +142,7 @@ public class STAResilienceParcelServicesIM {
         }
         LOG.trace(".notifyParcelProcessingStart(): retrieve existing Parcel");
         ResilienceParcel currentParcel = parcelCacheDM.getParcelInstance(parcelID);
-        Date startDate = Date.from(Instant.now());
+        Date startDate = PetasosClock.now();
         LOG.trace(".notifyParcelProcessingStart(): Set the Start Date --> {}", startDate);
         currentParcel.setStartDate(startDate);
         LOG.trace(".notifyParcelProcessingStart(): Set the Parcel Finalisation Status --> {} ", ResilienceParcelFinalisationStatusEnum.PARCEL_FINALISATION_STATUS_NOT_FINALISED);
@@ -212,7 +212,7 @@ public class STAResilienceParcelServicesIM {
             LOG.trace(".notifyParcelProcessingFinish(): update the UoW Processing Outcome --> {}", unitOfWork.getProcessingOutcome());
             currentParcel.getActualUoW().setProcessingOutcome(unitOfWork.getProcessingOutcome());
         }
-        Date finishDate = Date.from(Instant.now());
+        Date finishDate = PetasosClock.now();
         LOG.trace(".notifyParcelProcessingFinish(): Set the Finish Date --> {}", finishDate);
         currentParcel.setFinishedDate(finishDate);
         LOG.trace(".notifyParcelProcessingFinish(): Set the Finalisation Date --> {}", finishDate);
@@ -260,7 +260,7 @@ public class STAResilienceParcelServicesIM {
         currentParcel.getActualUoW().setEgressContent(unitOfWork.getEgressContent());
         LOG.trace(".notifyParcelProcessingFailure(): update the UoW Processing Outcome --> {}", unitOfWork.getProcessingOutcome());
         currentParcel.getActualUoW().setProcessingOutcome(unitOfWork.getProcessingOutcome());
-        Date finishDate = Date.from(Instant.now());
+        Date finishDate = PetasosClock.now();
         LOG.trace(".notifyParcelProcessingFailure(): Set the Finish Date --> {}", finishDate);
         currentParcel.setFinishedDate(finishDate);
         LOG.trace(".notifyParcelProcessingFailure(): Set the Parcel Finalisation Status --> {} ", ResilienceParcelFinalisationStatusEnum.PARCEL_FINALISATION_STATUS_NOT_FINALISED);
@@ -284,11 +284,11 @@ public class STAResilienceParcelServicesIM {
         ResilienceParcel currentParcel = parcelCacheDM.getParcelInstance(parcelID);
         LOG.trace(".notifyParcelProcessingFinalisation(): checking to see if finish date has been set and, if not, setting it");
         if(!currentParcel.hasFinishedDate()) {
-            Date finishDate = Date.from(Instant.now());
+            Date finishDate = PetasosClock.now();
             LOG.trace(".notifyParcelProcessingFinalisation(): Set the Finish Date --> {}", finishDate);
             currentParcel.setFinishedDate(finishDate);
         }
-        Date finalisationDate = Date.from(Instant.now());
+        Date finalisationDate = PetasosClock.now();
         LOG.trace(".notifyParcelProcessingFinalisation(): Set the Finalisation Date --> {}", finalisationDate);
         currentParcel.setFinalisationDate(finalisationDate);
         LOG.trace(".notifyParcelProcessingFinalisation(): Set the Parcel Finalisation Status --> {} ", ResilienceParcelFinalisationStatusEnum.PARCEL_FINALISATION_STATUS_FINALISED);
@@ -312,11 +312,11 @@ public class STAResilienceParcelServicesIM {
         ResilienceParcel currentParcel = parcelCacheDM.getParcelInstance(parcelID);
         LOG.trace(".notifyParcelProcessingCancellation(): checking to see if finish date has been set and, if not, setting it");
         if(!currentParcel.hasFinishedDate()) {
-            Date finishDate = Date.from(Instant.now());
+            Date finishDate = PetasosClock.now();
             LOG.trace(".notifyParcelProcessingCancellation(): Set the Finish Date --> {}", finishDate);
             currentParcel.setFinishedDate(finishDate);
         }
-        Date finalisationDate = Date.from(Instant.now());
+        Date finalisationDate = PetasosClock.now();
         LOG.trace(".notifyParcelProcessingCancellation(): Set the Finalisation Date --> {}", finalisationDate);
         currentParcel.setFinalisationDate(finalisationDate);
         LOG.trace(".notifyParcelProcessingCancellation(): Set the Parcel Finalisation Status --> {} ", ResilienceParcelFinalisationStatusEnum.PARCEL_FINALISATION_STATUS_FINALISED);
@@ -22,6 +22,7 @@
 
 package net.fhirfactory.pegacorn.petasos.core.sta.resilience.processingplant.manager.tasks;
 
+import net.fhirfactory.pegacorn.petasos.core.common.clock.PetasosClock;
 import net.fhirfactory.pegacorn.petasos.core.sta.resilience.processingplant.cache.STAServiceModuleActivityMatrixDM;
 import net.fhirfactory.pegacorn.petasos.model.pathway.ActivityID;
 import net.fhirfactory.pegacorn.petasos.model.resilience.activitymatrix.moa.EpisodeIdentifier;
@@ -36,7 +37,6 @@ import org.slf4j.LoggerFactory;
 
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
-import java.time.Instant;
 import java.util.Date;
 
 @ApplicationScoped
@@ -127,16 +127,24 @@ public class FinaliseSOAWorkUnitActivityTask {
 				ParcelStatusElement statusElement = activityMatrixDM.getTransactionElement(parcelInstanceID);
 				LOG.trace(".standaloneModeSynchroniseJobCard(): Retrieved ParcelStatusElement --> {}", statusElement);
 				submittedJobCard.setGrantedStatus(submittedJobCard.getCurrentStatus());
-				submittedJobCard.setUpdateDate(Date.from(Instant.now()));
+				submittedJobCard.setUpdateDate(PetasosClock.now());
+				// only a terminal status completes (removes) the Transaction - one still executing or waiting stays registered
 				switch(submittedJobCard.getCurrentStatus()) {
 					case WUP_ACTIVITY_STATUS_FINISHED:
-						activityMatrixDM.finishTransaction(activityID, ResilienceParcelProcessingStatusEnum.PARCEL_STATUS_FINALISED);
+						activityMatrixDM.completeTransaction(activityID, ResilienceParcelProcessingStatusEnum.PARCEL_STATUS_FINALISED);
+						break;
 					case WUP_ACTIVITY_STATUS_FAILED:
-					case WUP_ACTIVITY_STATUS_WAITING:
+						activityMatrixDM.completeTransaction(activityID, ResilienceParcelProcessingStatusEnum.PARCEL_STATUS_FAILED);
+						break;
 					case WUP_ACTIVITY_STATUS_CANCELED:
+						activityMatrixDM.completeTransaction(activityID, ResilienceParcelProcessingStatusEnum.PARCEL_STATUS_CANCELLED);
+						break;
 					case WUP_ACTIVITY_STATUS_EXECUTING:
+						activityMatrixDM.finishTransaction(activityID, ResilienceParcelProcessingStatusEnum.PARCEL_STATUS_ACTIVE);
+						break;
+					case WUP_ACTIVITY_STATUS_WAITING:
 					default:
-						activityMatrixDM.finishTransaction(activityID, ResilienceParcelProcessingStatusEnum.PARCEL_STATUS_FAILED);
+						LOG.trace(".standaloneModeSynchroniseJobCard(): Transaction not in a terminal state, leaving it registered, currentStatus --> {}", submittedJobCard.getCurrentStatus());
 				}
 			}
 		}
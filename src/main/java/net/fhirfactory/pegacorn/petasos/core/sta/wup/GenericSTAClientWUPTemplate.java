@@ -6,10 +6,12 @@ import net.fhirfactory.pegacorn.common.model.RDN;
 import net.fhirfactory.pegacorn.deployment.topology.manager.DeploymentTopologyIM;
 import net.fhirfactory.pegacorn.petasos.core.sta.brokers.PetasosSTAServicesBroker;
 import net.fhirfactory.pegacorn.petasos.model.processingplant.ProcessingPlantServicesInterface;
+import net.fhirfactory.pegacorn.petasos.model.resilience.activitymatrix.sta.STATransaction;
 import net.fhirfactory.pegacorn.petasos.model.topology.NodeElement;
 import net.fhirfactory.pegacorn.petasos.model.topology.NodeElementFunctionToken;
 import net.fhirfactory.pegacorn.petasos.model.topology.NodeElementIdentifier;
 import net.fhirfactory.pegacorn.petasos.model.topology.NodeElementTypeEnum;
+import net.fhirfactory.pegacorn.petasos.model.uow.UoW;
 import net.fhirfactory.pegacorn.petasos.model.wup.WUPIdentifier;
 import net.fhirfactory.pegacorn.petasos.model.wup.WUPJobCard;
 import net.fhirfactory.pegacorn.util.FHIRContextUtility;
@@ -26,6 +28,7 @@ public abstract class GenericSTAClientWUPTemplate {
     private NodeElement apiClientNode;
     private String apiClientVersion;
     private boolean isInitialised;
+    private STATransactionPool transactionPool;
 
     private IParser parserR4;
 
@@ -60,6 +63,8 @@ public abstract class GenericSTAClientWUPTemplate {
             this.apiClientNode = buildPersistenceServiceNode();
             this.apiClientNodeFunction = this.apiClientNode.getNodeFunctionToken();
             this.apiClientWUP = new WUPIdentifier(this.apiClientNode.getNodeInstanceID());
+            int transactionPoolSize = Integer.getInteger("petasos.sta.transaction.pool.size", 64);
+            this.transactionPool = new STATransactionPool(this.apiClientNodeFunction, this.apiClientWUP, this.apiClientNode.getConcurrencyMode(), this.apiClientNode.getResilienceMode(), transactionPoolSize);
         }
     }
 
@@ -111,6 +116,37 @@ public abstract class GenericSTAClientWUPTemplate {
         return (persistenceService);
     }
 
+    /**
+     * This function borrows a (reset) STATransaction - with its WUPJobCard and ActivityID - for this API client from
+     * the transaction pool. The transaction is then registered with the PetasosSTAServicesBroker (see
+     * registerSTAWorkUnitActivity(STATransaction) and registerLightweightSTAWorkUnitActivity(STATransaction)) and,
+     * once the broker has been notified of its outcome, given back via returnTransaction().
+     *
+     * @param theUoW The UoW of the transaction
+     * @return A reset STATransaction
+     */
+    protected STATransaction borrowTransaction(UoW theUoW) {
+        return (transactionPool.borrowTransaction(theUoW));
+    }
+
+    /**
+     * This function returns a borrowed STATransaction to the transaction pool - it (and its WUPJobCard, ActivityID
+     * and UoW) must not be referenced by the caller afterwards.
+     *
+     * @param transaction The STATransaction (from borrowTransaction())
+     */
+    protected void returnTransaction(STATransaction transaction) {
+        transactionPool.returnTransaction(transaction);
+    }
+
+    public STATransactionPool getTransactionPool() {
+        return transactionPool;
+    }
+
+    protected PetasosSTAServicesBroker getServicesBroker() {
+        return servicesBroker;
+    }
+
     public NodeElementFunctionToken getApiClientNodeFunction() {
         return apiClientNodeFunction;
     }
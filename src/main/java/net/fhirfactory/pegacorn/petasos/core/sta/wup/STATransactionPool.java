@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.core.sta.wup;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.fhirfactory.pegacorn.petasos.core.common.clock.PetasosClock;
+import net.fhirfactory.pegacorn.petasos.core.sta.brokers.PetasosSTATransaction;
+import net.fhirfactory.pegacorn.petasos.model.pathway.ActivityID;
+import net.fhirfactory.pegacorn.petasos.model.resilience.activitymatrix.sta.STATransaction;
+import net.fhirfactory.pegacorn.petasos.model.resilience.mode.ConcurrencyModeEnum;
+import net.fhirfactory.pegacorn.petasos.model.resilience.mode.ResilienceModeEnum;
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElementFunctionToken;
+import net.fhirfactory.pegacorn.petasos.model.uow.UoW;
+import net.fhirfactory.pegacorn.petasos.model.wup.WUPActivityStatusEnum;
+import net.fhirfactory.pegacorn.petasos.model.wup.WUPIdentifier;
+import net.fhirfactory.pegacorn.petasos.model.wup.WUPJobCard;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A bounded pool of reusable STATransaction records (each with its WUPJobCard and ActivityID) for a single STA
+ * (API) WUP.
+ * <p>
+ * The lifecycle of a pooled record is: borrowTransaction() (the record is reset to the "executing" state and given
+ * the UoW) --> register with the PetasosSTAServicesBroker --> work --> notify the broker of the outcome -->
+ * returnTransaction(). Once returned, the caller must no longer reference the record (or its UoW, WUPJobCard or
+ * ActivityID).
+ * <p>
+ * Only a lightweight (parcel-less) transaction is recycled - in full, including its ParcelStatusElement. A full
+ * (parcel-backed) transaction's ActivityID is still referenced by the STA ActivityMatrix retention buffer (and the
+ * ResilienceParcel) after it completes, so it can't be reset in place; as recycling just its STATransaction shell
+ * would still allocate a fresh WUPJobCard/ActivityID per transaction, a returned full transaction is simply dropped
+ * (see getDroppedCount()).
+ * <p>
+ * If the pool is empty, a new record is created; if it is full, a returned record is simply dropped (left to the
+ * garbage collector). A capacity of 0 disables pooling.
+ *
+ * @author Mark A. Hunter
+ * @since 2020-08-01
+ */
+public class STATransactionPool {
+	private static final Logger LOG = LoggerFactory.getLogger(STATransactionPool.class);
+
+	private NodeElementFunctionToken wupFunctionToken;
+	private WUPIdentifier wupIdentifier;
+	private ConcurrencyModeEnum concurrencyMode;
+	private ResilienceModeEnum resilienceMode;
+	private ArrayBlockingQueue<STATransaction> pooledTransactions;
+	private AtomicLong borrowCount;
+	private AtomicLong creationCount;
+	private AtomicLong droppedCount;
+
+	public STATransactionPool(NodeElementFunctionToken wupFunctionToken, WUPIdentifier wupIdentifier, ConcurrencyModeEnum concurrencyMode, ResilienceModeEnum resilienceMode, int capacity) {
+		this.wupFunctionToken = wupFunctionToken;
+		this.wupIdentifier = wupIdentifier;
+		this.concurrencyMode = concurrencyMode;
+		this.resilienceMode = resilienceMode;
+		this.pooledTransactions = (capacity > 0) ? new ArrayBlockingQueue<STATransaction>(capacity) : null;
+		this.borrowCount = new AtomicLong();
+		this.creationCount = new AtomicLong();
+		this.droppedCount = new AtomicLong();
+	}
+
+	/**
+	 * This function borrows a (reset) STATransaction from the pool - its WUPJobCard is in the "executing" state and
+	 * its ActivityID identifies this pool's WUP only.
+	 *
+	 * @param theUoW The UoW of the transaction
+	 * @return The STATransaction, ready for registration with the PetasosSTAServicesBroker
+	 */
+	public STATransaction borrowTransaction(UoW theUoW) {
+		if (theUoW == null) {
+			throw (new IllegalArgumentException(".borrowTransaction(): theUoW is null"));
+		}
+		borrowCount.incrementAndGet();
+		STATransaction transaction = (pooledTransactions != null) ? pooledTransactions.poll() : null;
+		if (transaction == null) {
+			transaction = new PetasosSTATransaction();
+			transaction.setJobCard(newJobCard());
+			creationCount.incrementAndGet();
+		} else {
+			WUPJobCard jobCard = transaction.getJobCard();
+			jobCard.setCurrentStatus(WUPActivityStatusEnum.WUP_ACTIVITY_STATUS_EXECUTING);
+			jobCard.setRequestedStatus(WUPActivityStatusEnum.WUP_ACTIVITY_STATUS_EXECUTING);
+			jobCard.setUpdateDate(PetasosClock.now());
+		}
+		transaction.setUnitOfWork(theUoW);
+		return (transaction);
+	}
+
+	/**
+	 * This function returns the STATransaction to the pool. It must only be called once the PetasosSTAServicesBroker
+	 * has been notified of the transaction's outcome (and any purge). A full (parcel-backed) transaction is not
+	 * pooled - it is dropped.
+	 *
+	 * @param transaction The STATransaction borrowed from this pool
+	 */
+	public void returnTransaction(STATransaction transaction) {
+		if ((transaction == null) || (pooledTransactions == null)) {
+			return;
+		}
+		WUPJobCard jobCard = transaction.getJobCard();
+		boolean lightweight = (transaction instanceof PetasosSTATransaction) && ((PetasosSTATransaction) transaction).isLightweight();
+		if ((jobCard == null) || !lightweight) {
+			// A parcel-backed transaction - its ActivityID (and ParcelStatusElement) are still referenced elsewhere
+			LOG.trace(".returnTransaction(): Full transaction, dropped");
+			droppedCount.incrementAndGet();
+			return;
+		}
+		transaction.setUnitOfWork(null);
+		resetActivityID(jobCard.getActivityID());
+		jobCard.setGrantedStatus(null);
+		jobCard.setIsToBeDiscarded(false);
+		if (!pooledTransactions.offer(transaction)) {
+			LOG.trace(".returnTransaction(): Pool is full, transaction dropped");
+			droppedCount.incrementAndGet();
+		}
+	}
+
+	private WUPJobCard newJobCard() {
+		ActivityID activityID = new ActivityID();
+		resetActivityID(activityID);
+		WUPJobCard jobCard = new WUPJobCard(activityID, WUPActivityStatusEnum.WUP_ACTIVITY_STATUS_EXECUTING, WUPActivityStatusEnum.WUP_ACTIVITY_STATUS_EXECUTING, concurrencyMode, resilienceMode, PetasosClock.now());
+		return (jobCard);
+	}
+
+	private void resetActivityID(ActivityID activityID) {
+		activityID.setPresentWUPFunctionToken(wupFunctionToken);
+		activityID.setPresentWUPIdentifier(wupIdentifier);
+		activityID.setPresentParcelIdentifier(null);
+		activityID.setPresentEpisodeIdentifier(null);
+		activityID.setPreviousWUPFunctionToken(null);
+		activityID.setPreviousWUPIdentifier(null);
+		activityID.setPreviousParcelIdentifier(null);
+		activityID.setPreviousEpisodeIdentifier(null);
+	}
+
+	public int getPooledCount() {
+		return ((pooledTransactions != null) ? pooledTransactions.size() : 0);
+	}
+
+	public long getBorrowCount() {
+		return (borrowCount.get());
+	}
+
+	/**
+	 * @return The number of records created by the pool (a borrow that is not served from the pool creates one)
+	 */
+	public long getCreationCount() {
+		return (creationCount.get());
+	}
+
+	/**
+	 * @return The number of returned records not pooled - full (parcel-backed) transactions, or returns to a full pool
+	 */
+	public long getDroppedCount() {
+		return (droppedCount.get());
+	}
+}
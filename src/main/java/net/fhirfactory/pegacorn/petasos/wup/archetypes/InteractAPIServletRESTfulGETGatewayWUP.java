@@ -22,33 +22,124 @@
 
 package net.fhirfactory.pegacorn.petasos.wup.archetypes;
 
+import net.fhirfactory.pegacorn.common.model.FDNToken;
+import net.fhirfactory.pegacorn.petasos.core.common.clock.PetasosClock;
 import net.fhirfactory.pegacorn.petasos.core.sta.wup.GenericSTAWUPTemplate;
 import net.fhirfactory.pegacorn.petasos.model.pathway.ActivityID;
+import net.fhirfactory.pegacorn.petasos.model.resilience.activitymatrix.sta.STATransaction;
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElementIdentifier;
 import net.fhirfactory.pegacorn.petasos.model.uow.UoW;
+import net.fhirfactory.pegacorn.petasos.model.wup.WUPActivityStatusEnum;
 import net.fhirfactory.pegacorn.petasos.model.wup.WUPClusterModeEnum;
+import net.fhirfactory.pegacorn.petasos.model.wup.WUPJobCard;
 import net.fhirfactory.pegacorn.petasos.model.wup.WUPSystemModeEnum;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.concurrent.ConcurrentHashMap;
 
+
+/**
+ * The archetype for the RESTful GET (read-only) API Gateway WUPs. As a GET is idempotent - it is never recovered or
+ * re-executed on failure - its activity is registered as a lightweight STA transaction (see
+ * PetasosSTAServicesBroker.registerLightweightSTAWorkUnitActivity(), lightweight transactions are enabled by default):
+ * no ResilienceParcel is cached and only the completion of the transaction is audited.
+ * <p>
+ * Callers should hold on to the (returned) STATransaction and complete it with registerActivityFinish(STATransaction),
+ * from a finally block. The original UoW based methods are retained - the WUP then tracks the in-flight transaction
+ * against the UoW's instanceID, until registerActivityFinish(UoW) is called.
+ *
+ * @author Mark A. Hunter
+ * @since 2020-08-01
+ */
 public abstract class InteractAPIServletRESTfulGETGatewayWUP extends GenericSTAWUPTemplate {
     private static final Logger LOG = LoggerFactory.getLogger(InteractAPIServletRESTfulGETGatewayWUP.class);
 
+    private ConcurrentHashMap<FDNToken, STATransaction> inFlightTransactions;
+
     public InteractAPIServletRESTfulGETGatewayWUP(){
         super();
+        this.inFlightTransactions = new ConcurrentHashMap<FDNToken, STATransaction>();
     }
 
-
-
-     public void registerActivityStart(UoW unitOfWork, WUPClusterModeEnum clusterMode, WUPSystemModeEnum systemMode){
+    public STATransaction registerActivityStart(UoW unitOfWork, WUPClusterModeEnum clusterMode, WUPSystemModeEnum systemMode){
         LOG.debug(".registerActivityStart(): Entry, unitOfWork --> {}", unitOfWork);
+        if((unitOfWork == null) || (unitOfWork.getInstanceID() == null)){
+            throw( new IllegalArgumentException(".registerActivityStart(): unitOfWork (or its instanceID) is null"));
+        }
+        STATransaction transaction = registerTransactionStart(unitOfWork, clusterMode, systemMode);
+        inFlightTransactions.put(unitOfWork.getInstanceID(), transaction);
+        LOG.debug(".registerActivityStart(): Exit, transaction --> {}", transaction);
+        return(transaction);
+    }
+
+    public STATransaction registerTransactionStart(UoW unitOfWork, WUPClusterModeEnum clusterMode, WUPSystemModeEnum systemMode){
+        LOG.debug(".registerTransactionStart(): Entry, unitOfWork --> {}", unitOfWork);
+        if(unitOfWork == null){
+            throw( new IllegalArgumentException(".registerTransactionStart(): unitOfWork is null"));
+        }
         ActivityID newActivityID = new ActivityID();
         newActivityID.setPresentWUPFunctionToken(this.getWUPFunctionToken());
         newActivityID.setPresentWUPIdentifier(this.getWupIdentifier());
-     }
+        NodeElementIdentifier wupNodeID = this.getWupNode().getNodeInstanceID();
+        WUPJobCard activityJobCard = new WUPJobCard(newActivityID, WUPActivityStatusEnum.WUP_ACTIVITY_STATUS_EXECUTING, WUPActivityStatusEnum.WUP_ACTIVITY_STATUS_EXECUTING, getTopologyServer().getConcurrencyMode(wupNodeID), getTopologyServer().getDeploymentResilienceMode(wupNodeID), PetasosClock.now());
+        STATransaction transaction = getServicesBroker().registerLightweightSTAWorkUnitActivity(activityJobCard, unitOfWork);
+        LOG.debug(".registerTransactionStart(): Exit, transaction --> {}", transaction);
+        return(transaction);
+    }
 
     public void registerActivityFinish(UoW unitOfWork){
         LOG.debug(".registerActivityFinish(): Entry, unitOfWork --> {}", unitOfWork);
+        if((unitOfWork == null) || (unitOfWork.getInstanceID() == null)){
+            throw( new IllegalArgumentException(".registerActivityFinish(): unitOfWork (or its instanceID) is null"));
+        }
+        STATransaction transaction = inFlightTransactions.remove(unitOfWork.getInstanceID());
+        if(transaction == null){
+            LOG.warn(".registerActivityFinish(): No activity was registered (via registerActivityStart()) for unitOfWork --> {}", unitOfWork);
+            return;
+        }
+        registerActivityFinish(transaction);
+    }
+
+    public void registerActivityFinish(STATransaction transaction){
+        LOG.debug(".registerActivityFinish(): Entry, transaction --> {}", transaction);
+        if((transaction == null) || (transaction.getUnitOfWork() == null)){
+            throw( new IllegalArgumentException(".registerActivityFinish(): transaction (or its unitOfWork) is null"));
+        }
+        // captured now - a pooled transaction is reset once the broker has been notified
+        FDNToken unitOfWorkInstanceID = transaction.getUnitOfWork().getInstanceID();
+        try {
+            completeTransaction(transaction);
+        } finally {
+            // a transaction started via registerActivityStart() is no longer in-flight, however it was completed
+            if(unitOfWorkInstanceID != null){
+                inFlightTransactions.remove(unitOfWorkInstanceID, transaction);
+            }
+        }
+        LOG.debug(".registerActivityFinish(): Exit");
+    }
+
+    private void completeTransaction(STATransaction transaction){
+        // an outcome that was never set is treated as a failure
+        if(transaction.getUnitOfWork().getProcessingOutcome() == null){
+            LOG.debug(".completeTransaction(): No processing outcome, registering a failure");
+            registerActivityFailure(transaction);
+            return;
+        }
+        switch(transaction.getUnitOfWork().getProcessingOutcome()){
+            case UOW_OUTCOME_SUCCESS:{
+                transaction.getJobCard().setCurrentStatus(WUPActivityStatusEnum.WUP_ACTIVITY_STATUS_FINISHED);
+                getServicesBroker().notifyFinishOfWorkUnitActivity(transaction);
+                break;
+            }
+            default:{
+                registerActivityFailure(transaction);
+            }
+        }
+    }
 
+    private void registerActivityFailure(STATransaction transaction){
+        transaction.getJobCard().setCurrentStatus(WUPActivityStatusEnum.WUP_ACTIVITY_STATUS_FAILED);
+        getServicesBroker().notifyFailureOfWorkUnitActivity(transaction);
     }
 }
@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.core.common.metrics;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author Mark A. Hunter
+ * @since 2020-08-01
+ */
+public class PetasosLatencyHistogramTest {
+
+    @Test
+    public void smallValuesHaveTheirOwnBucket() {
+        for (long value = 0; value < 32; value += 1) {
+            assertEquals(value, PetasosLatencyHistogram.bucketIndex(value));
+            assertEquals(value, PetasosLatencyHistogram.bucketUpperBound((int) value));
+        }
+    }
+
+    @Test
+    public void bucketIndexIsContiguousAcrossMagnitudes() {
+        assertEquals(32, PetasosLatencyHistogram.bucketIndex(32));
+        assertEquals(63, PetasosLatencyHistogram.bucketIndex(63));
+        assertEquals(64, PetasosLatencyHistogram.bucketIndex(64));
+        assertEquals(64, PetasosLatencyHistogram.bucketIndex(65));
+        assertEquals(65, PetasosLatencyHistogram.bucketIndex(66));
+    }
+
+    @Test
+    public void eachValueFallsWithinItsBucketBounds() {
+        for (long value = 1; value < PetasosLatencyHistogram.MAX_TRACKABLE_NANOS; value = (value * 3) / 2 + 1) {
+            int index = PetasosLatencyHistogram.bucketIndex(value);
+            long upperBound = PetasosLatencyHistogram.bucketUpperBound(index);
+            long lowerBound = PetasosLatencyHistogram.bucketUpperBound(index - 1) + 1;
+            assertTrue(value <= upperBound, "value " + value + " above its bucket's upper bound " + upperBound);
+            assertTrue(value >= lowerBound, "value " + value + " below its bucket's lower bound " + lowerBound);
+            // the bucket width bounds the relative error at 1/32
+            assertTrue((upperBound - lowerBound) * 32 <= value, "bucket too wide for value " + value);
+        }
+    }
+
+    @Test
+    public void maxTrackableValueMapsToTheLastBucket() {
+        int lastIndex = PetasosLatencyHistogram.bucketIndex(PetasosLatencyHistogram.MAX_TRACKABLE_NANOS);
+        assertEquals(PetasosLatencyHistogram.MAX_TRACKABLE_NANOS, PetasosLatencyHistogram.bucketUpperBound(lastIndex));
+        assertEquals(lastIndex, PetasosLatencyHistogram.bucketIndex(PetasosLatencyHistogram.MAX_TRACKABLE_NANOS - 1));
+    }
+}
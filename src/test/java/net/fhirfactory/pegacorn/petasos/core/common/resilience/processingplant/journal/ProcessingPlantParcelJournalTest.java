@@ -0,0 +1,244 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.core.common.resilience.processingplant.journal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import net.fhirfactory.pegacorn.common.model.FDN;
+import net.fhirfactory.pegacorn.common.model.RDN;
+import net.fhirfactory.pegacorn.petasos.model.pathway.ActivityID;
+import net.fhirfactory.pegacorn.petasos.model.resilience.activitymatrix.moa.EpisodeIdentifier;
+import net.fhirfactory.pegacorn.petasos.model.resilience.parcel.ResilienceParcel;
+import net.fhirfactory.pegacorn.petasos.model.resilience.parcel.ResilienceParcelIdentifier;
+import net.fhirfactory.pegacorn.petasos.model.resilience.parcel.ResilienceParcelProcessingStatusEnum;
+import net.fhirfactory.pegacorn.petasos.model.wup.WUPFunctionToken;
+
+/**
+ * @author Mark A. Hunter
+ * @since 2020-08-01
+ */
+public class ProcessingPlantParcelJournalTest {
+    private Path journalDirectory;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        journalDirectory = Files.createTempDirectory("petasos-journal-test");
+        System.setProperty("petasos.journal.directory", journalDirectory.toString());
+        System.setProperty("petasos.journal.segment.size", Integer.toString(64 * 1024));
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        System.clearProperty("petasos.journal.directory");
+        System.clearProperty("petasos.journal.segment.size");
+        try (Stream<Path> journalFiles = Files.walk(journalDirectory)) {
+            journalFiles.sorted(Comparator.reverseOrder()).forEach(journalFile -> journalFile.toFile().delete());
+        }
+    }
+
+    @Test
+    public void replayReturnsJournalledRecordsInOrder() {
+        ProcessingPlantParcelJournal journal = startJournal();
+        journal.journalWUAStatus(activityID("first"), ResilienceParcelProcessingStatusEnum.PARCEL_STATUS_ACTIVE);
+        journal.journalParcelRemoval(parcelID("second"));
+        journal.journalFinalisationStateRemoval(parcelID("third"));
+        journal.stop();
+
+        List<String> replayedRecords = replay();
+
+        assertEquals(Arrays.asList("status:" + parcelID("first") + ":PARCEL_STATUS_ACTIVE", "removed:" + parcelID("second"),
+                "finalisationRemoved:" + parcelID("third")), replayedRecords);
+    }
+
+    @Test
+    public void replayStopsAtTornRecord() throws IOException {
+        ProcessingPlantParcelJournal journal = startJournal();
+        journal.journalParcelRemoval(parcelID("complete"));
+        journal.journalParcelRemoval(parcelID("torn"));
+        journal.stop();
+        // the checksum of the last record never reached the disk
+        ByteBuffer missingChecksum = ByteBuffer.allocate(4);
+        overwriteRecord(1, -4, missingChecksum);
+
+        List<String> replayedRecords = replay();
+
+        assertEquals(Collections.singletonList("removed:" + parcelID("complete")), replayedRecords);
+    }
+
+    @Test
+    public void replayIgnoresRecordsAfterCorruptRecord() throws IOException {
+        ProcessingPlantParcelJournal journal = startJournal();
+        journal.journalParcelRemoval(parcelID("corrupt"));
+        journal.journalParcelRemoval(parcelID("following"));
+        journal.stop();
+        // overwrite the start of the key, so the checksum no longer matches
+        ByteBuffer corruptKey = ByteBuffer.wrap(new byte[]{(byte) 0xFF, (byte) 0xFF});
+        overwriteRecord(0, 9, corruptKey);
+
+        List<String> replayedRecords = replay();
+
+        assertEquals(Collections.emptyList(), replayedRecords);
+    }
+
+    @Test
+    public void compactionKeepsRemovalBeforeReRegistration() {
+        ProcessingPlantParcelJournal journal = startJournal();
+        journal.journalWUAStatus(activityID("reused"), ResilienceParcelProcessingStatusEnum.PARCEL_STATUS_ACTIVE);
+        journal.journalParcelRemoval(parcelID("removed"));
+        // the first compaction only rolls the segment (a single closed segment is not compacted)
+        journal.compact();
+        journal.journalParcelRemoval(parcelID("reused"));
+        journal.journalWUAStatus(activityID("reused"), ResilienceParcelProcessingStatusEnum.PARCEL_STATUS_FINISHED);
+        journal.journalWUAStatus(activityID("other"), ResilienceParcelProcessingStatusEnum.PARCEL_STATUS_ACTIVE);
+        journal.compact();
+        journal.stop();
+
+        List<String> replayedRecords = replay();
+
+        assertEquals(Arrays.asList("removed:" + parcelID("removed"), "removed:" + parcelID("reused"),
+                "status:" + parcelID("reused") + ":PARCEL_STATUS_FINISHED", "status:" + parcelID("other") + ":PARCEL_STATUS_ACTIVE"), replayedRecords);
+    }
+
+    @Test
+    public void replayAppliesTailOverSnapshot() {
+        ProcessingPlantParcelJournal journal = startJournal();
+        journal.journalWUAStatus(activityID("superseded"), ResilienceParcelProcessingStatusEnum.PARCEL_STATUS_ACTIVE);
+        journal.registerSnapshotSource(snapshot -> snapshot.addWUAStatus(activityID("snapshotted"), ResilienceParcelProcessingStatusEnum.PARCEL_STATUS_ACTIVE));
+        journal.snapshot();
+        journal.journalParcelRemoval(parcelID("snapshotted"));
+        journal.stop();
+
+        List<String> replayedRecords = replay();
+
+        // the record before the snapshot epoch is superseded by the snapshot, the tail is replayed over it
+        assertEquals(Arrays.asList("status:" + parcelID("snapshotted") + ":PARCEL_STATUS_ACTIVE", "removed:" + parcelID("snapshotted")), replayedRecords);
+    }
+
+    private ProcessingPlantParcelJournal startJournal() {
+        ProcessingPlantParcelJournal journal = new ProcessingPlantParcelJournal();
+        journal.start();
+        return (journal);
+    }
+
+    private List<String> replay() {
+        ProcessingPlantParcelJournal journal = startJournal();
+        List<String> replayedRecords = new ArrayList<String>();
+        try {
+            journal.replay(new ProcessingPlantJournalReplayHandler() {
+                @Override
+                public void replayParcel(ResilienceParcel parcel) {
+                    replayedRecords.add("parcel:" + parcel.getIdentifier());
+                }
+
+                @Override
+                public void replayParcelStatus(ResilienceParcelIdentifier parcelID, ProcessingPlantJournalParcelStatus parcelStatus) {
+                    replayedRecords.add("parcelStatus:" + parcelID + ":" + parcelStatus.getProcessingStatus());
+                }
+
+                @Override
+                public void replayParcelRemoval(ResilienceParcelIdentifier parcelID) {
+                    replayedRecords.add("removed:" + parcelID);
+                }
+
+                @Override
+                public void replayWUAStatus(ActivityID activityID, ResilienceParcelProcessingStatusEnum status) {
+                    replayedRecords.add("status:" + activityID.getPresentParcelIdentifier() + ":" + status);
+                }
+
+                @Override
+                public void replayDownstreamWUPInterest(ResilienceParcelIdentifier upstreamParcelID, EpisodeIdentifier wuaEpisodeID, WUPFunctionToken downstreamWUPFunctionID) {
+                    replayedRecords.add("interest:" + upstreamParcelID);
+                }
+
+                @Override
+                public void replayDownstreamEpisodeID(ResilienceParcelIdentifier upstreamParcelID, EpisodeIdentifier wuaEpisodeID, WUPFunctionToken downstreamWUPFunctionID, EpisodeIdentifier downstreamEpisodeID) {
+                    replayedRecords.add("episode:" + upstreamParcelID);
+                }
+
+                @Override
+                public void replayFinalisationStateRemoval(ResilienceParcelIdentifier upstreamParcelID) {
+                    replayedRecords.add("finalisationRemoved:" + upstreamParcelID);
+                }
+            });
+        } finally {
+            journal.stop();
+        }
+        return (replayedRecords);
+    }
+
+    /**
+     * Overwrites part of a record in the latest segment file - at the given offset from the start of the record or,
+     * if negative, from its end.
+     */
+    private void overwriteRecord(int recordIndex, int recordOffset, ByteBuffer bytes) throws IOException {
+        List<Path> segmentFiles;
+        try (Stream<Path> journalFiles = Files.list(journalDirectory)) {
+            segmentFiles = journalFiles.filter(journalFile -> journalFile.getFileName().toString().startsWith("journal-"))
+                    .sorted().collect(Collectors.toList());
+        }
+        try (FileChannel segmentChannel = FileChannel.open(segmentFiles.get(segmentFiles.size() - 1), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer recordLength = ByteBuffer.allocate(4);
+            long recordStart = 0;
+            for (int counter = 0; counter <= recordIndex; counter += 1) {
+                recordLength.clear();
+                segmentChannel.read(recordLength, recordStart);
+                long recordEnd = recordStart + 4 + recordLength.getInt(0);
+                if (counter < recordIndex) {
+                    recordStart = recordEnd;
+                } else {
+                    segmentChannel.write(bytes, (recordOffset < 0) ? (recordEnd + recordOffset) : (recordStart + recordOffset));
+                }
+            }
+        }
+    }
+
+    private static ResilienceParcelIdentifier parcelID(String parcelName) {
+        FDN parcelFDN = new FDN();
+        parcelFDN.appendRDN(new RDN("ProcessingPlant", "test"));
+        parcelFDN.appendRDN(new RDN("Parcel", parcelName));
+        return (new ResilienceParcelIdentifier(parcelFDN.getToken()));
+    }
+
+    private static ActivityID activityID(String parcelName) {
+        ActivityID activityID = new ActivityID();
+        activityID.setPresentParcelIdentifier(parcelID(parcelName));
+        return (activityID);
+    }
+}
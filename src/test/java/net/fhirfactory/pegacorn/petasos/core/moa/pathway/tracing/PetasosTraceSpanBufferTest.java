@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.core.moa.pathway.tracing;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author Mark A. Hunter
+ * @since 2020-08-01
+ */
+public class PetasosTraceSpanBufferTest {
+
+    @Test
+    public void capacityIsRoundedUpToAPowerOfTwo() {
+        PetasosTraceSpanBuffer buffer = new PetasosTraceSpanBuffer(Thread.currentThread(), 5);
+        for (int counter = 0; counter < 8; counter += 1) {
+            assertTrue(buffer.offer(span(counter)));
+        }
+        assertFalse(buffer.offer(span(8)));
+        assertEquals(1, buffer.getDroppedCount());
+    }
+
+    @Test
+    public void drainReturnsSpansInOfferOrder() {
+        PetasosTraceSpanBuffer buffer = new PetasosTraceSpanBuffer(Thread.currentThread(), 4);
+        List<PetasosTraceSpan> offeredSpans = new ArrayList<PetasosTraceSpan>();
+        for (int counter = 0; counter < 3; counter += 1) {
+            offeredSpans.add(span(counter));
+            buffer.offer(offeredSpans.get(counter));
+        }
+        List<PetasosTraceSpan> drainedSpans = new ArrayList<PetasosTraceSpan>();
+
+        assertEquals(3, buffer.drainTo(drainedSpans));
+        assertEquals(offeredSpans, drainedSpans);
+        assertTrue(buffer.isEmpty());
+        assertEquals(0, buffer.drainTo(drainedSpans));
+    }
+
+    @Test
+    public void drainReleasesSlotsAcrossTheWrap() {
+        PetasosTraceSpanBuffer buffer = new PetasosTraceSpanBuffer(Thread.currentThread(), 4);
+        List<PetasosTraceSpan> drainedSpans = new ArrayList<PetasosTraceSpan>();
+        for (int counter = 0; counter < 10; counter += 1) {
+            PetasosTraceSpan span = span(counter);
+            assertTrue(buffer.offer(span));
+            drainedSpans.clear();
+            assertEquals(1, buffer.drainTo(drainedSpans));
+            assertSame(span, drainedSpans.get(0));
+        }
+        for (int counter = 0; counter < 4; counter += 1) {
+            assertTrue(buffer.offer(span(counter)));
+        }
+        assertFalse(buffer.offer(span(4)));
+        assertEquals(1, buffer.getDroppedCount());
+    }
+
+    private static PetasosTraceSpan span(int counter) {
+        return (new PetasosTraceSpan("trace", "span-" + counter, null, "episode", "wup", 0L, 0L));
+    }
+}
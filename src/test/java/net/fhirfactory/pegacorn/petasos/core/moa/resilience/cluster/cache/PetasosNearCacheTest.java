@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.core.moa.resilience.cluster.cache;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author Mark A. Hunter
+ * @since 2020-08-01
+ */
+public class PetasosNearCacheTest {
+
+    private PetasosNearCache<String, StringBuilder> newNearCache(int maximumSize) {
+        return (new PetasosNearCache<String, StringBuilder>(maximumSize, value -> new StringBuilder(value)));
+    }
+
+    @Test
+    public void loadedValueIsServedAsACopy() {
+        PetasosNearCache<String, StringBuilder> nearCache = newNearCache(10);
+        StringBuilder loadedValue = new StringBuilder("parcel-1");
+        long version = nearCache.getVersion("key-1");
+
+        assertTrue(nearCache.putIfNotInvalidated("key-1", loadedValue, version));
+        StringBuilder cachedValue = nearCache.get("key-1");
+        assertEquals("parcel-1", cachedValue.toString());
+        assertNotSame(loadedValue, cachedValue);
+        assertEquals(1, nearCache.getHitCount());
+    }
+
+    @Test
+    public void invalidationOfAnotherKeyDoesNotDropALoad() {
+        PetasosNearCache<String, StringBuilder> nearCache = newNearCache(10);
+        nearCache.putIfNotInvalidated("key-2", new StringBuilder("parcel-2"), nearCache.getVersion("key-2"));
+        long version = nearCache.getVersion("key-1");
+        nearCache.invalidate("key-2");
+        nearCache.invalidate("key-3");
+
+        assertTrue(nearCache.putIfNotInvalidated("key-1", new StringBuilder("parcel-1"), version));
+        assertNull(nearCache.get("key-2"));
+        assertEquals(0, nearCache.getDroppedLoadCount());
+    }
+
+    @Test
+    public void invalidationOfTheKeyDropsTheLoad() {
+        PetasosNearCache<String, StringBuilder> nearCache = newNearCache(10);
+        long version = nearCache.getVersion("key-1");
+        nearCache.invalidate("key-1");
+
+        assertFalse(nearCache.putIfNotInvalidated("key-1", new StringBuilder("stale"), version));
+        assertNull(nearCache.get("key-1"));
+        assertEquals(1, nearCache.getDroppedLoadCount());
+    }
+
+    @Test
+    public void loadIsDroppedWhileAWriteIsPending() {
+        PetasosNearCache<String, StringBuilder> nearCache = newNearCache(10);
+        long writeVersion = nearCache.beginWrite("key-1");
+        long loadVersion = nearCache.getVersion("key-1");
+
+        assertFalse(nearCache.putIfNotInvalidated("key-1", new StringBuilder("stale"), loadVersion));
+        assertTrue(nearCache.completeWrite("key-1", new StringBuilder("written"), writeVersion, 0L));
+        assertEquals("written", nearCache.get("key-1").toString());
+    }
+
+    @Test
+    public void overlappingWritesLeaveTheKeyInvalidated() {
+        PetasosNearCache<String, StringBuilder> nearCache = newNearCache(10);
+        long firstWriteVersion = nearCache.beginWrite("key-1");
+        long secondWriteVersion = nearCache.beginWrite("key-1");
+
+        assertFalse(nearCache.completeWrite("key-1", new StringBuilder("second"), secondWriteVersion, 0L));
+        assertFalse(nearCache.completeWrite("key-1", new StringBuilder("first"), firstWriteVersion, 0L));
+        assertNull(nearCache.get("key-1"));
+        long loadVersion = nearCache.getVersion("key-1");
+        assertTrue(nearCache.putIfNotInvalidated("key-1", new StringBuilder("loaded"), loadVersion));
+    }
+
+    @Test
+    public void remoteInvalidationDuringAWriteLeavesTheKeyInvalidated() {
+        PetasosNearCache<String, StringBuilder> nearCache = newNearCache(10);
+        long writeVersion = nearCache.beginWrite("key-1");
+        nearCache.invalidate("key-1");
+
+        assertFalse(nearCache.completeWrite("key-1", new StringBuilder("written"), writeVersion, 0L));
+        assertNull(nearCache.get("key-1"));
+    }
+
+    @Test
+    public void evictionBoundsTheSize() {
+        PetasosNearCache<String, StringBuilder> nearCache = newNearCache(4);
+        for (int counter = 0; counter < 20; counter += 1) {
+            nearCache.get("hot");
+            String key = "key-" + counter;
+            nearCache.putIfNotInvalidated(key, new StringBuilder(key), nearCache.getVersion(key));
+            assertTrue(nearCache.getSize() <= 4);
+        }
+    }
+}
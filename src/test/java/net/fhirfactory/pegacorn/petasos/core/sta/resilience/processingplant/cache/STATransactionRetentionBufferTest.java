@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.core.sta.resilience.processingplant.cache;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+import net.fhirfactory.pegacorn.common.model.FDN;
+import net.fhirfactory.pegacorn.common.model.RDN;
+import net.fhirfactory.pegacorn.petasos.model.pathway.ActivityID;
+import net.fhirfactory.pegacorn.petasos.model.resilience.activitymatrix.moa.ParcelStatusElement;
+import net.fhirfactory.pegacorn.petasos.model.resilience.parcel.ResilienceParcelIdentifier;
+
+/**
+ * @author Mark A. Hunter
+ * @since 2020-08-01
+ */
+public class STATransactionRetentionBufferTest {
+    private static final long RETENTION_WINDOW = 60000L;
+
+    @Test
+    public void capacityMustBePositive() {
+        assertThrows(IllegalArgumentException.class, () -> new STATransactionRetentionBuffer(0, RETENTION_WINDOW));
+    }
+
+    @Test
+    public void findReturnsTheMostRecentElementForTheParcel() {
+        STATransactionRetentionBuffer buffer = new STATransactionRetentionBuffer(4, RETENTION_WINDOW);
+        ParcelStatusElement firstCompletion = statusElement("repeated");
+        ParcelStatusElement secondCompletion = statusElement("repeated");
+        buffer.record(firstCompletion);
+        buffer.record(statusElement("other"));
+        buffer.record(secondCompletion);
+
+        assertSame(secondCompletion, buffer.find(parcelID("repeated")));
+        assertNull(buffer.find(parcelID("unknown")));
+        assertNull(buffer.find(null));
+    }
+
+    @Test
+    public void wrappingOverwritesTheOldestElements() {
+        STATransactionRetentionBuffer buffer = new STATransactionRetentionBuffer(3, RETENTION_WINDOW);
+        ParcelStatusElement[] elements = new ParcelStatusElement[5];
+        for (int counter = 0; counter < elements.length; counter += 1) {
+            elements[counter] = statusElement("parcel-" + counter);
+            buffer.record(elements[counter]);
+        }
+
+        assertEquals(5, buffer.getRecordedCount());
+        assertNull(buffer.find(parcelID("parcel-0")));
+        assertNull(buffer.find(parcelID("parcel-1")));
+        assertSame(elements[2], buffer.find(parcelID("parcel-2")));
+        assertEquals(Arrays.asList(elements[4], elements[3], elements[2]), buffer.getRetainedElements());
+    }
+
+    @Test
+    public void elementsOutsideTheRetentionWindowAreIgnored() {
+        // a negative window places the cut-off in the future, so every element has already expired
+        STATransactionRetentionBuffer buffer = new STATransactionRetentionBuffer(4, -RETENTION_WINDOW);
+        buffer.record(statusElement("expired"));
+
+        assertNull(buffer.find(parcelID("expired")));
+        assertEquals(0, buffer.getRetainedElements().size());
+    }
+
+    @Test
+    public void nullElementsAreNotRecorded() {
+        STATransactionRetentionBuffer buffer = new STATransactionRetentionBuffer(2, RETENTION_WINDOW);
+        buffer.record(null);
+
+        assertEquals(0, buffer.getRecordedCount());
+    }
+
+    private static ParcelStatusElement statusElement(String parcelName) {
+        ActivityID activityID = new ActivityID();
+        activityID.setPresentParcelIdentifier(parcelID(parcelName));
+        return (new ParcelStatusElement(activityID));
+    }
+
+    private static ResilienceParcelIdentifier parcelID(String parcelName) {
+        FDN parcelFDN = new FDN();
+        parcelFDN.appendRDN(new RDN("ProcessingPlant", "test"));
+        parcelFDN.appendRDN(new RDN("Parcel", parcelName));
+        return (new ResilienceParcelIdentifier(parcelFDN.getToken()));
+    }
+}